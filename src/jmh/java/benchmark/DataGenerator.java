@@ -0,0 +1,91 @@
+package benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Builds benchmark databases of a given size and key depth. Key {@code i}
+ * lives under one of {@link #TOP_LEVEL_KEYS} top-level keys, so writers
+ * spread over the lock stripes of the in-memory engine.
+ */
+final class DataGenerator {
+    static final int TOP_LEVEL_KEYS = 64;
+    private static final Gson gson = new Gson();
+
+    private DataGenerator() {
+    }
+
+    /** Path of key {@code index}, {@code depth} levels deep. */
+    static String[] keyPath(int index, int depth) {
+        String[] keyPath = new String[depth];
+        if (depth == 1) {
+            keyPath[0] = "key" + index;
+            return keyPath;
+        }
+        keyPath[0] = "top" + index % TOP_LEVEL_KEYS;
+        for (int level = 1; level < depth - 1; level++) {
+            keyPath[level] = "level" + level;
+        }
+        keyPath[depth - 1] = "key" + index;
+        return keyPath;
+    }
+
+    static JsonArray keyArray(int index, int depth) {
+        JsonArray keyArray = new JsonArray();
+        for (String key : keyPath(index, depth)) {
+            keyArray.add(key);
+        }
+        return keyArray;
+    }
+
+    static JsonPrimitive value(int index, int valueBytes) {
+        StringBuilder value = new StringBuilder(valueBytes).append("value").append(index);
+        while (value.length() < valueBytes) {
+            value.append('x');
+        }
+        return new JsonPrimitive(value.toString());
+    }
+
+    static JsonObject database(int size, int depth, int valueBytes) {
+        JsonObject database = new JsonObject();
+        for (int i = 0; i < size; i++) {
+            String[] keyPath = keyPath(i, depth);
+            JsonObject parent = database;
+            for (int level = 0; level < keyPath.length - 1; level++) {
+                if (!parent.has(keyPath[level])) {
+                    parent.add(keyPath[level], new JsonObject());
+                }
+                parent = parent.getAsJsonObject(keyPath[level]);
+            }
+            parent.add(keyPath[keyPath.length - 1], value(i, valueBytes));
+        }
+        return database;
+    }
+
+    /** Creates a temp directory holding a {@code db.json} with {@code size} keys. */
+    static Path createDataDirectory(int size, int depth, int valueBytes) throws IOException {
+        Path directory = Files.createTempDirectory("jmh-db");
+        try (Writer writer = Files.newBufferedWriter(directory.resolve("db.json"), StandardCharsets.UTF_8)) {
+            gson.toJson(database(size, depth, valueBytes), writer);
+        }
+        return directory;
+    }
+
+    static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
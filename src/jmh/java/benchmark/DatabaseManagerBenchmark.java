@@ -0,0 +1,106 @@
+package benchmark;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.DatabaseManager;
+import server.DatabaseManagerInterface;
+import server.InMemoryDatabaseManager;
+import server.MappedDatabaseManager;
+import server.ServerConfig;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a single set, get and delete on each storage engine, by database
+ * size and key depth. Every trial runs in its own fork, so the file engine
+ * picks up the trial's {@code db.dir}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatabaseManagerBenchmark {
+    @Param({ServerConfig.ENGINE_FILE, ServerConfig.ENGINE_MEMORY, ServerConfig.ENGINE_MAPPED})
+    public String engine;
+
+    @Param({"100", "10000"})
+    public int size;
+
+    @Param({"1", "4"})
+    public int depth;
+
+    @Param({"32"})
+    public int valueBytes;
+
+    private Path directory;
+    private DatabaseManagerInterface databaseManager;
+    private String[][] keyPaths;
+    private JsonPrimitive[] values;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = DataGenerator.createDataDirectory(size, depth, valueBytes);
+        System.setProperty("db.dir", directory.toString());
+        if (ServerConfig.ENGINE_MEMORY.equals(engine)) {
+            databaseManager = new InMemoryDatabaseManager(directory);
+        } else if (ServerConfig.ENGINE_MAPPED.equals(engine)) {
+            databaseManager = new MappedDatabaseManager(directory);
+        } else {
+            databaseManager = new DatabaseManager();
+        }
+        keyPaths = new String[size][];
+        values = new JsonPrimitive[size];
+        for (int i = 0; i < size; i++) {
+            keyPaths[i] = DataGenerator.keyPath(i, depth);
+            values[i] = DataGenerator.value(i, valueBytes);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        databaseManager.close();
+        DataGenerator.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public JsonElement get() {
+        return databaseManager.get(keyPaths[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean set() {
+        int index = nextIndex();
+        return databaseManager.set(keyPaths[index], values[index]);
+    }
+
+    /** Deletes a key and writes it back, so the database keeps its size. */
+    @Benchmark
+    public boolean deleteAndRestore() {
+        int index = nextIndex();
+        boolean deleted = databaseManager.delete(keyPaths[index]);
+        return databaseManager.set(keyPaths[index], values[index]) && deleted;
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = index + 1 == size ? 0 : index + 1;
+        return index;
+    }
+}
@@ -0,0 +1,92 @@
+package benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.Command;
+import server.InMemoryDatabaseManager;
+import server.RequestDecoder;
+import server.RequestHandler;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse-to-serialize cost of one request: the request text is decoded, run
+ * through {@link RequestHandler#processCommand(Command)} and the response
+ * serialized. Runs on the in-memory engine so storage I/O stays out of it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestHandlerBenchmark {
+    private static final Gson gson = new Gson();
+    private static final int KEYS = 1000;
+
+    @Param({"1", "4"})
+    public int depth;
+
+    @Param({"32", "4096"})
+    public int valueBytes;
+
+    private Path directory;
+    private RequestHandler requestHandler;
+    private final RequestDecoder decoder = new RequestDecoder();
+    private String[] getRequests;
+    private String[] setRequests;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = DataGenerator.createDataDirectory(KEYS, depth, valueBytes);
+        requestHandler = new RequestHandler(new InMemoryDatabaseManager(directory));
+        getRequests = new String[KEYS];
+        setRequests = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            JsonObject request = new JsonObject();
+            request.addProperty("type", "get");
+            request.add("key", DataGenerator.keyArray(i, depth));
+            getRequests[i] = gson.toJson(request);
+            request.addProperty("type", "set");
+            request.add("value", DataGenerator.value(i, valueBytes));
+            setRequests[i] = gson.toJson(request);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        requestHandler.close();
+        DataGenerator.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public String get() {
+        return requestHandler.processCommand(decoder.decode(getRequests[nextIndex()]));
+    }
+
+    @Benchmark
+    public String set() {
+        return requestHandler.processCommand(decoder.decode(setRequests[nextIndex()]));
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = index + 1 == KEYS ? 0 : index + 1;
+        return index;
+    }
+}
@@ -0,0 +1,173 @@
+package benchmark;
+
+import client.ClientConnection;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.ConnectionManager;
+import server.InMemoryDatabaseManager;
+import server.NioServer;
+import server.RequestHandler;
+import server.ServerConfig;
+import server.ServerMain;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end round trip over a socket: each benchmark thread keeps one
+ * connection open and sends one request per invocation. Run with
+ * {@code -t <threads>} to add concurrent clients.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SocketBenchmark {
+    private static final Gson gson = new Gson();
+    private static final int KEYS = 1000;
+    private static final int DEPTH = 2;
+
+    @Param({ServerConfig.SERVER_BLOCKING, ServerConfig.SERVER_NIO})
+    public String server;
+
+    @Param({"1", "2"})
+    public int protocol;
+
+    @Param({"32"})
+    public int valueBytes;
+
+    private Path directory;
+    private ExecutorService executor;
+    private ServerMain serverMain;
+    private NioServer nioServer;
+    private RequestHandler nioRequestHandler;
+    private ConnectionManager connectionManager;
+    private int port;
+    private String[] getRequests;
+    private String[] setRequests;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = DataGenerator.createDataDirectory(KEYS, DEPTH, valueBytes);
+        System.setProperty("db.engine", ServerConfig.ENGINE_MEMORY);
+        System.setProperty("db.dir", directory.toString());
+        executor = Executors.newFixedThreadPool(ServerConfig.workerThreads());
+        if (ServerConfig.SERVER_NIO.equals(server)) {
+            startNioServer();
+        } else {
+            startBlockingServer();
+        }
+        getRequests = new String[KEYS];
+        setRequests = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            JsonObject request = new JsonObject();
+            request.addProperty("type", "get");
+            request.add("key", DataGenerator.keyArray(i, DEPTH));
+            getRequests[i] = gson.toJson(request);
+            request.addProperty("type", "set");
+            request.add("value", DataGenerator.value(i, valueBytes));
+            setRequests[i] = gson.toJson(request);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (nioServer != null) {
+            nioServer.close();
+            executor.shutdown();
+            nioRequestHandler.close();
+        } else {
+            connectionManager.shutdownServer();
+        }
+        DataGenerator.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public String get(Client client) throws IOException {
+        return client.connection.send(getRequests[client.nextIndex()]);
+    }
+
+    @Benchmark
+    public String set(Client client) throws IOException {
+        return client.connection.send(setRequests[client.nextIndex()]);
+    }
+
+    /** One connection per benchmark thread, opened after the server is up. */
+    @State(Scope.Thread)
+    public static class Client {
+        ClientConnection connection;
+        private int next;
+
+        @Setup
+        public void setUp(SocketBenchmark benchmark) throws IOException {
+            connection = new ClientConnection("localhost", benchmark.port, benchmark.protocol);
+            next = (int) (Thread.currentThread().getId() * 7919 % KEYS);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            connection.send("{\"type\":\"exit\"}");
+            connection.close();
+        }
+
+        int nextIndex() {
+            int index = next;
+            next = index + 1 == KEYS ? 0 : index + 1;
+            return index;
+        }
+    }
+
+    private void startBlockingServer() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        port = serverSocket.getLocalPort();
+        connectionManager = new ConnectionManager(executor);
+        connectionManager.setServerSocket(serverSocket);
+        serverMain = new ServerMain(serverSocket, executor, connectionManager);
+        Thread acceptor = new Thread(() -> {
+            try {
+                serverMain.startServer();
+            } catch (IOException e) {
+                // Socket closed in tearDown
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void startNioServer() throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress("localhost", 0));
+        port = channel.socket().getLocalPort();
+        nioRequestHandler = new RequestHandler(new InMemoryDatabaseManager(directory));
+        nioServer = new NioServer(channel, executor, nioRequestHandler, 1);
+        Thread acceptor = new Thread(() -> {
+            try {
+                nioServer.serve();
+            } catch (IOException e) {
+                // Channel closed in tearDown
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+}
@@ -0,0 +1,102 @@
+package client;
+
+import server.FrameReader;
+import server.FrameWriter;
+import server.Protocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * A socket to the server that can carry any number of request/response
+ * exchanges. Version 2 framing is requested by default; a server that does
+ * not answer the hello gets a fresh version 1 connection. Asking for version
+ * 3 gets compressed responses if the server agrees, and version 2 otherwise.
+ */
+public class ClientConnection implements Closeable {
+    private static final int MAX_RESPONSE_BYTES = Integer.MAX_VALUE;
+
+    private Socket socket;
+    private DataOutputStream output;
+    private DataInputStream input;
+    private FrameReader frames;
+    private int version = Protocol.VERSION_LEGACY;
+
+    public ClientConnection(String address, int port) throws IOException {
+        this(address, port, Protocol.VERSION_FRAMED);
+    }
+
+    public ClientConnection(String address, int port, int protocolVersion) throws IOException {
+        connect(address, port);
+        if (protocolVersion >= Protocol.VERSION_FRAMED) {
+            version = negotiate(protocolVersion);
+            if (version != Protocol.VERSION_LEGACY) {
+                frames = new FrameReader(input, MAX_RESPONSE_BYTES);
+            } else {
+                socket.close();
+                connect(address, port);
+            }
+        }
+    }
+
+    public String send(String message) throws IOException {
+        write(message);
+        return receive();
+    }
+
+    /**
+     * Sends {@code message} without waiting for the response, so several
+     * requests can be in flight; the server answers them in order.
+     */
+    public void write(String message) throws IOException {
+        if (frames == null) {
+            output.writeUTF(message);
+            output.flush();
+            return;
+        }
+        try (FrameWriter request = new FrameWriter(output)) {
+            request.write(message);
+        }
+    }
+
+    /** Reads the response to the oldest request still in flight. */
+    public String receive() throws IOException {
+        return frames != null ? frames.read() : input.readUTF();
+    }
+
+    public int protocolVersion() {
+        return version;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private void connect(String address, int port) throws IOException {
+        socket = new Socket(InetAddress.getByName(address), port);
+        socket.setTcpNoDelay(true);
+        output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    }
+
+    /** Sends the hello for {@code requested} and returns the version the server granted. */
+    private int negotiate(int requested) throws IOException {
+        output.write(Protocol.hello(requested));
+        output.flush();
+        byte[] reply = new byte[Protocol.hello().length];
+        try {
+            input.readFully(reply);
+        } catch (EOFException e) {
+            return Protocol.VERSION_LEGACY;  // Pre-version-2 server dropped the connection
+        }
+        return Protocol.versionOf(reply);
+    }
+}
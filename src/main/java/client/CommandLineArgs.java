@@ -1,21 +1,73 @@
 package client;
 
 import com.beust.jcommander.Parameter;
+import server.Protocol;
 
 public class CommandLineArgs {
 
-    @Parameter(names = "-t", description = "Type of request (get, set, delete)")
+    @Parameter(names = "-t", description = "Type of request (get, set, delete, cas, incr, append, merge, scan, batch, txn, keys, stats, exit)")
     private String type;
 
     @Parameter(names = "-k", description = "key of args")
     private String key;
 
-    @Parameter(names = "-v", description = "Value of args")
+    @Parameter(names = "-v", description = "Value of args; JSON for incr and merge")
     private String value;
 
+    @Parameter(names = "-ttl", description = "Milliseconds until a set key expires; it never does if not set")
+    private long ttl;
+
+    @Parameter(names = "-expected", description = "Value a cas expects the key to hold")
+    private String expected;
+
+    @Parameter(names = "-version", description = "Version a cas expects the key's value to have, as a versioned get answered")
+    private String version;
+
+    @Parameter(names = "-limit", description = "Most entries a scan returns; the server default if not set")
+    private int limit;
+
+    @Parameter(names = "-cursor", description = "Cursor from the previous scan page, to fetch the next one")
+    private String cursor;
+
     @Parameter(names = "-in", description = "Input file containing requests")
     private String inputFile;
 
+    @Parameter(names = "-keepAlive", description = "Send all requests over one connection")
+    private boolean keepAlive;
+
+    @Parameter(names = "-pipeline", description = "Replay -in over one connection with up to this many requests in flight (single server only)")
+    private int pipeline;
+
+    @Parameter(names = "-load", description = "Generate load against the server instead of sending one request")
+    private boolean load;
+
+    @Parameter(names = "-concurrency", description = "Connections used by -load, each on its own thread")
+    private int concurrency = 8;
+
+    @Parameter(names = "-duration", description = "Seconds -load runs for, unless -requests is set")
+    private int duration = 10;
+
+    @Parameter(names = "-requests", description = "Requests -load sends in total; 0 runs for -duration")
+    private long requests;
+
+    @Parameter(names = "-readPercent", description = "Share of gets in -load, the rest are sets")
+    private int readPercent = 90;
+
+    @Parameter(names = "-keySpace", description = "Number of distinct keys -load uses")
+    private int keySpace = 10_000;
+
+    @Parameter(names = "-valueSize", description = "Length of the values -load sets")
+    private int valueSize = 100;
+
+    @Parameter(names = "-shards", description = "Servers to route requests to by top-level key, as host:port,host:port")
+    private String shards;
+
+    @Parameter(names = "-rebalance", description = "Move keys from the -shards servers to their owners under this new shard list")
+    private String rebalance;
+
+    @Parameter(names = "-protocol", description = "Wire protocol version (1 = writeUTF, 2 = length-prefixed UTF-8, 3 = 2 with compressed large responses)")
+    private int protocol = Protocol.VERSION_FRAMED;
+
 
     public void setInputFile(String inputFile) {
         this.inputFile = inputFile;
@@ -41,6 +93,142 @@ public class CommandLineArgs {
         return inputFile;
     }
 
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public int getPipeline() {
+        return pipeline;
+    }
+
+    public void setPipeline(int pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    public boolean isLoad() {
+        return load;
+    }
+
+    public void setLoad(boolean load) {
+        this.load = load;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public int getDuration() {
+        return duration;
+    }
+
+    public void setDuration(int duration) {
+        this.duration = duration;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public void setRequests(long requests) {
+        this.requests = requests;
+    }
+
+    public int getReadPercent() {
+        return readPercent;
+    }
+
+    public void setReadPercent(int readPercent) {
+        this.readPercent = readPercent;
+    }
+
+    public int getKeySpace() {
+        return keySpace;
+    }
+
+    public void setKeySpace(int keySpace) {
+        this.keySpace = keySpace;
+    }
+
+    public int getValueSize() {
+        return valueSize;
+    }
+
+    public void setValueSize(int valueSize) {
+        this.valueSize = valueSize;
+    }
+
+    public String getShards() {
+        return shards;
+    }
+
+    public void setShards(String shards) {
+        this.shards = shards;
+    }
+
+    public String getRebalance() {
+        return rebalance;
+    }
+
+    public void setRebalance(String rebalance) {
+        this.rebalance = rebalance;
+    }
+
+    public String getExpected() {
+        return expected;
+    }
+
+    public void setExpected(String expected) {
+        this.expected = expected;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public int getProtocol() {
+        return protocol;
+    }
+
+    public void setProtocol(int protocol) {
+        this.protocol = protocol;
+    }
+
     public void setKey(String key) {
         this.key = key;
     }
@@ -0,0 +1,126 @@
+package client;
+
+import server.Constants;
+import server.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives a running server from one JVM: {@code concurrency} threads, each
+ * with its own connection, send gets and sets on random keys of a fixed key
+ * space back to back, for a duration or until a request count is reached.
+ * Latency is measured per request, from sending it to reading the response.
+ * <p>
+ * Keys are {@code key0} to {@code key<keySpace - 1>}. Gets of keys no set has
+ * written yet are answered with "No such key" and reported as misses. Given a
+ * {@link ShardRing}, each thread keeps a connection to every shard and sends
+ * each request to the shard that owns its key.
+ */
+public class LoadGenerator {
+    private final ShardRing ring;
+    private final int protocol;
+    private final int concurrency;
+    private final long durationMillis;
+    private final long requests;
+    private final int readPercent;
+    private final int keySpace;
+    private final String value;
+
+    public LoadGenerator(String address, int port, CommandLineArgs args) {
+        this(new ShardRing(List.of(new ShardRing.Shard(address, port))), args);
+    }
+
+    public LoadGenerator(ShardRing ring, CommandLineArgs args) {
+        this.ring = ring;
+        this.protocol = args.getProtocol();
+        this.concurrency = args.getConcurrency();
+        this.durationMillis = TimeUnit.SECONDS.toMillis(args.getDuration());
+        this.requests = args.getRequests();
+        this.readPercent = args.getReadPercent();
+        this.keySpace = args.getKeySpace();
+        this.value = "v".repeat(args.getValueSize());
+    }
+
+    /** Totals of one run. */
+    public static final class Result {
+        final LatencyHistogram reads = new LatencyHistogram();
+        final LatencyHistogram writes = new LatencyHistogram();
+        final LongAdder misses = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        long elapsedNanos;
+
+        public long requests() {
+            return reads.count() + writes.count();
+        }
+
+        public double throughput() {
+            return elapsedNanos == 0 ? 0 : requests() * 1e9 / elapsedNanos;
+        }
+
+        public void print(PrintStream out) {
+            out.printf("Requests: %d in %.1f s, %.0f req/s, %d errors%n",
+                    requests(), elapsedNanos / 1e9, throughput(), errors.sum());
+            print(out, "Gets", reads);
+            out.printf("  misses: %d%n", misses.sum());
+            print(out, "Sets", writes);
+        }
+
+        private static void print(PrintStream out, String name, LatencyHistogram latency) {
+            out.printf("%s: %d, p50 %.1f us, p99 %.1f us, p999 %.1f us%n", name, latency.count(),
+                    latency.percentile(50) / 1000.0, latency.percentile(99) / 1000.0,
+                    latency.percentile(99.9) / 1000.0);
+        }
+    }
+
+    public Result run() throws InterruptedException {
+        Result result = new Result();
+        // Requests left to send when a count is given
+        AtomicLong remaining = new AtomicLong(requests > 0 ? requests : Long.MAX_VALUE);
+        long start = System.nanoTime();
+        long deadline = requests > 0 ? Long.MAX_VALUE : start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        List<Thread> workers = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            Thread worker = new Thread(() -> drive(result, remaining, deadline), "load-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private void drive(Result result, AtomicLong remaining, long deadline) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try (ShardedClient client = new ShardedClient(ring, protocol)) {
+            while (System.nanoTime() < deadline && remaining.getAndDecrement() > 0) {
+                String key = "key" + random.nextInt(keySpace);
+                boolean read = random.nextInt(100) < readPercent;
+                String message = read
+                        ? "{\"type\":\"get\",\"key\":\"" + key + "\"}"
+                        : "{\"type\":\"set\",\"key\":\"" + key + "\",\"value\":\"" + value + "\"}";
+                long sent = System.nanoTime();
+                String response;
+                try {
+                    // Retried once on a fresh connection, as the server closes them at its request limit
+                    response = client.sendTo(ring.shardFor(key), message);
+                } catch (IOException e) {
+                    result.errors.increment();
+                    continue;
+                }
+                (read ? result.reads : result.writes).recordSince(sent);
+                if (read && response.contains(Constants.REASON_NO_SUCH_KEY)) {
+                    result.misses.increment();
+                }
+            }
+        }
+    }
+}
@@ -3,20 +3,32 @@ package client;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
 
 import java.io.*;
-import java.net.InetAddress;
-import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
 
 import static server.Constants.*;
 
 public class Main {
 
     final CommandLineArgs cmdArgs = new CommandLineArgs();
-    private static final Gson gson = new Gson();
+    // Keeps null members, which a merge value uses to remove keys
+    private static final Gson gson = new GsonBuilder().serializeNulls().create();
     private static final String localhost = "localhost";
     private static final int port = 34567;
+    private ClientConnection connection;
+    // Set when -shards is given; every request is then routed by its top-level key
+    private ShardedClient sharded;
+    // Leave the same data and get the same answer if the server runs them twice
+    private static final Set<String> IDEMPOTENT_TYPES = Set.of(TYPE_GET, TYPE_SET, TYPE_KEYS, TYPE_STATS);
 
 
     public static void main(String[] args) {
@@ -40,16 +52,36 @@ public class Main {
 
     public void run(){
 
-
+        if (cmdArgs.getRebalance() != null) {
+            rebalance();
+            return;
+        }
+        if (cmdArgs.getShards() != null) {
+            try {
+                sharded = new ShardedClient(ShardRing.parse(cmdArgs.getShards()), cmdArgs.getProtocol());
+            } catch (IllegalArgumentException e) {
+                System.out.println("Error parsing -shards: " + e.getMessage());
+                return;
+            }
+        }
+        if (cmdArgs.isLoad()) {
+            generateLoad(localhost, port);
+            return;
+        }
         if (cmdArgs.getInputFile() != null)
             handleFileInput(localhost, port, cmdArgs.getInputFile());
         else
             handleSingleRequest(localhost, port);
 
+        closeConnection();
     }
 
     void handleFileInput(String address, int port, String inputFile) {
         try (BufferedReader reader = new BufferedReader(new FileReader(getClass().getClassLoader().getResource(inputFile).getFile()))) {
+            if (cmdArgs.getPipeline() > 0 && sharded == null) {
+                replayPipelined(address, port, reader, cmdArgs.getPipeline());
+                return;
+            }
             String line;
             while ((line = reader.readLine()) != null) {
                 String message = line.trim();
@@ -62,22 +94,122 @@ public class Main {
         }
     }
 
+    /**
+     * Sends every line of {@code reader} over one connection, with up to
+     * {@code depth} requests in flight, and prints each exchange in input
+     * order. If the server closes the connection (at its request limit, say),
+     * the requests still unanswered are sent again on a new one, but only if
+     * running each twice does no harm: the server may have run some of them
+     * before the connection failed. Otherwise the replay stops and lists them.
+     * <p>
+     * Requests in flight sit in the socket buffers, so {@code depth} times the
+     * longest line should stay well below their size.
+     */
+    void replayPipelined(String address, int port, BufferedReader reader, int depth) throws IOException {
+        Deque<String> inFlight = new ArrayDeque<>(depth);
+        ClientConnection pipeline = new ClientConnection(address, port, cmdArgs.getProtocol());
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String message = line.trim();
+                if (message.isEmpty()) {
+                    continue;
+                }
+                if (inFlight.size() >= depth) {
+                    pipeline = receiveNext(pipeline, inFlight, address, port);
+                }
+                inFlight.add(message);
+                try {
+                    pipeline.write(message);
+                } catch (IOException e) {
+                    // Closed by the server; the answers it did send are read before reconnecting
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                pipeline = receiveNext(pipeline, inFlight, address, port);
+            }
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    private ClientConnection receiveNext(ClientConnection pipeline, Deque<String> inFlight,
+                                         String address, int port) throws IOException {
+        String response;
+        try {
+            response = pipeline.receive();
+        } catch (IOException e) {
+            pipeline.close();
+            if (!inFlight.stream().allMatch(Main::isIdempotent)) {
+                for (String message : inFlight) {
+                    System.err.println("Not answered: " + message);
+                }
+                throw new IOException("Connection lost with requests that are not safe to send again", e);
+            }
+            pipeline = new ClientConnection(address, port, cmdArgs.getProtocol());
+            for (String message : inFlight) {
+                pipeline.write(message);
+            }
+            response = pipeline.receive();  // A fresh connection failing as well is an error
+        }
+        System.out.println("Sent: " + inFlight.poll());
+        System.out.println("Received: " + response);
+        return pipeline;
+    }
+
+    private static boolean isIdempotent(String message) {
+        try {
+            JsonElement type = JsonParser.parseString(message).getAsJsonObject().get(KEY_TYPE);
+            return type != null && type.isJsonPrimitive() && IDEMPOTENT_TYPES.contains(type.getAsString());
+        } catch (JsonParseException | IllegalStateException e) {
+            return false;
+        }
+    }
+
+    void generateLoad(String address, int port) {
+        try {
+            LoadGenerator generator = sharded != null
+                    ? new LoadGenerator(sharded.ring(), cmdArgs)
+                    : new LoadGenerator(address, port, cmdArgs);
+            generator.run().print(System.out);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Moves keys from the -shards servers to where the -rebalance list places them. */
+    void rebalance() {
+        if (cmdArgs.getShards() == null) {
+            System.out.println("-rebalance needs the current shard list in -shards");
+            return;
+        }
+        try {
+            Rebalancer rebalancer = new Rebalancer(ShardRing.parse(cmdArgs.getShards()),
+                    ShardRing.parse(cmdArgs.getRebalance()), cmdArgs.getProtocol());
+            System.out.println("Moved " + rebalancer.run(System.out) + " keys");
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error parsing shard list: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Rebalance stopped: " + e.getMessage());
+        }
+    }
+
     void handleSingleRequest(String address, int port) {
         String message = buildMessage();
         sendRequest(address, port, message);
     }
 
     public void sendRequest(String address, int port, String message) {
-        try (Socket socket = new Socket(InetAddress.getByName(address), port);
-             DataOutputStream output = new DataOutputStream(socket.getOutputStream());
-             DataInputStream input = new DataInputStream(socket.getInputStream())) {
-
-            output.writeUTF(message);
-            System.out.println("Sent: " + message);
-
-            String response = input.readUTF();
-            System.out.println("Received: " + response);
-
+        if (sharded != null) {
+            sendSharded(message);
+            return;
+        }
+        if (cmdArgs.isKeepAlive()) {
+            sendOnSharedConnection(address, port, message);
+            return;
+        }
+        try (ClientConnection oneShot = new ClientConnection(address, port, cmdArgs.getProtocol())) {
+            exchange(oneShot, message);
         } catch (EOFException e) {
             System.err.println("Server closed the connection unexpectedly: " + e.getMessage());
         } catch (IOException e) {
@@ -86,17 +218,104 @@ public class Main {
         }
     }
 
+    /**
+     * Reuses one connection across calls. The server closes idle connections
+     * and those that hit their request limit, but only between requests, so a
+     * failure on a reused connection is retried once on a fresh one.
+     */
+    private void sendOnSharedConnection(String address, int port, String message) {
+        boolean reused = connection != null;
+        try {
+            if (connection == null) {
+                connection = new ClientConnection(address, port, cmdArgs.getProtocol());
+            }
+            exchange(connection, message);
+        } catch (IOException e) {
+            closeConnection();
+            if (reused) {
+                sendOnSharedConnection(address, port, message);
+            } else {
+                System.err.println("Error in communication with server: " + e.getMessage());
+            }
+        }
+    }
+
+    private void sendSharded(String message) {
+        try {
+            System.out.println("Sent: " + message);
+            System.out.println("Received: " + sharded.send(message));
+        } catch (IOException e) {
+            System.err.println("Error in communication with server: " + e.getMessage());
+        }
+    }
+
+    private void exchange(ClientConnection target, String message) throws IOException {
+        System.out.println("Sent: " + message);
+        String response = target.send(message);
+        System.out.println("Received: " + response);
+    }
+
+    void closeConnection() {
+        if (sharded != null) {
+            sharded.close();
+            sharded = null;
+        }
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                System.err.println("Error closing connection: " + e.getMessage());
+            }
+            connection = null;
+        }
+    }
+
     protected String buildMessage() {
         JsonObject request = new JsonObject();
         request.addProperty(KEY_TYPE, cmdArgs.getType());
-        request.addProperty(KEY_KEY, cmdArgs.getKey());
+        addIfGiven(request, KEY_KEY, cmdArgs.getKey());
 
         if (TYPE_SET.equals(cmdArgs.getType())) {
-            request.addProperty(KEY_VALUE, cmdArgs.getValue());
+            addIfGiven(request, KEY_VALUE, cmdArgs.getValue());
+            if (cmdArgs.getTtl() > 0) {
+                request.addProperty(KEY_TTL_MS, cmdArgs.getTtl());
+            }
+        }
+        if (TYPE_CAS.equals(cmdArgs.getType())) {
+            addIfGiven(request, KEY_VALUE, cmdArgs.getValue());
+            addIfGiven(request, KEY_EXPECTED, cmdArgs.getExpected());
+            addIfGiven(request, KEY_VERSION, cmdArgs.getVersion());
+        }
+        if (TYPE_APPEND.equals(cmdArgs.getType())) {
+            addIfGiven(request, KEY_VALUE, cmdArgs.getValue());
+        }
+        if ((TYPE_INCR.equals(cmdArgs.getType()) || TYPE_MERGE.equals(cmdArgs.getType())) && cmdArgs.getValue() != null) {
+            request.add(KEY_VALUE, jsonValue(cmdArgs.getValue()));
+        }
+        if (TYPE_SCAN.equals(cmdArgs.getType())) {
+            if (cmdArgs.getLimit() > 0) {
+                request.addProperty(KEY_LIMIT, cmdArgs.getLimit());
+            }
+            addIfGiven(request, KEY_CURSOR, cmdArgs.getCursor());
         }
 
         return gson.toJson(request);
     }
 
+    private static void addIfGiven(JsonObject request, String key, String value) {
+        if (value != null) {
+            request.addProperty(key, value);
+        }
+    }
+
+    /** {@code value} parsed as JSON, or as a string if it is not JSON, so the server can say what is wrong with it. */
+    private static JsonElement jsonValue(String value) {
+        try {
+            return JsonParser.parseString(value);
+        } catch (JsonParseException e) {
+            return new JsonPrimitive(value);
+        }
+    }
+
 
 }
\ No newline at end of file
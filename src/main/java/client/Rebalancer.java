@@ -0,0 +1,85 @@
+package client;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import server.Constants;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Moves top-level keys to the shards that own them under a new shard list.
+ * Every shard of the current list is asked for its keys, and each key the new
+ * ring places elsewhere is streamed over one subtree at a time: read from its
+ * old shard, written to its new one, then deleted from the old one. Adding a
+ * shard only moves the keys that now hash to it.
+ * <p>
+ * Writes to the moving keys should be paused while it runs, since a write
+ * routed by the new list could be overwritten by the copy. Clients switch to
+ * the new list once it has finished.
+ */
+public class Rebalancer {
+    private static final Gson gson = new Gson();
+
+    private final ShardRing from;
+    private final ShardRing to;
+    private final int protocol;
+
+    public Rebalancer(ShardRing from, ShardRing to, int protocol) {
+        this.from = from;
+        this.to = to;
+        this.protocol = protocol;
+    }
+
+    /** Moves every misplaced key and returns how many were moved. */
+    public long run(PrintStream out) throws IOException {
+        long moved = 0;
+        try (ShardedClient client = new ShardedClient(to, protocol)) {
+            for (ShardRing.Shard source : from.shards()) {
+                List<String> keys = client.keys(source);
+                long movedFromSource = 0;
+                for (String key : keys) {
+                    ShardRing.Shard target = to.shardFor(key);
+                    if (!target.equals(source) && move(client, key, source, target)) {
+                        movedFromSource++;
+                    }
+                }
+                out.printf("%s: moved %d of %d keys%n", source, movedFromSource, keys.size());
+                moved += movedFromSource;
+            }
+        }
+        return moved;
+    }
+
+    private static boolean move(ShardedClient client, String key, ShardRing.Shard source,
+                                ShardRing.Shard target) throws IOException {
+        JsonObject get = request(Constants.TYPE_GET, key);
+        JsonObject value = JsonParser.parseString(client.sendTo(source, gson.toJson(get))).getAsJsonObject();
+        if (!isOk(value)) {
+            return false;  // Deleted since it was listed
+        }
+        JsonObject set = request(Constants.TYPE_SET, key);
+        set.add(Constants.KEY_VALUE, value.get(Constants.KEY_VALUE));
+        String copied = client.sendTo(target, gson.toJson(set));
+        if (!isOk(JsonParser.parseString(copied).getAsJsonObject())) {
+            throw new IOException("Failed to copy " + key + " to " + target + ": " + copied);
+        }
+        client.sendTo(source, gson.toJson(request(Constants.TYPE_DELETE, key)));
+        return true;
+    }
+
+    private static JsonObject request(String type, String key) {
+        JsonObject request = new JsonObject();
+        request.addProperty(Constants.KEY_TYPE, type);
+        request.addProperty(Constants.KEY_KEY, key);
+        return request;
+    }
+
+    private static boolean isOk(JsonObject response) {
+        JsonElement status = response.get("response");
+        return status != null && Constants.RESPONSE_OK.equals(status.getAsString());
+    }
+}
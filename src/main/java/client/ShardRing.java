@@ -0,0 +1,116 @@
+package client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing of top-level keys onto server instances. Each shard is
+ * placed on the ring at {@link #VIRTUAL_NODES} points and a key belongs to the
+ * first point at or after its hash, so adding a shard only moves the keys that
+ * land on the new shard's points, about {@code 1/n} of them.
+ * <p>
+ * Only the top-level key is hashed, so everything under it lives on one shard
+ * and batches and nested paths keep working within it.
+ */
+public class ShardRing {
+    static final int VIRTUAL_NODES = 128;
+
+    private final List<Shard> shards;
+    private final NavigableMap<Long, Shard> ring = new TreeMap<>();
+
+    /** One server instance. */
+    public static final class Shard {
+        private final String host;
+        private final int port;
+
+        public Shard(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        public String host() {
+            return host;
+        }
+
+        public int port() {
+            return port;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Shard && ((Shard) other).host.equals(host) && ((Shard) other).port == port;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, port);
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    public ShardRing(List<Shard> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("No shards given");
+        }
+        this.shards = List.copyOf(shards);
+        for (Shard shard : shards) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(shard + "#" + i), shard);
+            }
+        }
+    }
+
+    /** Parses {@code host:port} entries separated by commas; a bare port means localhost. */
+    public static ShardRing parse(String shardList) {
+        List<Shard> shards = new ArrayList<>();
+        for (String entry : shardList.split(",")) {
+            String shard = entry.trim();
+            if (shard.isEmpty()) {
+                continue;
+            }
+            int colon = shard.lastIndexOf(':');
+            try {
+                shards.add(colon < 0
+                        ? new Shard("localhost", Integer.parseInt(shard))
+                        : new Shard(shard.substring(0, colon), Integer.parseInt(shard.substring(colon + 1))));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid shard " + shard + ", expected host:port", e);
+            }
+        }
+        return new ShardRing(shards);
+    }
+
+    public List<Shard> shards() {
+        return Collections.unmodifiableList(shards);
+    }
+
+    public Shard shardFor(String topLevelKey) {
+        Map.Entry<Long, Shard> point = ring.ceilingEntry(hash(topLevelKey));
+        return (point != null ? point : ring.firstEntry()).getValue();
+    }
+
+    /** 64-bit FNV-1a, finished with the MurmurHash3 mix so nearby strings spread over the ring. */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
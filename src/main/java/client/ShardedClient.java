@@ -0,0 +1,269 @@
+package client;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import server.Constants;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Routes requests to the shards of a {@link ShardRing} over one kept-alive
+ * connection per shard. Requests with a key go to the shard of its top-level
+ * key. A batch whose requests span shards is split into one batch per shard
+ * and the responses are put back in request order; each part is atomic on
+ * its shard, but the batch as a whole is not. A {@code txn} must be atomic,
+ * so one spanning shards is refused. {@code keys} is answered with
+ * the keys of every shard; {@code stats} and {@code exit} are sent to every
+ * shard and answered with each shard's response. A {@code scan} without a key
+ * would need every shard's top level merged and is refused; a scan's next
+ * page must be asked for with the same key so it reaches the shard holding
+ * its cursor. Anything else, including
+ * requests that are not JSON, goes to the first shard so it can report the
+ * error.
+ * <p>
+ * Not thread-safe: use one instance per thread.
+ */
+public class ShardedClient implements Closeable {
+    // Keeps null members, which merge operands use to remove keys
+    private static final Gson gson = new GsonBuilder().serializeNulls().create();
+
+    private final ShardRing ring;
+    private final int protocol;
+    private final Map<ShardRing.Shard, ClientConnection> connections = new HashMap<>();
+
+    public ShardedClient(ShardRing ring, int protocol) {
+        this.ring = ring;
+        this.protocol = protocol;
+    }
+
+    public ShardRing ring() {
+        return ring;
+    }
+
+    public String send(String message) throws IOException {
+        JsonObject request;
+        try {
+            JsonElement parsed = JsonParser.parseString(message);
+            if (!parsed.isJsonObject()) {
+                return sendTo(firstShard(), message);
+            }
+            request = parsed.getAsJsonObject();
+        } catch (JsonParseException e) {
+            return sendTo(firstShard(), message);
+        }
+        String key = topLevelKey(request);
+        if (key != null) {
+            return sendTo(ring.shardFor(key), message);
+        }
+        JsonElement type = request.get(Constants.KEY_TYPE);
+        String typeName = type != null && type.isJsonPrimitive() ? type.getAsString() : "";
+        switch (typeName) {
+            case Constants.TYPE_BATCH:
+                return sendBatch(request, message);
+            case Constants.TYPE_TXN:
+                return sendTxn(request, message);
+            case Constants.TYPE_KEYS:
+                return allKeys();
+            case Constants.TYPE_SCAN:
+                return error(Constants.REASON_SCAN_NEEDS_KEY);
+            case Constants.TYPE_STATS:
+            case Constants.TYPE_EXIT:
+                return broadcast(message);
+            default:
+                return sendTo(firstShard(), message);
+        }
+    }
+
+    /**
+     * Sends {@code message} to {@code shard}. A failure on a kept-alive
+     * connection is retried once on a fresh one, as the server closes idle
+     * connections between requests.
+     */
+    public String sendTo(ShardRing.Shard shard, String message) throws IOException {
+        ClientConnection connection = connections.remove(shard);
+        if (connection != null) {
+            try {
+                String response = connection.send(message);
+                connections.put(shard, connection);
+                return response;
+            } catch (IOException e) {
+                closeQuietly(connection);
+            }
+        }
+        connection = new ClientConnection(shard.host(), shard.port(), protocol);
+        try {
+            String response = connection.send(message);
+            connections.put(shard, connection);
+            return response;
+        } catch (IOException e) {
+            closeQuietly(connection);
+            throw e;
+        }
+    }
+
+    /** The top-level keys stored on {@code shard}. */
+    public List<String> keys(ShardRing.Shard shard) throws IOException {
+        JsonObject response = parse(sendTo(shard, "{\"type\":\"keys\"}"));
+        if (!isOk(response)) {
+            throw new IOException("Failed to list keys on " + shard + ": " + response);
+        }
+        List<String> keys = new ArrayList<>();
+        for (JsonElement key : response.getAsJsonArray(Constants.KEY_KEYS)) {
+            keys.add(key.getAsString());
+        }
+        return keys;
+    }
+
+    @Override
+    public void close() {
+        for (ClientConnection connection : connections.values()) {
+            closeQuietly(connection);
+        }
+        connections.clear();
+    }
+
+    private String sendBatch(JsonObject request, String message) throws IOException {
+        JsonElement requests = request.get(Constants.KEY_REQUESTS);
+        if (requests == null || !requests.isJsonArray()) {
+            return sendTo(firstShard(), message);
+        }
+        // Positions in the original batch of each shard's requests
+        Map<ShardRing.Shard, List<Integer>> positions = new LinkedHashMap<>();
+        JsonArray all = requests.getAsJsonArray();
+        for (int i = 0; i < all.size(); i++) {
+            JsonElement operation = all.get(i);
+            String key = operation.isJsonObject() ? topLevelKey(operation.getAsJsonObject()) : null;
+            positions.computeIfAbsent(key != null ? ring.shardFor(key) : firstShard(), shard -> new ArrayList<>()).add(i);
+        }
+        if (positions.size() <= 1) {
+            ShardRing.Shard shard = positions.isEmpty() ? firstShard() : positions.keySet().iterator().next();
+            return sendTo(shard, message);
+        }
+        JsonElement[] responses = new JsonElement[all.size()];
+        for (Map.Entry<ShardRing.Shard, List<Integer>> part : positions.entrySet()) {
+            JsonArray subset = new JsonArray();
+            for (int position : part.getValue()) {
+                subset.add(all.get(position));
+            }
+            JsonObject batch = new JsonObject();
+            batch.addProperty(Constants.KEY_TYPE, Constants.TYPE_BATCH);
+            batch.add(Constants.KEY_REQUESTS, subset);
+            String json = sendTo(part.getKey(), gson.toJson(batch));
+            JsonObject response = parse(json);
+            if (!isOk(response)) {
+                return json;  // That shard's part failed as a whole
+            }
+            JsonArray answers = response.getAsJsonArray(Constants.KEY_RESPONSES);
+            for (int i = 0; i < part.getValue().size(); i++) {
+                responses[part.getValue().get(i)] = answers.get(i);
+            }
+        }
+        JsonArray merged = new JsonArray();
+        for (JsonElement response : responses) {
+            merged.add(response);
+        }
+        JsonObject response = new JsonObject();
+        response.addProperty("response", Constants.RESPONSE_OK);
+        response.add(Constants.KEY_RESPONSES, merged);
+        return gson.toJson(response);
+    }
+
+    private String sendTxn(JsonObject request, String message) throws IOException {
+        JsonElement requests = request.get(Constants.KEY_REQUESTS);
+        Set<ShardRing.Shard> shards = new HashSet<>();
+        if (requests != null && requests.isJsonArray()) {
+            for (JsonElement operation : requests.getAsJsonArray()) {
+                String key = operation.isJsonObject() ? topLevelKey(operation.getAsJsonObject()) : null;
+                if (key != null) {
+                    shards.add(ring.shardFor(key));
+                }
+            }
+        }
+        if (shards.size() > 1) {
+            return error(Constants.REASON_TXN_SPANS_SHARDS);
+        }
+        return sendTo(shards.isEmpty() ? firstShard() : shards.iterator().next(), message);
+    }
+
+    private String allKeys() throws IOException {
+        TreeSet<String> keys = new TreeSet<>();
+        for (ShardRing.Shard shard : ring.shards()) {
+            keys.addAll(keys(shard));
+        }
+        JsonArray array = new JsonArray();
+        keys.forEach(array::add);
+        JsonObject response = new JsonObject();
+        response.addProperty("response", Constants.RESPONSE_OK);
+        response.add(Constants.KEY_KEYS, array);
+        return gson.toJson(response);
+    }
+
+    private String broadcast(String message) throws IOException {
+        JsonObject shards = new JsonObject();
+        boolean ok = true;
+        for (ShardRing.Shard shard : ring.shards()) {
+            JsonObject response = parse(sendTo(shard, message));
+            ok &= isOk(response);
+            shards.add(shard.toString(), response);
+        }
+        JsonObject response = new JsonObject();
+        response.addProperty("response", ok ? Constants.RESPONSE_OK : Constants.RESPONSE_ERROR);
+        response.add(Constants.KEY_SHARDS, shards);
+        return gson.toJson(response);
+    }
+
+    private static String error(String reason) {
+        JsonObject response = new JsonObject();
+        response.addProperty("response", Constants.RESPONSE_ERROR);
+        response.addProperty("reason", reason);
+        return gson.toJson(response);
+    }
+
+    private ShardRing.Shard firstShard() {
+        return ring.shards().get(0);
+    }
+
+    /** The first segment of the request's key, or null if it has none. */
+    static String topLevelKey(JsonObject request) {
+        JsonElement key = request.get(Constants.KEY_KEY);
+        if (key != null && key.isJsonArray() && !key.getAsJsonArray().isEmpty()) {
+            key = key.getAsJsonArray().get(0);
+        }
+        return key != null && key.isJsonPrimitive() ? key.getAsString() : null;
+    }
+
+    private static JsonObject parse(String response) throws IOException {
+        try {
+            return JsonParser.parseString(response).getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException("Unexpected response: " + response, e);
+        }
+    }
+
+    private static boolean isOk(JsonObject response) {
+        JsonElement status = response.get("response");
+        return status != null && Constants.RESPONSE_OK.equals(status.getAsString());
+    }
+
+    private static void closeQuietly(ClientConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // Already broken
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Replaces files so that a crash leaves either the old or the new content,
+ * never a truncated mix: the content goes to a temp file next to the target,
+ * which is then renamed over it.
+ */
+final class AtomicFiles {
+    private static final Gson gson = new Gson();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private AtomicFiles() {
+    }
+
+    /**
+     * Writes {@code json} to {@code target}, encoded with {@code codec}. With
+     * {@code force} the temp file is synced before the rename and the
+     * directory after it, so the rename cannot be persisted ahead of the data.
+     */
+    static void writeJson(Path target, JsonElement json, boolean force, Codec codec) throws IOException {
+        long start = System.nanoTime();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            // Closing the writer ends the codec's stream but leaves the channel open for the force
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    codec.compress(new KeepOpen(Channels.newOutputStream(channel))), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                gson.toJson(json, writer);
+            }
+            if (force) {
+                channel.force(true);
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (force) {
+            forceDirectory(target.toAbsolutePath().getParent());
+        }
+        Metrics.DISK_SAVE.recordSince(start);
+    }
+
+    /** Passes writes through but not {@link #close()}. */
+    private static final class KeepOpen extends FilterOutputStream {
+        KeepOpen(OutputStream output) {
+            super(output);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not every platform can open a directory; the rename is still atomic there
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * How {@code db.json} and {@code db.snapshot} are encoded on disk
+ * ({@code db.compression}).
+ * <ul>
+ *   <li>{@code none}: plain UTF-8 JSON.</li>
+ *   <li>{@code deflate}: a zlib stream at {@link Deflater#BEST_SPEED}, which
+ *   already shrinks repetitive JSON several times over.</li>
+ * </ul>
+ * Files are recognized by their first bytes when read, so changing the setting
+ * never strands data written under the old one.
+ */
+public enum Codec {
+    NONE {
+        @Override
+        OutputStream compress(OutputStream output) {
+            return output;
+        }
+
+        @Override
+        InputStream decompress(InputStream input) {
+            return input;
+        }
+
+        @Override
+        boolean recognizes(byte[] head, int length) {
+            return true;  // Whatever no other codec claims
+        }
+    },
+    DEFLATE {
+        @Override
+        OutputStream compress(OutputStream output) {
+            return new DeflaterOutputStream(output, new Deflater(Deflater.BEST_SPEED), BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        def.end();  // Not ended by close() when passed in
+                    }
+                }
+            };
+        }
+
+        @Override
+        InputStream decompress(InputStream input) {
+            return new InflaterInputStream(input, new Inflater(), BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inf.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        boolean recognizes(byte[] head, int length) {
+            // A zlib header: deflate with a window of up to 32K, and a check that makes it a multiple of 31
+            return length == 2 && (head[0] & 0x8F) == 0x08 && (((head[0] & 0xFF) << 8) | (head[1] & 0xFF)) % 31 == 0;
+        }
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public static Codec parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown compression codec: " + name, e);
+        }
+    }
+
+    /** Wraps {@code output} so what is written to it is encoded; closing it closes {@code output}. */
+    abstract OutputStream compress(OutputStream output) throws IOException;
+
+    abstract InputStream decompress(InputStream input) throws IOException;
+
+    /** Whether a file starting with {@code head} was written by this codec. */
+    abstract boolean recognizes(byte[] head, int length);
+
+    /** Opens {@code file} as text, decoding it with whichever codec wrote it. */
+    static Reader reader(Path file) throws IOException {
+        InputStream input = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+        try {
+            byte[] head = new byte[2];
+            input.mark(head.length);
+            int length = input.readNBytes(head, 0, head.length);
+            input.reset();
+            Codec codec = NONE;
+            for (Codec candidate : values()) {
+                if (candidate != NONE && candidate.recognizes(head, length)) {
+                    codec = candidate;
+                }
+            }
+            return new InputStreamReader(codec.decompress(input), StandardCharsets.UTF_8);
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+    }
+}
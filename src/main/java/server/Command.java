@@ -0,0 +1,177 @@
+package server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * One request, as the handler needs it. {@code type} and {@code key} are
+ * decoded up front; {@code value}, {@code expected} and {@code requests} are kept as their JSON
+ * text and parsed on first use, so a request whose value is never looked at
+ * never builds a tree for it. {@link RequestDecoder} reuses one instance for
+ * every request on a connection.
+ */
+public class Command {
+    private static final String[] NO_KEY = new String[0];
+
+    String type;
+    String[] key = NO_KEY;
+    String valueJson;
+    private JsonElement value;
+    String requestsJson;
+    private JsonElement requests;
+    String expectedJson;
+    private JsonElement expected;
+    // Scan options, as given
+    String prefix;
+    String start;
+    String end;
+    String limit;
+    String cursor;
+    String ttl;
+    // Compare-and-set options, as given
+    String version;
+    String withVersion;
+
+    /** Builds a command from an already parsed request, such as one entry of a batch. */
+    public static Command of(JsonObject request) {
+        Command command = new Command();
+        JsonElement type = request.get(Constants.KEY_TYPE);
+        command.type = type != null && type.isJsonPrimitive() ? type.getAsString() : null;
+        JsonElement key = request.get(Constants.KEY_KEY);
+        if (key != null && key.isJsonArray()) {
+            command.key = JsonTree.toKeyPath(key.getAsJsonArray());
+        } else if (key != null && key.isJsonPrimitive()) {
+            command.key = new String[]{key.getAsString()};
+        }
+        command.value = request.get(Constants.KEY_VALUE);
+        command.requests = request.get(Constants.KEY_REQUESTS);
+        command.expected = request.get(Constants.KEY_EXPECTED);
+        command.prefix = scalar(request, Constants.KEY_PREFIX);
+        command.start = scalar(request, Constants.KEY_START);
+        command.end = scalar(request, Constants.KEY_END);
+        command.limit = scalar(request, Constants.KEY_LIMIT);
+        command.cursor = scalar(request, Constants.KEY_CURSOR);
+        command.ttl = scalar(request, Constants.KEY_TTL_MS);
+        command.version = scalar(request, Constants.KEY_VERSION);
+        command.withVersion = scalar(request, Constants.KEY_WITH_VERSION);
+        return command;
+    }
+
+    private static String scalar(JsonObject request, String name) {
+        JsonElement member = request.get(name);
+        return member != null && member.isJsonPrimitive() ? member.getAsString() : null;
+    }
+
+    void reset() {
+        type = null;
+        key = NO_KEY;
+        valueJson = null;
+        value = null;
+        requestsJson = null;
+        requests = null;
+        expectedJson = null;
+        expected = null;
+        prefix = null;
+        start = null;
+        end = null;
+        limit = null;
+        cursor = null;
+        ttl = null;
+        version = null;
+        withVersion = null;
+    }
+
+    /** The command type, or null if the request has none. */
+    public String type() {
+        return type;
+    }
+
+    /** The key path; a single string key is a path of one. Empty if there is no key. */
+    public String[] key() {
+        return key;
+    }
+
+    public boolean hasValue() {
+        return value != null || valueJson != null;
+    }
+
+    /** The value, parsed on the first call, or null if the request has none. */
+    public JsonElement value() {
+        if (value == null && valueJson != null) {
+            value = JsonParser.parseString(valueJson);
+        }
+        return value;
+    }
+
+    /** The {@code requests} of a batch, or null if missing or not an array. */
+    public JsonArray requests() {
+        if (requests == null && requestsJson != null) {
+            requests = JsonParser.parseString(requestsJson);
+        }
+        return requests != null && requests.isJsonArray() ? requests.getAsJsonArray() : null;
+    }
+
+    /** Whether a {@code cas} gave the value it expects, which may be {@code null} for none. */
+    public boolean hasExpected() {
+        return expected != null || expectedJson != null;
+    }
+
+    /** The value a {@code cas} expects, parsed on the first call; JSON null for none, or null if not given. */
+    public JsonElement expected() {
+        if (expected == null && expectedJson != null) {
+            expected = JsonParser.parseString(expectedJson);
+        }
+        return expected;
+    }
+
+    /** The version a {@code cas} expects, as answered for the value it read, or null. */
+    public String version() {
+        return version;
+    }
+
+    /** Whether a {@code get} asked for the version of its value too. */
+    public boolean withVersion() {
+        return "true".equals(withVersion);
+    }
+
+    /** Scans only child keys starting with this, or null. */
+    public String prefix() {
+        return prefix;
+    }
+
+    /** Scans only child keys at or after this, or null. */
+    public String start() {
+        return start;
+    }
+
+    /** Scans only child keys before this, or null. */
+    public String end() {
+        return end;
+    }
+
+    /** Most entries in a scan page; 0 if not given. Throws {@code NumberFormatException} if not a number. */
+    public int limit() {
+        return limit != null ? Integer.parseInt(limit) : 0;
+    }
+
+    /** The continuation token of a scan, or null to start one. */
+    public String cursor() {
+        return cursor;
+    }
+
+    /** Whether a {@code set} gave a TTL. */
+    public boolean hasTtl() {
+        return ttl != null;
+    }
+
+    /** Milliseconds until a {@code set} expires. Throws {@code NumberFormatException} if not a number. */
+    public long ttlMillis() {
+        return Long.parseLong(ttl);
+    }
+
+    public boolean isExit() {
+        return Constants.TYPE_EXIT.equals(type);
+    }
+}
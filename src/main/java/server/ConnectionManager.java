@@ -1,15 +1,18 @@
 package server;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
 
 public class ConnectionManager {
     static Gson gson = new Gson();
@@ -18,7 +21,11 @@ public class ConnectionManager {
     private ServerSocket serverSocket;
 
     public ConnectionManager() {
-        this.executor = Executors.newFixedThreadPool(10);
+        this(ServerMain.newExecutor());
+    }
+
+    public ConnectionManager(ExecutorService executor) {
+        this.executor = executor;
     }
 
     public void setExecutor(ExecutorService executor) {
@@ -40,33 +47,105 @@ public class ConnectionManager {
         if (serverSocket != null) {
             serverSocket.close();
         }
+        requestHandler.close();
     }
 
+    /**
+     * Serves requests on {@code socket} until the client sends {@code exit},
+     * closes its end, stays idle longer than {@code server.idleTimeoutMs}, or
+     * reaches {@code server.maxRequestsPerConnection}. Clients that open with
+     * a hello get version 2 framing, with compressed responses if they asked
+     * for version 3 (see {@link Protocol}); all others version 1.
+     */
     public void handleClient(Socket socket) {
-        try (DataInputStream input = new DataInputStream(socket.getInputStream());
-             DataOutputStream output = new DataOutputStream(socket.getOutputStream())) {
+        Deflater deflater = null;
+        try (Socket client = socket;
+             DataInputStream input = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+             DataOutputStream output = new DataOutputStream(client.getOutputStream())) {
 
-            String clientMSG = input.readUTF();
-            JsonObject request = gson.fromJson(clientMSG, JsonObject.class);
-
-            System.out.println("Received: " + gson.toJson(request));
+            Metrics.CONNECTIONS.increment();
+            client.setSoTimeout(ServerConfig.idleTimeoutMillis());
+            client.setTcpNoDelay(true);
+            int maxRequests = ServerConfig.maxRequestsPerConnection();
+            int version = negotiate(input, output);
+            FrameReader frames = version != Protocol.VERSION_LEGACY
+                    ? new FrameReader(input, ServerConfig.maxMessageBytes()) : null;
+            if (version == Protocol.VERSION_COMPRESSED) {
+                deflater = new Deflater(Deflater.BEST_SPEED);
+            }
+            RequestDecoder decoder = new RequestDecoder();
 
-            String response = requestHandler.processCommand(request);
+            for (int served = 0; served < maxRequests; served++) {
+                String clientMSG;
+                try {
+                    clientMSG = frames != null ? frames.read() : input.readUTF();
+                } catch (EOFException e) {
+                    break;  // Client closed the connection between requests
+                }
+                long parseStart = System.nanoTime();
+                Command request;
+                try {
+                    request = decoder.decode(clientMSG);
+                } catch (JsonParseException e) {
+                    request = null;  // Answered as invalid, and the connection stays open
+                    Metrics.ERRORS.increment();
+                }
+                Metrics.PARSE.recordSince(parseStart);
 
-            System.out.println("Sent: " + response);
-            output.writeUTF(response);
+                if (frames != null) {
+                    try (FrameWriter response = new FrameWriter(output, deflater, ServerConfig.compressMinBytes())) {
+                        if (request != null) {
+                            requestHandler.processCommand(request, response);
+                        } else {
+                            response.write(Constants.JSON_RESPONSE_INVALID_COMMAND);
+                        }
+                    }
+                } else {
+                    output.writeUTF(request != null
+                            ? requestHandler.processCommand(request) : Constants.JSON_RESPONSE_INVALID_COMMAND);
+                }
 
-            if ("exit".equals(request.get("type").getAsString())) {
-                System.out.println("Closing client connection due to 'exit' command.");
-                socket.close();
+                if (request != null && request.isExit()) {
+                    break;
+                }
             }
+        } catch (EOFException | SocketTimeoutException e) {
+            // Closed before the first request, or idle too long: neither is an error
         } catch (IOException e) {
+            Metrics.ERRORS.increment();
             System.err.println("IOException in handleClient: " + e.getMessage());
             e.printStackTrace();
         } catch (Exception e) {
+            Metrics.ERRORS.increment();
             System.err.println("Unexpected exception in handleClient: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Peeks at the first bytes and returns the protocol version to use. A
+     * version 1 frame never starts with two zero bytes followed by the rest
+     * of a hello.
+     */
+    private int negotiate(DataInputStream input, DataOutputStream output) throws IOException {
+        byte[] head = new byte[Protocol.HELLO.length];
+        input.mark(head.length);
+        input.readFully(head, 0, 2);
+        if (head[0] == 0 && head[1] == 0) {
+            input.readFully(head, 2, 2);
+            int requested = Protocol.versionOf(head);
+            if (requested != Protocol.VERSION_LEGACY) {
+                int version = Protocol.accept(requested);
+                output.write(Protocol.hello(version));
+                return version;
+            }
         }
+        input.reset();
+        return Protocol.VERSION_LEGACY;
     }
 
 }
@@ -10,16 +10,53 @@ public class Constants {
     public static final String KEY_TYPE = "type";
     public static final String KEY_KEY = "key";
     public static final String KEY_VALUE = "value";
+    public static final String KEY_REQUESTS = "requests";
+    public static final String KEY_RESPONSES = "responses";
+    public static final String KEY_STATS = "stats";
+    public static final String KEY_KEYS = "keys";
+    public static final String KEY_SHARDS = "shards";
+    public static final String KEY_SEQ = "seq";
+    public static final String KEY_ENTRIES = "entries";
+    public static final String KEY_SNAPSHOT = "snapshot";
+    // Set on every log entry of a batch but its last, so a follower applies the batch whole
+    public static final String KEY_MORE = "more";
+    public static final String KEY_REPLICATION = "replication";
+    public static final String KEY_PREFIX = "prefix";
+    public static final String KEY_START = "start";
+    public static final String KEY_END = "end";
+    public static final String KEY_LIMIT = "limit";
+    public static final String KEY_CURSOR = "cursor";
+    public static final String KEY_TTL_MS = "ttlMs";
+    public static final String KEY_EXPECTED = "expected";
+    public static final String KEY_VERSION = "version";
+    public static final String KEY_WITH_VERSION = "withVersion";
+    public static final String KEY_FAILED = "failed";
+    // Deadline of a key, in epoch milliseconds; 0 when it no longer expires
+    public static final String KEY_AT = "at";
+    public static final String KEY_DEADLINES = "deadlines";
 
     // Command Types
     public static final String TYPE_SET = "set";
     public static final String TYPE_GET = "get";
     public static final String TYPE_DELETE = "delete";
     public static final String TYPE_EXIT = "exit";
+    public static final String TYPE_BATCH = "batch";
+    public static final String TYPE_STATS = "stats";
+    public static final String TYPE_KEYS = "keys";
+    public static final String TYPE_REPLICATE = "replicate";
+    public static final String TYPE_SCAN = "scan";
+    public static final String TYPE_CAS = "cas";
+    public static final String TYPE_TXN = "txn";
+    public static final String TYPE_INCR = "incr";
+    public static final String TYPE_APPEND = "append";
+    public static final String TYPE_MERGE = "merge";
     public static final String TYPE_INVALID = "invalid";
+    // Logged with a write that sets or clears a deadline; not a command
+    public static final String OP_EXPIRE = "expire";
 
     // JSON Responses
     public static final String JSON_RESPONSE_OK = "{\"response\":\"OK\"}";
+    public static final String JSON_RESPONSE_INVALID_COMMAND = "{\"response\":\"ERROR\",\"reason\":\"Invalid command\"}";
 
     // Error Reasons
     public static final String REASON_INVALID_COMMAND = "Invalid command";
@@ -27,4 +64,19 @@ public class Constants {
     public static final String REASON_MISSING_KEY_OR_VALUE = "Missing key or value";
     public static final String REASON_MISSING_KEY = "Missing key";
     public static final String REASON_FAILED_TO_SET = "Failed to set value";
+    public static final String REASON_MISSING_REQUESTS = "Missing requests";
+    public static final String REASON_FAILED_TO_PERSIST = "Failed to persist batch";
+    public static final String REASON_READ_ONLY = "Read-only follower";
+    public static final String REASON_STALE = "Follower is behind its leader";
+    public static final String REASON_NOT_AN_OBJECT = "Not an object";
+    public static final String REASON_NOT_AN_ARRAY = "Not an array";
+    public static final String REASON_NOT_A_NUMBER = "Not a number";
+    public static final String REASON_INVALID_LIMIT = "Invalid limit";
+    public static final String REASON_INVALID_CURSOR = "Unknown or expired cursor";
+    public static final String REASON_INVALID_TTL = "Invalid TTL";
+    public static final String REASON_MISSING_CONDITION = "Missing expected value or version";
+    public static final String REASON_CONDITION_FAILED = "Condition failed";
+    public static final String REASON_TXN_SPANS_SHARDS = "Transactions across shards are not supported";
+    public static final String REASON_SCAN_NEEDS_KEY = "Scans across shards need a key";
+    public static final String REASON_CANNOT_REPLICATE = "Replication needs the memory engine and a sequence";
 }
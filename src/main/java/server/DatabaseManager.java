@@ -3,54 +3,60 @@ package server;
 import com.google.gson.*;
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Stores the database in {@code db.json}, which is replaced atomically on every
+ * save. By default every write saves the file. When {@code db.snapshotEveryWrites}
+ * or {@code db.snapshotIntervalMs} is set, a {@link Snapshotter} saves it in the
+ * background and on close instead; writes made since the last save are lost if
+ * the process dies.
+ * <p>
+ * The file is read once and the tree is held in a {@link SnapshotTree}, so one
+ * manager must own the data directory. Writers are serialized and each one
+ * publishes a new immutable root after its save; reads take no lock and see
+ * the latest published root, so they never wait for a writer's file rewrite.
+ */
 public class DatabaseManager implements DatabaseManagerInterface{
     private static final Gson gson = new Gson();
-    private static final ReadWriteLock lock = new ReentrantReadWriteLock();
-    private static final Lock readLock = lock.readLock();
-    private static final Lock writeLock = lock.writeLock();
-    private static final String PATH = System.getProperty("user.dir") + "/src/main/java/server/data/db.json";
+    // Serializes writers only; readers never take it
+    private static final ReentrantLock writeLock = new ReentrantLock();
+    private static final String PATH = ServerConfig.dataDirectory().resolve("db.json").toString();
+    private final boolean forceSaves = ServerConfig.fsyncPolicy().forcesSnapshots();
+    private final Codec codec = ServerConfig.storageCodec();
+    // Null when every write saves db.json itself
+    private final Snapshotter snapshotter;
+    // Loaded on first use
+    private volatile SnapshotTree tree;
+    // Set while a batch holds the write lock: operations build one root, saved and published once
+    private JsonObject batchDatabase;
+    private final List<String[]> batchChanges = new ArrayList<>();
+
+    public DatabaseManager() {
+        int everyWrites = ServerConfig.snapshotEveryWrites();
+        long intervalMillis = ServerConfig.snapshotIntervalMillis();
+        snapshotter = everyWrites > 0 || intervalMillis > 0
+                ? new Snapshotter("db-json-saver", everyWrites, intervalMillis, this::saveCached)
+                : null;
+    }
 
     public boolean set(String[] keyPath, JsonElement value) {
-        writeLock.lock();
+        Metrics.lock(writeLock);
         try {
-            JsonObject database = loadDatabase();
-            if (database == null) {
-                database = new JsonObject();  // Initialize if the database is null
-            }
-
-            JsonObject current = database;
-            for (int i = 0; i < keyPath.length; i++) {
-                String key = keyPath[i];
-                boolean isLastKey = i == keyPath.length - 1;
-
-                if (current.has(key)) {
-                    JsonElement nextElement = current.get(key);
-                    if (nextElement.isJsonObject()) {
-                        current = nextElement.getAsJsonObject();
-                    } else if (isLastKey) {
-                        current.add(key, value);
-                    } else {
-                        return false;  // Next element is not a JsonObject, and we're not at the last key
-                    }
-                } else {
-                    if (isLastKey) {
-                        current.add(key, value);  // Add the value if it's the last key
-                    } else {
-                        JsonObject newObject = new JsonObject();
-                        current.add(key, newObject);  // Create a new object for the next level
-                        current = newObject;
-                    }
-                }
+            JsonObject next = SnapshotTree.with(workingRoot(), keyPath, value);
+            if (next == null) {
+                return false;
             }
-
-            saveDatabase(database);  // Save the updated database
+            commit(next, keyPath);
             return true;
         } catch (IOException e) {
             e.printStackTrace();
@@ -60,87 +66,155 @@ public class DatabaseManager implements DatabaseManagerInterface{
         }
     }
 
-    public JsonElement get(JsonArray keyPath) {
-        readLock.lock();
+    /**
+     * Returns the value without locking or copying. Published nodes are never
+     * modified, so the caller may hold on to it but must not change it.
+     */
+    public JsonElement get(String[] keyPath) {
         try {
-            JsonElement current = loadDatabase();
+            JsonElement value = batchDatabase != null && writeLock.isHeldByCurrentThread()
+                    ? JsonTree.get(batchDatabase, keyPath)
+                    : tree().get(keyPath);
+            return value != null ? value : JsonNull.INSTANCE;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return JsonNull.INSTANCE;
+        }
+    }
 
-            if (current == null) {
-                return JsonNull.INSTANCE;
+    public boolean delete(String[] keyPath) {
+        Metrics.lock(writeLock);
+        try {
+            JsonObject next = SnapshotTree.without(workingRoot(), keyPath);
+            if (next == null) {
+                return false;
             }
+            commit(next, keyPath); // Save the database after removing the key
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
 
-            for (int i = 0; i < keyPath.size(); i++) {
-                String key = keyPath.get(i).getAsString();
-                if (current.isJsonObject() && current.getAsJsonObject().has(key)) {
-                    current = current.getAsJsonObject().get(key);
-                } else {
-                    return JsonNull.INSTANCE;
-                }
+    public List<String> childKeys(String[] keyPath) {
+        try {
+            JsonElement node = keyPath.length == 0 ? tree().root() : tree().get(keyPath);
+            if (node == null || !node.isJsonObject()) {
+                return null;
             }
-            return current;
+            List<String> keys = new ArrayList<>(node.getAsJsonObject().keySet());
+            Collections.sort(keys);
+            return keys;
         } catch (IOException e) {
             e.printStackTrace();
-            return JsonNull.INSTANCE;
-        } finally {
-            readLock.unlock();
+            return null;
         }
     }
 
-    public boolean delete(JsonArray keyPath) {
-        writeLock.lock();
+    @Override
+    public <T> T inBatch(Collection<String> topLevelKeys, Supplier<T> operations) {
+        Metrics.lock(writeLock);
+        if (batchDatabase != null) {
+            try {
+                return operations.get();  // Already inside a batch, which saves and publishes when it ends
+            } finally {
+                writeLock.unlock();
+            }
+        }
         try {
-            JsonObject database = loadDatabase();
-            if (database == null) {
-                return false;
+            JsonObject base = tree().root();
+            batchDatabase = base;
+            T result = operations.get();
+            JsonObject next = batchDatabase;
+            if (next != base) {
+                batchDatabase = null;
+                publish(next, batchChanges);
             }
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to persist batch", e);
+        } finally {
+            batchDatabase = null;
+            batchChanges.clear();
+            writeLock.unlock();
+        }
+    }
 
-            JsonElement current = database;
+    @Override
+    public void close() throws IOException {
+        if (snapshotter != null) {
+            snapshotter.close();
+        }
+    }
 
-            // Traverse to the parent of the key to be deleted
-            for (int i = 0; i < keyPath.size() - 1; i++) {
-                String key = keyPath.get(i).getAsString();
-                if (current.isJsonObject() && current.getAsJsonObject().has(key)) {
-                    current = current.getAsJsonObject().get(key);
-                } else {
-                    return false;
+    private SnapshotTree tree() throws IOException {
+        SnapshotTree current = tree;
+        if (current == null) {
+            Metrics.lock(writeLock);
+            try {
+                current = tree;
+                if (current == null) {
+                    JsonObject loaded = loadDatabase();
+                    current = new SnapshotTree(loaded != null ? loaded : new JsonObject());
+                    tree = current;
                 }
+            } finally {
+                writeLock.unlock();
             }
+        }
+        return current;
+    }
 
-            // Get the last key in the path
-            String lastKey = keyPath.get(keyPath.size() - 1).getAsString();
+    /** The root a write under the write lock starts from. */
+    private JsonObject workingRoot() throws IOException {
+        return batchDatabase != null ? batchDatabase : tree().root();
+    }
 
-            // Ensure the key exists and remove it
-            if (current.isJsonObject()) {
-                JsonObject parentObject = current.getAsJsonObject();
-                if (parentObject.has(lastKey)) {
-                    parentObject.remove(lastKey); // Remove the key
-                    saveDatabase(database); // Save the database after removing the key
-                    return true;
-                }
-            }
-            return false;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        } finally {
-            writeLock.unlock();
+    private void commit(JsonObject next, String[] keyPath) throws IOException {
+        if (batchDatabase != null) {
+            batchDatabase = next;
+            batchChanges.add(keyPath);
+        } else {
+            publish(next, Collections.singletonList(keyPath));
         }
     }
 
+    /** Saves {@code next} unless saves are deferred, then makes it visible to readers. */
+    private void publish(JsonObject next, List<String[]> changedPaths) throws IOException {
+        if (snapshotter == null) {
+            saveDatabase(next);  // Readers keep using the previous root meanwhile
+        }
+        tree.publish(next, changedPaths);
+        if (snapshotter != null) {
+            snapshotter.written();
+        }
+    }
+
+    /** Writes the latest published root; it is immutable, so no lock or copy is needed. */
+    private void saveCached() throws IOException {
+        SnapshotTree current = tree;
+        if (current != null) {
+            saveDatabase(current.root());
+        }
+    }
 
     private JsonObject loadDatabase() throws IOException {
         File file = new File(PATH);
         if (file.exists()) {
-            try (FileReader reader = new FileReader(file)) {
+            long start = System.nanoTime();
+            try (Reader reader = Codec.reader(file.toPath())) {
                 return gson.fromJson(reader, JsonObject.class);
+            } finally {
+                Metrics.DISK_LOAD.recordSince(start);
             }
         }
         return null;
     }
 
     void saveDatabase(JsonObject database) throws IOException {
-        try (FileWriter writer = new FileWriter(PATH)) {
-            gson.toJson(database, writer);
-        }
+        AtomicFiles.writeJson(Paths.get(PATH), database, forceSaves, codec);
     }
 }
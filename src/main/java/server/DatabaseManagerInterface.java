@@ -2,9 +2,90 @@ package server;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
 
-public interface DatabaseManagerInterface {
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+public interface DatabaseManagerInterface extends Closeable {
     boolean set(String[] keyPath, JsonElement value);
-    JsonElement get(JsonArray keyPath);
-    boolean delete(JsonArray keyPath);
+    JsonElement get(String[] keyPath);
+    boolean delete(String[] keyPath);
+
+    /**
+     * Applies {@code delta} with {@code operand} to the value at
+     * {@code keyPath}. Returns the new value if it is a primitive, JSON null
+     * if it is an array or object, and null if {@code delta} does not apply
+     * to what is there. Throws {@code UncheckedIOException} if the change
+     * cannot be stored. This default reads the value, applies the delta to a
+     * copy and sets the result in one batch; engines with a log override it
+     * to change the value in place and log only the delta.
+     */
+    default JsonElement update(String[] keyPath, Delta delta, JsonElement operand) {
+        return inBatch(Collections.singleton(keyPath[0]), () -> {
+            JsonElement current = get(keyPath);
+            current = current == null || current.isJsonNull() ? null : current.deepCopy();
+            if (!delta.accepts(current, operand)) {
+                return null;
+            }
+            JsonElement next = delta.apply(current, operand);
+            if (!set(keyPath, next)) {
+                return null;
+            }
+            return next.isJsonPrimitive() ? next : JsonNull.INSTANCE;
+        });
+    }
+
+    /**
+     * The keys of the object at {@code keyPath} in {@link String#compareTo}
+     * order; an empty path means the top level. Null if there is no object there.
+     */
+    List<String> childKeys(String[] keyPath);
+
+    /** Where this database keeps its files. */
+    default Path directory() {
+        return ServerConfig.dataDirectory();
+    }
+
+    /** The top-level keys, sorted. */
+    default List<String> keys() {
+        return childKeys(new String[0]);
+    }
+
+    default JsonElement get(JsonArray keyPath) {
+        return get(JsonTree.toKeyPath(keyPath));
+    }
+
+    default boolean delete(JsonArray keyPath) {
+        return delete(JsonTree.toKeyPath(keyPath));
+    }
+
+    /**
+     * Logs that {@code keyPath} now expires at {@code deadlineMillis}, or
+     * never when 0, along with the writes of the current batch, so followers
+     * replicating the log keep the same deadlines. Engines that do not
+     * replicate keep nothing; the deadlines themselves are kept by the caller.
+     */
+    default void logExpiry(String[] keyPath, long deadlineMillis) throws IOException {
+    }
+
+    /**
+     * Runs {@code operations} under one lock acquisition and persists all of
+     * their changes in one flush. The operations may only touch paths under
+     * {@code topLevelKeys}. Throws {@code UncheckedIOException} if the flush fails.
+     * If the operations throw, the engines discard every change they made and
+     * rethrow, so a batch is kept whole or not at all.
+     */
+    default <T> T inBatch(Collection<String> topLevelKeys, Supplier<T> operations) {
+        return operations.get();
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
 }
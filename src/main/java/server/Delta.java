@@ -0,0 +1,139 @@
+package server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A change to part of a value, logged as itself instead of as the value it
+ * produces. A missing value counts as 0, {@code []} or {@code {}}.
+ * <ul>
+ *   <li>{@code incr}: adds a number, exactly; integers stay integers and
+ *   grow past the range of a long rather than overflow.</li>
+ *   <li>{@code append}: adds an element to the end of an array.</li>
+ *   <li>{@code merge}: applies an object as a JSON merge patch (RFC 7386):
+ *   objects are merged member by member, and members set to {@code null} are
+ *   removed.</li>
+ * </ul>
+ */
+public enum Delta {
+    INCR {
+        @Override
+        boolean accepts(JsonElement current, JsonElement operand) {
+            return isNumber(operand) && (current == null || isNumber(current));
+        }
+
+        @Override
+        JsonElement apply(JsonElement current, JsonElement operand) {
+            if (current == null) {
+                return operand;
+            }
+            String a = current.getAsString();
+            String b = operand.getAsString();
+            if (isInteger(a) && isInteger(b)) {
+                try {
+                    return new JsonPrimitive(Math.addExact(Long.parseLong(a), Long.parseLong(b)));
+                } catch (ArithmeticException | NumberFormatException e) {
+                    return new JsonPrimitive(new BigInteger(a).add(new BigInteger(b)));
+                }
+            }
+            return new JsonPrimitive(new BigDecimal(a).add(new BigDecimal(b)));
+        }
+
+        @Override
+        String reason() {
+            return Constants.REASON_NOT_A_NUMBER;
+        }
+    },
+    APPEND {
+        @Override
+        boolean accepts(JsonElement current, JsonElement operand) {
+            return current == null || current.isJsonArray();
+        }
+
+        @Override
+        JsonElement apply(JsonElement current, JsonElement operand) {
+            JsonArray array = current != null ? current.getAsJsonArray() : new JsonArray();
+            array.add(operand.deepCopy());
+            return array;
+        }
+
+        @Override
+        String reason() {
+            return Constants.REASON_NOT_AN_ARRAY;
+        }
+    },
+    MERGE {
+        @Override
+        boolean accepts(JsonElement current, JsonElement operand) {
+            return operand.isJsonObject() && (current == null || current.isJsonObject());
+        }
+
+        @Override
+        JsonElement apply(JsonElement current, JsonElement operand) {
+            return merge(current, operand);
+        }
+
+        @Override
+        String reason() {
+            return Constants.REASON_NOT_AN_OBJECT;
+        }
+    };
+
+    /** The delta a command or log entry of {@code type} applies, or null if it is not one. */
+    public static Delta of(String type) {
+        for (Delta delta : values()) {
+            if (delta.type().equals(type)) {
+                return delta;
+            }
+        }
+        return null;
+    }
+
+    /** The command type, which is also the op of its log entries. */
+    public String type() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /** Whether {@code operand} applies to {@code current}, which is null if there is no value. */
+    abstract boolean accepts(JsonElement current, JsonElement operand);
+
+    /**
+     * The value after applying {@code operand} to {@code current}, which must
+     * be accepted. Arrays and objects are changed in place and returned, so
+     * pass a copy of a value that is shared.
+     */
+    abstract JsonElement apply(JsonElement current, JsonElement operand);
+
+    /** Why a value was not accepted. */
+    abstract String reason();
+
+    private static boolean isNumber(JsonElement element) {
+        return element.isJsonPrimitive() && element.getAsJsonPrimitive().isNumber();
+    }
+
+    private static boolean isInteger(String number) {
+        return number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0;
+    }
+
+    private static JsonElement merge(JsonElement target, JsonElement patch) {
+        if (!patch.isJsonObject()) {
+            return patch.deepCopy();
+        }
+        JsonObject merged = target != null && target.isJsonObject() ? target.getAsJsonObject() : new JsonObject();
+        for (Map.Entry<String, JsonElement> member : patch.getAsJsonObject().entrySet()) {
+            if (member.getValue().isJsonNull()) {
+                merged.remove(member.getKey());
+            } else {
+                merged.add(member.getKey(), merge(merged.get(member.getKey()), member.getValue()));
+            }
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,505 @@
+package server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Deadlines of keys set with a TTL, by encoded key path (see {@link KeyPaths}),
+ * so the expiring ancestors and descendants of a path are found without
+ * walking the tree. A {@link TimerWheel} hands each deadline to the reaper as
+ * it passes; a deadline that was replaced or cleared meanwhile is ignored
+ * then.
+ * <p>
+ * Setting a path replaces its subtree and deleting one removes it, so both
+ * clear the deadlines of the path and its descendants; a deadline above the
+ * path stays. Changes are appended to {@code file} as
+ * {@code {"key":[...],"at":<epoch ms>}} lines, where {@code at} of 0 only
+ * clears, and the file is rewritten once most of its lines are obsolete.
+ * The lines are forced as {@code db.fsync} forces the engine's log. Deadlines
+ * are wall-clock times, so they hold across restarts.
+ * <p>
+ * Changes made inside {@link #inBatch} are taken back if the batch throws,
+ * as the engine discards its writes then.
+ */
+final class Expiries implements Closeable {
+    private static final Gson gson = new Gson();
+    private static final int MIN_COMPACT_LINES = 1024;
+
+    private final Lock lock = new ReentrantLock();
+    private final NavigableMap<String, Long> deadlines = new TreeMap<>();
+    private final TimerWheel<String> wheel;
+    private final long tickMillis;
+    // Null to keep deadlines in memory only
+    private final Path file;
+    private final Consumer<List<String[]>> reaper;
+    private final FsyncPolicy fsync = ServerConfig.fsyncPolicy();
+    // Set while a batch runs on this thread
+    private final ThreadLocal<Journal> journal = new ThreadLocal<>();
+    private volatile int size;
+    private FileChannel log;
+    private long logLines;
+    // Whether lines were appended since the last force, with db.fsync=batched
+    private boolean unforced;
+    // Started with the first deadline
+    private ScheduledExecutorService ticker;
+
+    /** The deadlines a batch changed, as they were before it and as it left them. */
+    private static final class Journal {
+        // Sorted, so a path is restored before its descendants, as its line clears them on load
+        final Map<String, Long> before = new TreeMap<>();
+        final Map<String, Long> after = new HashMap<>();
+    }
+
+    /** Loads the deadlines in {@code file}, if any; {@code reaper} is given the paths as they expire. */
+    Expiries(Path file, long tickMillis, Consumer<List<String[]>> reaper) throws IOException {
+        this.file = file;
+        this.tickMillis = tickMillis;
+        this.reaper = reaper;
+        this.wheel = new TimerWheel<>(tickMillis, System.currentTimeMillis());
+        if (file != null && Files.exists(file)) {
+            load();
+        }
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Expires {@code keyPath} at {@code deadlineMillis}, replacing its own and its descendants' deadlines. */
+    void expireAt(String[] keyPath, long deadlineMillis) throws IOException {
+        lock.lock();
+        try {
+            String path = KeyPaths.encode(keyPath);
+            clear(path);
+            change(path, deadlineMillis);
+            wheel.schedule(path, deadlineMillis);
+            size = deadlines.size();
+            append(keyPath, deadlineMillis);
+            startTicker();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the deadlines of {@code keyPath} and its descendants, after it was
+     * set without a TTL or deleted; true if there were any.
+     */
+    boolean cleared(String[] keyPath) throws IOException {
+        if (size == 0) {
+            return false;
+        }
+        lock.lock();
+        try {
+            if (!clear(KeyPaths.encode(keyPath))) {
+                return false;
+            }
+            size = deadlines.size();
+            append(keyPath, 0);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Whether the deadline of {@code keyPath} itself has passed by {@code nowMillis}. */
+    boolean isDue(String[] keyPath, long nowMillis) {
+        if (size == 0) {
+            return false;
+        }
+        lock.lock();
+        try {
+            Long deadline = deadlines.get(KeyPaths.encode(keyPath));
+            return deadline != null && deadline <= nowMillis;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Whether {@code keyPath} or one of its ancestors has expired by {@code nowMillis}. */
+    boolean expired(String[] keyPath, long nowMillis) {
+        return !expiredAbove(keyPath, nowMillis).isEmpty();
+    }
+
+    /** The paths among {@code keyPath} and its ancestors that have expired by {@code nowMillis}. */
+    List<String[]> expiredAbove(String[] keyPath, long nowMillis) {
+        List<String[]> expired = new ArrayList<>();
+        if (size == 0) {
+            return expired;
+        }
+        lock.lock();
+        try {
+            for (int length = 1; length <= keyPath.length; length++) {
+                Long deadline = deadlines.get(KeyPaths.encode(keyPath, length));
+                if (deadline != null && deadline <= nowMillis) {
+                    expired.add(Arrays.copyOf(keyPath, length));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return expired;
+    }
+
+    /** The descendants of {@code keyPath} that have expired by {@code nowMillis}. */
+    List<String[]> expiredBelow(String[] keyPath, long nowMillis) {
+        List<String[]> expired = new ArrayList<>();
+        if (size == 0) {
+            return expired;
+        }
+        lock.lock();
+        try {
+            for (Map.Entry<String, Long> entry : below(keyPath).entrySet()) {
+                if (entry.getValue() <= nowMillis) {
+                    expired.add(KeyPaths.decode(entry.getKey()));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return expired;
+    }
+
+    /** Whether {@code keyPath}, an ancestor or a descendant has a deadline, expired or not. */
+    boolean covers(String[] keyPath) {
+        if (size == 0) {
+            return false;
+        }
+        lock.lock();
+        try {
+            for (int length = 1; length <= keyPath.length; length++) {
+                if (deadlines.containsKey(KeyPaths.encode(keyPath, length))) {
+                    return true;
+                }
+            }
+            return !below(keyPath).isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Runs {@code operations} as part of one engine batch. If they throw,
+     * every deadline they changed is put back and rescheduled, unless a later
+     * write changed it again, and the exception is rethrown.
+     */
+    <T> T inBatch(Supplier<T> operations) {
+        if (journal.get() != null) {
+            return operations.get();  // Already inside a batch
+        }
+        Journal current = new Journal();
+        journal.set(current);
+        boolean completed = false;
+        try {
+            T result = operations.get();
+            completed = true;
+            return result;
+        } finally {
+            journal.remove();
+            if (!completed && !current.before.isEmpty()) {
+                rollBack(current);
+            }
+        }
+    }
+
+    /** Every deadline, as {@code {"key":[...],"at":<epoch ms>}} objects. */
+    JsonArray toJson() {
+        JsonArray all = new JsonArray();
+        lock.lock();
+        try {
+            for (Map.Entry<String, Long> entry : deadlines.entrySet()) {
+                all.add(entry(KeyPaths.decode(entry.getKey()), entry.getValue()));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return all;
+    }
+
+    /** Replaces every deadline with those {@link #toJson} listed. */
+    void replaceAll(JsonArray all) throws IOException {
+        lock.lock();
+        try {
+            deadlines.clear();
+            for (JsonElement element : all) {
+                JsonObject entry = element.getAsJsonObject();
+                String path = KeyPaths.encode(JsonTree.toKeyPath(entry.getAsJsonArray(Constants.KEY_KEY)));
+                long deadline = entry.get(Constants.KEY_AT).getAsLong();
+                deadlines.put(path, deadline);
+                wheel.schedule(path, deadline);
+            }
+            size = deadlines.size();
+            if (file != null) {
+                compact();
+            }
+            if (size > 0) {
+                startTicker();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (ticker != null) {
+                ticker.shutdownNow();
+            }
+            if (log != null) {
+                if (unforced) {
+                    log.force(false);
+                }
+                log.close();
+                log = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Advances the wheel to now and hands whatever expired to the reaper. */
+    void tick() {
+        long now = System.currentTimeMillis();
+        List<String[]> expired = new ArrayList<>();
+        lock.lock();
+        try {
+            wheel.advance(now, path -> {
+                Long deadline = deadlines.get(path);
+                if (deadline != null && deadline <= now) {
+                    expired.add(KeyPaths.decode(path));
+                }
+            });
+        } finally {
+            lock.unlock();
+        }
+        if (!expired.isEmpty()) {
+            reaper.accept(expired);
+        }
+    }
+
+    private NavigableMap<String, Long> below(String[] keyPath) {
+        if (keyPath.length == 0) {
+            return deadlines;
+        }
+        String path = KeyPaths.encode(keyPath);
+        return deadlines.subMap(KeyPaths.descendantsStart(path), true, KeyPaths.descendantsEnd(path), false);
+    }
+
+    /** Removes the deadlines of {@code path} and its descendants; true if there were any. */
+    private boolean clear(String path) {
+        boolean removed = change(path, null) != null;
+        NavigableMap<String, Long> descendants =
+                deadlines.subMap(KeyPaths.descendantsStart(path), true, KeyPaths.descendantsEnd(path), false);
+        if (!descendants.isEmpty()) {
+            for (String descendant : new ArrayList<>(descendants.keySet())) {
+                change(descendant, null);
+            }
+            removed = true;
+        }
+        return removed;
+    }
+
+    /**
+     * Sets or, with null, removes the deadline of {@code path} and returns
+     * the previous one; inside a batch, the journal keeps both.
+     */
+    private Long change(String path, Long deadline) {
+        Long previous = deadline != null ? deadlines.put(path, deadline) : deadlines.remove(path);
+        Journal current = journal.get();
+        if (current != null) {
+            if (!current.before.containsKey(path)) {
+                current.before.put(path, previous);
+            }
+            current.after.put(path, deadline);
+        }
+        return previous;
+    }
+
+    /** Puts back the deadlines a discarded batch changed. */
+    private void rollBack(Journal discarded) {
+        lock.lock();
+        try {
+            for (Map.Entry<String, Long> entry : discarded.before.entrySet()) {
+                String path = entry.getKey();
+                if (!Objects.equals(deadlines.get(path), discarded.after.get(path))) {
+                    continue;  // Changed again since
+                }
+                Long deadline = entry.getValue();
+                if (deadline != null) {
+                    deadlines.put(path, deadline);
+                    wheel.schedule(path, deadline);  // If already due, on the next tick
+                } else {
+                    deadlines.remove(path);
+                }
+                append(KeyPaths.decode(path), deadline != null ? deadline : 0);
+            }
+            size = deadlines.size();
+            if (size > 0) {
+                startTicker();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to restore key expiries: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void startTicker() {
+        if (ticker != null) {
+            return;
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "ttl-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleWithFixedDelay(this::tickQuietly, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        if (fsync == FsyncPolicy.BATCHED && file != null) {
+            long interval = ServerConfig.fsyncIntervalMillis();
+            ticker.scheduleWithFixedDelay(this::forceQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void forceQuietly() {
+        lock.lock();
+        try {
+            if (log != null && unforced) {
+                log.force(false);
+                unforced = false;
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to force key expiries: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void tickQuietly() {
+        try {
+            tick();
+        } catch (RuntimeException e) {
+            System.err.println("Failed to reap expired keys: " + e.getMessage());
+        }
+    }
+
+    private void append(String[] keyPath, long deadlineMillis) throws IOException {
+        if (file == null) {
+            return;
+        }
+        if (logLines >= MIN_COMPACT_LINES && logLines > 2L * deadlines.size()) {
+            compact();
+        }
+        if (log == null) {
+            log = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(line(keyPath, deadlineMillis) + "\n");
+        while (bytes.hasRemaining()) {
+            log.write(bytes);
+        }
+        logLines++;
+        if (fsync == FsyncPolicy.ALWAYS) {
+            log.force(false);
+        } else if (fsync == FsyncPolicy.BATCHED) {
+            unforced = true;
+        }
+    }
+
+    /** Rewrites the file with one line per live deadline. */
+    private void compact() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Long> entry : deadlines.entrySet()) {
+                writer.write(line(KeyPaths.decode(entry.getKey()), entry.getValue()));
+                writer.write('\n');
+            }
+        }
+        if (fsync.forcesSnapshots()) {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logLines = deadlines.size();
+        unforced = false;
+    }
+
+    private void load() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JsonObject entry;
+                try {
+                    entry = JsonParser.parseString(line).getAsJsonObject();
+                } catch (JsonParseException | IllegalStateException e) {
+                    break;  // Torn last line; compact() below drops it
+                }
+                String path = KeyPaths.encode(JsonTree.toKeyPath(entry.getAsJsonArray(Constants.KEY_KEY)));
+                long deadline = entry.get(Constants.KEY_AT).getAsLong();
+                clear(path);
+                if (deadline > 0) {
+                    deadlines.put(path, deadline);
+                }
+            }
+        }
+        for (Map.Entry<String, Long> entry : deadlines.entrySet()) {
+            wheel.schedule(entry.getKey(), entry.getValue());
+        }
+        size = deadlines.size();
+        compact();
+        if (size > 0) {
+            startTicker();
+        }
+    }
+
+    private static String line(String[] keyPath, long deadlineMillis) {
+        return gson.toJson(entry(keyPath, deadlineMillis));
+    }
+
+    private static JsonObject entry(String[] keyPath, long deadlineMillis) {
+        JsonObject entry = new JsonObject();
+        entry.add(Constants.KEY_KEY, JsonTree.toJsonArray(keyPath));
+        entry.addProperty(Constants.KEY_AT, deadlineMillis);
+        return entry;
+    }
+}
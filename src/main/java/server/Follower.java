@@ -0,0 +1,203 @@
+package server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Keeps an {@link InMemoryDatabaseManager} in step with a leader by pulling
+ * its log. One thread sends {@code replicate} requests with the last sequence
+ * applied here; the leader answers with the entries after it, holding the
+ * request for up to {@code replication.pollWaitMs} when there are none, or
+ * with a full snapshot when they are no longer in its {@link ReplicationLog}.
+ * Entries are logged locally under the leader's sequences, so a restarted
+ * follower resumes where it stopped, and one restarted without
+ * {@code server.leader} takes writes from where its leader left off. The
+ * entries of a leader batch are applied together once its last one arrives,
+ * even if they came in several pulls. The deadlines the leader logs with
+ * its writes, and those in its snapshots, are kept in {@link Expiries} here
+ * too, so keys set with a TTL still expire after a failover.
+ * <p>
+ * The follower counts as stale once it has not been caught up with the
+ * leader for {@code replication.maxStalenessMs}, including before the first
+ * catch-up; reads are refused meanwhile.
+ */
+final class Follower implements Closeable {
+    private static final long RETRY_MILLIS = 1000;
+
+    private final String host;
+    private final int port;
+    private final InMemoryDatabaseManager database;
+    private final Expiries expiries;
+    // Told about every applied change, and with null after a snapshot replaced everything
+    private final Consumer<String[]> changed;
+    private final long maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(ServerConfig.replicationMaxStalenessMillis());
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile Socket socket;
+    // When a pull last ended with nothing left to apply; 0 before the first time
+    private volatile long caughtUpNanos;
+    private volatile long leaderSeq;
+    // Entries of a leader batch whose last entry has not arrived yet
+    private final List<JsonObject> group = new ArrayList<>();
+    private final long pollWaitNanos = TimeUnit.MILLISECONDS.toNanos(ServerConfig.replicationPollWaitMillis());
+
+    Follower(String leader, InMemoryDatabaseManager database, Expiries expiries, Consumer<String[]> changed) {
+        int colon = leader.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("server.leader must be host:port, got " + leader);
+        }
+        this.host = leader.substring(0, colon);
+        this.port = Integer.parseInt(leader.substring(colon + 1));
+        this.database = database;
+        this.expiries = expiries;
+        this.changed = changed;
+        this.thread = new Thread(this::run, "follower");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    boolean isStale() {
+        long caughtUp = caughtUpNanos;
+        return caughtUp == 0 || System.nanoTime() - caughtUp > maxStalenessNanos;
+    }
+
+    JsonObject status() {
+        JsonObject status = new JsonObject();
+        status.addProperty("leader", host + ":" + port);
+        status.addProperty("appliedSeq", database.lastSequence());
+        status.addProperty("leaderSeq", leaderSeq);
+        long caughtUp = caughtUpNanos;
+        status.addProperty("caughtUpMsAgo", caughtUp == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - caughtUp));
+        status.addProperty("stale", isStale());
+        return status;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        Socket current = socket;
+        if (current != null) {
+            current.close();  // Unblocks a pull in progress
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            group.clear();
+            try (Socket connection = connect()) {
+                socket = connection;
+                OutputStream output = new BufferedOutputStream(connection.getOutputStream());
+                DataInputStream input = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+                negotiate(output, input);
+                FrameReader responses = new FrameReader(input, ServerConfig.maxMessageBytes());
+                while (running) {
+                    pull(output, responses);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (running) {
+                    System.err.println("Replication from " + host + ":" + port + " failed, retrying: " + e.getMessage());
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(RETRY_MILLIS));
+                }
+            } finally {
+                socket = null;
+            }
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket connection = new Socket();
+        connection.connect(new InetSocketAddress(host, port));
+        connection.setTcpNoDelay(true);
+        return connection;
+    }
+
+    /** Asks for compressed responses, which pay off on snapshots and long runs of entries. */
+    private static void negotiate(OutputStream output, DataInputStream input) throws IOException {
+        output.write(Protocol.hello(Protocol.VERSION_COMPRESSED));
+        output.flush();
+        byte[] reply = new byte[Protocol.hello().length];
+        input.readFully(reply);
+        if (Protocol.versionOf(reply) == Protocol.VERSION_LEGACY) {
+            throw new IOException("Leader does not speak protocol version 2");
+        }
+    }
+
+    /** Keeps a deadline the leader logged. */
+    private void follow(String[] keyPath, long deadlineMillis) throws IOException {
+        if (deadlineMillis > 0) {
+            expiries.expireAt(keyPath, deadlineMillis);
+        } else {
+            expiries.cleared(keyPath);
+        }
+    }
+
+    private void pull(OutputStream output, FrameReader responses) throws IOException {
+        long pullStart = System.nanoTime();
+        long after = group.isEmpty() ? database.lastSequence()
+                : group.get(group.size() - 1).get(Constants.KEY_SEQ).getAsLong();
+        try (FrameWriter request = new FrameWriter(output)) {
+            request.write("{\"type\":\"replicate\",\"value\":" + after + "}");
+        }
+        JsonObject response = JsonParser.parseString(responses.read()).getAsJsonObject();
+        if (!Constants.RESPONSE_OK.equals(response.get("response").getAsString())) {
+            throw new IOException("Leader refused to replicate: " + response);
+        }
+        long seq = response.get(Constants.KEY_SEQ).getAsLong();
+        if (response.has(Constants.KEY_SNAPSHOT)) {
+            group.clear();
+            database.installSnapshot(response.getAsJsonObject(Constants.KEY_SNAPSHOT), seq);
+            expiries.replaceAll(response.has(Constants.KEY_DEADLINES)
+                    ? response.getAsJsonArray(Constants.KEY_DEADLINES) : new JsonArray());
+            changed.accept(null);
+        } else {
+            JsonArray entries = response.getAsJsonArray(Constants.KEY_ENTRIES);
+            for (JsonElement entry : entries) {
+                JsonObject logged = entry.getAsJsonObject();
+                group.add(logged);
+                if (!logged.has(Constants.KEY_MORE)) {
+                    for (JsonObject applied : database.applyReplicated(group)) {
+                        String[] keyPath = JsonTree.toKeyPath(applied.getAsJsonArray(Constants.KEY_KEY));
+                        if (Constants.OP_EXPIRE.equals(applied.get("op").getAsString())) {
+                            follow(keyPath, applied.get(Constants.KEY_AT).getAsLong());
+                        }
+                        changed.accept(keyPath);
+                    }
+                    group.clear();
+                }
+            }
+            if (entries.isEmpty()) {
+                // A leader holding too many pulls answers at once; do not ask again before the wait is up
+                LockSupport.parkNanos(this, pollWaitNanos - (System.nanoTime() - pullStart));
+            }
+        }
+        leaderSeq = seq;
+        if (database.lastSequence() >= seq) {
+            caughtUpNanos = System.nanoTime();
+        }
+    }
+}
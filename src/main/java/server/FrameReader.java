@@ -0,0 +1,98 @@
+package server;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads version 2 messages, joining continued frames and inflating compressed
+ * ones. The byte buffer is reused between messages.
+ */
+public class FrameReader {
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+    private static final int RETAINED_CAPACITY = 1024 * 1024;
+
+    private final DataInputStream input;
+    private final int maxMessageBytes;
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    // Created by the first compressed frame
+    private Inflater inflater;
+    private byte[] packed;
+
+    public FrameReader(InputStream input, int maxMessageBytes) {
+        this.input = input instanceof DataInputStream ? (DataInputStream) input : new DataInputStream(input);
+        this.maxMessageBytes = maxMessageBytes;
+    }
+
+    /** Returns the next message; throws {@code EOFException} if the stream ends. */
+    public String read() throws IOException {
+        int length = 0;
+        int header;
+        do {
+            header = input.readInt();
+            int chunk = header & Protocol.LENGTH_MASK;
+            if ((header & Protocol.FLAG_COMPRESSED) != 0) {
+                length = inflate(chunk, length);
+            } else {
+                if (length + chunk > maxMessageBytes) {
+                    throw new StreamCorruptedException("Message exceeds " + maxMessageBytes + " bytes");
+                }
+                ensureCapacity(length, length + chunk);
+                input.readFully(buffer, length, chunk);
+                length += chunk;
+            }
+        } while ((header & Protocol.FLAG_MORE) != 0);
+
+        String message = new String(buffer, 0, length, StandardCharsets.UTF_8);
+        if (buffer.length > RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];  // Don't pin one huge message's buffer
+        }
+        return message;
+    }
+
+    /** Reads a compressed chunk of {@code chunk} bytes and appends it inflated; returns the new length. */
+    private int inflate(int chunk, int length) throws IOException {
+        if (chunk > maxMessageBytes) {
+            throw new StreamCorruptedException("Message exceeds " + maxMessageBytes + " bytes");
+        }
+        if (packed == null || packed.length < chunk) {
+            packed = new byte[Math.max(chunk, Protocol.CHUNK_SIZE)];
+        }
+        input.readFully(packed, 0, chunk);
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        inflater.reset();
+        inflater.setInput(packed, 0, chunk);
+        try {
+            while (!inflater.finished()) {
+                if (length == buffer.length) {
+                    ensureCapacity(length, length + Protocol.CHUNK_SIZE);
+                }
+                int inflated = inflater.inflate(buffer, length, buffer.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new StreamCorruptedException("Truncated compressed frame");
+                }
+                length += inflated;
+                if (length > maxMessageBytes) {
+                    throw new StreamCorruptedException("Message exceeds " + maxMessageBytes + " bytes");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException("Corrupt compressed frame: " + e.getMessage());
+        }
+        return length;
+    }
+
+    private void ensureCapacity(int length, int needed) {
+        if (needed > buffer.length) {
+            byte[] grown = new byte[Math.max(needed, buffer.length * 2)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+/**
+ * Writes one version 2 message. Text is encoded to UTF-8 as it arrives and
+ * sent in chunks of at most {@link Protocol#CHUNK_SIZE} bytes, so a large
+ * response never exists as a single String or byte array. {@link #close()}
+ * ends the message; it does not close the underlying stream.
+ * <p>
+ * Given a {@link Deflater}, chunks of at least {@code compressMinBytes} are
+ * sent compressed when that makes them smaller. The deflater is reset for
+ * every chunk, so each frame decodes on its own.
+ */
+public class FrameWriter extends Writer {
+    // UTF-8 needs at most 3 bytes per char, so a full char buffer always fits one chunk
+    private static final int CHARS_PER_CHUNK = Protocol.CHUNK_SIZE / 3;
+
+    private final OutputStream output;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final CharBuffer chars = CharBuffer.allocate(CHARS_PER_CHUNK);
+    private final ByteBuffer frame = ByteBuffer.allocate(Protocol.HEADER_SIZE + Protocol.CHUNK_SIZE);
+    // Null unless the peer accepts compressed frames
+    private final Deflater deflater;
+    private final int compressMinBytes;
+    private byte[] packed;
+
+    public FrameWriter(OutputStream output) {
+        this(output, null, 0);
+    }
+
+    public FrameWriter(OutputStream output, Deflater deflater, int compressMinBytes) {
+        this.output = output;
+        this.deflater = deflater;
+        this.compressMinBytes = compressMinBytes;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, chars.remaining());
+            chars.put(cbuf, off, n);
+            off += n;
+            len -= n;
+            if (!chars.hasRemaining()) {
+                emit(false);
+            }
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, chars.remaining());
+            str.getChars(off, off + n, chars.array(), chars.position());
+            chars.position(chars.position() + n);
+            off += n;
+            len -= n;
+            if (!chars.hasRemaining()) {
+                emit(false);
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+        // Frames go out as chunks fill up and on close
+    }
+
+    @Override
+    public void close() throws IOException {
+        emit(true);
+        output.flush();
+    }
+
+    private void emit(boolean last) throws IOException {
+        chars.flip();
+        frame.clear().position(Protocol.HEADER_SIZE);
+        CoderResult result = encoder.encode(chars, frame, last);
+        if (last) {
+            encoder.flush(frame);
+            encoder.reset();
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+        chars.compact();  // Keeps a trailing high surrogate for the next chunk
+        int length = frame.position() - Protocol.HEADER_SIZE;
+        int flags = last ? 0 : Protocol.FLAG_MORE;
+        if (deflater != null && length >= compressMinBytes && length > 0 && compress(length, flags)) {
+            return;
+        }
+        frame.putInt(0, length | flags);
+        output.write(frame.array(), 0, frame.position());
+    }
+
+    /** Sends the chunk in {@code frame} compressed, unless that would not make it smaller. */
+    private boolean compress(int length, int flags) throws IOException {
+        if (packed == null) {
+            packed = new byte[Protocol.HEADER_SIZE + Protocol.CHUNK_SIZE];
+        }
+        deflater.reset();
+        deflater.setInput(frame.array(), Protocol.HEADER_SIZE, length);
+        deflater.finish();
+        // Room for one byte less than the chunk, so a stream that fits is a saving
+        int packedLength = deflater.deflate(packed, Protocol.HEADER_SIZE, length - 1);
+        if (!deflater.finished()) {
+            return false;
+        }
+        ByteBuffer.wrap(packed).putInt(0, packedLength | flags | Protocol.FLAG_COMPRESSED);
+        output.write(packed, 0, Protocol.HEADER_SIZE + packedLength);
+        Metrics.COMPRESSED_FRAMES.increment();
+        Metrics.COMPRESSED_BYTES_SAVED.add(length - packedLength);
+        return true;
+    }
+}
@@ -0,0 +1,31 @@
+package server;
+
+import java.util.Locale;
+
+/**
+ * When written data is forced to the storage device ({@code db.fsync}).
+ * <ul>
+ *   <li>{@code always}: every log append and every snapshot is forced before it
+ *   is acknowledged. Concurrent appends share one force (see {@link GroupCommit}).</li>
+ *   <li>{@code batched}: the log is forced every {@code db.fsyncIntervalMs} by a
+ *   background thread, so a crash loses at most that window; snapshots are
+ *   forced before they replace the previous one.</li>
+ *   <li>{@code never}: writes reach the OS page cache only.</li>
+ * </ul>
+ */
+public enum FsyncPolicy {
+    ALWAYS, BATCHED, NEVER;
+
+    public static FsyncPolicy parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown fsync policy: " + name, e);
+        }
+    }
+
+    /** Whether snapshots are forced before the rename that publishes them. */
+    boolean forcesSnapshots() {
+        return this != NEVER;
+    }
+}
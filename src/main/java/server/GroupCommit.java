@@ -0,0 +1,125 @@
+package server;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Leader/follower group commit for {@code db.fsync=always}. Writers append
+ * without forcing, release their locks and call {@link #await} with the
+ * position of their write (any number that grows with every write). The first
+ * waiter that finds no force in progress leads: it forces everything written
+ * so far with one call while later writers queue up behind it, and the next
+ * leader forces all of those together. Under load one force covers many
+ * writes, so throughput grows with the number of writers.
+ * <p>
+ * With {@code db.groupCommitWindowUs} set, a leader first waits up to that
+ * long for more writes, or until {@code db.groupCommitMaxWrites} are pending.
+ */
+final class GroupCommit {
+    /** Forces everything written before the call to the device. */
+    interface Force {
+        void force() throws IOException;
+    }
+
+    private final LongSupplier written;
+    private final Force force;
+    private final long windowNanos;
+    private final long maxPending;
+    private final Lock lock = new ReentrantLock();
+    private final Condition forced = lock.newCondition();
+    private volatile long durable;
+    private boolean forcing;
+    // Last failed force and the positions it covered, reported to their writers
+    private IOException failure;
+    private long failedThrough;
+    // Leader waiting out the window, woken early when enough writes are pending
+    private volatile Thread gathering;
+
+    GroupCommit(LongSupplier written, Force force) {
+        this(written, force, ServerConfig.groupCommitWindowMicros(), ServerConfig.groupCommitMaxWrites());
+    }
+
+    GroupCommit(LongSupplier written, Force force, long windowMicros, int maxPending) {
+        this.written = written;
+        this.force = force;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxPending = maxPending;
+    }
+
+    /** Tells a leader waiting out the window that {@code position} was written. */
+    void written(long position) {
+        Thread leader = gathering;
+        if (leader != null && position - durable >= maxPending) {
+            LockSupport.unpark(leader);
+        }
+    }
+
+    /** Returns once the write at {@code position} is on the device. */
+    void await(long position) throws IOException {
+        if (durable >= position) {
+            return;
+        }
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            while (durable < position) {
+                if (failure != null && position <= failedThrough) {
+                    throw new IOException("Failed to force write to disk", failure);
+                }
+                if (forcing) {
+                    forced.awaitUninterruptibly();
+                    continue;
+                }
+                forcing = true;
+                lock.unlock();
+                long target = 0;
+                IOException error = null;
+                try {
+                    gather();
+                    target = written.getAsLong();
+                    force.force();
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    lock.lock();
+                    forcing = false;
+                    if (error == null) {
+                        durable = Math.max(durable, target);
+                    } else {
+                        failure = error;
+                        failedThrough = target;
+                    }
+                    forced.signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+            Metrics.SYNC_WAIT.recordSince(start);
+        }
+    }
+
+    long durable() {
+        return durable;
+    }
+
+    private void gather() {
+        if (windowNanos <= 0) {
+            return;
+        }
+        gathering = Thread.currentThread();
+        try {
+            long deadline = System.nanoTime() + windowNanos;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0 && written.getAsLong() - durable < maxPending) {
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            gathering = null;
+        }
+    }
+}
@@ -0,0 +1,595 @@
+package server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the whole database in heap. Mutations are appended to {@code db.log},
+ * a {@link Delta} as just its operand; startup loads {@code db.snapshot} and
+ * replays the log over it. Reads never touch the disk. A {@link Snapshotter}
+ * writes new snapshots in the background as configured by
+ * {@code db.snapshotEveryWrites} and {@code db.snapshotIntervalMs}, and on close.
+ * <p>
+ * Each top-level key is its own subtree, guarded by a lock stripe chosen by
+ * that key, so writers on different top-level keys do not block each other.
+ * Reads look the node up in a {@link PathIndex} instead of walking the tree.
+ * <p>
+ * Reads are uncommitted: a write is applied and its stripe released once its
+ * entry is flushed, and only then does the writer wait for the force that
+ * {@link FsyncPolicy#ALWAYS} needs, so other clients may read a value that a
+ * crash before the force loses. If the force fails the writer is told so,
+ * but the change stays applied and logged; it is not taken back, as writes
+ * after it may already have read or built on it. Followers are shipped only
+ * durable entries, so they never read such a value.
+ * <p>
+ * The latest log entries are also kept in a {@link ReplicationLog} for
+ * followers, which apply them with {@link #applyReplicated} and start from
+ * {@link #snapshot()} when they are too far behind.
+ */
+public class InMemoryDatabaseManager implements DatabaseManagerInterface {
+    private static final Gson gson = new Gson();
+    private final Map<String, JsonElement> roots = new ConcurrentHashMap<>();
+    // Every node by its full path; roots are added by hand since they live in the map above
+    private final PathIndex paths = new PathIndex(null);
+    private final StripedLocks locks;
+    private final Path snapshotPath;
+    private final WriteAheadLog log;
+    private final FsyncPolicy fsync;
+    private final Codec codec = ServerConfig.storageCodec();
+    private final Snapshotter snapshotter;
+    private final ReplicationLog replication;
+    // Keeps a background snapshot and the one taken on close from overlapping
+    private final Lock checkpointLock = new ReentrantLock();
+    // The batch running on this thread, logged in one flush when it ends
+    private final ThreadLocal<Batch> batch = new ThreadLocal<>();
+
+    /**
+     * The entries of a batch, and what each of its changes replaced so they
+     * can be taken back if the entries cannot be logged.
+     */
+    private static final class Batch {
+        final List<JsonObject> entries = new ArrayList<>();
+        // Per change, oldest first: the path and what it held before, or null to delete it
+        final List<String[]> undoPaths = new ArrayList<>();
+        final List<JsonElement> undoValues = new ArrayList<>();
+    }
+
+    public InMemoryDatabaseManager(Path directory) throws IOException {
+        this.locks = new StripedLocks(ServerConfig.lockStripes());
+        this.snapshotPath = directory.resolve("db.snapshot");
+        long snapshotSeq = 0;
+        if (Files.exists(snapshotPath)) {
+            snapshotSeq = loadSnapshot();
+        } else {
+            loadLegacyDatabase(directory.resolve("db.json"));
+        }
+        this.fsync = ServerConfig.fsyncPolicy();
+        this.log = new WriteAheadLog(directory.resolve("db.log"), fsync, ServerConfig.fsyncIntervalMillis());
+        log.replay(snapshotSeq, this::apply);
+        this.replication = new ReplicationLog(ServerConfig.replicationLogEntries(), log.lastSequence());
+        log.replicateTo(replication);
+        checkpoint();
+        this.snapshotter = new Snapshotter("snapshotter", ServerConfig.snapshotEveryWrites(),
+                ServerConfig.snapshotIntervalMillis(), this::checkpoint);
+    }
+
+    public boolean set(String[] keyPath, JsonElement value) {
+        long seq;
+        Lock lock = locks.forKey(keyPath[0]).writeLock();
+        Metrics.lock(lock);
+        try {
+            if (!canSet(keyPath)) {
+                return false;  // Not logged, so it is neither replayed nor shipped to followers
+            }
+            JsonObject entry = entry(Constants.TYPE_SET, keyPath);
+            entry.add(Constants.KEY_VALUE, value);
+            seq = append(entry);
+            rememberUndo(keyPath, false);
+            applySet(keyPath, value);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+        return awaitDurable(seq);
+    }
+
+    public JsonElement get(String[] keyPath) {
+        Lock lock = locks.forKey(keyPath[0]).readLock();
+        Metrics.lock(lock);
+        try {
+            JsonElement value = find(keyPath);
+            // Copy so the caller can serialize it after the lock is released
+            return value != null ? value.deepCopy() : JsonNull.INSTANCE;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean delete(String[] keyPath) {
+        long seq;
+        boolean applied;
+        Lock lock = locks.forKey(keyPath[0]).writeLock();
+        Metrics.lock(lock);
+        try {
+            if (find(keyPath) == null) {
+                return false;
+            }
+            seq = append(entry(Constants.TYPE_DELETE, keyPath));
+            rememberUndo(keyPath, false);
+            applied = applyDelete(keyPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+        return awaitDurable(seq) && applied;
+    }
+
+    /** Logs only {@code operand}, and changes arrays and objects in place rather than replacing them. */
+    @Override
+    public JsonElement update(String[] keyPath, Delta delta, JsonElement operand) {
+        long seq;
+        JsonElement next;
+        Lock lock = locks.forKey(keyPath[0]).writeLock();
+        Metrics.lock(lock);
+        try {
+            if (!canSet(keyPath) || !delta.accepts(find(keyPath), operand)) {
+                return null;
+            }
+            JsonObject entry = entry(delta.type(), keyPath);
+            entry.add(Constants.KEY_VALUE, operand);
+            seq = append(entry);
+            rememberUndo(keyPath, true);
+            next = applyUpdate(keyPath, delta, operand);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to persist update", e);
+        } finally {
+            lock.unlock();
+        }
+        try {
+            log.awaitDurable(seq);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to persist update", e);
+        }
+        return next;
+    }
+
+    @Override
+    public void logExpiry(String[] keyPath, long deadlineMillis) throws IOException {
+        JsonObject entry = entry(Constants.OP_EXPIRE, keyPath);
+        entry.addProperty(Constants.KEY_AT, deadlineMillis);
+        Lock lock = locks.forKey(keyPath[0]).writeLock();
+        Metrics.lock(lock);
+        try {
+            append(entry);  // Changes no data, so there is nothing to undo
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<String> childKeys(String[] keyPath) {
+        List<String> keys;
+        if (keyPath.length == 0) {
+            keys = new ArrayList<>(roots.keySet());
+        } else {
+            Lock lock = locks.forKey(keyPath[0]).readLock();
+            Metrics.lock(lock);
+            try {
+                JsonElement node = find(keyPath);
+                if (node == null || !node.isJsonObject()) {
+                    return null;
+                }
+                keys = new ArrayList<>(node.getAsJsonObject().keySet());
+            } finally {
+                lock.unlock();
+            }
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    @Override
+    public <T> T inBatch(Collection<String> topLevelKeys, Supplier<T> operations) {
+        if (batch.get() != null) {
+            return operations.get();  // Already inside a batch
+        }
+        int[] stripes = locks.lockKeys(topLevelKeys);
+        Batch current = new Batch();
+        batch.set(current);
+        T result;
+        long seq = 0;
+        boolean logged = false;
+        try {
+            result = operations.get();
+            if (!current.entries.isEmpty()) {
+                for (int i = 0; i < current.entries.size() - 1; i++) {
+                    current.entries.get(i).addProperty(Constants.KEY_MORE, true);
+                }
+                long start = System.nanoTime();
+                seq = log.appendAll(current.entries);
+                Metrics.DISK_SAVE.recordSince(start);
+                for (int i = 0; i < current.entries.size(); i++) {
+                    snapshotter.written();
+                }
+            }
+            logged = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to persist batch", e);
+        } finally {
+            if (!logged) {
+                rollBack(current);  // Still under the stripes, so no reader saw the changes
+            }
+            batch.remove();
+            locks.unlock(stripes);
+        }
+        try {
+            log.awaitDurable(seq);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to persist batch", e);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the current tree to {@code db.snapshot} (via a temp file and an
+     * atomic rename) and drops the log segments it covers. Writers are only
+     * held up while the tree is copied and the log rotated, not while the
+     * snapshot is written.
+     */
+    public void checkpoint() throws IOException {
+        checkpointLock.lock();
+        try {
+            JsonObject data;
+            long seq;
+            locks.lockAll();
+            try {
+                data = copyData();
+                seq = log.rotate();
+            } finally {
+                locks.unlockAll();
+            }
+            JsonObject snapshot = new JsonObject();
+            snapshot.addProperty("seq", seq);
+            snapshot.add("data", data);
+            AtomicFiles.writeJson(snapshotPath, snapshot, fsync.forcesSnapshots(), codec);
+            log.deleteSegmentsThrough(seq);
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    @Override
+    public Path directory() {
+        return snapshotPath.getParent();
+    }
+
+    /** The sequence of the last entry logged. */
+    long lastSequence() {
+        return log.lastSequence();
+    }
+
+    /** The sequence of the last entry followers can pull, which is durable by the fsync policy. */
+    long lastReplicated() {
+        return replication.lastSeq();
+    }
+
+    /**
+     * Up to {@code max} logged entries after {@code afterSeq}, as JSON lines,
+     * waiting up to {@code waitMillis} for one; null if they are no longer kept.
+     */
+    List<String> logSince(long afterSeq, int max, long waitMillis) throws InterruptedException {
+        return replication.since(afterSeq, max, waitMillis);
+    }
+
+    /**
+     * A copy of the data with the sequence of the last entry it includes,
+     * returned once those entries are durable, so a follower is never handed
+     * a write the leader could still lose.
+     */
+    JsonObject snapshot() throws IOException {
+        JsonObject snapshot = new JsonObject();
+        long seq;
+        locks.lockAll();
+        try {
+            seq = log.lastSequence();
+            snapshot.addProperty("seq", seq);
+            snapshot.add("data", copyData());
+        } finally {
+            locks.unlockAll();
+        }
+        log.awaitDurable(seq);
+        return snapshot;
+    }
+
+    /**
+     * Logs the entries of one leader batch under the leader's sequences and
+     * applies them, holding the stripes of all their keys throughout, so a
+     * reader sees the batch whole or not at all. Returns the entries applied,
+     * leaving out those whose sequence was applied before.
+     */
+    List<JsonObject> applyReplicated(List<JsonObject> entries) throws IOException {
+        Set<String> topLevelKeys = new HashSet<>();
+        for (JsonObject entry : entries) {
+            topLevelKeys.add(entry.getAsJsonArray(Constants.KEY_KEY).get(0).getAsString());
+        }
+        List<JsonObject> applied = new ArrayList<>(entries.size());
+        int[] stripes = locks.lockKeys(topLevelKeys);
+        try {
+            for (JsonObject entry : entries) {
+                if (log.appendNumbered(entry)) {
+                    apply(entry);
+                    applied.add(entry);
+                }
+            }
+        } finally {
+            locks.unlock(stripes);
+            for (int i = 0; i < applied.size(); i++) {
+                snapshotter.written();
+            }
+        }
+        return applied;
+    }
+
+    /** Replaces all data with a leader's snapshot taken at {@code seq} and drops the local log. */
+    void installSnapshot(JsonObject data, long seq) throws IOException {
+        checkpointLock.lock();
+        try {
+            locks.lockAll();
+            try {
+                for (String key : new ArrayList<>(roots.keySet())) {
+                    paths.remove(new String[]{key}, roots.remove(key));
+                }
+                load(data);
+                log.reset(seq);
+            } finally {
+                locks.unlockAll();
+            }
+        } finally {
+            checkpointLock.unlock();
+        }
+        checkpoint();
+    }
+
+    @Override
+    public void close() throws IOException {
+        snapshotter.close();  // Takes the final snapshot
+        log.close();
+    }
+
+    StripedLocks locks() {
+        return locks;
+    }
+
+    /** Logs {@code entry} and returns its sequence, or 0 inside a batch. */
+    private long append(JsonObject entry) throws IOException {
+        Batch current = batch.get();
+        if (current != null) {
+            // Serialized only at the end of the batch, after later operations may
+            // have changed the value node in the tree
+            current.entries.add(entry.deepCopy());
+            return 0;
+        }
+        long start = System.nanoTime();
+        long seq = log.append(entry);
+        Metrics.DISK_SAVE.recordSince(start);
+        snapshotter.written();
+        return seq;
+    }
+
+    /**
+     * Inside a batch, remembers what a change to {@code keyPath} replaces: the
+     * value there, copied if the change works in place, or else the highest
+     * missing ancestor, which the change creates.
+     */
+    private void rememberUndo(String[] keyPath, boolean inPlace) {
+        Batch current = batch.get();
+        if (current == null) {
+            return;
+        }
+        for (int length = 1; length <= keyPath.length; length++) {
+            String[] path = length < keyPath.length ? Arrays.copyOf(keyPath, length) : keyPath;
+            JsonElement value = find(path);
+            if (value == null || length == keyPath.length) {
+                // A value that is replaced rather than changed is never reachable again, so needs no copy
+                current.undoPaths.add(path);
+                current.undoValues.add(value != null && inPlace ? value.deepCopy() : value);
+                return;
+            }
+        }
+    }
+
+    /** Takes back the changes of a batch that was not logged, newest first; the caller holds their stripes. */
+    private void rollBack(Batch current) {
+        for (int i = current.undoPaths.size() - 1; i >= 0; i--) {
+            String[] keyPath = current.undoPaths.get(i);
+            JsonElement before = current.undoValues.get(i);
+            if (before != null) {
+                applySet(keyPath, before);
+            } else {
+                applyDelete(keyPath);
+            }
+        }
+    }
+
+    /**
+     * Waits, without holding any stripe, until the entry {@code seq} is
+     * forced; false if that failed, though the change stays applied.
+     */
+    private boolean awaitDurable(long seq) {
+        try {
+            log.awaitDurable(seq);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /** Deep copy of every root; the caller holds every stripe. */
+    private JsonObject copyData() {
+        JsonObject data = new JsonObject();
+        roots.forEach((key, value) -> data.add(key, value.deepCopy()));
+        return data;
+    }
+
+    private JsonElement find(String[] keyPath) {
+        return keyPath.length == 1 ? roots.get(keyPath[0]) : paths.get(keyPath);
+    }
+
+    private boolean applySet(String[] keyPath, JsonElement value) {
+        if (keyPath.length == 1) {
+            putRoot(keyPath[0], value);
+            return true;
+        }
+        if (!roots.containsKey(keyPath[0])) {
+            putRoot(keyPath[0], new JsonObject());
+        }
+        return paths.set(keyPath, value);
+    }
+
+    /** Whether no node above {@code keyPath} is a non-object, which would make a set there fail. */
+    private boolean canSet(String[] keyPath) {
+        for (int length = keyPath.length - 1; length > 0; length--) {
+            JsonElement ancestor = find(Arrays.copyOf(keyPath, length));
+            if (ancestor != null) {
+                return ancestor.isJsonObject();
+            }
+        }
+        return true;
+    }
+
+    /** Applies an accepted delta and returns the new value as {@link #update} does. */
+    private JsonElement applyUpdate(String[] keyPath, Delta delta, JsonElement operand) {
+        JsonElement current = find(keyPath);
+        if (current == null || !(current.isJsonArray() || current.isJsonObject())) {
+            JsonElement next = delta.apply(current, operand);
+            applySet(keyPath, next);
+            return next.isJsonPrimitive() ? next : JsonNull.INSTANCE;
+        }
+        if (delta != Delta.MERGE) {
+            delta.apply(current, operand);  // Array elements are not indexed
+            return JsonNull.INSTANCE;
+        }
+        // Only the members the patch touches are reindexed
+        JsonObject object = current.getAsJsonObject();
+        String[] childPath = Arrays.copyOf(keyPath, keyPath.length + 1);
+        for (String key : operand.getAsJsonObject().keySet()) {
+            JsonElement old = object.get(key);
+            if (old != null) {
+                childPath[keyPath.length] = key;
+                paths.remove(childPath, old);
+            }
+        }
+        delta.apply(object, operand);
+        for (String key : operand.getAsJsonObject().keySet()) {
+            JsonElement merged = object.get(key);
+            if (merged != null) {
+                childPath[keyPath.length] = key;
+                paths.add(childPath, merged);
+            }
+        }
+        return JsonNull.INSTANCE;
+    }
+
+    private boolean applyDelete(String[] keyPath) {
+        if (keyPath.length == 1) {
+            JsonElement old = roots.remove(keyPath[0]);
+            if (old != null) {
+                paths.remove(keyPath, old);
+            }
+            return old != null;
+        }
+        return paths.delete(keyPath);
+    }
+
+    private void putRoot(String key, JsonElement value) {
+        String[] keyPath = {key};
+        JsonElement old = roots.put(key, value);
+        if (old != null) {
+            paths.remove(keyPath, old);
+        }
+        paths.add(keyPath, value);
+    }
+
+    private static JsonObject entry(String op, String[] keyPath) {
+        JsonObject entry = new JsonObject();
+        entry.addProperty("op", op);
+        entry.add(Constants.KEY_KEY, JsonTree.toJsonArray(keyPath));
+        return entry;
+    }
+
+    private void apply(JsonObject entry) {
+        String[] keyPath = JsonTree.toKeyPath(entry.getAsJsonArray(Constants.KEY_KEY));
+        switch (entry.get("op").getAsString()) {
+            case Constants.TYPE_SET:
+                applySet(keyPath, entry.get(Constants.KEY_VALUE));
+                break;
+            case Constants.TYPE_DELETE:
+                applyDelete(keyPath);
+                break;
+            case Constants.TYPE_INCR:
+            case Constants.TYPE_APPEND:
+            case Constants.TYPE_MERGE:
+                Delta delta = Delta.of(entry.get("op").getAsString());
+                JsonElement operand = entry.get(Constants.KEY_VALUE);
+                if (canSet(keyPath) && delta.accepts(find(keyPath), operand)) {
+                    applyUpdate(keyPath, delta, operand);
+                }
+                break;
+            case Constants.OP_EXPIRE:
+                break;  // Only for followers, which pick it up from the entries they apply
+            default:
+                throw new IllegalStateException("Unknown log entry: " + entry);
+        }
+    }
+
+    private long loadSnapshot() throws IOException {
+        long start = System.nanoTime();
+        try (Reader reader = Codec.reader(snapshotPath)) {
+            JsonObject snapshot = gson.fromJson(reader, JsonObject.class);
+            Metrics.DISK_LOAD.recordSince(start);
+            load(snapshot.getAsJsonObject("data"));
+            return snapshot.get("seq").getAsLong();
+        }
+    }
+
+    private void loadLegacyDatabase(Path legacyPath) throws IOException {
+        if (Files.exists(legacyPath)) {
+            try (Reader reader = Codec.reader(legacyPath)) {
+                JsonObject legacy = gson.fromJson(reader, JsonObject.class);
+                if (legacy != null) {
+                    load(legacy);
+                }
+            }
+        }
+    }
+
+    private void load(JsonObject data) {
+        for (Map.Entry<String, JsonElement> member : data.entrySet()) {
+            putRoot(member.getKey(), member.getValue());
+        }
+    }
+}
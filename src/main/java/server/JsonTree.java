@@ -0,0 +1,143 @@
+package server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Path operations on a JSON tree, shared by the storage engines.
+ */
+final class JsonTree {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private JsonTree() {
+    }
+
+    static boolean set(JsonObject root, String[] keyPath, JsonElement value) {
+        JsonObject current = root;
+        for (int i = 0; i < keyPath.length - 1; i++) {
+            String key = keyPath[i];
+            JsonElement next = current.get(key);
+            if (next == null) {
+                JsonObject newObject = new JsonObject();
+                current.add(key, newObject);  // Create a new object for the next level
+                current = newObject;
+            } else if (next.isJsonObject()) {
+                current = next.getAsJsonObject();
+            } else {
+                return false;  // Next element is not a JsonObject, and we're not at the last key
+            }
+        }
+        current.add(keyPath[keyPath.length - 1], value);
+        return true;
+    }
+
+    static JsonElement get(JsonObject root, String[] keyPath) {
+        JsonElement current = root;
+        for (String key : keyPath) {
+            if (!current.isJsonObject()) {
+                return null;
+            }
+            current = current.getAsJsonObject().get(key);
+            if (current == null) {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    static boolean delete(JsonObject root, String[] keyPath) {
+        JsonElement parent = get(root, Arrays.copyOf(keyPath, keyPath.length - 1));
+        if (parent == null || !parent.isJsonObject()) {
+            return false;
+        }
+        return parent.getAsJsonObject().remove(keyPath[keyPath.length - 1]) != null;
+    }
+
+    static String[] toKeyPath(JsonArray keyArray) {
+        String[] keyPath = new String[keyArray.size()];
+        for (int i = 0; i < keyPath.length; i++) {
+            keyPath[i] = keyArray.get(i).getAsString();
+        }
+        return keyPath;
+    }
+
+    static JsonArray toJsonArray(String[] keyPath) {
+        JsonArray keyArray = new JsonArray(keyPath.length);
+        for (String key : keyPath) {
+            keyArray.add(key);
+        }
+        return keyArray;
+    }
+
+    /**
+     * The version {@code cas} compares: a 64-bit fingerprint of the value as
+     * hex, or null for no value. Values that are {@link JsonElement#equals}
+     * get the same version whatever the order of their object members, so it
+     * survives an engine storing members in another order.
+     */
+    static String version(JsonElement value) {
+        if (value == null || value.isJsonNull()) {
+            return null;
+        }
+        return String.format("%016x", hash(value, FNV_OFFSET));
+    }
+
+    private static long hash(JsonElement value, long hash) {
+        if (value.isJsonObject()) {
+            JsonObject object = value.getAsJsonObject();
+            List<String> keys = new ArrayList<>(object.keySet());
+            Collections.sort(keys);
+            hash = mix(hash, '{');
+            for (String key : keys) {
+                hash = hash(object.get(key), mix(hash(key, mix(hash, '"')), ':'));
+            }
+            return mix(hash, '}');
+        }
+        if (value.isJsonArray()) {
+            hash = mix(hash, '[');
+            for (JsonElement element : value.getAsJsonArray()) {
+                hash = mix(hash(element, hash), ',');
+            }
+            return mix(hash, ']');
+        }
+        if (value.isJsonNull()) {
+            return mix(hash, 'n');
+        }
+        JsonPrimitive primitive = value.getAsJsonPrimitive();
+        if (primitive.isNumber()) {
+            // Numbers are equal by value, so 1 and 1.0 must hash alike
+            double number = primitive.getAsDouble();
+            long bits = Double.doubleToLongBits(number == 0 ? 0 : number);
+            for (int shift = 0; shift < 64; shift += 16) {
+                hash = mix(hash, (char) (bits >>> shift));
+            }
+            return mix(hash, '#');
+        }
+        if (primitive.isBoolean()) {
+            return mix(hash, primitive.getAsBoolean() ? 't' : 'f');
+        }
+        return mix(hash(primitive.getAsString(), mix(hash, '"')), '"');
+    }
+
+    private static long hash(String text, long hash) {
+        // Length first, so no two sequences of strings run together alike
+        hash = mix(mix(hash, (char) text.length()), (char) (text.length() >>> 16));
+        for (int i = 0; i < text.length(); i++) {
+            hash = mix(hash, text.charAt(i));
+        }
+        return hash;
+    }
+
+    /** One FNV-1a step over a UTF-16 unit. */
+    private static long mix(long hash, char c) {
+        return (hash ^ c) * FNV_PRIME;
+    }
+}
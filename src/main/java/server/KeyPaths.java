@@ -0,0 +1,70 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes a key path as one string, so a path can be a map key. Segments are
+ * joined with {@link #SEPARATOR}, the lowest char, after escaping it inside
+ * segments; that way every descendant of {@code p} sorts in the range
+ * [{@code p + SEPARATOR}, {@link #descendantsEnd(String)}).
+ */
+final class KeyPaths {
+    static final char SEPARATOR = '\u0000';
+    private static final char ESCAPE = '\u0001';
+
+    private KeyPaths() {
+    }
+
+    static String encode(String[] keyPath) {
+        return encode(keyPath, keyPath.length);
+    }
+
+    /** Encodes the first {@code length} segments of {@code keyPath}. */
+    static String encode(String[] keyPath, int length) {
+        StringBuilder encoded = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                encoded.append(SEPARATOR);
+            }
+            String segment = keyPath[i];
+            for (int c = 0; c < segment.length(); c++) {
+                char ch = segment.charAt(c);
+                if (ch == SEPARATOR || ch == ESCAPE) {
+                    encoded.append(ESCAPE).append((char) (ch + 1));
+                } else {
+                    encoded.append(ch);
+                }
+            }
+        }
+        return encoded.toString();
+    }
+
+    static String[] decode(String encoded) {
+        List<String> segments = new ArrayList<>();
+        StringBuilder segment = new StringBuilder();
+        for (int i = 0; i < encoded.length(); i++) {
+            char ch = encoded.charAt(i);
+            if (ch == SEPARATOR) {
+                segments.add(segment.toString());
+                segment.setLength(0);
+            } else if (ch == ESCAPE) {
+                segment.append((char) (encoded.charAt(++i) - 1));
+            } else {
+                segment.append(ch);
+            }
+        }
+        segments.add(segment.toString());
+        return segments.toArray(new String[0]);
+    }
+
+    /** First key of the descendants of {@code encoded}. */
+    static String descendantsStart(String encoded) {
+        return encoded + SEPARATOR;
+    }
+
+    /** Bound just past the last descendant of {@code encoded}. */
+    static String descendantsEnd(String encoded) {
+        return encoded + ESCAPE;
+    }
+}
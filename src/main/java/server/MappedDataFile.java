@@ -0,0 +1,408 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only record file, memory-mapped in regions of {@code regionSize}
+ * bytes. A record never crosses a region boundary; when it does not fit, the
+ * rest of the region stays zero and the record starts the next region.
+ * <p>
+ * Layout: a header {@code [magic][version][generation]}, then records
+ * {@code [length][crc32][op][pathLength][path][value]}, where {@code length}
+ * and the checksum cover everything from {@code op} on and the path and value
+ * are UTF-8. A zero length marks the end of the data in a region. The
+ * generation changes whenever the file is rewritten, so an index saved for an
+ * older file is never applied to a newer one.
+ * <p>
+ * The records of one write are appended back to back by {@link #appendAll};
+ * every one but the last has {@link #CONTINUED} set in its {@code op}, so
+ * recovery applies a write whole or not at all. A write may also span
+ * several appends between {@link #begin} and {@link #commit}, which keep
+ * them contiguous; {@link #abort} clears them again.
+ */
+final class MappedDataFile implements Closeable {
+    static final byte PUT_VALUE = 1;
+    static final byte PUT_EMPTY_OBJECT = 2;
+    static final byte DELETE = 3;
+    // Set in the op of a record that the next one completes
+    private static final int CONTINUED = 0x80;
+
+    static final long HEADER_SIZE = 16;
+    private static final int MAGIC = 0x4A44_4231;  // "JDB1"
+    private static final int VERSION = 1;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int BODY_HEADER_SIZE = 5;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int regionSize;
+    private final Lock appendLock = new ReentrantLock();
+    // Replaced, never changed in place, when a region is added
+    private volatile MappedByteBuffer[] regions;
+    private long generation;
+    private long end = HEADER_SIZE;
+    // Where the write opened by begin() starts, or -1; only read and written under the append lock
+    private long openStart = -1;
+    // Last record of that write, which commit() completes, or -1
+    private long openLast = -1;
+
+    /** One record, as read back from the file. */
+    static final class Record {
+        final long offset;
+        final int size;
+        final byte op;
+        final String path;
+        final byte[] value;
+
+        Record(long offset, int size, byte op, String path, byte[] value) {
+            this.offset = offset;
+            this.size = size;
+            this.op = op;
+            this.path = path;
+            this.value = value;
+        }
+
+        /** A record to append. */
+        Record(byte op, String path, byte[] value) {
+            this(-1, 0, op, path, value);
+        }
+    }
+
+    private MappedDataFile(Path path, int regionSize) throws IOException {
+        this.path = path;
+        this.regionSize = regionSize;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long size = channel.size();
+        int count = (int) ((size + regionSize - 1) / regionSize);
+        MappedByteBuffer[] mapped = new MappedByteBuffer[Math.max(1, count)];
+        for (int i = 0; i < mapped.length; i++) {
+            mapped[i] = map(i);
+        }
+        this.regions = mapped;
+    }
+
+    /**
+     * Opens {@code path}, creating it with a fresh generation if it is empty.
+     * Call {@link #recover} before appending, so appends start after the last
+     * valid record.
+     */
+    static MappedDataFile open(Path path, int regionSize) throws IOException {
+        if (regionSize < 4096) {
+            throw new IllegalArgumentException("Region size must be at least 4096 bytes");
+        }
+        MappedDataFile file = new MappedDataFile(path, regionSize);
+        MappedByteBuffer first = file.regions[0];
+        int magic = first.getInt(0);
+        if (magic == 0) {
+            file.generation = ThreadLocalRandom.current().nextLong();
+            first.putInt(0, MAGIC);
+            first.putInt(4, VERSION);
+            first.putLong(8, file.generation);
+        } else if (magic != MAGIC || first.getInt(4) != VERSION) {
+            file.close();
+            throw new IOException("Not a data file: " + path);
+        } else {
+            file.generation = first.getLong(8);
+        }
+        return file;
+    }
+
+    long generation() {
+        return generation;
+    }
+
+    /** Offset the next record will be written at. */
+    long end() {
+        appendLock.lock();
+        try {
+            return end;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Feeds every valid record from {@code from} on to {@code apply} and makes
+     * appends continue after the last one. Scanning stops at the first
+     * record that is cut off or fails its checksum, which is where a crash
+     * mid-append leaves the file; the records of a write it cut short are
+     * dropped with it.
+     */
+    void recover(long from, Consumer<Record> apply) {
+        appendLock.lock();
+        try {
+            long position = from;
+            // Records of the write being read, applied once its last one is found
+            List<Record> write = new ArrayList<>();
+            long writeStart = from;
+            while (true) {
+                int region = (int) (position / regionSize);
+                int offset = (int) (position % regionSize);
+                if (region >= regions.length) {
+                    break;
+                }
+                if (offset + RECORD_HEADER_SIZE > regionSize || regions[region].getInt(offset) == 0) {
+                    // Rest of the region is unused; data continues only if the next region starts with a record
+                    long next = (long) (region + 1) * regionSize;
+                    if (offset == 0 || region + 1 >= regions.length || regions[region + 1].getInt(0) == 0) {
+                        break;
+                    }
+                    position = next;
+                    continue;
+                }
+                Record record = readChecked(position);
+                if (record == null) {
+                    System.err.println("Discarding torn record at offset " + position + " in " + path);
+                    break;
+                }
+                if (write.isEmpty()) {
+                    writeStart = position;
+                }
+                write.add(record);
+                position += record.size;
+                if ((regions[region].get(offset + RECORD_HEADER_SIZE) & CONTINUED) == 0) {
+                    write.forEach(apply);
+                    write.clear();
+                }
+            }
+            if (!write.isEmpty()) {
+                System.err.println("Discarding incomplete write at offset " + writeStart + " in " + path);
+                position = writeStart;
+            }
+            end = position;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Opens a write that the following appends on this thread belong to.
+     * Holds the append lock until {@link #commit} or {@link #abort}, so
+     * appends from other threads wait and the write stays contiguous.
+     */
+    void begin() {
+        appendLock.lock();
+        openStart = end;
+        openLast = -1;
+    }
+
+    /** Completes the write opened by {@link #begin} by clearing {@link #CONTINUED} on its last record. */
+    void commit() {
+        try {
+            if (openLast >= 0) {
+                MappedByteBuffer buffer = regions[(int) (openLast / regionSize)];
+                int offset = (int) (openLast % regionSize);
+                byte[] body = new byte[buffer.getInt(offset)];
+                buffer.get(offset + RECORD_HEADER_SIZE, body);
+                body[0] = (byte) (body[0] & ~CONTINUED);
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                // Torn between the two, the record fails its checksum and recovery drops the write
+                buffer.put(offset + RECORD_HEADER_SIZE, body[0]);
+                buffer.putInt(offset + 4, (int) crc.getValue());
+            }
+        } finally {
+            openStart = -1;
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Drops the write opened by {@link #begin}: its records are zeroed and
+     * appends continue where it started. Offsets returned for it become
+     * invalid.
+     */
+    void abort() {
+        try {
+            for (long position = openStart; position < end; ) {
+                MappedByteBuffer buffer = regions[(int) (position / regionSize)];
+                int offset = (int) (position % regionSize);
+                int length = (int) Math.min(end - position, regionSize - offset);
+                buffer.put(offset, new byte[length]);
+                position += length;
+            }
+            end = openStart;
+        } finally {
+            openStart = -1;
+            appendLock.unlock();
+        }
+    }
+
+    /** Appends one record and returns its offset. */
+    long append(byte op, String encodedPath, byte[] value) throws IOException {
+        return appendAll(List.of(new Record(op, encodedPath, value)))[0];
+    }
+
+    /**
+     * Appends the records of one write back to back and returns their
+     * offsets. Nothing is appended if any of them does not fit in a region.
+     * Inside a write opened by {@link #begin} every record is continued.
+     */
+    long[] appendAll(List<Record> records) throws IOException {
+        if (records.isEmpty()) {
+            return new long[0];
+        }
+        byte[][] bodies = new byte[records.size()][];
+        for (int i = 0; i < bodies.length; i++) {
+            Record record = records.get(i);
+            bodies[i] = body(i < bodies.length - 1 ? (byte) (record.op | CONTINUED) : record.op,
+                    record.path, record.value);
+        }
+        long[] offsets = new long[bodies.length];
+        appendLock.lock();
+        try {
+            if (openStart >= 0) {
+                bodies[bodies.length - 1][0] |= CONTINUED;  // The open write goes on after this one
+            }
+            long position = end;
+            for (int i = 0; i < bodies.length; i++) {
+                offsets[i] = startOf(position, RECORD_HEADER_SIZE + bodies[i].length);
+                position = offsets[i] + RECORD_HEADER_SIZE + bodies[i].length;
+            }
+            region((int) (offsets[offsets.length - 1] / regionSize));  // Mapped first, so no write is left half done
+            long previousEnd = end;
+            for (int i = 0; i < bodies.length; i++) {
+                if (offsets[i] != previousEnd && previousEnd % regionSize + 4 <= regionSize) {
+                    // Clear what a torn record may have left, so recovery moves on to the next region
+                    regions[(int) (previousEnd / regionSize)].putInt((int) (previousEnd % regionSize), 0);
+                }
+                write(offsets[i], bodies[i]);
+                previousEnd = offsets[i] + RECORD_HEADER_SIZE + bodies[i].length;
+            }
+            end = position;
+            if (openStart >= 0) {
+                openLast = offsets[offsets.length - 1];
+            }
+            return offsets;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    Record read(long position) {
+        MappedByteBuffer buffer = regions[(int) (position / regionSize)];
+        int offset = (int) (position % regionSize);
+        int length = buffer.getInt(offset);
+        byte[] body = new byte[length];
+        buffer.get(offset + RECORD_HEADER_SIZE, body);
+        return toRecord(position, body);
+    }
+
+    /** Operation of the record at {@code position}, without reading the rest of it. */
+    byte op(long position) {
+        return (byte) (regions[(int) (position / regionSize)].get((int) (position % regionSize) + RECORD_HEADER_SIZE)
+                & ~CONTINUED);
+    }
+
+    /** Bytes taken by the record at {@code position}. */
+    int size(long position) {
+        return RECORD_HEADER_SIZE + regions[(int) (position / regionSize)].getInt((int) (position % regionSize));
+    }
+
+    /** Forces written records to the device. */
+    void force() {
+        for (MappedByteBuffer region : regions) {
+            region.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private byte[] body(byte op, String encodedPath, byte[] value) throws IOException {
+        byte[] pathBytes = encodedPath.getBytes(StandardCharsets.UTF_8);
+        int length = BODY_HEADER_SIZE + pathBytes.length + value.length;
+        int size = RECORD_HEADER_SIZE + length;
+        if (size > regionSize - HEADER_SIZE) {
+            throw new IOException("Record of " + size + " bytes does not fit in a region; raise db.mappedRegionBytes");
+        }
+        byte[] body = new byte[length];
+        body[0] = op;
+        body[1] = (byte) (pathBytes.length >>> 24);
+        body[2] = (byte) (pathBytes.length >>> 16);
+        body[3] = (byte) (pathBytes.length >>> 8);
+        body[4] = (byte) pathBytes.length;
+        System.arraycopy(pathBytes, 0, body, BODY_HEADER_SIZE, pathBytes.length);
+        System.arraycopy(value, 0, body, BODY_HEADER_SIZE + pathBytes.length, value.length);
+        return body;
+    }
+
+    /** Where a record of {@code size} bytes appended at {@code position} starts: there, or at the next region. */
+    private long startOf(long position, int size) {
+        return position % regionSize + size > regionSize ? (position / regionSize + 1) * regionSize : position;
+    }
+
+    /** Writes one record at {@code position}; the caller holds the append lock and mapped its region. */
+    private void write(long position, byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        MappedByteBuffer buffer = regions[(int) (position / regionSize)];
+        int offset = (int) (position % regionSize);
+        buffer.put(offset + RECORD_HEADER_SIZE, body);
+        buffer.putInt(offset + 4, (int) crc.getValue());
+        // Length last: a record is only visible to recovery once it is complete
+        buffer.putInt(offset, body.length);
+    }
+
+    private Record readChecked(long position) {
+        MappedByteBuffer buffer = regions[(int) (position / regionSize)];
+        int offset = (int) (position % regionSize);
+        int length = buffer.getInt(offset);
+        if (length < BODY_HEADER_SIZE || offset + RECORD_HEADER_SIZE + length > regionSize) {
+            return null;
+        }
+        byte[] body = new byte[length];
+        buffer.get(offset + RECORD_HEADER_SIZE, body);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+            return null;
+        }
+        Record record = toRecord(position, body);
+        return record.path != null ? record : null;
+    }
+
+    private static Record toRecord(long position, byte[] body) {
+        int pathLength = ((body[1] & 0xFF) << 24) | ((body[2] & 0xFF) << 16) | ((body[3] & 0xFF) << 8) | (body[4] & 0xFF);
+        if (pathLength < 0 || BODY_HEADER_SIZE + pathLength > body.length) {
+            return new Record(position, RECORD_HEADER_SIZE + body.length, body[0], null, null);
+        }
+        String path = new String(body, BODY_HEADER_SIZE, pathLength, StandardCharsets.UTF_8);
+        byte[] value = Arrays.copyOfRange(body, BODY_HEADER_SIZE + pathLength, body.length);
+        return new Record(position, RECORD_HEADER_SIZE + body.length, (byte) (body[0] & ~CONTINUED), path, value);
+    }
+
+    private MappedByteBuffer region(int index) throws IOException {
+        MappedByteBuffer[] current = regions;
+        if (index < current.length) {
+            return current[index];
+        }
+        MappedByteBuffer[] grown = Arrays.copyOf(current, index + 1);
+        for (int i = current.length; i <= index; i++) {
+            grown[i] = map(i);
+        }
+        regions = grown;
+        return grown[index];
+    }
+
+    private MappedByteBuffer map(int index) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, (long) index * regionSize, regionSize);
+    }
+}
@@ -0,0 +1,677 @@
+package server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Stores the database in a memory-mapped, append-only file ({@code db.data})
+ * for datasets larger than the heap. Only the index lives in heap: it maps the
+ * encoded full path of every leaf (a non-object value or an empty object) to
+ * the offset of its record. A point read is one index lookup and touches only
+ * the pages of that record; reading an object assembles it from the leaves
+ * below it, in key order.
+ * <p>
+ * Replaced and deleted records become garbage, which a background compaction
+ * reclaims by copying the live records to a new file. The index is saved to
+ * {@code db.index} on close and after compaction; on startup it is loaded and
+ * only records appended after it are replayed.
+ * <p>
+ * Objects are stored as their leaves, so an object read back lists its
+ * members in key order rather than insertion order. The records of one write
+ * are worked out before any is appended and then appended together, so a
+ * write that cannot be stored changes nothing and recovery never replays half
+ * of one. A batch is one such write: its records are appended contiguously,
+ * and if its operations throw they are cleared and the index is put back.
+ */
+public class MappedDatabaseManager implements DatabaseManagerInterface {
+    private static final Gson gson = new Gson();
+    private static final int INDEX_MAGIC = 0x4A44_4249;  // "JDBI"
+    private static final byte[] NO_VALUE = new byte[0];
+
+    private final Path dataPath;
+    private final Path indexPath;
+    private final int regionSize;
+    private final long compactMinBytes;
+    private final FsyncPolicy fsync;
+    private final StripedLocks locks;
+    // Replaced whole by compaction, so a read without a stripe sees the old index or the new one
+    private volatile NavigableMap<String, Long> index = new ConcurrentSkipListMap<>();
+    private final AtomicLong deadBytes = new AtomicLong();
+    private final AtomicBoolean compactionQueued = new AtomicBoolean();
+    // Runs compactions and, with db.fsync=batched, the periodic force
+    private final ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "mapped-background");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Counts writes, so group commit can tell which ones a force covered
+    private final AtomicLong writes = new AtomicLong();
+    // Null unless every write must be forced
+    private final GroupCommit groupCommit;
+    // Set while a batch runs on this thread, so its writes are forced once at the end
+    private final ThreadLocal<Batch> batching = new ThreadLocal<>();
+    // Replaced by compaction while every stripe and the file lock are held
+    private volatile MappedDataFile data;
+    // Held while the data file is forced or closed, so a force never finds it closed
+    private final Lock fileLock = new ReentrantLock();
+
+    /** What the writes of a batch changed outside the data file, so an aborted batch can put it back. */
+    private static final class Batch {
+        // Index entries as they were before the batch first changed them; null if absent
+        final Map<String, Long> previous = new HashMap<>();
+        long deadBytes;
+    }
+
+    public MappedDatabaseManager(Path directory) throws IOException {
+        this.dataPath = directory.resolve("db.data");
+        this.indexPath = directory.resolve("db.index");
+        this.regionSize = ServerConfig.mappedRegionBytes();
+        this.compactMinBytes = ServerConfig.compactMinBytes();
+        this.fsync = ServerConfig.fsyncPolicy();
+        this.groupCommit = fsync == FsyncPolicy.ALWAYS ? new GroupCommit(writes::get, this::forceData) : null;
+        this.locks = new StripedLocks(ServerConfig.lockStripes());
+        boolean bootstrap = !Files.exists(dataPath);
+        this.data = MappedDataFile.open(dataPath, regionSize);
+        long loadStart = System.nanoTime();
+        data.recover(loadIndex(), this::apply);
+        Metrics.DISK_LOAD.recordSince(loadStart);
+        if (bootstrap) {
+            loadLegacyDatabase(directory.resolve("db.json"));
+        }
+        if (fsync == FsyncPolicy.BATCHED) {
+            long interval = ServerConfig.fsyncIntervalMillis();
+            background.scheduleWithFixedDelay(this::forceData, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public boolean set(String[] keyPath, JsonElement value) {
+        long position;
+        Lock lock = locks.forKey(keyPath[0]).writeLock();
+        Metrics.lock(lock);
+        try {
+            if (isUnderValue(keyPath)) {
+                return false;  // Not an object, and we're not at the last key
+            }
+            String encoded = KeyPaths.encode(keyPath);
+            List<MappedDataFile.Record> records = new ArrayList<>();
+            if (exists(encoded)) {
+                records.add(new MappedDataFile.Record(MappedDataFile.DELETE, encoded, NO_VALUE));
+            }
+            leaves(encoded, value, records);
+            append(records);
+            position = written();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+        return awaitDurable(position);
+    }
+
+    /**
+     * A merge writes only the leaves its patch sets or removes. Numbers and
+     * arrays are leaves, so an incr or append rewrites just that record.
+     */
+    @Override
+    public JsonElement update(String[] keyPath, Delta delta, JsonElement operand) {
+        long position;
+        JsonElement result;
+        Lock lock = locks.forKey(keyPath[0]).writeLock();
+        Metrics.lock(lock);
+        try {
+            if (isUnderValue(keyPath)) {
+                return null;
+            }
+            String encoded = KeyPaths.encode(keyPath);
+            Long leaf = index.get(encoded);
+            boolean isValue = leaf != null && data.op(leaf) == MappedDataFile.PUT_VALUE;
+            List<MappedDataFile.Record> records = new ArrayList<>();
+            if (delta == Delta.MERGE && !isValue) {
+                if (!operand.isJsonObject()) {
+                    return null;
+                }
+                merge(encoded, operand.getAsJsonObject(), records);
+                result = JsonNull.INSTANCE;
+            } else {
+                // Objects are never what incr or append accept, so there is no need to assemble one
+                JsonElement current = isValue ? read(leaf) : exists(encoded) ? new JsonObject() : null;
+                if (!delta.accepts(current, operand)) {
+                    return null;
+                }
+                JsonElement next = delta.apply(current, operand);
+                leaves(encoded, next, records);
+                result = next.isJsonPrimitive() ? next : JsonNull.INSTANCE;
+            }
+            append(records);
+            position = written();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to persist update", e);
+        } finally {
+            lock.unlock();
+        }
+        if (groupCommit != null && position != 0) {
+            try {
+                groupCommit.await(position);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to persist update", e);
+            }
+        }
+        return result;
+    }
+
+    public JsonElement get(String[] keyPath) {
+        Lock lock = locks.forKey(keyPath[0]).readLock();
+        Metrics.lock(lock);
+        try {
+            String encoded = KeyPaths.encode(keyPath);
+            Long leaf = index.get(encoded);
+            if (leaf != null) {
+                return read(leaf);
+            }
+            Map<String, Long> descendants = descendants(encoded);
+            if (descendants.isEmpty()) {
+                return JsonNull.INSTANCE;
+            }
+            JsonObject object = new JsonObject();
+            int prefix = encoded.length() + 1;
+            for (Map.Entry<String, Long> entry : descendants.entrySet()) {
+                JsonTree.set(object, KeyPaths.decode(entry.getKey().substring(prefix)), read(entry.getValue()));
+            }
+            return object;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean delete(String[] keyPath) {
+        long position;
+        Lock lock = locks.forKey(keyPath[0]).writeLock();
+        Metrics.lock(lock);
+        try {
+            String encoded = KeyPaths.encode(keyPath);
+            if (!exists(encoded)) {
+                return false;
+            }
+            List<MappedDataFile.Record> records = new ArrayList<>();
+            records.add(new MappedDataFile.Record(MappedDataFile.DELETE, encoded, NO_VALUE));
+            if (keyPath.length > 1) {
+                // The parent stays, as an empty object if this was its last member
+                String parent = KeyPaths.encode(keyPath, keyPath.length - 1);
+                if (!hasOtherDescendants(parent, encoded)) {
+                    records.add(new MappedDataFile.Record(MappedDataFile.PUT_EMPTY_OBJECT, parent, NO_VALUE));
+                }
+            }
+            append(records);
+            position = written();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+        return awaitDurable(position);
+    }
+
+    @Override
+    public Path directory() {
+        return dataPath.getParent();
+    }
+
+    /**
+     * Skips from each child past its descendants, so only one index entry per
+     * child is read. Encoded order matches {@link String#compareTo} order of
+     * the keys.
+     */
+    public List<String> childKeys(String[] keyPath) {
+        if (keyPath.length == 0) {
+            return childKeys(index, 0);
+        }
+        Lock lock = locks.forKey(keyPath[0]).readLock();
+        Metrics.lock(lock);
+        try {
+            String encoded = KeyPaths.encode(keyPath);
+            Long leaf = index.get(encoded);
+            if (leaf != null) {
+                return read(leaf).isJsonObject() ? new ArrayList<>() : null;  // Only empty objects are stored whole
+            }
+            NavigableMap<String, Long> descendants = index.subMap(KeyPaths.descendantsStart(encoded), true,
+                    KeyPaths.descendantsEnd(encoded), false);
+            return descendants.isEmpty() ? null : childKeys(descendants, keyPath.length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public <T> T inBatch(Collection<String> topLevelKeys, Supplier<T> operations) {
+        if (batching.get() != null) {
+            return operations.get();  // Already inside a batch
+        }
+        int[] stripes = locks.lockKeys(topLevelKeys);
+        // Held until the batch ends, which is safe as its operations take no other stripe
+        MappedDataFile file = data;
+        file.begin();
+        Batch current = new Batch();
+        batching.set(current);
+        T result;
+        boolean completed = false;
+        try {
+            result = operations.get();
+            completed = true;
+        } finally {
+            batching.remove();
+            if (completed) {
+                file.commit();
+            } else {
+                rollBack(current);
+                file.abort();  // Still under the stripes, so no reader saw the changes
+            }
+            locks.unlock(stripes);
+        }
+        if (groupCommit != null) {
+            try {
+                groupCommit.await(writes.get());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to persist batch", e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copies the live records to a new file, replaces {@code db.data} with it
+     * and saves the index. Holds every stripe while it runs.
+     */
+    public void compact() throws IOException {
+        locks.lockAll();
+        try {
+            Path temp = dataPath.resolveSibling(dataPath.getFileName() + ".compact");
+            Files.deleteIfExists(temp);
+            NavigableMap<String, Long> compactedIndex = new ConcurrentSkipListMap<>();
+            try (MappedDataFile compacted = MappedDataFile.open(temp, regionSize)) {
+                compacted.recover(MappedDataFile.HEADER_SIZE, record -> { });
+                for (Map.Entry<String, Long> entry : index.entrySet()) {
+                    MappedDataFile.Record record = data.read(entry.getValue());
+                    compactedIndex.put(entry.getKey(), compacted.append(record.op, record.path, record.value));
+                }
+                if (fsync.forcesSnapshots()) {
+                    compacted.force();
+                }
+            }
+            Metrics.lock(fileLock);
+            try {
+                data.close();
+                Files.move(temp, dataPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                data = MappedDataFile.open(dataPath, regionSize);
+                data.recover(MappedDataFile.HEADER_SIZE, record -> { });
+            } finally {
+                fileLock.unlock();
+            }
+            index = compactedIndex;
+            deadBytes.set(0);
+            saveIndex();
+        } finally {
+            locks.unlockAll();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        background.shutdown();
+        try {
+            background.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        locks.lockAll();
+        Metrics.lock(fileLock);
+        try {
+            if (fsync != FsyncPolicy.NEVER) {
+                data.force();
+            }
+            saveIndex();
+            data.close();
+        } finally {
+            fileLock.unlock();
+            locks.unlockAll();
+        }
+    }
+
+    /** Forces the data file without holding any stripe; compaction cannot close it meanwhile. */
+    private void forceData() {
+        Metrics.lock(fileLock);
+        try {
+            data.force();
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    /** Puts back the index entries and dead bytes an aborted batch changed. */
+    private void rollBack(Batch aborted) {
+        for (Map.Entry<String, Long> entry : aborted.previous.entrySet()) {
+            if (entry.getValue() != null) {
+                index.put(entry.getKey(), entry.getValue());
+            } else {
+                index.remove(entry.getKey());
+            }
+        }
+        deadBytes.addAndGet(-aborted.deadBytes);
+    }
+
+    /** Bytes held by replaced and deleted records. */
+    long deadBytes() {
+        return deadBytes.get();
+    }
+
+    /** Whether a node above {@code keyPath} is stored as a value, so nothing can be set under it. */
+    private boolean isUnderValue(String[] keyPath) {
+        for (int length = 1; length < keyPath.length; length++) {
+            Long ancestor = index.get(KeyPaths.encode(keyPath, length));
+            if (ancestor != null && data.op(ancestor) == MappedDataFile.PUT_VALUE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the records that apply {@code patch} as a JSON merge patch to the
+     * object, or nothing, at {@code encoded}, leaving it an empty object if
+     * every member goes.
+     */
+    private void merge(String encoded, JsonObject patch, List<MappedDataFile.Record> records) {
+        boolean stored = false;
+        for (Map.Entry<String, JsonElement> member : patch.entrySet()) {
+            String child = encoded + KeyPaths.SEPARATOR + KeyPaths.encode(new String[]{member.getKey()});
+            JsonElement value = member.getValue();
+            if (value.isJsonNull()) {
+                if (exists(child)) {
+                    records.add(new MappedDataFile.Record(MappedDataFile.DELETE, child, NO_VALUE));
+                }
+            } else if (value.isJsonObject()) {
+                Long leaf = index.get(child);
+                if (leaf != null && data.op(leaf) == MappedDataFile.PUT_VALUE) {
+                    // A value becomes an object
+                    records.add(new MappedDataFile.Record(MappedDataFile.DELETE, child, NO_VALUE));
+                }
+                merge(child, value.getAsJsonObject(), records);
+                stored = true;
+            } else {
+                leaves(child, value, records);
+                stored = true;
+            }
+        }
+        if (!stored && !keepsMember(encoded, patch)) {
+            records.add(new MappedDataFile.Record(MappedDataFile.PUT_EMPTY_OBJECT, encoded, NO_VALUE));
+        }
+    }
+
+    /** Whether the object at {@code encoded} is stored as empty or has a member {@code patch} does not mention. */
+    private boolean keepsMember(String encoded, JsonObject patch) {
+        Long leaf = index.get(encoded);
+        if (leaf != null) {
+            return data.op(leaf) == MappedDataFile.PUT_EMPTY_OBJECT;
+        }
+        NavigableMap<String, Long> descendants = descendants(encoded);
+        int depth = KeyPaths.decode(encoded).length;
+        String child = descendants.isEmpty() ? null : descendants.firstKey();
+        while (child != null) {
+            String[] keyPath = KeyPaths.decode(child);
+            if (!patch.has(keyPath[depth])) {
+                return true;
+            }
+            child = descendants.ceilingKey(KeyPaths.descendantsEnd(KeyPaths.encode(keyPath, depth + 1)));
+        }
+        return false;
+    }
+
+    /** Whether anything but {@code encoded} and its descendants is stored under {@code parent}. */
+    private boolean hasOtherDescendants(String parent, String encoded) {
+        return !index.subMap(KeyPaths.descendantsStart(parent), true, encoded, false).isEmpty()
+                || !index.subMap(KeyPaths.descendantsEnd(encoded), true, KeyPaths.descendantsEnd(parent), false).isEmpty();
+    }
+
+    /** Adds the records that store {@code value} at {@code encoded}, one per leaf. */
+    private static void leaves(String encoded, JsonElement value, List<MappedDataFile.Record> records) {
+        if (value.isJsonObject() && value.getAsJsonObject().size() > 0) {
+            for (Map.Entry<String, JsonElement> member : value.getAsJsonObject().entrySet()) {
+                leaves(encoded + KeyPaths.SEPARATOR + KeyPaths.encode(new String[]{member.getKey()}),
+                        member.getValue(), records);
+            }
+        } else if (value.isJsonObject()) {
+            records.add(new MappedDataFile.Record(MappedDataFile.PUT_EMPTY_OBJECT, encoded, NO_VALUE));
+        } else {
+            records.add(new MappedDataFile.Record(MappedDataFile.PUT_VALUE, encoded,
+                    gson.toJson(value).getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    /** Appends the records of one write together and applies them to the index, exactly as recovery would. */
+    private void append(List<MappedDataFile.Record> records) throws IOException {
+        long start = System.nanoTime();
+        long[] offsets = data.appendAll(records);
+        Metrics.DISK_SAVE.recordSince(start);
+        for (int i = 0; i < offsets.length; i++) {
+            MappedDataFile.Record record = records.get(i);
+            apply(new MappedDataFile.Record(offsets[i], data.size(offsets[i]), record.op, record.path, null));
+        }
+    }
+
+    private void apply(MappedDataFile.Record record) {
+        switch (record.op) {
+            case MappedDataFile.PUT_VALUE:
+            case MappedDataFile.PUT_EMPTY_OBJECT:
+                removeAncestorLeaves(record.path);
+                removeSubtree(record.path);
+                remember(record.path);
+                index.put(record.path, record.offset);
+                break;
+            case MappedDataFile.DELETE:
+                removeSubtree(record.path);
+                addDeadBytes(record.size);
+                break;
+            default:
+                throw new IllegalStateException("Unknown record type " + record.op + " at offset " + record.offset);
+        }
+    }
+
+    /** A new leaf turns the empty objects above it into parents. */
+    private void removeAncestorLeaves(String encoded) {
+        for (int i = encoded.indexOf(KeyPaths.SEPARATOR); i >= 0; i = encoded.indexOf(KeyPaths.SEPARATOR, i + 1)) {
+            String ancestor = encoded.substring(0, i);
+            remember(ancestor);
+            Long offset = index.remove(ancestor);
+            if (offset != null) {
+                addDeadBytes(data.size(offset));
+            }
+        }
+    }
+
+    private void removeSubtree(String encoded) {
+        remember(encoded);
+        Long leaf = index.remove(encoded);
+        if (leaf != null) {
+            addDeadBytes(data.size(leaf));
+        }
+        Map<String, Long> descendants = descendants(encoded);
+        for (Map.Entry<String, Long> descendant : descendants.entrySet()) {
+            remember(descendant.getKey());
+            addDeadBytes(data.size(descendant.getValue()));
+        }
+        descendants.clear();
+    }
+
+    /** Inside a batch, records the index entry of {@code encoded} before its first change. */
+    private void remember(String encoded) {
+        Batch current = batching.get();
+        if (current != null && !current.previous.containsKey(encoded)) {
+            current.previous.put(encoded, index.get(encoded));
+        }
+    }
+
+    private void addDeadBytes(long bytes) {
+        deadBytes.addAndGet(bytes);
+        Batch current = batching.get();
+        if (current != null) {
+            current.deadBytes += bytes;
+        }
+    }
+
+    private boolean exists(String encoded) {
+        return index.containsKey(encoded) || !descendants(encoded).isEmpty();
+    }
+
+    private NavigableMap<String, Long> descendants(String encoded) {
+        return index.subMap(KeyPaths.descendantsStart(encoded), true, KeyPaths.descendantsEnd(encoded), false);
+    }
+
+    private static List<String> childKeys(NavigableMap<String, Long> range, int depth) {
+        List<String> keys = new ArrayList<>();
+        String encoded = range.isEmpty() ? null : range.firstKey();
+        while (encoded != null) {
+            String[] keyPath = KeyPaths.decode(encoded);
+            keys.add(keyPath[depth]);
+            encoded = range.ceilingKey(KeyPaths.descendantsEnd(KeyPaths.encode(keyPath, depth + 1)));
+        }
+        return keys;
+    }
+
+    private JsonElement read(long offset) {
+        MappedDataFile.Record record = data.read(offset);
+        if (record.op == MappedDataFile.PUT_EMPTY_OBJECT) {
+            return new JsonObject();
+        }
+        return JsonParser.parseString(new String(record.value, StandardCharsets.UTF_8));
+    }
+
+    /** Returns the position to wait on for the writes made so far, or 0 inside a batch. */
+    private long written() {
+        long position = writes.incrementAndGet();
+        if (groupCommit != null) {
+            groupCommit.written(position);
+        }
+        long dead = deadBytes.get();
+        long live = data.end() - MappedDataFile.HEADER_SIZE - dead;
+        if (dead >= compactMinBytes && dead > live && compactionQueued.compareAndSet(false, true)) {
+            background.execute(() -> {
+                compactionQueued.set(false);
+                try {
+                    compact();
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Compaction failed: " + e.getMessage());
+                }
+            });
+        }
+        return batching.get() == null ? position : 0;
+    }
+
+    /** Waits, without holding any stripe, until the writes up to {@code position} are forced. */
+    private boolean awaitDurable(long position) {
+        if (groupCommit == null || position == 0) {
+            return true;
+        }
+        try {
+            groupCommit.await(position);
+            return true;
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Loads {@code db.index} if it belongs to the current data file and returns
+     * the offset to replay from.
+     */
+    private long loadIndex() throws IOException {
+        if (!Files.exists(indexPath)) {
+            return MappedDataFile.HEADER_SIZE;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            if (input.readInt() != INDEX_MAGIC || input.readLong() != data.generation()) {
+                return MappedDataFile.HEADER_SIZE;  // Saved for a file that has since been compacted
+            }
+            long dataEnd = input.readLong();
+            deadBytes.set(input.readLong());
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] path = new byte[input.readInt()];
+                input.readFully(path);
+                index.put(new String(path, StandardCharsets.UTF_8), input.readLong());
+            }
+            return dataEnd;
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable index " + indexPath + ": " + e.getMessage());
+            index.clear();
+            deadBytes.set(0);
+            return MappedDataFile.HEADER_SIZE;
+        }
+    }
+
+    private void saveIndex() throws IOException {
+        Path temp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            output.writeInt(INDEX_MAGIC);
+            output.writeLong(data.generation());
+            output.writeLong(data.end());
+            output.writeLong(deadBytes.get());
+            output.writeInt(index.size());
+            for (Map.Entry<String, Long> entry : index.entrySet()) {
+                byte[] path = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                output.writeInt(path.length);
+                output.write(path);
+                output.writeLong(entry.getValue());
+            }
+        }
+        Files.move(temp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void loadLegacyDatabase(Path legacyPath) throws IOException {
+        if (!Files.exists(legacyPath)) {
+            return;
+        }
+        JsonObject legacy;
+        try (Reader reader = Codec.reader(legacyPath)) {
+            legacy = gson.fromJson(reader, JsonObject.class);
+        }
+        if (legacy != null) {
+            for (Map.Entry<String, JsonElement> member : legacy.entrySet()) {
+                if (!set(new String[]{member.getKey()}, member.getValue())) {
+                    throw new UncheckedIOException(new IOException("Failed to import " + legacyPath));
+                }
+            }
+        }
+    }
+}
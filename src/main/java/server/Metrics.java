@@ -0,0 +1,146 @@
+package server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Process-wide counters and latency histograms, exposed by the {@code stats}
+ * command and optionally dumped to {@code metrics.file} every
+ * {@code metrics.intervalMs}.
+ */
+public final class Metrics {
+    private static final Gson gson = new Gson();
+    // Anything else is counted as "invalid", so clients cannot grow the map
+    private static final Set<String> COMMANDS = Set.of(Constants.TYPE_SET, Constants.TYPE_GET,
+            Constants.TYPE_DELETE, Constants.TYPE_EXIT, Constants.TYPE_BATCH, Constants.TYPE_STATS,
+            Constants.TYPE_KEYS, Constants.TYPE_REPLICATE, Constants.TYPE_SCAN, Constants.TYPE_CAS,
+            Constants.TYPE_TXN, Constants.TYPE_INCR, Constants.TYPE_APPEND, Constants.TYPE_MERGE);
+    private static final Map<String, LatencyHistogram> commandLatency = new ConcurrentHashMap<>();
+    private static final long startedNanos = System.nanoTime();
+
+    /** Time a task waits in the executor before a worker runs it. */
+    public static final LatencyHistogram QUEUE_WAIT = new LatencyHistogram();
+    /** Time spent waiting for a database lock. */
+    public static final LatencyHistogram LOCK_WAIT = new LatencyHistogram();
+    /** Time to read the database (or snapshot) from disk. */
+    public static final LatencyHistogram DISK_LOAD = new LatencyHistogram();
+    /** Time to write the database, a snapshot or a log append to disk. */
+    public static final LatencyHistogram DISK_SAVE = new LatencyHistogram();
+    /** Time a write waits for the group commit that forces it to disk. */
+    public static final LatencyHistogram SYNC_WAIT = new LatencyHistogram();
+    /** Time to parse a request. */
+    public static final LatencyHistogram PARSE = new LatencyHistogram();
+    /** Time to serialize a response. */
+    public static final LatencyHistogram SERIALIZE = new LatencyHistogram();
+
+    public static final LongAdder CONNECTIONS = new LongAdder();
+    public static final LongAdder ERRORS = new LongAdder();
+    public static final LongAdder CACHE_HITS = new LongAdder();
+    public static final LongAdder CACHE_MISSES = new LongAdder();
+    public static final LongAdder CACHE_EVICTIONS = new LongAdder();
+    /** Keys deleted because their TTL passed. */
+    public static final LongAdder EXPIRED_KEYS = new LongAdder();
+    /** Response frames sent compressed, and the bytes that saved on the wire. */
+    public static final LongAdder COMPRESSED_FRAMES = new LongAdder();
+    public static final LongAdder COMPRESSED_BYTES_SAVED = new LongAdder();
+
+    private Metrics() {
+    }
+
+    /** End-to-end execution time of one command type, without parsing and serialization. */
+    public static LatencyHistogram command(String type) {
+        String name = COMMANDS.contains(type) ? type : Constants.TYPE_INVALID;
+        return commandLatency.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /** Locks {@code lock}, recording how long that took in {@link #LOCK_WAIT}. */
+    public static void lock(Lock lock) {
+        long start = System.nanoTime();
+        lock.lock();
+        LOCK_WAIT.recordSince(start);
+    }
+
+    /** Wraps {@code task} so the time until it starts is recorded in {@link #QUEUE_WAIT}. */
+    public static Runnable queued(Runnable task) {
+        long submitted = System.nanoTime();
+        return () -> {
+            QUEUE_WAIT.recordSince(submitted);
+            task.run();
+        };
+    }
+
+    public static JsonObject snapshot() {
+        JsonObject commands = new JsonObject();
+        commandLatency.forEach((type, histogram) -> commands.add(type, histogram.toJson()));
+        JsonObject stats = new JsonObject();
+        stats.addProperty("uptimeMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos));
+        stats.addProperty("connections", CONNECTIONS.sum());
+        stats.addProperty("errors", ERRORS.sum());
+        JsonObject responseCache = new JsonObject();
+        responseCache.addProperty("hits", CACHE_HITS.sum());
+        responseCache.addProperty("misses", CACHE_MISSES.sum());
+        responseCache.addProperty("evictions", CACHE_EVICTIONS.sum());
+        stats.add("responseCache", responseCache);
+        stats.addProperty("expiredKeys", EXPIRED_KEYS.sum());
+        JsonObject compression = new JsonObject();
+        compression.addProperty("frames", COMPRESSED_FRAMES.sum());
+        compression.addProperty("bytesSaved", COMPRESSED_BYTES_SAVED.sum());
+        stats.add("compression", compression);
+        stats.add("commands", commands);
+        stats.add("queueWait", QUEUE_WAIT.toJson());
+        stats.add("lockWait", LOCK_WAIT.toJson());
+        stats.add("diskLoad", DISK_LOAD.toJson());
+        stats.add("diskSave", DISK_SAVE.toJson());
+        stats.add("syncWait", SYNC_WAIT.toJson());
+        stats.add("parse", PARSE.toJson());
+        stats.add("serialize", SERIALIZE.toJson());
+        return stats;
+    }
+
+    /**
+     * Starts the periodic dump if {@code metrics.file} is set. Each dump
+     * replaces the file atomically, so readers never see a partial one.
+     */
+    public static void startDump() {
+        Path file = ServerConfig.metricsFile();
+        if (file == null) {
+            return;
+        }
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = ServerConfig.metricsIntervalMillis();
+        dumper.scheduleAtFixedRate(() -> {
+            try {
+                dump(file);
+            } catch (IOException e) {
+                System.err.println("Failed to write metrics to " + file + ": " + e.getMessage());
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    static void dump(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            gson.toJson(snapshot(), writer);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,482 @@
+package server;
+
+import com.google.gson.JsonParseException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
+
+/**
+ * Selector-based front end. A few event-loop threads own all sockets, decode
+ * frames of either {@link Protocol} version and hand complete requests to the
+ * worker pool, so idle connections cost no thread. Requests on one connection are processed
+ * one at a time, in the order they arrived.
+ */
+public class NioServer implements Closeable {
+    // Largest frame decoded from the shared buffer, in either protocol version
+    private static final int MAX_BUFFERED_FRAME = Protocol.HEADER_SIZE + Protocol.CHUNK_SIZE;
+    private static final int MAX_PENDING = 32;
+
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService workers;
+    private final RequestHandler requestHandler;
+    private final EventLoop[] loops;
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running = true;
+
+    public NioServer(ServerSocketChannel serverChannel, ExecutorService workers,
+                     RequestHandler requestHandler, int eventLoops) throws IOException {
+        this.serverChannel = serverChannel;
+        this.workers = workers;
+        this.requestHandler = requestHandler;
+        this.loops = new EventLoop[eventLoops];
+        for (int i = 0; i < eventLoops; i++) {
+            loops[i] = new EventLoop(Selector.open());
+        }
+    }
+
+    /**
+     * Accepts connections on the calling thread until {@link #close()} and
+     * spreads them over the event loops.
+     */
+    public void serve() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            Thread thread = new Thread(loops[i], "nio-loop-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        int next = 0;
+        try {
+            while (running) {
+                SocketChannel channel = serverChannel.accept();
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            }
+        } catch (ClosedChannelException e) {
+            if (running) {
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverChannel.close();
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Set<Connection> connections = new HashSet<>();
+        // Shared by all connections of this loop; only partial frames are kept per connection
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(2 * MAX_BUFFERED_FRAME);
+        private long lastIdleCheck = System.currentTimeMillis();
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    Metrics.CONNECTIONS.increment();
+                    Connection connection = new Connection(channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    connections.add(connection);
+                } catch (IOException e) {
+                    System.err.println("Failed to register connection: " + e.getMessage());
+                    closeQuietly(channel);
+                }
+            });
+        }
+
+        /** Runs {@code task} on this loop's thread. */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long idleTimeout = ServerConfig.idleTimeoutMillis();
+            try {
+                while (running) {
+                    selector.select(Math.min(idleTimeout, 1000));
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                    while (selected.hasNext()) {
+                        SelectionKey key = selected.next();
+                        selected.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isValid() && key.isWritable()) {
+                            write(connection);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read(connection);
+                        }
+                    }
+                    closeIdle(idleTimeout);
+                }
+            } catch (IOException e) {
+                System.err.println("Event loop failed: " + e.getMessage());
+            } finally {
+                for (Connection connection : new ArrayList<>(connections)) {
+                    close(connection);
+                }
+                closeQuietly(selector);
+            }
+        }
+
+        private void read(Connection connection) {
+            try {
+                if (connection.body != null) {
+                    readBody(connection);
+                    return;
+                }
+                readBuffer.clear();
+                if (connection.partial != null) {
+                    readBuffer.put(connection.partial);
+                    connection.partial = null;
+                }
+                if (connection.channel.read(readBuffer) < 0) {
+                    close(connection);
+                    return;
+                }
+                connection.lastActive = System.currentTimeMillis();
+                readBuffer.flip();
+                decodeFrames(connection);
+                if (readBuffer.hasRemaining()) {
+                    connection.partial = ByteBuffer.allocate(readBuffer.remaining()).put(readBuffer).flip();
+                }
+                dispatch(connection);
+            } catch (IOException e) {
+                close(connection);
+            }
+        }
+
+        /** Fills a version 2 frame too large for the shared buffer. */
+        private void readBody(Connection connection) throws IOException {
+            ByteBuffer body = connection.body;
+            if (connection.channel.read(body) < 0) {
+                close(connection);
+                return;
+            }
+            connection.lastActive = System.currentTimeMillis();
+            if (!body.hasRemaining()) {
+                connection.body = null;
+                addChunk(connection, body.array(), 0, body.capacity(), connection.bodyLast);
+                dispatch(connection);
+            }
+        }
+
+        private void decodeFrames(Connection connection) throws IOException {
+            while (readBuffer.hasRemaining() && connection.body == null) {
+                boolean decoded;
+                if (connection.version == 0) {
+                    decoded = negotiate(connection);
+                } else if (connection.version == Protocol.VERSION_LEGACY) {
+                    decoded = decodeLegacyFrame(connection);
+                } else {
+                    decoded = decodeFramedChunk(connection);
+                }
+                if (!decoded) {
+                    return;
+                }
+            }
+        }
+
+        private boolean negotiate(Connection connection) {
+            int position = readBuffer.position();
+            if (readBuffer.remaining() < 2) {
+                return false;
+            }
+            if (readBuffer.get(position) != 0 || readBuffer.get(position + 1) != 0) {
+                connection.version = Protocol.VERSION_LEGACY;
+                return true;
+            }
+            if (readBuffer.remaining() < Protocol.HEADER_SIZE) {
+                return false;
+            }
+            byte[] head = new byte[Protocol.HEADER_SIZE];
+            readBuffer.get(position, head);
+            int requested = Protocol.versionOf(head);
+            if (requested != Protocol.VERSION_LEGACY) {
+                int version = Protocol.accept(requested);
+                readBuffer.position(position + head.length);
+                connection.writeQueue.add(ByteBuffer.wrap(Protocol.hello(version)));
+                connection.version = Protocol.VERSION_FRAMED;
+                if (version == Protocol.VERSION_COMPRESSED) {
+                    connection.deflater = new Deflater(Deflater.BEST_SPEED);
+                }
+            } else {
+                connection.version = Protocol.VERSION_LEGACY;
+            }
+            return true;
+        }
+
+        private boolean decodeLegacyFrame(Connection connection) throws IOException {
+            if (readBuffer.remaining() < 2) {
+                return false;
+            }
+            int frameLength = 2 + (readBuffer.getShort(readBuffer.position()) & 0xFFFF);
+            if (readBuffer.remaining() < frameLength) {
+                return false;
+            }
+            byte[] frame = new byte[frameLength];
+            readBuffer.get(frame);
+            connection.pending.add(new DataInputStream(new ByteArrayInputStream(frame)).readUTF());
+            return true;
+        }
+
+        private boolean decodeFramedChunk(Connection connection) throws IOException {
+            if (readBuffer.remaining() < Protocol.HEADER_SIZE) {
+                return false;
+            }
+            int header = readBuffer.getInt(readBuffer.position());
+            int length = header & Protocol.LENGTH_MASK;
+            boolean last = (header & Protocol.FLAG_MORE) == 0;
+            int assembled = connection.message != null ? connection.message.size() : 0;
+            if (assembled + length > ServerConfig.maxMessageBytes()) {
+                throw new StreamCorruptedException("Message exceeds " + ServerConfig.maxMessageBytes() + " bytes");
+            }
+            if (length > Protocol.CHUNK_SIZE) {
+                readBuffer.position(readBuffer.position() + Protocol.HEADER_SIZE);
+                ByteBuffer body = ByteBuffer.allocate(length);
+                int available = Math.min(length, readBuffer.remaining());
+                body.put(readBuffer.array(), readBuffer.position(), available);
+                readBuffer.position(readBuffer.position() + available);
+                if (body.hasRemaining()) {
+                    connection.body = body;
+                    connection.bodyLast = last;
+                    return false;
+                }
+                addChunk(connection, body.array(), 0, length, last);
+                return true;
+            }
+            if (readBuffer.remaining() < Protocol.HEADER_SIZE + length) {
+                return false;
+            }
+            int offset = readBuffer.position() + Protocol.HEADER_SIZE;
+            addChunk(connection, readBuffer.array(), offset, length, last);
+            readBuffer.position(offset + length);
+            return true;
+        }
+
+        private void addChunk(Connection connection, byte[] bytes, int offset, int length, boolean last) {
+            if (last && connection.message == null) {
+                connection.pending.add(new String(bytes, offset, length, StandardCharsets.UTF_8));
+                return;
+            }
+            if (connection.message == null) {
+                connection.message = new ByteArrayOutputStream();
+            }
+            connection.message.write(bytes, offset, length);
+            if (last) {
+                connection.pending.add(connection.message.toString(StandardCharsets.UTF_8));
+                connection.message = null;
+            }
+        }
+
+        private void dispatch(Connection connection) {
+            if (connection.inFlight || connection.closing || connection.pending.isEmpty()) {
+                updateInterest(connection);
+                return;
+            }
+            connection.inFlight = true;
+            String message = connection.pending.poll();
+            boolean framed = connection.version == Protocol.VERSION_FRAMED;
+            updateInterest(connection);
+            workers.execute(Metrics.queued(() -> {
+                try {
+                    long parseStart = System.nanoTime();
+                    Command request;
+                    try {
+                        request = connection.decoder.decode(message);
+                    } catch (JsonParseException e) {
+                        request = null;  // Answered as invalid, and the connection stays open
+                        Metrics.ERRORS.increment();
+                    }
+                    Metrics.PARSE.recordSince(parseStart);
+                    ByteBuffer frame;
+                    if (request == null) {
+                        frame = framed ? encodeFramed(Constants.JSON_RESPONSE_INVALID_COMMAND, connection.deflater)
+                                : encode(Constants.JSON_RESPONSE_INVALID_COMMAND);
+                    } else {
+                        frame = framed ? encodeFramed(request, connection.deflater)
+                                : encode(requestHandler.processCommand(request));
+                    }
+                    boolean exit = request != null && request.isExit();
+                    execute(() -> complete(connection, frame, exit));
+                } catch (Exception e) {
+                    Metrics.ERRORS.increment();
+                    System.err.println("Unexpected exception handling request: " + e.getMessage());
+                    execute(() -> close(connection));
+                }
+            }));
+        }
+
+        private void complete(Connection connection, ByteBuffer frame, boolean exit) {
+            if (!connection.channel.isOpen()) {
+                return;
+            }
+            connection.inFlight = false;
+            connection.served++;
+            connection.writeQueue.add(frame);
+            if (exit || connection.served >= ServerConfig.maxRequestsPerConnection()) {
+                connection.closing = true;
+                connection.pending.clear();
+            }
+            write(connection);
+            if (connection.channel.isOpen()) {
+                dispatch(connection);
+            }
+        }
+
+        private void write(Connection connection) {
+            try {
+                while (!connection.writeQueue.isEmpty()) {
+                    ByteBuffer head = connection.writeQueue.peek();
+                    connection.channel.write(head);
+                    if (head.hasRemaining()) {
+                        break;
+                    }
+                    connection.writeQueue.poll();
+                }
+                if (connection.closing && connection.writeQueue.isEmpty()) {
+                    close(connection);
+                    return;
+                }
+                updateInterest(connection);
+            } catch (IOException e) {
+                close(connection);
+            }
+        }
+
+        private void updateInterest(Connection connection) {
+            if (!connection.key.isValid()) {
+                return;
+            }
+            int ops = 0;
+            if (!connection.closing && connection.pending.size() < MAX_PENDING) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (!connection.writeQueue.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            connection.key.interestOps(ops);
+        }
+
+        private void closeIdle(long idleTimeout) {
+            long now = System.currentTimeMillis();
+            if (now - lastIdleCheck < 1000) {
+                return;
+            }
+            lastIdleCheck = now;
+            for (Connection connection : new ArrayList<>(connections)) {
+                if (!connection.inFlight && connection.writeQueue.isEmpty()
+                        && now - connection.lastActive > idleTimeout) {
+                    close(connection);
+                }
+            }
+        }
+
+        private void close(Connection connection) {
+            connections.remove(connection);
+            if (connection.key != null) {
+                connection.key.cancel();
+            }
+            closeQuietly(connection.channel);
+        }
+    }
+
+    private ByteBuffer encodeFramed(Command request, Deflater deflater) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (FrameWriter response = new FrameWriter(bytes, deflater, ServerConfig.compressMinBytes())) {
+            requestHandler.processCommand(request, response);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    private static ByteBuffer encodeFramed(String response, Deflater deflater) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (FrameWriter frame = new FrameWriter(bytes, deflater, ServerConfig.compressMinBytes())) {
+            frame.write(response);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    private static ByteBuffer encode(String response) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(response.length() + 2);
+        new DataOutputStream(bytes).writeUTF(response);
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            System.err.println("Error closing channel: " + e.getMessage());
+        }
+    }
+
+    private static final class Connection {
+        final SocketChannel channel;
+        final Queue<String> pending = new ArrayDeque<>();
+        final Queue<ByteBuffer> writeQueue = new ArrayDeque<>();
+        // Only one request per connection is in flight, so one worker uses these at a time
+        final RequestDecoder decoder = new RequestDecoder();
+        // Set for protocol version 3; not ended on close as a worker may still hold it, so left to its cleaner
+        Deflater deflater;
+        ByteBuffer partial;
+        ByteBuffer body;
+        boolean bodyLast;
+        ByteArrayOutputStream message;
+        int version;
+        SelectionKey key;
+        long lastActive = System.currentTimeMillis();
+        int served;
+        boolean inFlight;
+        boolean closing;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package server;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hash index over a JSON tree, from the encoded full path of every object
+ * member (see {@link KeyPaths}) to its node, so a lookup costs one hash probe
+ * however deep the key is. Changes to the tree must go through {@link #set}
+ * and {@link #delete}, or be reported with {@link #add} and {@link #remove},
+ * to keep the index in sync.
+ * <p>
+ * The index does no locking of its own; entries under different top-level
+ * keys can be changed concurrently.
+ */
+final class PathIndex {
+    private final Map<String, JsonElement> nodes = new ConcurrentHashMap<>();
+    // Object holding the top-level keys, or null when the caller keeps them itself
+    private final JsonObject root;
+
+    PathIndex(JsonObject root) {
+        this.root = root;
+        if (root != null) {
+            for (Map.Entry<String, JsonElement> member : root.entrySet()) {
+                add(new String[]{member.getKey()}, member.getValue());
+            }
+        }
+    }
+
+    JsonElement get(String[] keyPath) {
+        return nodes.get(KeyPaths.encode(keyPath));
+    }
+
+    /**
+     * Same as {@link JsonTree#set}: creates missing objects along the path and
+     * fails if a node on it is not an object. Without a root, the top-level
+     * node must already be indexed.
+     */
+    boolean set(String[] keyPath, JsonElement value) {
+        // Deepest existing ancestor
+        int length = keyPath.length - 1;
+        JsonElement parent = node(keyPath, length);
+        while (parent == null && length > 0) {
+            parent = node(keyPath, --length);
+        }
+        if (parent == null || !parent.isJsonObject()) {
+            return false;  // Not an object, and we're not at the last key
+        }
+        JsonObject current = parent.getAsJsonObject();
+        for (; length < keyPath.length - 1; length++) {
+            JsonObject newObject = new JsonObject();
+            current.add(keyPath[length], newObject);
+            nodes.put(KeyPaths.encode(keyPath, length + 1), newObject);
+            current = newObject;
+        }
+        String key = keyPath[keyPath.length - 1];
+        String encoded = KeyPaths.encode(keyPath);
+        JsonElement old = current.get(key);
+        if (old != null) {
+            remove(encoded, old);
+        }
+        current.add(key, value);
+        add(encoded, value);
+        return true;
+    }
+
+    /** Same as {@link JsonTree#delete}; drops the whole subtree from the index. */
+    boolean delete(String[] keyPath) {
+        JsonElement parent = node(keyPath, keyPath.length - 1);
+        if (parent == null || !parent.isJsonObject()) {
+            return false;
+        }
+        JsonElement old = parent.getAsJsonObject().remove(keyPath[keyPath.length - 1]);
+        if (old == null) {
+            return false;
+        }
+        remove(KeyPaths.encode(keyPath), old);
+        return true;
+    }
+
+    /** Indexes {@code node}, just placed at {@code keyPath}, and everything below it. */
+    void add(String[] keyPath, JsonElement node) {
+        add(KeyPaths.encode(keyPath), node);
+    }
+
+    /** Unindexes {@code node}, just removed from {@code keyPath}, and everything below it. */
+    void remove(String[] keyPath, JsonElement node) {
+        remove(KeyPaths.encode(keyPath), node);
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    private JsonElement node(String[] keyPath, int length) {
+        return length == 0 ? root : nodes.get(KeyPaths.encode(keyPath, length));
+    }
+
+    private void add(String encoded, JsonElement node) {
+        nodes.put(encoded, node);
+        if (node.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> member : node.getAsJsonObject().entrySet()) {
+                add(child(encoded, member.getKey()), member.getValue());
+            }
+        }
+    }
+
+    private void remove(String encoded, JsonElement node) {
+        nodes.remove(encoded);
+        if (node.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> member : node.getAsJsonObject().entrySet()) {
+                remove(child(encoded, member.getKey()), member.getValue());
+            }
+        }
+    }
+
+    private static String child(String encoded, String key) {
+        return encoded + KeyPaths.SEPARATOR + KeyPaths.encode(new String[]{key});
+    }
+}
@@ -0,0 +1,67 @@
+package server;
+
+import java.util.Arrays;
+
+/**
+ * Wire protocol versions.
+ * <p>
+ * Version 1 is {@code DataOutputStream.writeUTF}: a 2-byte length and modified
+ * UTF-8, so a message can be at most 65,535 bytes.
+ * <p>
+ * Version 2 sends each message as one or more frames: a 4-byte big-endian
+ * header followed by plain UTF-8 bytes. The low 30 bits of the header are the
+ * frame length and {@link #FLAG_MORE} marks a frame that is continued by the
+ * next one, which lets a large response be streamed in chunks. A client asks
+ * for version 2 by sending {@link #HELLO} first; the server echoes it. As a
+ * version 1 frame, {@code HELLO} would be an empty message, which no client
+ * sends, so the server can tell the two apart from the first bytes.
+ * <p>
+ * Version 3 is version 2 where responses may be compressed. The client opens
+ * with {@link #HELLO_COMPRESSED}; a server that agrees echoes it, one that
+ * does not answers {@link #HELLO} and the connection is plain version 2. A
+ * frame with {@link #FLAG_COMPRESSED} set carries its chunk as a zlib stream;
+ * the server sets it on response frames of at least
+ * {@code server.compressMinBytes} that shrink. Requests are never compressed.
+ */
+public final class Protocol {
+    public static final int VERSION_LEGACY = 1;
+    public static final int VERSION_FRAMED = 2;
+    public static final int VERSION_COMPRESSED = 3;
+
+    static final byte[] HELLO = {0, 0, 'J', '2'};
+    static final byte[] HELLO_COMPRESSED = {0, 0, 'J', 'Z'};
+    static final int HEADER_SIZE = 4;
+    static final int FLAG_MORE = 0x8000_0000;
+    static final int FLAG_COMPRESSED = 0x4000_0000;
+    static final int LENGTH_MASK = 0x3FFF_FFFF;
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private Protocol() {
+    }
+
+    public static byte[] hello() {
+        return HELLO.clone();
+    }
+
+    /** The hello that asks for {@code version}, 2 or 3. */
+    public static byte[] hello(int version) {
+        return version == VERSION_COMPRESSED ? HELLO_COMPRESSED.clone() : HELLO.clone();
+    }
+
+    public static boolean isHello(byte[] bytes) {
+        return Arrays.equals(HELLO, bytes);
+    }
+
+    /** The version a hello asks for, or {@link #VERSION_LEGACY} if {@code bytes} is not one. */
+    public static int versionOf(byte[] bytes) {
+        if (Arrays.equals(HELLO, bytes)) {
+            return VERSION_FRAMED;
+        }
+        return Arrays.equals(HELLO_COMPRESSED, bytes) ? VERSION_COMPRESSED : VERSION_LEGACY;
+    }
+
+    /** The version a server grants a client asking for {@code requested}. */
+    static int accept(int requested) {
+        return requested == VERSION_COMPRESSED && ServerConfig.compressMinBytes() <= 0 ? VERSION_FRAMED : requested;
+    }
+}
@@ -0,0 +1,103 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The most recent log entries, as the lines written to {@code db.log}, kept
+ * for followers to pull (see {@link Follower}). Entries arrive from the
+ * {@link WriteAheadLog} in sequence order with no gaps; once more than
+ * {@code capacity} are held the oldest are dropped, and a follower that needs
+ * them must start over from a snapshot.
+ */
+final class ReplicationLog {
+    private final Lock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    // Entry seq is at index seq % length
+    private final String[] entries;
+    // The entries held are firstSeq..lastSeq; none when firstSeq > lastSeq
+    private long firstSeq;
+    private long lastSeq;
+
+    ReplicationLog(int capacity, long lastSeq) {
+        this.entries = new String[capacity];
+        this.firstSeq = lastSeq + 1;
+        this.lastSeq = lastSeq;
+    }
+
+    /** Called by the log, under its own lock, for every entry it writes. */
+    void append(long seq, String line) {
+        lock.lock();
+        try {
+            if (seq != lastSeq + 1) {
+                reset(seq - 1);  // Only after the log was reset, as entries never skip otherwise
+            }
+            entries[index(seq)] = line;
+            lastSeq = seq;
+            if (lastSeq - firstSeq >= entries.length) {
+                firstSeq++;  // Overwritten
+            }
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Drops everything held; the next entry will be {@code lastSeq + 1}. */
+    void reset(long lastSeq) {
+        lock.lock();
+        try {
+            Arrays.fill(entries, null);
+            this.firstSeq = lastSeq + 1;
+            this.lastSeq = lastSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long lastSeq() {
+        lock.lock();
+        try {
+            return lastSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Up to {@code max} entries after {@code afterSeq}, waiting up to
+     * {@code waitMillis} while there are none yet. Returns null if the entries
+     * after {@code afterSeq} are no longer held, or if {@code afterSeq} is
+     * ahead of this log (a follower of a different history).
+     */
+    List<String> since(long afterSeq, int max, long waitMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+            long remaining;
+            while (afterSeq == lastSeq && (remaining = deadline - System.nanoTime()) > 0) {
+                appended.awaitNanos(remaining);
+            }
+            if (afterSeq < firstSeq - 1 || afterSeq > lastSeq) {
+                return null;
+            }
+            long through = Math.min(lastSeq, afterSeq + max);
+            List<String> batch = new ArrayList<>((int) (through - afterSeq));
+            for (long seq = afterSeq + 1; seq <= through; seq++) {
+                batch.add(entries[index(seq)]);
+            }
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int index(long seq) {
+        return (int) (seq % entries.length);
+    }
+}
@@ -0,0 +1,320 @@
+package server;
+
+import com.google.gson.JsonSyntaxException;
+
+import java.util.Arrays;
+
+/**
+ * Decodes a request into a reused {@link Command} in one pass over the text,
+ * without building a tree for the request.
+ * <p>
+ * Gson's {@code JsonReader} cannot report where a value starts and ends in the
+ * input, which is what keeping {@code value} as an unparsed slice needs, so the
+ * top level is scanned here. Only the top-level structure, the {@code type}
+ * and {@code key} fields and the scalar options are checked; {@code value}, {@code expected} and
+ * {@code requests} are checked by {@code JsonParser} when they are parsed.
+ */
+public class RequestDecoder {
+    private final Command command = new Command();
+    private String text;
+    private int pos;
+
+    /**
+     * Decodes {@code message}. The returned command is only valid until the
+     * next call.
+     */
+    public Command decode(String message) {
+        text = message;
+        pos = 0;
+        command.reset();
+        skipWhitespace();
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+        } else {
+            readMembers();
+        }
+        skipWhitespace();
+        if (pos != text.length()) {
+            throw error("Unexpected data after the request");
+        }
+        text = null;
+        return command;
+    }
+
+    private void readMembers() {
+        while (true) {
+            skipWhitespace();
+            String name = readString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            switch (name) {
+                case Constants.KEY_TYPE:
+                    command.type = readScalar();
+                    break;
+                case Constants.KEY_KEY:
+                    readKey();
+                    break;
+                case Constants.KEY_VALUE:
+                    command.valueJson = readSlice();
+                    break;
+                case Constants.KEY_REQUESTS:
+                    command.requestsJson = readSlice();
+                    break;
+                case Constants.KEY_PREFIX:
+                    command.prefix = readScalar();
+                    break;
+                case Constants.KEY_START:
+                    command.start = readScalar();
+                    break;
+                case Constants.KEY_END:
+                    command.end = readScalar();
+                    break;
+                case Constants.KEY_LIMIT:
+                    command.limit = readScalar();
+                    break;
+                case Constants.KEY_CURSOR:
+                    command.cursor = readScalar();
+                    break;
+                case Constants.KEY_TTL_MS:
+                    command.ttl = readScalar();
+                    break;
+                case Constants.KEY_EXPECTED:
+                    command.expectedJson = readSlice();
+                    break;
+                case Constants.KEY_VERSION:
+                    command.version = readScalar();
+                    break;
+                case Constants.KEY_WITH_VERSION:
+                    command.withVersion = readScalar();
+                    break;
+                default:
+                    skipValue();
+            }
+            skipWhitespace();
+            char next = next();
+            if (next == '}') {
+                return;
+            }
+            if (next != ',') {
+                throw error("Expected ',' or '}'");
+            }
+        }
+    }
+
+    private void readKey() {
+        if (peek() != '[') {
+            String key = readScalar();
+            command.key = key != null ? new String[]{key} : new String[0];
+            return;
+        }
+        pos++;
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            command.key = new String[0];
+            return;
+        }
+        String[] keys = new String[4];
+        int count = 0;
+        while (true) {
+            skipWhitespace();
+            String key = readScalar();
+            if (key == null) {
+                throw error("Null in key path");
+            }
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+            }
+            keys[count++] = key;
+            skipWhitespace();
+            char next = next();
+            if (next == ']') {
+                break;
+            }
+            if (next != ',') {
+                throw error("Expected ',' or ']'");
+            }
+        }
+        command.key = count == keys.length ? keys : Arrays.copyOf(keys, count);
+    }
+
+    /** A string, or the text of a number or boolean literal; null for {@code null}. */
+    private String readScalar() {
+        char first = peek();
+        if (first == '"') {
+            return readString();
+        }
+        if (first == '{' || first == '[') {
+            throw error("Expected a string");
+        }
+        int start = pos;
+        skipLiteral();
+        String literal = text.substring(start, pos);
+        return "null".equals(literal) ? null : literal;
+    }
+
+    private String readSlice() {
+        int start = pos;
+        skipValue();
+        return text.substring(start, pos);
+    }
+
+    private String readString() {
+        expect('"');
+        int start = pos;
+        // Fast path: no escapes
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c == '"') {
+                return text.substring(start, pos++);
+            }
+            if (c == '\\') {
+                break;
+            }
+            pos++;
+        }
+        StringBuilder builder = new StringBuilder(pos - start + 16).append(text, start, pos);
+        while (true) {
+            char c = next();
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            char escaped = next();
+            switch (escaped) {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > text.length()) {
+                        throw error("Unterminated escape");
+                    }
+                    try {
+                        builder.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Bad unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    builder.append(escaped);  // \" \\ \/
+            }
+        }
+    }
+
+    private void skipValue() {
+        char first = peek();
+        if (first == '"') {
+            skipString();
+        } else if (first == '{' || first == '[') {
+            skipContainer();
+        } else {
+            skipLiteral();
+        }
+    }
+
+    /**
+     * Skips an object or array by tracking nesting, so each bracket must close
+     * the kind that is open; strings are skipped whole.
+     */
+    private void skipContainer() {
+        StringBuilder closers = new StringBuilder();
+        do {
+            char c = peek();
+            if (c == '"') {
+                skipString();
+                continue;
+            }
+            pos++;
+            if (c == '{') {
+                closers.append('}');
+            } else if (c == '[') {
+                closers.append(']');
+            } else if (c == '}' || c == ']') {
+                int last = closers.length() - 1;
+                if (closers.charAt(last) != c) {
+                    throw error("Expected '" + closers.charAt(last) + "'");
+                }
+                closers.setLength(last);
+            }
+        } while (closers.length() > 0);
+    }
+
+    private void skipString() {
+        pos++;
+        while (true) {
+            char c = next();
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                next();
+            }
+        }
+    }
+
+    private void skipLiteral() {
+        int start = pos;
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c == ',' || c == '}' || c == ']' || isWhitespace(c)) {
+                break;
+            }
+            pos++;
+        }
+        if (pos == start) {
+            throw error("Expected a value");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < text.length() && isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private void expect(char expected) {
+        if (next() != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+    }
+
+    private char peek() {
+        if (pos >= text.length()) {
+            throw error("Unexpected end of request");
+        }
+        return text.charAt(pos);
+    }
+
+    private char next() {
+        char c = peek();
+        pos++;
+        return c;
+    }
+
+    private JsonSyntaxException error(String message) {
+        return new JsonSyntaxException(message + " at offset " + pos);
+    }
+}
@@ -3,52 +3,162 @@ package server;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
 
 public class RequestHandler {
     private static final Gson gson = new Gson();
-    private DatabaseManager databaseManager;
+    private DatabaseManagerInterface databaseManager;
+    // Null unless server.responseCacheChars is set
+    private final ResponseCache responseCache = newResponseCache();
+    // Null unless server.leader is set; this server then only serves reads
+    private final Follower follower;
+    private final ScanCursors scanCursors = new ScanCursors(ServerConfig.scanCursors(),
+            ServerConfig.scanCursorTtlMillis());
+    // On a follower, the leader's deadlines, which it never reaps: expired keys go when its leader deletes them
+    private final Expiries expiries;
+    // Pulls from followers that may be held until there is something to ship
+    private final Semaphore heldPolls = new Semaphore(ServerConfig.replicationMaxHeldPolls());
 
-    public RequestHandler(DatabaseManager databaseManager) {
+    public RequestHandler(DatabaseManagerInterface databaseManager) {
         this.databaseManager = databaseManager;
+        this.expiries = openExpiries();
+        this.follower = startFollower();
     }
 
     public RequestHandler() {
+        this.databaseManager = createDatabaseManager();
+        this.expiries = openExpiries();
+        this.follower = startFollower();
     }
 
     public String processCommand(JsonObject request) {
-        String type = request.get("type").getAsString();
-        JsonArray keyArray = request.has("key") ? request.getAsJsonArray("key") : new JsonArray();
-        JsonElement value = request.has("value") ? request.get("value") : null;
+        return processCommand(Command.of(request));
+    }
+
+    public String processCommand(Command command) {
+        if (Constants.TYPE_REPLICATE.equals(command.type())) {
+            return replicate(command);
+        }
+        if (isCacheable(command)) {
+            return cachedGet(command);
+        }
+        return serialize(execute(command));
+    }
+
+    public void processCommand(JsonObject request, Writer out) throws IOException {
+        processCommand(Command.of(request), out);
+    }
+
+    /**
+     * Streams the response to {@code out} instead of building it as a String.
+     * The recorded serialization time includes writing to {@code out}.
+     */
+    public void processCommand(Command command, Writer out) throws IOException {
+        if (Constants.TYPE_REPLICATE.equals(command.type())) {
+            out.write(replicate(command));
+            return;
+        }
+        if (isCacheable(command)) {
+            out.write(cachedGet(command));
+            return;
+        }
+        JsonObject response = execute(command);
+        long start = System.nanoTime();
+        try {
+            gson.toJson(response, out);
+        } catch (JsonIOException e) {
+            throw new IOException(e.getMessage(), e.getCause());
+        } finally {
+            Metrics.SERIALIZE.recordSince(start);
+        }
+    }
+
+    JsonObject execute(JsonObject request) {
+        return execute(Command.of(request));
+    }
+
+    /**
+     * Runs {@code command}. One whose value, expected value or sub-requests
+     * do not parse is answered as invalid, so the requests behind it on the
+     * same connection are still served.
+     */
+    JsonObject execute(Command command) {
+        try {
+            return executeParsed(command);
+        } catch (JsonParseException | IllegalStateException e) {
+            JsonObject invalid = new JsonObject();
+            invalid.addProperty("response", Constants.RESPONSE_ERROR);
+            invalid.addProperty("reason", Constants.REASON_INVALID_COMMAND);
+            return invalid;
+        }
+    }
+
+    private JsonObject executeParsed(Command command) {
+        long start = System.nanoTime();
+        String type = command.type() != null ? command.type() : Constants.TYPE_INVALID;
+        String[] keyPath = command.key();
         JsonObject response = new JsonObject();
         response.addProperty("response", Constants.RESPONSE_ERROR);
 
         switch (type) {
             case "set":
-                if (!keyArray.isEmpty() && value != null) {
-                    String[] keyPath = jsonArrayToStringArray(keyArray);
-                    if (databaseManager.set(keyPath, value)) {
-                        response.addProperty("response", Constants.RESPONSE_OK);
-                    } else {
-                        response.addProperty("reason", Constants.REASON_FAILED_TO_SET);
+                if (follower != null) {
+                    response.addProperty("reason", Constants.REASON_READ_ONLY);
+                } else if (keyPath.length > 0 && command.hasValue()) {
+                    long deadline = deadline(command);
+                    if (deadline < 0) {
+                        response.addProperty("reason", Constants.REASON_INVALID_TTL);
+                        break;
+                    }
+                    try {
+                        boolean set = inBatch(Collections.singleton(keyPath[0]), () -> {
+                            // Before the write, so neither an expired ancestor nor the reaper takes the new value
+                            reapAbove(keyPath);
+                            return setExpiring(keyPath, command.value(), deadline);
+                        });
+                        if (set) {
+                            response.addProperty("response", Constants.RESPONSE_OK);
+                        } else {
+                            response.addProperty("reason", Constants.REASON_FAILED_TO_SET);
+                        }
+                    } catch (UncheckedIOException e) {
+                        response.addProperty("reason", Constants.REASON_FAILED_TO_PERSIST);
+                    } finally {
+                        invalidate(keyPath);
                     }
-                    System.out.println("Request type: " + type);
-                    System.out.println("Key array: " + keyArray.toString());
-                    System.out.println("Value: " + value);
-                    System.out.println("DatabaseManager set return: " + databaseManager.set(keyPath, value));
-
                 } else {
                     response.addProperty("reason", Constants.REASON_MISSING_KEY_OR_VALUE);
                 }
 
                 break;
             case "get":
-                if (!keyArray.isEmpty()) {
-                    String[] keyPath = jsonArrayToStringArray(keyArray);
-                    JsonElement getValue = databaseManager.get(stringArrayToJsonArray(keyPath));
+                if (follower != null && follower.isStale()) {
+                    response.addProperty("reason", Constants.REASON_STALE);
+                } else if (keyPath.length > 0) {
+                    JsonElement getValue = unexpired(keyPath, databaseManager.get(keyPath));
                     if (getValue != null && !getValue.isJsonNull()) {
                         response.addProperty("response", Constants.RESPONSE_OK);
                         response.add("value", getValue);
+                        if (command.withVersion()) {
+                            response.addProperty(Constants.KEY_VERSION, JsonTree.version(getValue));
+                        }
                     } else {
                         response.addProperty("response", Constants.RESPONSE_ERROR);
                         response.addProperty("reason", Constants.REASON_NO_SUCH_KEY);
@@ -59,17 +169,83 @@ public class RequestHandler {
                 }
                 break;
             case "delete":
-                if (!keyArray.isEmpty()) {
-                    String[] keyPath = jsonArrayToStringArray(keyArray);
-                    if (databaseManager.delete(stringArrayToJsonArray(keyPath))) {
-                        response.addProperty("response", Constants.RESPONSE_OK);
-                    } else {
-                        response.addProperty("reason", Constants.REASON_NO_SUCH_KEY);
+                if (follower != null) {
+                    response.addProperty("reason", Constants.REASON_READ_ONLY);
+                } else if (keyPath.length > 0) {
+                    try {
+                        boolean deleted = inBatch(Collections.singleton(keyPath[0]), () -> {
+                            reapAbove(keyPath);
+                            if (!databaseManager.delete(keyPath)) {
+                                return false;
+                            }
+                            updateExpiry(keyPath, 0);
+                            return true;
+                        });
+                        if (deleted) {
+                            response.addProperty("response", Constants.RESPONSE_OK);
+                        } else {
+                            response.addProperty("reason", Constants.REASON_NO_SUCH_KEY);
+                        }
+                    } catch (UncheckedIOException e) {
+                        response.addProperty("reason", Constants.REASON_FAILED_TO_PERSIST);
+                    } finally {
+                        invalidate(keyPath);
                     }
                 } else {
                     response.addProperty("reason", Constants.REASON_MISSING_KEY);
                 }
                 break;
+            case "scan":
+                executeScan(command, response);
+                break;
+            case "cas":
+                if (follower != null) {
+                    response.addProperty("reason", Constants.REASON_READ_ONLY);
+                } else if (keyPath.length > 0) {
+                    executeCas(command, response);
+                } else {
+                    response.addProperty("reason", Constants.REASON_MISSING_KEY);
+                }
+                break;
+            case "incr":
+            case "append":
+            case "merge":
+                if (follower != null) {
+                    response.addProperty("reason", Constants.REASON_READ_ONLY);
+                } else if (keyPath.length > 0 && (command.hasValue() || Constants.TYPE_INCR.equals(type))) {
+                    executeUpdate(command, Delta.of(type), response);
+                } else {
+                    response.addProperty("reason", Constants.REASON_MISSING_KEY_OR_VALUE);
+                }
+                break;
+            case "batch":
+                executeBatch(command, response);
+                break;
+            case "txn":
+                if (follower != null) {
+                    response.addProperty("reason", Constants.REASON_READ_ONLY);
+                } else {
+                    executeTxn(command, response);
+                }
+                break;
+            case "stats":
+                response.addProperty("response", Constants.RESPONSE_OK);
+                response.add(Constants.KEY_STATS, Metrics.snapshot());
+                if (follower != null) {
+                    response.add(Constants.KEY_REPLICATION, follower.status());
+                }
+                break;
+            case "keys":
+                JsonArray keys = new JsonArray();
+                long now = System.currentTimeMillis();
+                for (String key : databaseManager.keys()) {
+                    if (expiries == null || !expiries.isDue(new String[]{key}, now)) {
+                        keys.add(key);
+                    }
+                }
+                response.addProperty("response", Constants.RESPONSE_OK);
+                response.add(Constants.KEY_KEYS, keys);
+                break;
             case "exit":
                 response.addProperty("response", Constants.RESPONSE_OK);
                 break;
@@ -78,7 +254,599 @@ public class RequestHandler {
                 response.addProperty("reason", Constants.REASON_INVALID_COMMAND);
         }
 
-        return gson.toJson(response);
+        Metrics.command(type).recordSince(start);
+        return response;
+    }
+
+    /**
+     * Answers a get from the response cache, skipping both the database and
+     * serialization; on a miss the response is cached if the key exists.
+     */
+    private String cachedGet(Command command) {
+        long start = System.nanoTime();
+        String path = KeyPaths.encode(command.key());
+        String json = responseCache.get(path);
+        if (json != null) {
+            Metrics.command(Constants.TYPE_GET).recordSince(start);
+            return json;
+        }
+        long version = responseCache.version();
+        JsonObject response = execute(command);
+        json = serialize(response);
+        if (Constants.RESPONSE_OK.equals(response.get("response").getAsString())) {
+            responseCache.put(path, json, version);
+        }
+        return json;
+    }
+
+    private boolean isCacheable(Command command) {
+        return responseCache != null && Constants.TYPE_GET.equals(command.type()) && command.key().length > 0
+                && !command.withVersion()
+                && (follower == null || !follower.isStale())
+                && (expiries == null || !expiries.covers(command.key()));  // Would go on serving it after expiry
+    }
+
+    /** When a {@code set} expires: 0 for never, -1 if its TTL is not a positive number. */
+    private static long deadline(Command command) {
+        if (!command.hasTtl()) {
+            return 0;
+        }
+        try {
+            long ttl = command.ttlMillis();
+            return ttl > 0 ? System.currentTimeMillis() + ttl : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Records that {@code keyPath} now expires at {@code deadline}, or never
+     * when 0, and logs the change with the engine's writes for followers.
+     * Called inside a batch, which a failure to record it discards.
+     */
+    private void updateExpiry(String[] keyPath, long deadline) {
+        if (expiries == null) {
+            return;
+        }
+        try {
+            if (deadline > 0) {
+                expiries.expireAt(keyPath, deadline);
+                databaseManager.logExpiry(keyPath, deadline);
+            } else if (expiries.cleared(keyPath)) {
+                databaseManager.logExpiry(keyPath, 0);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to record the TTL of " + Arrays.toString(keyPath), e);
+        }
+    }
+
+    /** Sets {@code value} at {@code keyPath} to expire at {@code deadline}, inside a batch. */
+    private boolean setExpiring(String[] keyPath, JsonElement value, long deadline) {
+        if (!databaseManager.set(keyPath, value)) {
+            return false;
+        }
+        updateExpiry(keyPath, deadline);
+        return true;
+    }
+
+    /**
+     * Runs {@code operations} as one engine batch. If the engine discards it,
+     * because they threw or it could not be persisted, the deadlines they
+     * changed are put back as well.
+     */
+    private <T> T inBatch(Collection<String> topLevelKeys, Supplier<T> operations) {
+        Supplier<T> batch = () -> databaseManager.inBatch(topLevelKeys, operations);
+        return expiries != null ? expiries.inBatch(batch) : batch.get();
+    }
+
+    /**
+     * {@code value} as a read at {@code keyPath} may see it: null once the
+     * path or an ancestor has expired, and without expired descendants, even
+     * if the reaper has not deleted them yet.
+     */
+    private JsonElement unexpired(String[] keyPath, JsonElement value) {
+        if (expiries == null || expiries.isEmpty() || value == null || value.isJsonNull()) {
+            return value;
+        }
+        long now = System.currentTimeMillis();
+        if (expiries.expired(keyPath, now)) {
+            return null;
+        }
+        List<String[]> expiredBelow = expiries.expiredBelow(keyPath, now);
+        if (expiredBelow.isEmpty()) {
+            return value;
+        }
+        JsonElement visible = value.deepCopy();  // The database's own value may be shared
+        for (String[] path : expiredBelow) {
+            JsonElement parent = visible;
+            for (int i = keyPath.length; i < path.length - 1 && parent.isJsonObject(); i++) {
+                parent = parent.getAsJsonObject().get(path[i]);
+                if (parent == null) {
+                    break;
+                }
+            }
+            if (parent != null && parent.isJsonObject()) {
+                parent.getAsJsonObject().remove(path[path.length - 1]);
+            }
+        }
+        return visible;
+    }
+
+    /** Deletes {@code keyPath} and its ancestors if they have expired but are not reaped yet. */
+    private void reapAbove(String[] keyPath) {
+        if (expiries != null) {
+            long now = System.currentTimeMillis();
+            for (String[] expired : expiries.expiredAbove(keyPath, now)) {
+                deleteExpired(expired, now);
+            }
+        }
+    }
+
+    /**
+     * Deletes the paths the reaper found expired, with one flush. If that
+     * fails their deadlines are put back, which schedules them again.
+     */
+    private void reap(List<String[]> keyPaths) {
+        Set<String> topLevelKeys = new HashSet<>();
+        for (String[] keyPath : keyPaths) {
+            topLevelKeys.add(keyPath[0]);
+        }
+        long now = System.currentTimeMillis();
+        try {
+            inBatch(topLevelKeys, () -> {
+                for (String[] keyPath : keyPaths) {
+                    deleteExpired(keyPath, now);
+                }
+                return null;
+            });
+        } catch (UncheckedIOException e) {
+            System.err.println("Failed to reap expired keys, will retry: " + e.getMessage());
+        }
+    }
+
+    private void deleteExpired(String[] keyPath, long now) {
+        // A set since the deadline passed has replaced or cleared it
+        if (expiries.isDue(keyPath, now)) {
+            databaseManager.delete(keyPath);
+            invalidate(keyPath);
+            updateExpiry(keyPath, 0);
+            Metrics.EXPIRED_KEYS.increment();
+        }
+    }
+
+    private Expiries openExpiries() {
+        Path directory = databaseManager.directory();
+        try {
+            // A follower's leader reaps, and ships the deletes
+            return new Expiries(directory != null ? directory.resolve("db.ttl") : null,
+                    ServerConfig.ttlTickMillis(), ServerConfig.leader() == null ? this::reap : keyPaths -> { });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load key expiries", e);
+        }
+    }
+
+    /** Called after every write, whether it succeeded or not; null means everything changed. */
+    private void invalidate(String[] keyPath) {
+        if (responseCache != null) {
+            if (keyPath != null) {
+                responseCache.invalidate(keyPath);
+            } else {
+                responseCache.clear();
+            }
+        }
+    }
+
+    /**
+     * Answers a follower's pull with the log entries after the sequence in
+     * {@code value}, or with a snapshot if they are no longer kept. The
+     * entries are the logged JSON lines, so they are spliced in as they are.
+     * A pull is held for new entries only while fewer than
+     * {@code replication.maxHeldPolls} others are.
+     */
+    private String replicate(Command command) {
+        long start = System.nanoTime();
+        if (!(databaseManager instanceof InMemoryDatabaseManager)) {
+            return replicateError(Constants.REASON_CANNOT_REPLICATE);
+        }
+        long afterSeq;
+        try {
+            JsonElement after = command.value();
+            if (after == null || !after.isJsonPrimitive()) {
+                return replicateError(Constants.REASON_INVALID_COMMAND);
+            }
+            afterSeq = after.getAsLong();
+        } catch (JsonParseException | NumberFormatException e) {
+            return replicateError(Constants.REASON_INVALID_COMMAND);
+        }
+        InMemoryDatabaseManager database = (InMemoryDatabaseManager) databaseManager;
+        String json;
+        boolean held = heldPolls.tryAcquire();
+        try {
+            List<String> entries = database.logSince(afterSeq, ServerConfig.replicationBatchEntries(),
+                    held ? ServerConfig.replicationPollWaitMillis() : 0);
+            if (entries != null) {
+                StringBuilder response = new StringBuilder("{\"response\":\"OK\",\"seq\":")
+                        .append(database.lastReplicated()).append(",\"entries\":[");
+                for (int i = 0; i < entries.size(); i++) {
+                    response.append(i > 0 ? "," : "").append(entries.get(i));
+                }
+                json = response.append("]}").toString();
+            } else {
+                JsonObject snapshot = database.snapshot();
+                JsonObject response = new JsonObject();
+                response.addProperty("response", Constants.RESPONSE_OK);
+                response.add(Constants.KEY_SEQ, snapshot.get("seq"));
+                response.add(Constants.KEY_SNAPSHOT, snapshot.get("data"));
+                // Taken after the data, so a deadline may be ahead of it; the entries that follow set it again
+                response.add(Constants.KEY_DEADLINES, expiries.toJson());
+                json = serialize(response);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            json = "{\"response\":\"ERROR\"}";
+        } catch (IOException e) {
+            json = "{\"response\":\"ERROR\"}";
+        } finally {
+            if (held) {
+                heldPolls.release();
+            }
+        }
+        Metrics.command(Constants.TYPE_REPLICATE).recordSince(start);
+        return json;
+    }
+
+    private static String replicateError(String reason) {
+        JsonObject error = new JsonObject();
+        error.addProperty("response", Constants.RESPONSE_ERROR);
+        error.addProperty("reason", reason);
+        return serialize(error);
+    }
+
+    private Follower startFollower() {
+        String leader = ServerConfig.leader();
+        if (leader == null) {
+            return null;
+        }
+        if (!(databaseManager instanceof InMemoryDatabaseManager)) {
+            throw new IllegalStateException("Following a leader needs db.engine=memory");
+        }
+        Follower started = new Follower(leader, (InMemoryDatabaseManager) databaseManager, expiries, this::invalidate);
+        started.start();
+        return started;
+    }
+
+    private static String serialize(JsonObject response) {
+        long start = System.nanoTime();
+        String json = gson.toJson(response);
+        Metrics.SERIALIZE.recordSince(start);
+        return json;
+    }
+
+    private static ResponseCache newResponseCache() {
+        long maxChars = ServerConfig.responseCacheChars();
+        return maxChars > 0 ? new ResponseCache(maxChars) : null;
+    }
+
+    /**
+     * Answers one page of the children of the object at {@code key}, or of
+     * the top level without one, in key
+     * order, limited by {@code prefix}, {@code start} (inclusive) and
+     * {@code end} (exclusive). When more remain, the response carries a
+     * {@code cursor} to pass back for the next page. The keys are fixed when
+     * the scan starts; values are read as each page is served, and children
+     * deleted in between are left out.
+     */
+    private void executeScan(Command command, JsonObject response) {
+        int limit;
+        try {
+            limit = command.limit();
+        } catch (NumberFormatException e) {
+            limit = -1;
+        }
+        if (limit < 0) {
+            response.addProperty("reason", Constants.REASON_INVALID_LIMIT);
+            return;
+        }
+        if (follower != null && follower.isStale()) {
+            response.addProperty("reason", Constants.REASON_STALE);
+            return;
+        }
+        limit = limit == 0 ? ServerConfig.scanPageSize() : Math.min(limit, ServerConfig.scanMaxPageSize());
+        String[] keyPath;
+        List<String> keys;
+        int offset;
+        ScanCursors.Cursor cursor = null;
+        if (command.cursor() != null) {
+            ScanCursors.Position position = scanCursors.find(command.cursor());
+            if (position == null) {
+                response.addProperty("reason", Constants.REASON_INVALID_CURSOR);
+                return;
+            }
+            cursor = position.cursor;
+            keyPath = cursor.keyPath;
+            keys = cursor.keys;
+            offset = position.offset;
+        } else {
+            keyPath = command.key() != null ? command.key() : new String[0];
+            keys = expiries != null && expiries.expired(keyPath, System.currentTimeMillis())
+                    ? null : databaseManager.childKeys(keyPath);
+            if (keys == null) {
+                JsonElement node = unexpired(keyPath, databaseManager.get(keyPath));
+                response.addProperty("reason", node != null && !node.isJsonNull()
+                        ? Constants.REASON_NOT_AN_OBJECT : Constants.REASON_NO_SUCH_KEY);
+                return;
+            }
+            keys = inRange(keys, command);
+            offset = 0;
+        }
+        int end = Math.min(keys.size(), offset + limit);
+        JsonArray entries = new JsonArray();
+        String[] childPath = Arrays.copyOf(keyPath, keyPath.length + 1);
+        for (String key : keys.subList(offset, end)) {
+            childPath[keyPath.length] = key;
+            JsonElement value = unexpired(childPath, databaseManager.get(childPath));
+            if (value != null && !value.isJsonNull()) {
+                JsonObject entry = new JsonObject();
+                entry.addProperty(Constants.KEY_KEY, key);
+                entry.add(Constants.KEY_VALUE, value);
+                entries.add(entry);
+            }
+        }
+        response.addProperty("response", Constants.RESPONSE_OK);
+        response.add(Constants.KEY_ENTRIES, entries);
+        if (end < keys.size()) {
+            if (cursor == null) {
+                cursor = scanCursors.open(keyPath, keys);
+            }
+            response.addProperty(Constants.KEY_CURSOR, cursor.token(end));
+        } else if (cursor != null) {
+            scanCursors.close(cursor);
+        }
+    }
+
+    private static List<String> inRange(List<String> keys, Command command) {
+        if (command.prefix() == null && command.start() == null && command.end() == null) {
+            return keys;
+        }
+        List<String> matched = new ArrayList<>();
+        for (String key : keys) {
+            if ((command.prefix() == null || key.startsWith(command.prefix()))
+                    && (command.start() == null || key.compareTo(command.start()) >= 0)
+                    && (command.end() == null || key.compareTo(command.end()) < 0)) {
+                matched.add(key);
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Runs every request of a batch under one lock acquisition and one
+     * persistence flush, answering with one response per request.
+     */
+    private void executeBatch(Command command, JsonObject response) {
+        JsonArray requests = command.requests();
+        if (requests == null || requests.isEmpty()) {
+            response.addProperty("reason", Constants.REASON_MISSING_REQUESTS);
+            return;
+        }
+        List<Command> operations = new ArrayList<>(requests.size());
+        Set<String> topLevelKeys = new HashSet<>();
+        for (JsonElement request : requests) {
+            Command operation = request.isJsonObject() ? Command.of(request.getAsJsonObject()) : null;
+            operations.add(operation);
+            if (operation != null && operation.key().length > 0) {
+                topLevelKeys.add(operation.key()[0]);
+            }
+        }
+        try {
+            JsonArray responses = inBatch(topLevelKeys, () -> {
+                JsonArray results = new JsonArray();
+                for (Command operation : operations) {
+                    results.add(executeBatchOperation(operation));
+                }
+                return results;
+            });
+            response.addProperty("response", Constants.RESPONSE_OK);
+            response.add(Constants.KEY_RESPONSES, responses);
+        } catch (UncheckedIOException e) {
+            response.addProperty("reason", Constants.REASON_FAILED_TO_PERSIST);
+        }
+    }
+
+    /**
+     * Runs one request of a batch. Nested batches, exits, scans and txns are
+     * refused: a scan reads keys whose stripes the batch does not hold, and a
+     * txn would take the stripes of its own keys out of order.
+     */
+    private JsonObject executeBatchOperation(Command operation) {
+        if (operation != null && operation.type() != null && !Constants.TYPE_BATCH.equals(operation.type())
+                && !Constants.TYPE_SCAN.equals(operation.type()) && !Constants.TYPE_TXN.equals(operation.type())
+                && !operation.isExit()) {
+            return execute(operation);
+        }
+        JsonObject invalid = new JsonObject();
+        invalid.addProperty("response", Constants.RESPONSE_ERROR);
+        invalid.addProperty("reason", Constants.REASON_INVALID_COMMAND);
+        return invalid;
+    }
+
+    /**
+     * Sets the value at {@code key} if it still is the {@code expected} one,
+     * JSON null meaning there is none, and has the expected {@code version};
+     * without a {@code value} it only checks. The check and the write are one
+     * batch, so no other write to the same top-level key comes between them.
+     * Either answer carries the version the path holds afterwards.
+     */
+    private void executeCas(Command command, JsonObject response) {
+        String[] keyPath = command.key();
+        if (!command.hasExpected() && command.version() == null) {
+            response.addProperty("reason", Constants.REASON_MISSING_CONDITION);
+            return;
+        }
+        long deadline = deadline(command);
+        if (deadline < 0) {
+            response.addProperty("reason", Constants.REASON_INVALID_TTL);
+            return;
+        }
+        try {
+            inBatch(Collections.singleton(keyPath[0]), () -> {
+                reapAbove(keyPath);
+                JsonElement current = unexpired(keyPath, databaseManager.get(keyPath));
+                if (!matches(command, current)) {
+                    response.addProperty("reason", Constants.REASON_CONDITION_FAILED);
+                    response.addProperty(Constants.KEY_VERSION, JsonTree.version(current));
+                    return null;
+                }
+                if (!command.hasValue()) {
+                    response.addProperty("response", Constants.RESPONSE_OK);
+                    response.addProperty(Constants.KEY_VERSION, JsonTree.version(current));
+                    return null;
+                }
+                boolean set = setExpiring(keyPath, command.value(), deadline);
+                invalidate(keyPath);
+                if (set) {
+                    response.addProperty("response", Constants.RESPONSE_OK);
+                    response.addProperty(Constants.KEY_VERSION, JsonTree.version(command.value()));
+                } else {
+                    response.addProperty("reason", Constants.REASON_FAILED_TO_SET);
+                }
+                return null;
+            });
+        } catch (UncheckedIOException e) {
+            invalidate(keyPath);
+            response.remove(Constants.KEY_VERSION);
+            response.addProperty("response", Constants.RESPONSE_ERROR);
+            response.addProperty("reason", Constants.REASON_FAILED_TO_PERSIST);
+        }
+    }
+
+    private static boolean matches(Command command, JsonElement current) {
+        boolean absent = current == null || current.isJsonNull();
+        if (command.version() != null && (absent || !command.version().equals(JsonTree.version(current)))) {
+            return false;
+        }
+        if (!command.hasExpected()) {
+            return true;
+        }
+        JsonElement expected = command.expected();
+        return expected.isJsonNull() ? absent : !absent && expected.equals(current);
+    }
+
+    /**
+     * Applies {@code incr} (of {@code value}, or 1 without one), {@code append}
+     * or {@code merge} where the value is, so the engine logs only the change.
+     * The path keeps its TTL, as it is changed rather than replaced. An incr
+     * answers with the new number. Reaping what expired and the update are
+     * one batch; an update the engine cannot store fails to persist rather
+     * than answering as if the value had the wrong type.
+     */
+    private void executeUpdate(Command command, Delta delta, JsonObject response) {
+        String[] keyPath = command.key();
+        JsonElement operand = command.hasValue() ? command.value() : new JsonPrimitive(1);
+        try {
+            JsonElement updated = inBatch(Collections.singleton(keyPath[0]), () -> {
+                reapAbove(keyPath);
+                if (expiries != null && delta == Delta.MERGE) {
+                    // A merge reaches into the members it patches
+                    long now = System.currentTimeMillis();
+                    for (String[] expired : expiries.expiredBelow(keyPath, now)) {
+                        deleteExpired(expired, now);
+                    }
+                }
+                return databaseManager.update(keyPath, delta, operand);
+            });
+            if (updated == null) {
+                response.addProperty("reason", delta.reason());
+                return;
+            }
+            response.addProperty("response", Constants.RESPONSE_OK);
+            if (!updated.isJsonNull()) {
+                response.add(Constants.KEY_VALUE, updated);
+            }
+        } catch (UncheckedIOException e) {
+            response.addProperty("reason", Constants.REASON_FAILED_TO_PERSIST);
+        } finally {
+            invalidate(keyPath);
+        }
+    }
+
+    /** Thrown out of a txn's batch to have the engine discard it. */
+    private static final class TxnAborted extends RuntimeException {
+        final int failed;
+        final JsonElement reason;
+
+        TxnAborted(int failed, JsonElement reason) {
+            super(null, null, false, false);
+            this.failed = failed;
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * Runs the {@code get}, {@code set}, {@code delete}, {@code cas} and
+     * {@link Delta} requests of a txn in order as one batch, all or nothing:
+     * once a write or a cas fails, the batch is aborted so the engine
+     * discards every write of it, and the txn answers with that failure and
+     * the position of the request in {@code failed}. A get that finds
+     * nothing does not fail it.
+     */
+    private void executeTxn(Command command, JsonObject response) {
+        JsonArray requests = command.requests();
+        if (requests == null || requests.isEmpty()) {
+            response.addProperty("reason", Constants.REASON_MISSING_REQUESTS);
+            return;
+        }
+        List<Command> operations = new ArrayList<>(requests.size());
+        Set<String> topLevelKeys = new HashSet<>();
+        for (int i = 0; i < requests.size(); i++) {
+            JsonElement request = requests.get(i);
+            Command operation = request.isJsonObject() ? Command.of(request.getAsJsonObject()) : null;
+            if (operation == null || !isTxnOperation(operation.type())) {
+                response.addProperty("reason", Constants.REASON_INVALID_COMMAND);
+                response.addProperty(Constants.KEY_FAILED, i);
+                return;
+            }
+            operations.add(operation);
+            if (operation.key().length > 0) {
+                topLevelKeys.add(operation.key()[0]);
+            }
+        }
+        try {
+            JsonArray responses = inBatch(topLevelKeys, () -> {
+                for (Command operation : operations) {
+                    if (operation.key().length > 0) {
+                        reapAbove(operation.key());
+                    }
+                }
+                JsonArray results = new JsonArray();
+                for (int i = 0; i < operations.size(); i++) {
+                    Command operation = operations.get(i);
+                    JsonObject result = execute(operation);
+                    if (!Constants.TYPE_GET.equals(operation.type())
+                            && !Constants.RESPONSE_OK.equals(result.get("response").getAsString())) {
+                        throw new TxnAborted(i, result.get("reason"));
+                    }
+                    results.add(result);
+                }
+                return results;
+            });
+            response.addProperty("response", Constants.RESPONSE_OK);
+            response.add(Constants.KEY_RESPONSES, responses);
+        } catch (TxnAborted e) {
+            response.add("reason", e.reason);
+            response.addProperty(Constants.KEY_FAILED, e.failed);
+        } catch (UncheckedIOException e) {
+            response.addProperty("reason", Constants.REASON_FAILED_TO_PERSIST);
+        } finally {
+            for (String key : topLevelKeys) {
+                invalidate(new String[]{key});
+            }
+        }
+    }
+
+    private static boolean isTxnOperation(String type) {
+        return Constants.TYPE_GET.equals(type) || Constants.TYPE_SET.equals(type)
+                || Constants.TYPE_DELETE.equals(type) || Constants.TYPE_CAS.equals(type) || Delta.of(type) != null;
     }
 
     String[] jsonArrayToStringArray(JsonArray jsonArray) {
@@ -97,7 +865,31 @@ public class RequestHandler {
         return jsonArray;
     }
 
-    protected DatabaseManager createDatabaseManager() {
+    public void close() throws IOException {
+        if (follower != null) {
+            follower.close();
+        }
+        if (expiries != null) {
+            expiries.close();
+        }
+        databaseManager.close();
+    }
+
+    protected DatabaseManagerInterface createDatabaseManager() {
+        if (ServerConfig.ENGINE_MEMORY.equals(ServerConfig.storageEngine())) {
+            try {
+                return new InMemoryDatabaseManager(ServerConfig.dataDirectory());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open in-memory database", e);
+            }
+        }
+        if (ServerConfig.ENGINE_MAPPED.equals(ServerConfig.storageEngine())) {
+            try {
+                return new MappedDatabaseManager(ServerConfig.dataDirectory());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open mapped database", e);
+            }
+        }
         return new DatabaseManager();
     }
 }
@@ -0,0 +1,136 @@
+package server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serialized {@code get} responses by encoded key path (see {@link KeyPaths}),
+ * evicted least recently used first once their total length passes
+ * {@code maxChars}. A write to a path invalidates the path itself, its
+ * ancestors (whose values contain it) and its descendants.
+ * <p>
+ * A response computed while a write was in flight must not be cached: take
+ * {@link #version()} before reading the database and pass it to {@link #put},
+ * which drops the response if anything was invalidated in between.
+ */
+final class ResponseCache {
+    private final long maxChars;
+    private final Lock lock = new ReentrantLock();
+    // Access order, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, String> responses = new LinkedHashMap<>(16, 0.75f, true);
+    // The same paths, sorted so the descendants of a path form a range
+    private final NavigableSet<String> paths = new TreeSet<>();
+    private long chars;
+    private long version;
+
+    ResponseCache(long maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    /** The cached response for {@code encodedPath}, or null. */
+    String get(String encodedPath) {
+        lock.lock();
+        try {
+            String response = responses.get(encodedPath);
+            (response != null ? Metrics.CACHE_HITS : Metrics.CACHE_MISSES).increment();
+            return response;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long version() {
+        lock.lock();
+        try {
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Caches {@code response} unless something was invalidated since {@code readVersion}. */
+    void put(String encodedPath, String response, long readVersion) {
+        if (response.length() > maxChars) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (readVersion != version) {
+                return;
+            }
+            String old = responses.put(encodedPath, response);
+            if (old != null) {
+                chars -= old.length();
+            } else {
+                paths.add(encodedPath);
+            }
+            chars += response.length();
+            Iterator<Map.Entry<String, String>> eldest = responses.entrySet().iterator();
+            while (chars > maxChars) {
+                Map.Entry<String, String> entry = eldest.next();
+                chars -= entry.getValue().length();
+                paths.remove(entry.getKey());
+                eldest.remove();
+                Metrics.CACHE_EVICTIONS.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Drops every response a write to {@code keyPath} may have changed. */
+    void invalidate(String[] keyPath) {
+        lock.lock();
+        try {
+            version++;
+            for (int length = 1; length < keyPath.length; length++) {
+                remove(KeyPaths.encode(keyPath, length));
+            }
+            String encoded = KeyPaths.encode(keyPath);
+            remove(encoded);
+            NavigableSet<String> descendants = paths.subSet(KeyPaths.descendantsStart(encoded), true,
+                    KeyPaths.descendantsEnd(encoded), false);
+            for (String descendant : descendants) {
+                chars -= responses.remove(descendant).length();
+            }
+            descendants.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Drops every response, as after the whole database was replaced. */
+    void clear() {
+        lock.lock();
+        try {
+            version++;
+            responses.clear();
+            paths.clear();
+            chars = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return responses.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(String encodedPath) {
+        String old = responses.remove(encodedPath);
+        if (old != null) {
+            chars -= old.length();
+            paths.remove(encodedPath);
+        }
+    }
+}
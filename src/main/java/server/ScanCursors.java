@@ -0,0 +1,130 @@
+package server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Open {@code scan} cursors. A cursor holds the sorted keys a scan matched,
+ * never their values: each page reads just the values it returns, so paging
+ * through a huge object never builds it whole. Tokens are
+ * {@code <id>:<offset>}, which lets a client fetch a page again if its
+ * response was lost.
+ * <p>
+ * Cursors unused for {@code ttlMillis} expire, and the least recently used
+ * one is dropped when {@code maxCursors} are open.
+ */
+final class ScanCursors {
+    private final int maxCursors;
+    private final long ttlNanos;
+    private final Lock lock = new ReentrantLock();
+    // Access order, so iteration starts at the least recently used cursor
+    private final LinkedHashMap<String, Cursor> open = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The keys of one scan, all under {@code keyPath}. */
+    static final class Cursor {
+        final String id = UUID.randomUUID().toString();
+        final String[] keyPath;
+        final List<String> keys;
+        private long usedNanos = System.nanoTime();
+
+        private Cursor(String[] keyPath, List<String> keys) {
+            this.keyPath = keyPath;
+            this.keys = keys;
+        }
+
+        String token(int offset) {
+            return id + ":" + offset;
+        }
+    }
+
+    /** A cursor and where in its keys the requested page starts. */
+    static final class Position {
+        final Cursor cursor;
+        final int offset;
+
+        private Position(Cursor cursor, int offset) {
+            this.cursor = cursor;
+            this.offset = offset;
+        }
+    }
+
+    ScanCursors(int maxCursors, long ttlMillis) {
+        this.maxCursors = maxCursors;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    Cursor open(String[] keyPath, List<String> keys) {
+        Cursor cursor = new Cursor(keyPath, keys);
+        lock.lock();
+        try {
+            expire(cursor.usedNanos);
+            open.put(cursor.id, cursor);
+            Iterator<Cursor> eldest = open.values().iterator();
+            while (open.size() > maxCursors) {
+                eldest.next();
+                eldest.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return cursor;
+    }
+
+    /** The position {@code token} points at, or null if it is malformed or its cursor is gone. */
+    Position find(String token) {
+        int colon = token.lastIndexOf(':');
+        int offset;
+        try {
+            offset = Integer.parseInt(token.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            expire(now);
+            Cursor cursor = colon > 0 ? open.get(token.substring(0, colon)) : null;
+            if (cursor == null || offset < 0 || offset > cursor.keys.size()) {
+                return null;
+            }
+            cursor.usedNanos = now;
+            return new Position(cursor, offset);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close(Cursor cursor) {
+        lock.lock();
+        try {
+            open.remove(cursor.id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return open.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void expire(long now) {
+        Iterator<Map.Entry<String, Cursor>> eldest = open.entrySet().iterator();
+        while (eldest.hasNext()) {
+            if (now - eldest.next().getValue().usedNanos <= ttlNanos) {
+                return;  // The rest were used more recently
+            }
+            eldest.remove();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package server;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Server settings, read from system properties (e.g. {@code -Ddb.engine=memory}).
+ */
+public final class ServerConfig {
+    // Storage engines
+    public static final String ENGINE_FILE = "file";
+    public static final String ENGINE_MEMORY = "memory";
+    public static final String ENGINE_MAPPED = "mapped";
+
+    // Network front ends
+    public static final String SERVER_BLOCKING = "blocking";
+    public static final String SERVER_NIO = "nio";
+
+    // Request execution modes
+    public static final String EXECUTION_POOLED = "pooled";
+    public static final String EXECUTION_VIRTUAL = "virtual";
+
+    private ServerConfig() {
+    }
+
+    public static String storageEngine() {
+        return System.getProperty("db.engine", ENGINE_FILE);
+    }
+
+    public static String serverEngine() {
+        return System.getProperty("server.engine", SERVER_BLOCKING);
+    }
+
+    public static int port() {
+        return Integer.getInteger("server.port", 34567);
+    }
+
+    public static String executionMode() {
+        return System.getProperty("server.execution", EXECUTION_POOLED);
+    }
+
+    public static int workerThreads() {
+        return Integer.getInteger("server.workerThreads", 10);
+    }
+
+    public static int eventLoopThreads() {
+        return Integer.getInteger("server.eventLoopThreads",
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    public static int acceptBacklog() {
+        return Integer.getInteger("server.backlog", 50);
+    }
+
+    public static int idleTimeoutMillis() {
+        return Integer.getInteger("server.idleTimeoutMs", 30_000);
+    }
+
+    public static int maxRequestsPerConnection() {
+        return Integer.getInteger("server.maxRequestsPerConnection", 10_000);
+    }
+
+    public static int maxMessageBytes() {
+        return Integer.getInteger("server.maxMessageBytes", 64 * 1024 * 1024);
+    }
+
+    /** Total length of the cached serialized get responses; 0 turns the cache off. */
+    public static long responseCacheChars() {
+        return Long.getLong("server.responseCacheChars", 0);
+    }
+
+    /** Entries in a scan page when the request gives no limit. */
+    public static int scanPageSize() {
+        return Integer.getInteger("server.scanPageSize", 100);
+    }
+
+    /** Largest limit a scan may ask for. */
+    public static int scanMaxPageSize() {
+        return Integer.getInteger("server.scanMaxPageSize", 10_000);
+    }
+
+    /** Scan cursors kept open; the least recently used is dropped beyond this. */
+    public static int scanCursors() {
+        return Integer.getInteger("server.scanCursors", 1000);
+    }
+
+    /** A scan cursor expires when it has not been used for this long. */
+    public static long scanCursorTtlMillis() {
+        return Long.getLong("server.scanCursorTtlMs", 60_000);
+    }
+
+    /**
+     * Smallest response frame compressed for a client that asked for protocol
+     * version 3; 0 turns response compression off.
+     */
+    public static int compressMinBytes() {
+        return Integer.getInteger("server.compressMinBytes", 1024);
+    }
+
+    /** How often keys set with a TTL are checked for expiry and deleted. */
+    public static long ttlTickMillis() {
+        return Long.getLong("server.ttlTickMs", 100);
+    }
+
+    public static int lockStripes() {
+        return Integer.getInteger("db.lockStripes", 64);
+    }
+
+    /** Snapshot after this many writes; 0 turns the trigger off. */
+    public static int snapshotEveryWrites() {
+        return Integer.getInteger("db.snapshotEveryWrites", 0);
+    }
+
+    /** Snapshot this often while there are new writes; 0 turns the trigger off. */
+    public static long snapshotIntervalMillis() {
+        return Long.getLong("db.snapshotIntervalMs", 0);
+    }
+
+    /** How db.json and db.snapshot are written; either is read back regardless. */
+    public static Codec storageCodec() {
+        return Codec.parse(System.getProperty("db.compression", "none"));
+    }
+
+    public static FsyncPolicy fsyncPolicy() {
+        return FsyncPolicy.parse(System.getProperty("db.fsync", "never"));
+    }
+
+    public static long fsyncIntervalMillis() {
+        return Long.getLong("db.fsyncIntervalMs", 100);
+    }
+
+    /** With db.fsync=always, how long a group commit waits for more writes before forcing; 0 does not wait. */
+    public static long groupCommitWindowMicros() {
+        return Long.getLong("db.groupCommitWindowUs", 0);
+    }
+
+    /** A group commit stops waiting for more writes once this many are pending. */
+    public static int groupCommitMaxWrites() {
+        return Integer.getInteger("db.groupCommitMaxWrites", 1024);
+    }
+
+    /** File the metrics are dumped to periodically, or null to disable the dump. */
+    public static Path metricsFile() {
+        String file = System.getProperty("metrics.file");
+        return file != null ? Paths.get(file) : null;
+    }
+
+    public static long metricsIntervalMillis() {
+        return Long.getLong("metrics.intervalMs", 10_000);
+    }
+
+    /** Size of each mapped region of the mapped engine's data file; also the largest record. */
+    public static int mappedRegionBytes() {
+        return Integer.getInteger("db.mappedRegionBytes", 64 * 1024 * 1024);
+    }
+
+    /** The mapped engine compacts once this many bytes are dead and they outweigh the live ones. */
+    public static long compactMinBytes() {
+        return Long.getLong("db.compactMinBytes", 16 * 1024 * 1024);
+    }
+
+    /** The leader to follow, as host:port, or null when this server takes writes itself. */
+    public static String leader() {
+        return System.getProperty("server.leader");
+    }
+
+    /** Log entries a leader keeps for followers; one further behind starts over from a snapshot. */
+    public static int replicationLogEntries() {
+        return Integer.getInteger("replication.logEntries", 100_000);
+    }
+
+    /** Most log entries sent in answer to one pull. */
+    public static int replicationBatchEntries() {
+        return Integer.getInteger("replication.batchEntries", 1000);
+    }
+
+    /** How long a leader holds a pull while it has no new entries. */
+    public static long replicationPollWaitMillis() {
+        return Long.getLong("replication.pollWaitMs", 500);
+    }
+
+    /**
+     * Most pulls a leader holds at once while it has no new entries; others
+     * are answered right away, so waiting followers cannot take every worker.
+     */
+    public static int replicationMaxHeldPolls() {
+        return Integer.getInteger("replication.maxHeldPolls", Math.max(1, workerThreads() / 4));
+    }
+
+    /** A follower refuses reads once it has not been caught up with its leader for this long. */
+    public static long replicationMaxStalenessMillis() {
+        return Long.getLong("replication.maxStalenessMs", 5_000);
+    }
+
+    public static Path dataDirectory() {
+        return Paths.get(System.getProperty("db.dir",
+                System.getProperty("user.dir") + "/src/main/java/server/data"));
+    }
+}
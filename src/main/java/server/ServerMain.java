@@ -2,14 +2,16 @@ package server;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 public class ServerMain {
-    private static final int PORT = 34567;
+    private static final int PORT = ServerConfig.port();
     private final ExecutorService executor;
     private final ConnectionManager connectionManager;
     private final ServerSocket serverSocket;
@@ -21,20 +23,69 @@ public class ServerMain {
     }
 
     public static void main(String[] args) throws IOException {
-        try (ServerSocket serverSocket = new ServerSocket(PORT, 50, InetAddress.getByName("localhost"))) {
-            ExecutorService executor = Executors.newFixedThreadPool(10);
-            ConnectionManager connectionManager = new ConnectionManager();
+        Metrics.startDump();
+        // One executor, shared by whichever front end is selected
+        ExecutorService executor = newExecutor();
+        if (ServerConfig.SERVER_NIO.equals(ServerConfig.serverEngine())) {
+            startNioServer(executor);
+            return;
+        }
+        try (ServerSocket serverSocket = new ServerSocket(PORT, ServerConfig.acceptBacklog(), InetAddress.getByName("localhost"))) {
+            ConnectionManager connectionManager = new ConnectionManager(executor);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    connectionManager.shutdownServer();
+                } catch (IOException | InterruptedException e) {
+                    System.err.println("Error during shutdown: " + e.getMessage());
+                }
+            }));
             new ServerMain(serverSocket, executor, connectionManager).startServer();
         }
     }
 
+    /**
+     * Creates the request executor for {@code server.execution}: a fixed pool
+     * of {@code server.workerThreads}, or one virtual thread per task. The build
+     * targets Java 17, so the virtual-thread factory is looked up at runtime and
+     * the pool is used when it is missing.
+     */
+    static ExecutorService newExecutor() {
+        if (ServerConfig.EXECUTION_VIRTUAL.equals(ServerConfig.executionMode())) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Virtual threads need Java 21 or later, using a fixed thread pool");
+            }
+        }
+        return Executors.newFixedThreadPool(ServerConfig.workerThreads());
+    }
+
+    static void startNioServer(ExecutorService executor) throws IOException {
+        RequestHandler requestHandler = new RequestHandler();
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            channel.bind(new InetSocketAddress(InetAddress.getByName("localhost"), PORT), ServerConfig.acceptBacklog());
+            NioServer server = new NioServer(channel, executor, requestHandler, ServerConfig.eventLoopThreads());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    server.close();
+                    executor.shutdown();
+                    requestHandler.close();
+                } catch (IOException e) {
+                    System.err.println("Error during shutdown: " + e.getMessage());
+                }
+            }));
+            System.out.println("Server started!");
+            server.serve();
+        }
+    }
+
     public void startServer() throws IOException {
         System.out.println("Server started!");
 
         try {
             while (true) {
                 Socket socket = serverSocket.accept();
-                executor.submit(() -> connectionManager.handleClient(socket));
+                executor.submit(Metrics.queued(() -> connectionManager.handleClient(socket)));
             }
         } finally {
             shutdown();
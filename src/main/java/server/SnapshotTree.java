@@ -0,0 +1,168 @@
+package server;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Copy-on-write JSON tree that readers use without locking. Published nodes
+ * are never modified: {@link #with} and {@link #without} copy the objects on
+ * the path from the root to the changed key and share everything else, and
+ * {@link #publish} makes the new root current. A reader holding a node
+ * therefore keeps a consistent view of it however many writes follow.
+ * <p>
+ * Reads go through a flat index from encoded path to node (as in
+ * {@link PathIndex}). On publish, entries are overwritten before stale ones
+ * are removed, so a path that exists before and after a write always
+ * resolves to one of its two versions. Writers must be serialized by the
+ * caller.
+ */
+final class SnapshotTree {
+    private final Map<String, JsonElement> index = new ConcurrentHashMap<>();
+    private volatile JsonObject root;
+
+    SnapshotTree(JsonObject root) {
+        this.root = root;
+        for (Map.Entry<String, JsonElement> member : root.entrySet()) {
+            add(KeyPaths.encode(new String[]{member.getKey()}), member.getValue());
+        }
+    }
+
+    /** The current root. It must not be modified. */
+    JsonObject root() {
+        return root;
+    }
+
+    /** The node at {@code keyPath} in the latest published root, or null. It must not be modified. */
+    JsonElement get(String[] keyPath) {
+        return index.get(KeyPaths.encode(keyPath));
+    }
+
+    /**
+     * A copy of {@code base} with {@code value} at {@code keyPath}, creating
+     * missing objects along the path, or null if a node on the path is not an
+     * object (as {@link JsonTree#set} fails).
+     */
+    static JsonObject with(JsonObject base, String[] keyPath, JsonElement value) {
+        return with(base, keyPath, 0, value);
+    }
+
+    /** A copy of {@code base} without {@code keyPath}, or null if there is nothing to delete. */
+    static JsonObject without(JsonObject base, String[] keyPath) {
+        return without(base, keyPath, 0);
+    }
+
+    /**
+     * Makes {@code next} current. It must have been built from the current
+     * root by {@link #with} and {@link #without} on {@code changedPaths} only.
+     */
+    void publish(JsonObject next, Collection<String[]> changedPaths) {
+        JsonObject previous = root;
+        for (String[] keyPath : changedPaths) {
+            JsonElement oldNode = previous;
+            JsonElement newNode = next;
+            for (int length = 1; length <= keyPath.length; length++) {
+                String key = keyPath[length - 1];
+                oldNode = child(oldNode, key);
+                newNode = child(newNode, key);
+                String encoded = KeyPaths.encode(keyPath, length);
+                if (length == keyPath.length || newNode == null) {
+                    if (newNode != null) {
+                        add(encoded, newNode);
+                    }
+                    removeStale(encoded, oldNode, newNode);
+                    break;
+                }
+                index.put(encoded, newNode);  // A copied ancestor; its other members are unchanged
+            }
+        }
+        root = next;
+    }
+
+    private static JsonObject with(JsonObject node, String[] keyPath, int depth, JsonElement value) {
+        String key = keyPath[depth];
+        JsonObject copy = copyOf(node);
+        if (depth == keyPath.length - 1) {
+            copy.add(key, value);
+            return copy;
+        }
+        JsonElement child = node.get(key);
+        if (child != null && !child.isJsonObject()) {
+            return null;  // Not an object, and we're not at the last key
+        }
+        JsonObject newChild = with(child != null ? child.getAsJsonObject() : new JsonObject(), keyPath, depth + 1, value);
+        if (newChild == null) {
+            return null;
+        }
+        copy.add(key, newChild);
+        return copy;
+    }
+
+    private static JsonObject without(JsonObject node, String[] keyPath, int depth) {
+        String key = keyPath[depth];
+        JsonElement child = node.get(key);
+        if (child == null) {
+            return null;
+        }
+        JsonObject copy;
+        if (depth == keyPath.length - 1) {
+            copy = copyOf(node);
+            copy.remove(key);
+            return copy;
+        }
+        if (!child.isJsonObject()) {
+            return null;
+        }
+        JsonObject newChild = without(child.getAsJsonObject(), keyPath, depth + 1);
+        if (newChild == null) {
+            return null;
+        }
+        copy = copyOf(node);
+        copy.add(key, newChild);
+        return copy;
+    }
+
+    /** Shallow copy: the members themselves are shared. */
+    private static JsonObject copyOf(JsonObject node) {
+        JsonObject copy = new JsonObject();
+        for (Map.Entry<String, JsonElement> member : node.entrySet()) {
+            copy.add(member.getKey(), member.getValue());
+        }
+        return copy;
+    }
+
+    private static JsonElement child(JsonElement node, String key) {
+        return node != null && node.isJsonObject() ? node.getAsJsonObject().get(key) : null;
+    }
+
+    private void add(String encoded, JsonElement node) {
+        index.put(encoded, node);
+        if (node.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> member : node.getAsJsonObject().entrySet()) {
+                add(childPath(encoded, member.getKey()), member.getValue());
+            }
+        }
+    }
+
+    /** Unindexes the paths under {@code oldNode} that {@code newNode} does not have. */
+    private void removeStale(String encoded, JsonElement oldNode, JsonElement newNode) {
+        if (oldNode == null) {
+            return;
+        }
+        if (newNode == null) {
+            index.remove(encoded);
+        }
+        if (oldNode.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> member : oldNode.getAsJsonObject().entrySet()) {
+                removeStale(childPath(encoded, member.getKey()), member.getValue(), child(newNode, member.getKey()));
+            }
+        }
+    }
+
+    private static String childPath(String encoded, String key) {
+        return encoded + KeyPaths.SEPARATOR + KeyPaths.encode(new String[]{key});
+    }
+}
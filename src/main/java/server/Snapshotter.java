@@ -0,0 +1,79 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Takes snapshots on a background thread: after every {@code everyWrites}
+ * writes, every {@code intervalMillis}, and once more on {@link #close()}.
+ * A trigger set to zero is off; nothing runs while there are no new writes.
+ */
+class Snapshotter implements Closeable {
+    private final Snapshot snapshot;
+    private final int everyWrites;
+    // Writes not yet known to be in a snapshot
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicBoolean queued = new AtomicBoolean();
+    private final ScheduledExecutorService executor;
+
+    interface Snapshot {
+        void write() throws IOException;
+    }
+
+    Snapshotter(String name, int everyWrites, long intervalMillis, Snapshot snapshot) {
+        this.snapshot = snapshot;
+        this.everyWrites = everyWrites;
+        this.executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (intervalMillis > 0) {
+            executor.scheduleWithFixedDelay(this::snapshotIfDirty, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Counts one write and queues a snapshot once {@code everyWrites} have piled up. */
+    void written() {
+        long pending = writes.incrementAndGet();
+        if (everyWrites > 0 && pending >= everyWrites && queued.compareAndSet(false, true)) {
+            executor.execute(this::snapshotIfDirty);
+        }
+    }
+
+    /** Stops the background thread and takes a final snapshot if anything changed. */
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long pending = writes.get();
+        if (pending > 0) {
+            snapshot.write();
+            writes.addAndGet(-pending);
+        }
+    }
+
+    private void snapshotIfDirty() {
+        queued.set(false);
+        long pending = writes.get();
+        if (pending == 0) {
+            return;
+        }
+        try {
+            snapshot.write();
+            // Writes that raced with the snapshot stay counted for the next one
+            writes.addAndGet(-pending);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Snapshot failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package server;
+
+import java.util.Collection;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A fixed set of read-write locks, picked by top-level key. Operations on
+ * different top-level keys usually land on different stripes and run in
+ * parallel; whole-database operations take every stripe, always in index
+ * order, so they cannot deadlock with each other.
+ */
+final class StripedLocks {
+    private final ReadWriteLock[] stripes;
+
+    StripedLocks(int count) {
+        int size = Integer.highestOneBit(Math.max(1, count - 1)) << 1;
+        this.stripes = new ReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    int indexOf(String topLevelKey) {
+        int hash = topLevelKey.hashCode();
+        return (hash ^ (hash >>> 16)) & (stripes.length - 1);
+    }
+
+    ReadWriteLock forKey(String topLevelKey) {
+        return stripes[indexOf(topLevelKey)];
+    }
+
+    /** Write-locks the stripes of {@code topLevelKeys} in index order. */
+    int[] lockKeys(Collection<String> topLevelKeys) {
+        int[] indexes = topLevelKeys.stream().mapToInt(this::indexOf).distinct().sorted().toArray();
+        for (int index : indexes) {
+            Metrics.lock(stripes[index].writeLock());
+        }
+        return indexes;
+    }
+
+    void unlock(int[] indexes) {
+        for (int i = indexes.length - 1; i >= 0; i--) {
+            stripes[indexes[i]].writeLock().unlock();
+        }
+    }
+
+    void lockAll() {
+        for (ReadWriteLock stripe : stripes) {
+            stripe.writeLock().lock();
+        }
+    }
+
+    void unlockAll() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timer wheel. Time advances in ticks; level 0 has one slot
+ * per tick for the next {@value #SLOTS} ticks, and each level above covers
+ * {@value #SLOTS} times the span of the one below with one slot per span of
+ * that level. When the ticks pass the start of a higher-level slot its timers
+ * are cascaded down, so a timer is touched once per level at most and
+ * advancing costs only the timers that come due, however many are pending.
+ * Deadlines past the top level's span wait at its far end and are placed
+ * again when they get there.
+ * <p>
+ * Timers cannot be cancelled; owners ignore the ones that fired for a
+ * deadline they no longer hold. Not thread-safe.
+ */
+final class TimerWheel<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+
+    private final long tickMillis;
+    // [level][slot]
+    private final List<List<Timer<T>>> slots = new ArrayList<>();
+    // Every tick up to and including this one has fired
+    private long currentTick;
+    private int size;
+
+    private static final class Timer<T> {
+        final T item;
+        final long tick;
+
+        Timer(T item, long tick) {
+            this.item = item;
+            this.tick = tick;
+        }
+    }
+
+    TimerWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = nowMillis / tickMillis;
+        for (int i = 0; i < LEVELS * SLOTS; i++) {
+            slots.add(new ArrayList<>());
+        }
+    }
+
+    /** Fires {@code item} on the first {@link #advance} at or after {@code deadlineMillis}. */
+    void schedule(T item, long deadlineMillis) {
+        // Rounded up, so an item never fires before its deadline
+        long tick = Math.max((deadlineMillis + tickMillis - 1) / tickMillis, currentTick + 1);
+        place(new Timer<>(item, tick));
+        size++;
+    }
+
+    /** Fires, in tick order, every item due at or before {@code nowMillis}. */
+    void advance(long nowMillis, Consumer<T> expired) {
+        long target = nowMillis / tickMillis;
+        while (currentTick < target) {
+            if (size == 0) {
+                currentTick = target;  // Nothing can come due on the way
+                return;
+            }
+            currentTick++;
+            for (int level = 1; level < LEVELS; level++) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                    break;  // Not at the start of a slot of this level, nor of any above
+                }
+                cascade(level);
+            }
+            List<Timer<T>> due = slot(0, currentTick);
+            if (due.isEmpty()) {
+                continue;
+            }
+            List<Timer<T>> fired = new ArrayList<>(due);
+            due.clear();
+            for (Timer<T> timer : fired) {
+                if (timer.tick <= currentTick) {
+                    size--;
+                    expired.accept(timer.item);
+                } else {
+                    place(timer);  // Beyond the top level's span when scheduled
+                }
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void cascade(int level) {
+        List<Timer<T>> slot = slot(level, currentTick >> (SLOT_BITS * level));
+        if (slot.isEmpty()) {
+            return;
+        }
+        List<Timer<T>> moving = new ArrayList<>(slot);
+        slot.clear();
+        for (Timer<T> timer : moving) {
+            place(timer);
+        }
+    }
+
+    /** Puts {@code timer} in the lowest level whose span reaches it; level 0 if it is due now. */
+    private void place(Timer<T> timer) {
+        long tick = Math.max(timer.tick, currentTick);
+        long delta = tick - currentTick;
+        for (int level = 0; level < LEVELS; level++) {
+            if (delta < 1L << (SLOT_BITS * (level + 1))) {
+                slot(level, tick >> (SLOT_BITS * level)).add(timer);
+                return;
+            }
+        }
+        // The last slot the top level reaches; placed again from there
+        int top = LEVELS - 1;
+        long farthest = currentTick + (1L << (SLOT_BITS * LEVELS)) - 1;
+        slot(top, farthest >> (SLOT_BITS * top)).add(timer);
+    }
+
+    private List<Timer<T>> slot(int level, long index) {
+        return slots.get(level * SLOTS + (int) (index & (SLOTS - 1)));
+    }
+}
@@ -0,0 +1,436 @@
+package server;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Append-only log of mutations, one JSON entry per line. Every entry carries a
+ * sequence number so replay can skip what a snapshot already contains.
+ * Appends from different threads are serialized here, so log order always
+ * matches sequence order.
+ * <p>
+ * {@link #rotate()} closes the active file as a segment named after its last
+ * sequence ({@code db.log.<seq>}), so a snapshot can be written while new
+ * entries go to a fresh file; segments are deleted once a snapshot covers them.
+ * <p>
+ * With {@link FsyncPolicy#ALWAYS} an append is not forced by itself: the
+ * writer calls {@link #awaitDurable} once it has released its locks, and
+ * concurrent writers share one force through a {@link GroupCommit}.
+ * <p>
+ * Given a {@link ReplicationLog}, every line written is also handed to it, in
+ * sequence order, for followers to pull, once it is as durable as the policy
+ * makes it: when flushed, or with {@link FsyncPolicy#ALWAYS} when a force
+ * covers it. A follower never applies an entry the leader could still lose.
+ */
+class WriteAheadLog implements Closeable {
+    // Keeps null members, which merge operands use to remove keys
+    private static final Gson gson = new GsonBuilder().serializeNulls().create();
+    private final Lock lock = new ReentrantLock();
+    private final Path path;
+    private final FsyncPolicy fsync;
+    private final ScheduledExecutorService syncer;
+    // Null unless every append must be forced
+    private final GroupCommit groupCommit;
+    private FileChannel channel;
+    private Writer writer;
+    // Length of the active file through the last entry flushed whole
+    private long flushedBytes;
+    private long sequence;
+    private boolean unsynced;
+    private ReplicationLog replication;
+    // Lines written but not yet handed to the replication log, oldest first
+    private final ArrayDeque<Unpublished> unpublished = new ArrayDeque<>();
+
+    private static final class Unpublished {
+        final long seq;
+        final String line;
+
+        Unpublished(long seq, String line) {
+            this.seq = seq;
+            this.line = line;
+        }
+    }
+
+    WriteAheadLog(Path path) throws IOException {
+        this(path, FsyncPolicy.NEVER, 0);
+    }
+
+    WriteAheadLog(Path path, FsyncPolicy fsync, long fsyncIntervalMillis) throws IOException {
+        this.path = path;
+        this.fsync = fsync;
+        this.groupCommit = fsync == FsyncPolicy.ALWAYS ? new GroupCommit(this::lastSequence, this::forceActive) : null;
+        open();
+        if (fsync == FsyncPolicy.BATCHED) {
+            syncer = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "wal-fsync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(this::syncQuietly, fsyncIntervalMillis, fsyncIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    /**
+     * Feeds every entry newer than {@code afterSeq} to {@code apply}, from the
+     * closed segments in order and then the active file. A torn last line
+     * (crash mid-append) is cut off so later appends stay readable. New
+     * entries are numbered after the highest sequence seen.
+     */
+    void replay(long afterSeq, Consumer<JsonObject> apply) throws IOException {
+        sequence = Math.max(sequence, afterSeq);
+        for (Path segment : segments().values()) {
+            replayFile(segment, afterSeq, apply);
+        }
+        replayFile(path, afterSeq, apply);
+        flushedBytes = channel.size();  // Less a torn tail cut off
+    }
+
+    /** Hands every entry written from now on to {@code replication}. */
+    void replicateTo(ReplicationLog replication) {
+        lock.lock();
+        try {
+            this.replication = replication;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Numbers {@code entry} with the next sequence and writes it. */
+    long append(JsonObject entry) throws IOException {
+        lock.lock();
+        long first = sequence + 1;
+        try {
+            entry.addProperty("seq", ++sequence);
+            write(entry);
+            flush();
+            return sequence;
+        } catch (IOException e) {
+            discard(first, e);
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes an entry a leader already numbered, keeping its sequence. Returns
+     * false, writing nothing, if that sequence was written before.
+     */
+    boolean appendNumbered(JsonObject entry) throws IOException {
+        lock.lock();
+        long first = sequence + 1;
+        try {
+            long seq = entry.get("seq").getAsLong();
+            if (seq <= sequence) {
+                return false;
+            }
+            sequence = seq;
+            write(entry);
+            flush();
+            publishThrough(seq);  // The leader only ships what it committed
+            return true;
+        } catch (IOException e) {
+            discard(first, e);
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Writes all {@code entries} with a single flush and returns the last sequence. */
+    long appendAll(List<JsonObject> entries) throws IOException {
+        lock.lock();
+        long first = sequence + 1;
+        try {
+            for (JsonObject entry : entries) {
+                entry.addProperty("seq", ++sequence);
+                write(entry);
+            }
+            flush();
+            return sequence;
+        } catch (IOException e) {
+            discard(first, e);
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns once the entry numbered {@code seq} is on the device, which with
+     * policies other than {@link FsyncPolicy#ALWAYS} is right away. The force
+     * that covers it also hands it to the replication log.
+     */
+    void awaitDurable(long seq) throws IOException {
+        if (groupCommit != null) {
+            groupCommit.await(seq);
+        }
+    }
+
+    long lastSequence() {
+        lock.lock();
+        try {
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the active file as a segment and starts an empty one. Returns the
+     * last sequence written before the rotation.
+     */
+    long rotate() throws IOException {
+        lock.lock();
+        try {
+            writer.flush();
+            if (channel.size() == 0) {
+                return sequence;  // Nothing new since the last rotation
+            }
+            if (fsync != FsyncPolicy.NEVER) {
+                channel.force(false);
+            }
+            publishThrough(sequence);
+            writer.close();
+            Files.move(path, segmentPath(sequence), StandardCopyOption.ATOMIC_MOVE);
+            open();
+            unsynced = false;
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes every entry and numbers the next one after {@code seq}, for a
+     * follower that replaces its data with a leader's snapshot at {@code seq}.
+     */
+    void reset(long seq) throws IOException {
+        lock.lock();
+        try {
+            writer.close();
+            Files.delete(path);
+            deleteSegmentsThrough(Long.MAX_VALUE);
+            open();
+            sequence = seq;
+            unsynced = false;
+            unpublished.clear();
+            if (replication != null) {
+                replication.reset(seq);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Deletes the segments whose entries are all at or below {@code seq}. */
+    void deleteSegmentsThrough(long seq) throws IOException {
+        for (Path segment : segments().headMap(seq, true).values()) {
+            Files.deleteIfExists(segment);
+        }
+    }
+
+    /** Forces appended entries to the device. */
+    void sync() throws IOException {
+        lock.lock();
+        try {
+            if (unsynced) {
+                channel.force(false);
+                unsynced = false;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        lock.lock();
+        try {
+            writer.flush();
+            if (fsync != FsyncPolicy.NEVER) {
+                channel.force(false);
+            }
+            writer.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(JsonObject entry) throws IOException {
+        String line = gson.toJson(entry);
+        writer.write(line);
+        writer.write('\n');
+        if (replication != null) {
+            unpublished.add(new Unpublished(sequence, line));
+        }
+    }
+
+    private void flush() throws IOException {
+        writer.flush();
+        flushedBytes = channel.size();
+        if (groupCommit != null) {
+            groupCommit.written(sequence);
+        } else {
+            unsynced = true;
+            publishThrough(sequence);
+        }
+    }
+
+    /** Hands the lines up to {@code seq} to the replication log; the caller holds the lock. */
+    private void publishThrough(long seq) {
+        while (!unpublished.isEmpty() && unpublished.peek().seq <= seq) {
+            Unpublished next = unpublished.poll();
+            replication.append(next.seq, next.line);
+        }
+    }
+
+    /**
+     * Takes back an append that failed from {@code first} on: its sequence
+     * numbers are used again, its lines are never shipped, and whatever part
+     * of them reached the file or still sits in the writer is dropped, so a
+     * later flush cannot leave a torn line that replay would cut off together
+     * with the good entries after it. The caller holds the lock.
+     */
+    private void discard(long first, IOException cause) {
+        sequence = first - 1;
+        unpublished.removeIf(line -> line.seq >= first);
+        try {
+            channel.close();  // Without flushing the writer, whose buffer is lost with it
+            truncateTo(path, flushedBytes);
+            open();
+            if (fsync != FsyncPolicy.NEVER) {
+                channel.force(false);  // A force that found the old channel closed relies on this one
+            }
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /** Forces the active file without holding up appends. */
+    private void forceActive() throws IOException {
+        FileChannel active;
+        long through;
+        lock.lock();
+        try {
+            active = channel;
+            through = sequence;  // Flushed to the channel, as every append flushes before unlocking
+        } finally {
+            lock.unlock();
+        }
+        try {
+            active.force(false);
+        } catch (ClosedChannelException e) {
+            // Rotated or reopened meanwhile, which forces the file before unlocking
+        }
+        lock.lock();
+        try {
+            publishThrough(through);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            System.err.println("Failed to sync " + path + ": " + e.getMessage());
+        }
+    }
+
+    private void replayFile(Path file, long afterSeq, Consumer<JsonObject> apply) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        long validBytes = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JsonObject entry;
+                try {
+                    entry = JsonParser.parseString(line).getAsJsonObject();
+                } catch (JsonParseException | IllegalStateException e) {
+                    System.err.println("Discarding torn log tail in " + file);
+                    truncateTo(file, validBytes);
+                    return;
+                }
+                validBytes += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                long seq = entry.get("seq").getAsLong();
+                if (seq > afterSeq) {
+                    apply.accept(entry);
+                }
+                sequence = Math.max(sequence, seq);
+            }
+        }
+    }
+
+    /** Closed segments by the last sequence they hold. */
+    private TreeMap<Long, Path> segments() throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        String prefix = path.getFileName() + ".";
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> siblings = Files.list(path.toAbsolutePath().getParent())) {
+            siblings.filter(file -> file.getFileName().toString().startsWith(prefix)).forEach(files::add);
+        }
+        for (Path file : files) {
+            try {
+                segments.put(Long.parseLong(file.getFileName().toString().substring(prefix.length())), file);
+            } catch (NumberFormatException e) {
+                // Not a segment
+            }
+        }
+        return segments;
+    }
+
+    private Path segmentPath(long lastSeq) {
+        return path.resolveSibling(path.getFileName() + "." + lastSeq);
+    }
+
+    private static void truncateTo(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8));
+        flushedBytes = channel.size();
+    }
+}
@@ -6,9 +6,13 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
 import server.Constants;
+import server.Protocol;
 
 import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.nio.file.Files;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -50,6 +54,46 @@ class ClientMainTest {
         assertEquals(expectedJson, client.buildMessage());
     }
 
+    @Test
+    @DisplayName("Build message for 'set' command with a TTL")
+    void testBuildMessageForSetWithTtl() {
+        Main client = new Main();
+        client.cmdArgs.setType(Constants.TYPE_SET);
+        client.cmdArgs.setKey("testKey");
+        client.cmdArgs.setValue("testValue");
+        client.cmdArgs.setTtl(5000);
+
+        assertEquals("{\"type\":\"set\",\"key\":\"testKey\",\"value\":\"testValue\",\"ttlMs\":5000}",
+                client.buildMessage());
+    }
+
+    @Test
+    @DisplayName("Build message for 'cas' command")
+    void testBuildMessageForCas() {
+        Main client = new Main();
+        client.cmdArgs.setType(Constants.TYPE_CAS);
+        client.cmdArgs.setKey("testKey");
+        client.cmdArgs.setValue("new");
+        client.cmdArgs.setExpected("old");
+
+        assertEquals("{\"type\":\"cas\",\"key\":\"testKey\",\"value\":\"new\",\"expected\":\"old\"}",
+                client.buildMessage());
+    }
+
+    @Test
+    @DisplayName("Build message for 'incr' and 'merge' commands")
+    void testBuildMessageForDeltas() {
+        Main client = new Main();
+        client.cmdArgs.setType(Constants.TYPE_INCR);
+        client.cmdArgs.setKey("hits");
+        client.cmdArgs.setValue("5");
+        assertEquals("{\"type\":\"incr\",\"key\":\"hits\",\"value\":5}", client.buildMessage());
+
+        client.cmdArgs.setType(Constants.TYPE_MERGE);
+        client.cmdArgs.setValue("{\"a\":null}");
+        assertEquals("{\"type\":\"merge\",\"key\":\"hits\",\"value\":{\"a\":null}}", client.buildMessage());
+    }
+
     @Test
     @DisplayName("Build message for 'get' command")
     void testBuildMessageForGet() {
@@ -223,4 +267,111 @@ class ClientMainTest {
         verify(client, times(1)).buildMessage();
         verify(client, times(1)).sendRequest(eq(address), eq(port), eq(expectedMessage));
     }
+
+    @Test
+    @DisplayName("Keep-alive mode reuses one connection")
+    @Timeout(10)
+    void testKeepAliveReusesConnection() throws Exception {
+        try (ServerSocket listener = new ServerSocket(0)) {
+            Thread server = new Thread(() -> {
+                try (Socket socket = listener.accept();
+                     DataInputStream input = new DataInputStream(socket.getInputStream());
+                     DataOutputStream output = new DataOutputStream(socket.getOutputStream())) {
+                    output.writeUTF("echo " + input.readUTF());
+                    output.writeUTF("echo " + input.readUTF());
+                } catch (IOException e) {
+                    fail(e);
+                }
+            });
+            server.start();
+
+            Main client = new Main();
+            client.cmdArgs.setKeepAlive(true);
+            client.cmdArgs.setProtocol(Protocol.VERSION_LEGACY);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            PrintStream originalOut = System.out;
+            System.setOut(new PrintStream(outputStream));
+            try {
+                client.sendRequest("localhost", listener.getLocalPort(), "first");
+                client.sendRequest("localhost", listener.getLocalPort(), "second");
+            } finally {
+                System.setOut(originalOut);
+                client.closeConnection();
+            }
+            server.join();
+
+            String output = outputStream.toString();
+            assertTrue(output.contains("Received: echo first"));
+            assertTrue(output.contains("Received: echo second"));
+        }
+    }
+
+    @Test
+    @DisplayName("Pipelined replay prints in order and resends unanswered requests")
+    @Timeout(10)
+    void testPipelinedReplay() throws Exception {
+        String m1 = "{\"type\":\"get\",\"key\":\"1\"}";
+        String m2 = "{\"type\":\"set\",\"key\":\"2\",\"value\":2}";
+        String m3 = "{\"type\":\"get\",\"key\":\"3\"}";
+        String[] lines = replayAgainstLimitedServer(m1 + "\n" + m2 + "\n\n" + m3 + "\n").split("\\R");
+        assertArrayEquals(new String[]{"Sent: " + m1, "Received: echo " + m1, "Sent: " + m2, "Received: echo " + m2,
+                "Sent: " + m3, "Received: echo " + m3}, lines);
+    }
+
+    @Test
+    @DisplayName("Pipelined replay stops rather than resend a request that may have run")
+    @Timeout(10)
+    void testPipelinedReplayStopsBeforeResendingIncr() throws Exception {
+        String m1 = "{\"type\":\"get\",\"key\":\"1\"}";
+        String m2 = "{\"type\":\"set\",\"key\":\"2\",\"value\":2}";
+        String m3 = "{\"type\":\"incr\",\"key\":\"3\"}";
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        PrintStream originalErr = System.err;
+        System.setErr(new PrintStream(errors));
+        try {
+            assertThrows(IOException.class, () -> replayAgainstLimitedServer(m1 + "\n" + m2 + "\n" + m3 + "\n"));
+        } finally {
+            System.setErr(originalErr);
+        }
+        assertEquals("Not answered: " + m3, errors.toString().trim());
+    }
+
+    /** Replays {@code input} two deep against a server whose first connection stops after two requests. */
+    private String replayAgainstLimitedServer(String requests) throws Exception {
+        try (ServerSocket listener = new ServerSocket(0)) {
+            Thread server = new Thread(() -> {
+                try {
+                    // The first connection stops after two requests, like a server at its request limit
+                    for (int limit : new int[]{2, Integer.MAX_VALUE}) {
+                        try (Socket socket = listener.accept();
+                             DataInputStream input = new DataInputStream(socket.getInputStream());
+                             DataOutputStream output = new DataOutputStream(socket.getOutputStream())) {
+                            for (int served = 0; served < limit; served++) {
+                                output.writeUTF("echo " + input.readUTF());
+                            }
+                        } catch (EOFException e) {
+                            // Client done
+                        }
+                    }
+                } catch (IOException e) {
+                    // Listener closed, as the client gave up instead of reconnecting
+                }
+            });
+            server.start();
+
+            Main client = new Main();
+            client.cmdArgs.setProtocol(Protocol.VERSION_LEGACY);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            PrintStream originalOut = System.out;
+            System.setOut(new PrintStream(outputStream));
+            try {
+                client.replayPipelined("localhost", listener.getLocalPort(), new BufferedReader(new StringReader(requests)), 2);
+            } finally {
+                System.setOut(originalOut);
+                listener.close();  // Ends the wait for a second connection if the replay gave up
+                server.join();
+            }
+            return outputStream.toString();
+        }
+    }
 }
@@ -0,0 +1,71 @@
+package client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import server.Protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadGeneratorTest {
+
+    @Test
+    @DisplayName("Load run sends the requested mix and reports it")
+    @Timeout(10)
+    void testRequestCount() throws Exception {
+        try (ServerSocket listener = new ServerSocket(0)) {
+            Thread server = new Thread(() -> {
+                while (!listener.isClosed()) {
+                    try {
+                        Socket socket = listener.accept();
+                        new Thread(() -> answer(socket)).start();
+                    } catch (IOException e) {
+                        return;  // Listener closed
+                    }
+                }
+            });
+            server.start();
+
+            CommandLineArgs args = new CommandLineArgs();
+            args.setProtocol(Protocol.VERSION_LEGACY);
+            args.setConcurrency(4);
+            args.setRequests(200);
+            args.setReadPercent(50);
+            args.setKeySpace(10);
+            LoadGenerator.Result result = new LoadGenerator("localhost", listener.getLocalPort(), args).run();
+
+            assertEquals(200, result.requests());
+            assertEquals(0, result.errors.sum());
+            assertTrue(result.reads.count() > 0 && result.writes.count() > 0);
+            assertEquals(result.reads.count(), result.misses.sum());
+            assertTrue(result.throughput() > 0);
+
+            ByteArrayOutputStream report = new ByteArrayOutputStream();
+            result.print(new PrintStream(report));
+            assertTrue(report.toString().startsWith("Requests: 200 in"));
+        }
+    }
+
+    private static void answer(Socket socket) {
+        try (socket;
+             DataInputStream input = new DataInputStream(socket.getInputStream());
+             DataOutputStream output = new DataOutputStream(socket.getOutputStream())) {
+            while (true) {
+                String request = input.readUTF();
+                output.writeUTF(request.contains("\"get\"")
+                        ? "{\"response\":\"ERROR\",\"reason\":\"No such key\"}"
+                        : "{\"response\":\"OK\"}");
+            }
+        } catch (IOException e) {
+            // Client closed the connection
+        }
+    }
+}
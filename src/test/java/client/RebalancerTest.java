@@ -0,0 +1,49 @@
+package client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import server.Protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RebalancerTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Test Adding A Shard Moves Its Keys To It")
+    @Timeout(10)
+    void testAddShard() throws Exception {
+        try (TestShard first = new TestShard(directory.resolve("first"));
+             TestShard second = new TestShard(directory.resolve("second"));
+             TestShard added = new TestShard(directory.resolve("added"))) {
+            ShardRing before = new ShardRing(List.of(first.shard(), second.shard()));
+            ShardRing after = new ShardRing(List.of(first.shard(), second.shard(), added.shard()));
+            try (ShardedClient client = new ShardedClient(before, Protocol.VERSION_LEGACY)) {
+                for (int i = 0; i < 100; i++) {
+                    client.send("{\"type\":\"set\",\"key\":[\"key" + i + "\",\"n\"],\"value\":" + i + "}");
+                }
+            }
+
+            long moved = new Rebalancer(before, after, Protocol.VERSION_LEGACY)
+                    .run(new PrintStream(new ByteArrayOutputStream()));
+
+            try (ShardedClient client = new ShardedClient(after, Protocol.VERSION_LEGACY)) {
+                assertEquals(moved, client.keys(added.shard()).size());
+                assertTrue(moved > 0 && moved < 100);
+                assertEquals(100, client.keys(first.shard()).size() + client.keys(second.shard()).size() + moved);
+                for (int i = 0; i < 100; i++) {
+                    String response = client.send("{\"type\":\"get\",\"key\":[\"key" + i + "\",\"n\"]}");
+                    assertTrue(response.contains("\"value\":" + i), response);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package client;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardRingTest {
+
+    @Test
+    @DisplayName("Test Shard List Parsing")
+    void testParse() {
+        ShardRing ring = ShardRing.parse("localhost:34567, 34568,");
+        assertEquals(List.of(new ShardRing.Shard("localhost", 34567), new ShardRing.Shard("localhost", 34568)),
+                ring.shards());
+        assertThrows(IllegalArgumentException.class, () -> ShardRing.parse("localhost:port"));
+        assertThrows(IllegalArgumentException.class, () -> ShardRing.parse(" , "));
+    }
+
+    @Test
+    @DisplayName("Test Keys Spread Over Every Shard")
+    void testSpread() {
+        ShardRing ring = ShardRing.parse("1,2,3,4");
+        Map<ShardRing.Shard, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 40_000; i++) {
+            counts.merge(ring.shardFor("key" + i), 1, Integer::sum);
+        }
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            assertTrue(count > 7_000 && count < 13_000, "uneven spread: " + counts);
+        }
+    }
+
+    @Test
+    @DisplayName("Test Adding A Shard Only Moves Keys To It")
+    void testAddShard() {
+        ShardRing before = ShardRing.parse("1,2,3");
+        ShardRing after = ShardRing.parse("1,2,3,4");
+        ShardRing.Shard added = new ShardRing.Shard("localhost", 4);
+        int moved = 0;
+        for (int i = 0; i < 10_000; i++) {
+            String key = "key" + i;
+            ShardRing.Shard owner = after.shardFor(key);
+            if (!owner.equals(before.shardFor(key))) {
+                assertEquals(added, owner);
+                moved++;
+            }
+        }
+        assertTrue(moved > 1_500 && moved < 3_500, "moved " + moved);
+    }
+}
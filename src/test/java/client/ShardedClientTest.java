@@ -0,0 +1,117 @@
+package client;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import server.Constants;
+import server.Protocol;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Timeout(10)
+class ShardedClientTest {
+    @TempDir
+    Path directory;
+
+    private TestShard first;
+    private TestShard second;
+    private ShardRing ring;
+    private ShardedClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        first = new TestShard(directory.resolve("first"));
+        second = new TestShard(directory.resolve("second"));
+        ring = new ShardRing(List.of(first.shard(), second.shard()));
+        client = new ShardedClient(ring, Protocol.VERSION_LEGACY);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        first.close();
+        second.close();
+    }
+
+    @Test
+    @DisplayName("Test Requests Go To The Shard Of Their Top-Level Key")
+    void testRouting() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            assertTrue(client.send(set("key" + i, "[\"key" + i + "\",\"nested\"]")).contains(Constants.RESPONSE_OK));
+        }
+        for (int i = 0; i < 20; i++) {
+            String key = "key" + i;
+            TestShard owner = ring.shardFor(key).equals(first.shard()) ? first : second;
+            TestShard other = owner == first ? second : first;
+            String get = "{\"type\":\"get\",\"key\":[\"" + key + "\",\"nested\"]}";
+            assertEquals(owner.send(get), client.send(get));
+            assertTrue(other.send(get).contains(Constants.REASON_NO_SUCH_KEY));
+        }
+        JsonArray keys = parse(client.send("{\"type\":\"keys\"}")).getAsJsonArray(Constants.KEY_KEYS);
+        assertEquals(20, keys.size());
+        assertEquals(20, client.keys(first.shard()).size() + client.keys(second.shard()).size());
+    }
+
+    @Test
+    @DisplayName("Test A Batch Across Shards Is Split And Answered In Order")
+    void testBatchSplit() throws IOException {
+        StringBuilder requests = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            requests.append(i > 0 ? "," : "").append(set("key" + i, "\"key" + i + "\""));
+        }
+        requests.append(",{\"type\":\"get\",\"key\":\"key3\"}");
+        JsonObject response = parse(client.send("{\"type\":\"batch\",\"requests\":[" + requests + "]}"));
+
+        assertEquals(Constants.RESPONSE_OK, response.get("response").getAsString());
+        JsonArray responses = response.getAsJsonArray(Constants.KEY_RESPONSES);
+        assertEquals(11, responses.size());
+        assertEquals("val3", responses.get(10).getAsJsonObject().get("value").getAsString());
+        assertFalse(client.keys(first.shard()).isEmpty());
+        assertFalse(client.keys(second.shard()).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test A Transaction Must Stay On One Shard")
+    void testTxnRouting() throws IOException {
+        String key = "key0";
+        String other = "key1";
+        for (int i = 1; ring.shardFor(other).equals(ring.shardFor(key)); i++) {
+            other = "key" + i;
+        }
+        JsonObject spanning = parse(client.send("{\"type\":\"txn\",\"requests\":[" + set(key, "\"" + key + "\"")
+                + "," + set(other, "\"" + other + "\"") + "]}"));
+        assertEquals(Constants.REASON_TXN_SPANS_SHARDS, spanning.get("reason").getAsString());
+
+        JsonObject local = parse(client.send("{\"type\":\"txn\",\"requests\":[" + set(key, "[\"" + key + "\",\"a\"]")
+                + "," + set(key, "[\"" + key + "\",\"b\"]") + "]}"));
+        assertEquals(Constants.RESPONSE_OK, local.get("response").getAsString());
+        TestShard owner = ring.shardFor(key).equals(first.shard()) ? first : second;
+        assertEquals(List.of(key), client.keys(owner.shard()));
+    }
+
+    @Test
+    @DisplayName("Test Stats Are Collected From Every Shard")
+    void testBroadcast() throws IOException {
+        JsonObject shards = parse(client.send("{\"type\":\"stats\"}")).getAsJsonObject(Constants.KEY_SHARDS);
+        assertTrue(shards.has(first.shard().toString()));
+        assertTrue(shards.has(second.shard().toString()));
+    }
+
+    private static String set(String key, String keyJson) {
+        return "{\"type\":\"set\",\"key\":" + keyJson + ",\"value\":\"val" + key.substring(3) + "\"}";
+    }
+
+    private static JsonObject parse(String json) {
+        return JsonParser.parseString(json).getAsJsonObject();
+    }
+}
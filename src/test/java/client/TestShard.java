@@ -0,0 +1,66 @@
+package client;
+
+import com.google.gson.JsonParser;
+import server.InMemoryDatabaseManager;
+import server.RequestHandler;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** A real request handler over an in-memory database, served with version 1 framing on a free port. */
+class TestShard implements Closeable {
+    final RequestHandler handler;
+    private final ServerSocket listener;
+
+    TestShard(Path directory) throws IOException {
+        handler = new RequestHandler(new InMemoryDatabaseManager(Files.createDirectories(directory)));
+        listener = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            while (!listener.isClosed()) {
+                try {
+                    Socket socket = listener.accept();
+                    new Thread(() -> serve(socket)).start();
+                } catch (IOException e) {
+                    return;  // Listener closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    ShardRing.Shard shard() {
+        return new ShardRing.Shard("localhost", listener.getLocalPort());
+    }
+
+    String send(String request) {
+        return handler.processCommand(JsonParser.parseString(request).getAsJsonObject());
+    }
+
+    @Override
+    public void close() throws IOException {
+        listener.close();
+        handler.close();
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             DataInputStream input = new DataInputStream(socket.getInputStream());
+             DataOutputStream output = new DataOutputStream(socket.getOutputStream())) {
+            while (true) {
+                output.writeUTF(send(input.readUTF()));
+            }
+        } catch (EOFException e) {
+            // Client done
+        } catch (IOException e) {
+            // Connection dropped
+        }
+    }
+}
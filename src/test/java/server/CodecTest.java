@@ -0,0 +1,66 @@
+package server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CodecTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Test Files Are Read With The Codec That Wrote Them")
+    void testReaderDetectsCodec() throws IOException {
+        String json = "{\"key\":\"" + "value".repeat(1000) + "\"}";
+        for (Codec codec : Codec.values()) {
+            Path file = directory.resolve(codec.name());
+            try (OutputStream output = codec.compress(Files.newOutputStream(file))) {
+                output.write(json.getBytes(StandardCharsets.UTF_8));
+            }
+            try (Reader reader = Codec.reader(file)) {
+                assertEquals(json, readAll(reader));
+            }
+        }
+        assertTrue(Files.size(directory.resolve("DEFLATE")) < json.length() / 10);
+    }
+
+    @Test
+    @DisplayName("Test Plain JSON Is Not Mistaken For Deflate")
+    void testPlainJson() throws IOException {
+        for (String json : new String[]{"{}", " {}", "\n[]", "x", ""}) {
+            Path file = directory.resolve("plain");
+            Files.writeString(file, json);
+            try (Reader reader = Codec.reader(file)) {
+                assertEquals(json, readAll(reader));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test Parse Codec Names")
+    void testParse() {
+        assertEquals(Codec.DEFLATE, Codec.parse(" Deflate "));
+        assertEquals(Codec.NONE, Codec.parse("none"));
+        assertThrows(IllegalArgumentException.class, () -> Codec.parse("zstd"));
+    }
+
+    private static String readAll(Reader reader) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[4096];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            text.append(buffer, 0, read);
+        }
+        return text.toString();
+    }
+}
@@ -9,6 +9,7 @@ import org.junit.jupiter.api.Timeout;
 
 import java.io.*;
 import java.net.ServerSocket;
+import java.net.Socket;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -72,4 +73,115 @@ class ConnectionManagerTest {
         verify(mockExecutor).shutdownNow();
         verify(mockServerSocket).close();
     }
+
+    @Test
+    @DisplayName("Test Handle Client Serves Requests Until Exit")
+    @Timeout(10)
+    void testHandleClientServesMultipleRequests() throws Exception {
+        try (ServerSocket listener = new ServerSocket(0)) {
+            Thread server = new Thread(() -> {
+                try {
+                    connectionManager.handleClient(listener.accept());
+                } catch (IOException e) {
+                    fail(e);
+                }
+            });
+            server.start();
+
+            try (Socket socket = new Socket("localhost", listener.getLocalPort());
+                 DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+                 DataInputStream input = new DataInputStream(socket.getInputStream())) {
+                for (int i = 0; i < 3; i++) {
+                    output.writeUTF("{\"type\":\"invalidCommand\"}");
+                    JsonObject response = ConnectionManager.gson.fromJson(input.readUTF(), JsonObject.class);
+                    assertEquals(Constants.REASON_INVALID_COMMAND, response.get("reason").getAsString());
+                }
+                output.writeUTF("{\"type\":\"exit\"}");
+                assertEquals(Constants.JSON_RESPONSE_OK, input.readUTF());
+                assertThrows(EOFException.class, input::readUTF);
+            }
+            server.join();
+        }
+    }
+
+    @Test
+    @DisplayName("Test Handle Client Answers Malformed Requests And Stays Open")
+    @Timeout(10)
+    void testHandleClientAnswersMalformedRequests() throws Exception {
+        try (ServerSocket listener = new ServerSocket(0)) {
+            Thread server = new Thread(() -> {
+                try {
+                    connectionManager.handleClient(listener.accept());
+                } catch (IOException e) {
+                    fail(e);
+                }
+            });
+            server.start();
+
+            try (Socket socket = new Socket("localhost", listener.getLocalPort());
+                 DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+                 DataInputStream input = new DataInputStream(socket.getInputStream())) {
+                String[] malformed = {"{\"type\":", "{\"type\":\"get\",\"key\":[}", "{\"type\":\"batch\",\"requests\":[1 2]}"};
+                for (String request : malformed) {
+                    output.writeUTF(request);
+                }
+                output.writeUTF("{\"type\":\"exit\"}");
+                for (String request : malformed) {
+                    assertEquals(Constants.JSON_RESPONSE_INVALID_COMMAND, input.readUTF(), request);
+                }
+                assertEquals(Constants.JSON_RESPONSE_OK, input.readUTF());
+            }
+            server.join();
+        }
+    }
+
+    @Test
+    @DisplayName("Test Handle Client Closes Idle Connection")
+    @Timeout(10)
+    void testHandleClientClosesIdleConnection() throws Exception {
+        System.setProperty("server.idleTimeoutMs", "100");
+        try (ServerSocket listener = new ServerSocket(0);
+             Socket socket = new Socket("localhost", listener.getLocalPort());
+             DataInputStream input = new DataInputStream(socket.getInputStream())) {
+            connectionManager.handleClient(listener.accept());
+            assertThrows(EOFException.class, input::readUTF);
+        } finally {
+            System.clearProperty("server.idleTimeoutMs");
+        }
+    }
+
+    @Test
+    @DisplayName("Test Handle Client Negotiates Framed Protocol")
+    @Timeout(10)
+    void testHandleClientNegotiatesFramedProtocol() throws Exception {
+        try (ServerSocket listener = new ServerSocket(0)) {
+            Thread server = new Thread(() -> {
+                try {
+                    connectionManager.handleClient(listener.accept());
+                } catch (IOException e) {
+                    fail(e);
+                }
+            });
+            server.start();
+
+            try (Socket socket = new Socket("localhost", listener.getLocalPort());
+                 DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+                 DataInputStream input = new DataInputStream(socket.getInputStream())) {
+                output.write(Protocol.hello());
+                byte[] reply = new byte[Protocol.HELLO.length];
+                input.readFully(reply);
+                assertTrue(Protocol.isHello(reply));
+
+                // Well past the 64 KB writeUTF limit
+                String request = "{\"type\":\"invalidCommand\",\"padding\":\"" + "x".repeat(200_000) + "\"}";
+                try (FrameWriter writer = new FrameWriter(output)) {
+                    writer.write(request);
+                }
+                JsonObject response = ConnectionManager.gson.fromJson(
+                        new FrameReader(input, Integer.MAX_VALUE).read(), JsonObject.class);
+                assertEquals(Constants.REASON_INVALID_COMMAND, response.get("reason").getAsString());
+            }
+            server.join();
+        }
+    }
 }
@@ -7,13 +7,20 @@ import com.google.gson.JsonPrimitive;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
 
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static server.ConnectionManager.gson;
 
 class DatabaseManagerTest {
@@ -92,6 +99,107 @@ class DatabaseManagerTest {
         assertFalse(databaseManager.delete(keyPathArray));
     }
 
+    @Test
+    @DisplayName("Test Batch Saves Once")
+    void testBatchSavesOnce() throws IOException {
+        DatabaseManager spyManager = spy(databaseManager);
+        JsonArray keyPathArray = new JsonArray();
+        keyPathArray.add("key1");
+        keyPathArray.add("key2");
+
+        JsonElement seen = spyManager.inBatch(List.of("key1"), () -> {
+            for (int i = 0; i < 10; i++) {
+                spyManager.set(new String[]{"key1", "key2"}, new JsonPrimitive(i));
+            }
+            return spyManager.get(keyPathArray);
+        });
+
+        assertEquals(new JsonPrimitive(9), seen);
+        verify(spyManager, times(1)).saveDatabase(any());
+        assertEquals(9, loadDatabase().getAsJsonObject("key1").get("key2").getAsInt());
+        databaseManager.set(new String[]{"key1", "key2"}, new JsonPrimitive("testValue"));
+    }
+
+    @Test
+    @DisplayName("Test A Nested Batch Joins The Outer One")
+    void testNestedBatch() throws IOException {
+        DatabaseManager spyManager = spy(databaseManager);
+        spyManager.inBatch(List.of("key1"), () -> {
+            spyManager.set(new String[]{"key1", "a"}, new JsonPrimitive(1));
+            spyManager.inBatch(List.of("key1"), () -> spyManager.set(new String[]{"key1", "b"}, new JsonPrimitive(2)));
+            return spyManager.set(new String[]{"key1", "c"}, new JsonPrimitive(3));
+        });
+
+        verify(spyManager, times(1)).saveDatabase(any());
+        assertEquals(3, loadDatabase().getAsJsonObject("key1").size());
+        assertEquals(2, databaseManager.get(new String[]{"key1", "b"}).getAsInt());
+        databaseManager.delete(new String[]{"key1"});
+    }
+
+    @Test
+    @DisplayName("Test Get Does Not Wait For Writers")
+    @Timeout(10)
+    void testGetDuringWrite() throws Exception {
+        String[] keyPath = {"key1", "key2"};
+        databaseManager.set(keyPath, new JsonPrimitive("before"));
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread writer = new Thread(() -> databaseManager.inBatch(List.of("key1"), () -> {
+            databaseManager.set(keyPath, new JsonPrimitive("after"));
+            writing.countDown();
+            awaitUninterruptibly(release);
+            return null;
+        }));
+        writer.start();
+        try {
+            writing.await();
+            assertEquals(new JsonPrimitive("before"), databaseManager.get(keyPath));
+        } finally {
+            release.countDown();
+            writer.join();
+        }
+        assertEquals(new JsonPrimitive("after"), databaseManager.get(keyPath));
+        databaseManager.set(keyPath, new JsonPrimitive("testValue"));
+    }
+
+    @Test
+    @DisplayName("Test Deferred Saves Through Snapshotter")
+    @Timeout(10)
+    void testDeferredSaves() throws Exception {
+        System.setProperty("db.snapshotEveryWrites", "2");
+        DatabaseManager deferred;
+        try {
+            deferred = new DatabaseManager();
+        } finally {
+            System.clearProperty("db.snapshotEveryWrites");
+        }
+        JsonArray keyPathArray = new JsonArray();
+        keyPathArray.add("key1");
+        keyPathArray.add("key2");
+
+        assertTrue(deferred.set(new String[]{"key1", "key2"}, new JsonPrimitive("first")));
+        assertEquals(new JsonPrimitive("first"), deferred.get(keyPathArray));
+        assertEquals(new JsonObject(), loadDatabase(), "first write is not saved yet");
+
+        assertTrue(deferred.set(new String[]{"key1", "key2"}, new JsonPrimitive("second")));
+        while (loadDatabase().size() == 0) {
+            Thread.sleep(10);
+        }
+        assertEquals("second", loadDatabase().getAsJsonObject("key1").get("key2").getAsString());
+
+        deferred.set(new String[]{"key1", "key2"}, new JsonPrimitive("testValue"));
+        deferred.close();
+        assertEquals("testValue", loadDatabase().getAsJsonObject("key1").get("key2").getAsString());
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private JsonObject loadDatabase() throws IOException {
         File file = new File(System.getProperty("user.dir") + "/src/main/java/server/data/db.json");
         if (file.exists()) {
@@ -0,0 +1,60 @@
+package server;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeltaTest {
+
+    @Test
+    @DisplayName("Test Increments Stay Exact")
+    void testIncr() {
+        assertEquals(new JsonPrimitive(5), Delta.INCR.apply(null, json("5")));
+        assertEquals("3", Delta.INCR.apply(json("1"), json("2")).getAsString());
+        assertEquals("9223372036854775808", Delta.INCR.apply(json("9223372036854775807"), json("1")).getAsString());
+        assertEquals("0.3", Delta.INCR.apply(json("0.1"), json("0.2")).getAsString());
+        assertFalse(Delta.INCR.accepts(json("\"1\""), json("1")));
+        assertFalse(Delta.INCR.accepts(null, json("[1]")));
+    }
+
+    @Test
+    @DisplayName("Test Append Adds One Element")
+    void testAppend() {
+        JsonElement array = json("[1]");
+        assertSame(array, Delta.APPEND.apply(array, json("[2,3]")));
+        assertEquals(json("[1,[2,3]]"), array);
+        assertEquals(json("[\"a\"]"), Delta.APPEND.apply(null, json("\"a\"")));
+        assertFalse(Delta.APPEND.accepts(json("{}"), json("1")));
+    }
+
+    @Test
+    @DisplayName("Test Merge Follows JSON Merge Patch")
+    void testMerge() {
+        // The example of RFC 7386
+        JsonElement target = json("{\"title\":\"Goodbye!\",\"author\":{\"givenName\":\"John\",\"familyName\":\"Doe\"},"
+                + "\"tags\":[\"example\",\"sample\"],\"content\":\"This will be unchanged\"}");
+        JsonElement patch = json("{\"title\":\"Hello!\",\"phoneNumber\":\"+01-123-456-7890\","
+                + "\"author\":{\"familyName\":null},\"tags\":[\"example\"]}");
+        assertEquals(json("{\"title\":\"Hello!\",\"author\":{\"givenName\":\"John\"},\"tags\":[\"example\"],"
+                + "\"content\":\"This will be unchanged\",\"phoneNumber\":\"+01-123-456-7890\"}"),
+                Delta.MERGE.apply(target, patch));
+        assertEquals(json("{\"a\":{\"b\":1}}"), Delta.MERGE.apply(null, json("{\"a\":{\"b\":1,\"c\":null}}")));
+        assertFalse(Delta.MERGE.accepts(json("1"), json("{}")));
+        assertFalse(Delta.MERGE.accepts(null, json("[]")));
+    }
+
+    @Test
+    @DisplayName("Test Deltas By Command Type")
+    void testOf() {
+        assertEquals(Delta.MERGE, Delta.of(Constants.TYPE_MERGE));
+        assertNull(Delta.of(Constants.TYPE_SET));
+    }
+
+    private static JsonElement json(String text) {
+        return JsonParser.parseString(text);
+    }
+}
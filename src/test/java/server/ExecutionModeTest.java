@@ -0,0 +1,104 @@
+package server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Compares the pooled and virtual-thread execution modes under a burst of
+ * connections that stay open, which is what persistent sessions produce.
+ */
+class ExecutionModeTest {
+    private static final int CONNECTIONS = 50;
+    private static final String REQUEST = "{\"type\":\"invalidCommand\"}";
+
+    private final List<Socket> sockets = new ArrayList<>();
+    private ServerSocket serverSocket;
+    private ServerMain serverMain;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        if (serverMain != null) {
+            serverSocket.close();
+            serverMain.shutdown();
+        }
+        System.clearProperty("server.execution");
+    }
+
+    @Test
+    @DisplayName("Test Pooled Mode Queues Connections Behind Busy Workers")
+    @Timeout(30)
+    void testPooledModeQueuesConnections() throws Exception {
+        System.setProperty("server.execution", ServerConfig.EXECUTION_POOLED);
+        start();
+
+        int answered = burst(100);
+        System.out.println("pooled: " + answered + "/" + CONNECTIONS + " connections answered");
+        assertEquals(ServerConfig.workerThreads(), answered);
+    }
+
+    @Test
+    @DisplayName("Test Virtual Mode Serves Every Connection")
+    @Timeout(30)
+    void testVirtualModeServesEveryConnection() throws Exception {
+        assumeTrue(Runtime.version().feature() >= 21, "Virtual threads need Java 21");
+        System.setProperty("server.execution", ServerConfig.EXECUTION_VIRTUAL);
+        start();
+
+        long started = System.nanoTime();
+        int answered = burst(5000);
+        System.out.println("virtual: " + answered + "/" + CONNECTIONS + " connections answered in "
+                + (System.nanoTime() - started) / 1_000_000 + " ms");
+        assertEquals(CONNECTIONS, answered);
+    }
+
+    private void start() throws IOException {
+        serverSocket = new ServerSocket(0);
+        ExecutorService executor = ServerMain.newExecutor();
+        serverMain = new ServerMain(serverSocket, executor, new ConnectionManager(executor));
+        new Thread(() -> {
+            try {
+                serverMain.startServer();
+            } catch (IOException e) {
+                // Socket closed in tearDown
+            }
+        }).start();
+    }
+
+    /** Opens all connections, sends one request on each and counts the answers. */
+    private int burst(int timeoutMillis) throws IOException {
+        for (int i = 0; i < CONNECTIONS; i++) {
+            Socket socket = new Socket("localhost", serverSocket.getLocalPort());
+            socket.setSoTimeout(timeoutMillis);
+            sockets.add(socket);
+            new DataOutputStream(socket.getOutputStream()).writeUTF(REQUEST);
+        }
+        int answered = 0;
+        for (Socket socket : sockets) {
+            try {
+                new DataInputStream(socket.getInputStream()).readUTF();
+                answered++;
+            } catch (SocketTimeoutException e) {
+                // Still queued behind a worker that holds another open connection
+            }
+        }
+        return answered;
+    }
+}
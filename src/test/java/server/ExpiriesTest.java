@@ -0,0 +1,146 @@
+package server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpiriesTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Test Expired Paths Above And Below")
+    void testExpiredAboveAndBelow() throws IOException {
+        try (Expiries expiries = new Expiries(null, 1000, paths -> { })) {
+            expiries.expireAt(new String[]{"a", "b"}, 100);
+            expiries.expireAt(new String[]{"a", "c", "d"}, 300);
+            assertTrue(expiries.expired(new String[]{"a", "b", "x"}, 100));
+            assertFalse(expiries.expired(new String[]{"a", "b"}, 99));
+            assertFalse(expiries.expired(new String[]{"a"}, 1000));
+            assertEquals(1, expiries.expiredBelow(new String[]{"a"}, 200).size());
+            assertEquals(2, expiries.expiredBelow(new String[0], 300).size());
+            assertTrue(expiries.covers(new String[]{"a"}));
+            assertTrue(expiries.covers(new String[]{"a", "c", "d", "e"}));
+            assertFalse(expiries.covers(new String[]{"b"}));
+
+            // Setting or deleting "a" replaces everything below it
+            expiries.cleared(new String[]{"a"});
+            assertTrue(expiries.isEmpty());
+        }
+    }
+
+    @Test
+    @DisplayName("Test Tick Hands Due Paths To The Reaper Once")
+    void testTick() throws IOException {
+        List<String[]> reaped = new ArrayList<>();
+        try (Expiries expiries = new Expiries(null, 1000, reaped::addAll)) {
+            long now = System.currentTimeMillis();
+            expiries.expireAt(new String[]{"gone"}, now - 1);
+            expiries.expireAt(new String[]{"renewed"}, now - 1);
+            expiries.expireAt(new String[]{"renewed"}, now + 60_000);
+            expiries.expireAt(new String[]{"later"}, now + 60_000);
+            // The wheel rounds deadlines up to its next tick
+            while (reaped.isEmpty()) {
+                expiries.tick();
+            }
+            assertEquals(1, reaped.size());
+            assertArrayEquals(new String[]{"gone"}, reaped.get(0));
+        }
+    }
+
+    @Test
+    @DisplayName("Test A Discarded Batch Puts Its Deadlines Back")
+    void testDiscardedBatch() throws IOException {
+        Path file = directory.resolve("db.ttl");
+        try (Expiries expiries = new Expiries(file, 1000, paths -> { })) {
+            expiries.expireAt(new String[]{"a", "b"}, 5_000);
+            expiries.expireAt(new String[]{"c"}, 6_000);
+            assertThrows(UncheckedIOException.class, () -> expiries.inBatch(() -> {
+                try {
+                    expiries.cleared(new String[]{"a"});
+                    expiries.expireAt(new String[]{"c"}, 9_000);
+                    expiries.expireAt(new String[]{"d"}, 9_000);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                throw new UncheckedIOException(new IOException("Failed to persist batch"));
+            }));
+            assertTrue(expiries.isDue(new String[]{"a", "b"}, 5_000));
+            assertTrue(expiries.isDue(new String[]{"c"}, 6_000));
+            assertFalse(expiries.covers(new String[]{"d"}));
+        }
+        try (Expiries reloaded = new Expiries(file, 1000, paths -> { })) {
+            assertEquals(2, reloaded.size());
+            assertTrue(reloaded.isDue(new String[]{"a", "b"}, 5_000));
+            assertTrue(reloaded.isDue(new String[]{"c"}, 6_000));
+        }
+    }
+
+    @Test
+    @DisplayName("Test A Reap Whose Batch Fails Comes Back On The Wheel")
+    void testFailedReap() throws IOException {
+        List<String[]> reaped = new ArrayList<>();
+        AtomicBoolean failing = new AtomicBoolean(true);
+        AtomicReference<Expiries> self = new AtomicReference<>();
+        Consumer<List<String[]>> reaper = paths -> {
+            try {
+                self.get().inBatch(() -> {
+                    for (String[] path : paths) {
+                        try {
+                            self.get().cleared(path);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                    if (failing.getAndSet(false)) {
+                        throw new UncheckedIOException(new IOException("Failed to persist batch"));
+                    }
+                    return reaped.addAll(paths);
+                });
+            } catch (UncheckedIOException e) {
+                // Retried on a later tick
+            }
+        };
+        try (Expiries expiries = new Expiries(null, 10, reaper)) {
+            self.set(expiries);
+            expiries.expireAt(new String[]{"gone"}, System.currentTimeMillis() - 1);
+            long giveUp = System.currentTimeMillis() + 5_000;
+            while (reaped.isEmpty() && System.currentTimeMillis() < giveUp) {
+                expiries.tick();
+            }
+            assertFalse(failing.get());
+            assertEquals(1, reaped.size());
+            assertTrue(expiries.isEmpty());
+        }
+    }
+
+    @Test
+    @DisplayName("Test Deadlines Survive A Restart")
+    void testReload() throws IOException {
+        Path file = directory.resolve("db.ttl");
+        try (Expiries expiries = new Expiries(file, 1000, paths -> { })) {
+            expiries.expireAt(new String[]{"a"}, 5_000);
+            expiries.expireAt(new String[]{"b", "c"}, 6_000);
+            expiries.expireAt(new String[]{"d"}, 7_000);
+            expiries.cleared(new String[]{"b"});
+        }
+        try (Expiries reloaded = new Expiries(file, 1000, paths -> { })) {
+            assertEquals(2, reloaded.size());
+            assertTrue(reloaded.isDue(new String[]{"a"}, 5_000));
+            assertFalse(reloaded.covers(new String[]{"b"}));
+            assertTrue(reloaded.isDue(new String[]{"d"}, 7_000));
+        }
+    }
+}
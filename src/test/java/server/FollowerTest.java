@@ -0,0 +1,230 @@
+package server;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Timeout(20)
+class FollowerTest {
+    @TempDir
+    Path directory;
+
+    private ExecutorService workers;
+    private RequestHandler leader;
+    private NioServer server;
+    private Thread acceptor;
+    private int port;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        System.setProperty("replication.logEntries", "5");
+        System.setProperty("replication.pollWaitMs", "50");
+        workers = Executors.newFixedThreadPool(4);
+        leader = new RequestHandler(new InMemoryDatabaseManager(Files.createDirectories(directory.resolve("leader"))));
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress("localhost", 0));
+        port = channel.socket().getLocalPort();
+        server = new NioServer(channel, workers, leader, 1);
+        acceptor = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+        acceptor.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.close();
+        acceptor.join(1000);
+        workers.shutdownNow();
+        leader.close();
+        System.clearProperty("replication.logEntries");
+        System.clearProperty("replication.pollWaitMs");
+    }
+
+    @Test
+    @DisplayName("Test Follower Applies Writes And Refuses Its Own")
+    void testFollow() throws Exception {
+        leader.processCommand(request("{\"type\":\"set\",\"key\":[\"a\",\"b\"],\"value\":1}"));
+        System.setProperty("server.responseCacheChars", "1000");
+        RequestHandler follower = startFollower("follower");
+        try {
+            awaitResponse(follower, "{\"type\":\"get\",\"key\":[\"a\",\"b\"]}", "\"value\":1");
+            leader.processCommand(request("{\"type\":\"set\",\"key\":[\"a\",\"b\"],\"value\":2}"));
+            // The cached response for the old value is dropped when the entry is applied
+            awaitResponse(follower, "{\"type\":\"get\",\"key\":[\"a\",\"b\"]}", "\"value\":2");
+            leader.processCommand(request("{\"type\":\"delete\",\"key\":\"a\"}"));
+            awaitResponse(follower, "{\"type\":\"get\",\"key\":\"a\"}", Constants.REASON_NO_SUCH_KEY);
+
+            String refused = follower.processCommand(request("{\"type\":\"set\",\"key\":\"x\",\"value\":1}"));
+            assertTrue(refused.contains(Constants.REASON_READ_ONLY));
+            JsonObject stats = JsonParser.parseString(follower.processCommand(request("{\"type\":\"stats\"}")))
+                    .getAsJsonObject().getAsJsonObject(Constants.KEY_REPLICATION);
+            assertEquals(3, stats.get("appliedSeq").getAsLong());
+        } finally {
+            System.clearProperty("server.responseCacheChars");
+            follower.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Test Follower Catches Up From A Snapshot And Resumes After Restart")
+    void testCatchUp() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            leader.processCommand(request("{\"type\":\"set\",\"key\":\"k" + i + "\",\"value\":" + i + "}"));
+        }
+        RequestHandler follower = startFollower("behind");
+        try {
+            awaitResponse(follower, "{\"type\":\"get\",\"key\":\"k19\"}", "\"value\":19");
+            assertTrue(follower.processCommand(request("{\"type\":\"get\",\"key\":\"k0\"}")).contains("\"value\":0"));
+        } finally {
+            follower.close();
+        }
+        leader.processCommand(request("{\"type\":\"set\",\"key\":\"k20\",\"value\":20}"));
+
+        follower = startFollower("behind");
+        try {
+            awaitResponse(follower, "{\"type\":\"get\",\"key\":\"k20\"}", "\"value\":20");
+            assertTrue(follower.processCommand(request("{\"type\":\"get\",\"key\":\"k5\"}")).contains("\"value\":5"));
+        } finally {
+            follower.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Test A Leader Batch Is Applied Whole")
+    void testBatchAppliedWhole() throws Exception {
+        // A scripted leader ships a two-entry batch in two pulls
+        try (ServerSocket listener = new ServerSocket(0);
+             InMemoryDatabaseManager database = new InMemoryDatabaseManager(Files.createDirectories(directory.resolve("batched")))) {
+            Follower follower = new Follower("localhost:" + listener.getLocalPort(), database,
+                    new Expiries(null, 1000, keyPaths -> { }), keyPath -> { });
+            follower.start();
+            try (Socket socket = listener.accept();
+                 DataInputStream input = new DataInputStream(socket.getInputStream());
+                 OutputStream output = socket.getOutputStream()) {
+                input.readFully(new byte[Protocol.hello().length]);
+                output.write(Protocol.hello(Protocol.VERSION_FRAMED));
+                FrameReader pulls = new FrameReader(input, 1 << 20);
+
+                assertEquals(0, pulledAfter(pulls));
+                ship(output, "{\"op\":\"set\",\"key\":[\"a\"],\"value\":1,\"seq\":1,\"more\":true}");
+                assertEquals(1, pulledAfter(pulls), "asks for what follows the entries it holds back");
+                assertTrue(database.get(new String[]{"a"}).isJsonNull(), "half of the batch is not applied");
+
+                ship(output, "{\"op\":\"set\",\"key\":[\"b\"],\"value\":2,\"seq\":2}");
+                assertEquals(2, pulledAfter(pulls));
+                assertEquals(1, database.get(new String[]{"a"}).getAsInt());
+                assertEquals(2, database.get(new String[]{"b"}).getAsInt());
+            } finally {
+                follower.close();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test Follower Keeps The Leader's Deadlines")
+    void testDeadlines() throws Exception {
+        leader.processCommand(request("{\"type\":\"set\",\"key\":\"session\",\"value\":1,\"ttlMs\":60000}"));
+        for (int i = 0; i < 20; i++) {
+            leader.processCommand(request("{\"type\":\"set\",\"key\":\"k" + i + "\",\"value\":" + i + "}"));
+        }
+        Path ttl = directory.resolve("deadlines").resolve("db.ttl");
+        RequestHandler follower = startFollower("deadlines");
+        try {
+            // From the snapshot it caught up with, then from a logged entry
+            await(() -> contains(ttl, "session"));
+            leader.processCommand(request("{\"type\":\"set\",\"key\":\"token\",\"value\":2,\"ttlMs\":60000}"));
+            await(() -> contains(ttl, "token"));
+        } finally {
+            follower.close();
+        }
+        // Kept for when the follower is restarted without a leader
+        try (Expiries kept = new Expiries(ttl, 1000, keyPaths -> { })) {
+            assertTrue(kept.covers(new String[]{"session"}));
+            assertTrue(kept.covers(new String[]{"token"}));
+            assertFalse(kept.covers(new String[]{"k0"}));
+        }
+    }
+
+    @Test
+    @DisplayName("Test A Pull Without A Sequence Is Invalid")
+    void testReplicateInvalidSequence() {
+        for (String value : new String[]{"\"x\"", "{}", "true"}) {
+            String response = leader.processCommand(request("{\"type\":\"replicate\",\"value\":" + value + "}"));
+            assertTrue(response.contains(Constants.REASON_INVALID_COMMAND), response);
+        }
+    }
+
+    @Test
+    @DisplayName("Test Only The Memory Engine Replicates")
+    void testReplicateNeedsMemoryEngine() {
+        RequestHandler fileEngine = new RequestHandler(new DatabaseManager());
+        String response = fileEngine.processCommand(request("{\"type\":\"replicate\",\"value\":0}"));
+        assertTrue(response.contains(Constants.REASON_CANNOT_REPLICATE));
+    }
+
+    private RequestHandler startFollower(String name) throws IOException {
+        System.setProperty("server.leader", "localhost:" + port);
+        try {
+            return new RequestHandler(new InMemoryDatabaseManager(Files.createDirectories(directory.resolve(name))));
+        } finally {
+            System.clearProperty("server.leader");
+        }
+    }
+
+    private static long pulledAfter(FrameReader pulls) throws IOException {
+        return request(pulls.read()).get(Constants.KEY_VALUE).getAsLong();
+    }
+
+    private static void ship(OutputStream output, String entry) throws IOException {
+        try (FrameWriter response = new FrameWriter(output)) {
+            response.write("{\"response\":\"OK\",\"seq\":2,\"entries\":[" + entry + "]}");
+        }
+    }
+
+    private static void awaitResponse(RequestHandler handler, String request, String expected) {
+        await(() -> handler.processCommand(request(request)).contains(expected));
+    }
+
+    private static void await(BooleanSupplier condition) {
+        while (!condition.getAsBoolean()) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private static boolean contains(Path file, String text) {
+        try {
+            return Files.exists(file) && Files.readString(file).contains(text);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static JsonObject request(String json) {
+        return JsonParser.parseString(json).getAsJsonObject();
+    }
+}
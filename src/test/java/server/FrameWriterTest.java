@@ -0,0 +1,101 @@
+package server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameWriterTest {
+
+    @Test
+    @DisplayName("Test Small Message Is One Frame")
+    void testSmallMessage() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (FrameWriter writer = new FrameWriter(bytes)) {
+            writer.write("{\"response\":\"OK\"}");
+        }
+        DataInputStream frames = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(17, frames.readInt());
+        assertEquals(17 + Protocol.HEADER_SIZE, bytes.size());
+    }
+
+    @Test
+    @DisplayName("Test Large Message Is Streamed In Chunks")
+    void testLargeMessageRoundTrip() throws IOException {
+        // Multi-byte characters and a surrogate pair land on chunk boundaries
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 500_000) {
+            text.append("abé€😀");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (FrameWriter writer = new FrameWriter(bytes)) {
+            writer.write(text.toString());
+        }
+        DataInputStream frames = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        int first = frames.readInt();
+        assertNotEquals(0, first & Protocol.FLAG_MORE);
+        assertTrue((first & Protocol.LENGTH_MASK) <= Protocol.CHUNK_SIZE);
+
+        FrameReader reader = new FrameReader(new ByteArrayInputStream(bytes.toByteArray()), Integer.MAX_VALUE);
+        assertEquals(text.toString(), reader.read());
+        assertThrows(EOFException.class, reader::read);
+    }
+
+    @Test
+    @DisplayName("Test Reader Rejects Oversized Message")
+    void testOversizedMessage() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (FrameWriter writer = new FrameWriter(bytes)) {
+            writer.write("x".repeat(1000));
+        }
+        FrameReader reader = new FrameReader(new ByteArrayInputStream(bytes.toByteArray()), 100);
+        assertThrows(StreamCorruptedException.class, reader::read);
+    }
+
+    @Test
+    @DisplayName("Test Large Chunks Are Compressed And Small Ones Are Not")
+    void testCompressedRoundTrip() throws IOException {
+        String large = "{\"name\":\"value\"},".repeat(20_000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (FrameWriter writer = new FrameWriter(bytes, deflater, 1024)) {
+            writer.write(large);
+        }
+        try (FrameWriter writer = new FrameWriter(bytes, deflater, 1024)) {
+            writer.write("{\"response\":\"OK\"}");
+        }
+        deflater.end();
+        assertTrue(bytes.size() < large.length() / 10);
+        DataInputStream frames = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertNotEquals(0, frames.readInt() & Protocol.FLAG_COMPRESSED);
+
+        FrameReader reader = new FrameReader(new ByteArrayInputStream(bytes.toByteArray()), Integer.MAX_VALUE);
+        assertEquals(large, reader.read());
+        assertEquals("{\"response\":\"OK\"}", reader.read());
+        byte[] tail = bytes.toByteArray();
+        assertEquals(17, ByteBuffer.wrap(tail, tail.length - 17 - Protocol.HEADER_SIZE, 4).getInt());
+    }
+
+    @Test
+    @DisplayName("Test Chunks That Do Not Shrink Are Sent Plain")
+    void testNoSaving() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // Stored blocks only ever add bytes
+        Deflater deflater = new Deflater(Deflater.NO_COMPRESSION);
+        try (FrameWriter writer = new FrameWriter(bytes, deflater, 1024)) {
+            writer.write("x".repeat(4000));
+        }
+        deflater.end();
+        DataInputStream frames = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(4000, frames.readInt());
+    }
+}
@@ -0,0 +1,99 @@
+package server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroupCommitTest {
+
+    @Test
+    @DisplayName("Test Concurrent Writers Share Forces")
+    @Timeout(20)
+    void testWritersShareForces() throws Exception {
+        AtomicLong written = new AtomicLong();
+        AtomicLong forcedThrough = new AtomicLong();
+        AtomicInteger forces = new AtomicInteger();
+        GroupCommit groupCommit = new GroupCommit(written::get, () -> {
+            long target = written.get();
+            forces.incrementAndGet();
+            LockSupport.parkNanos(2_000_000);
+            forcedThrough.set(target);
+        }, 0, 1024);
+
+        int writers = 16;
+        int writesEach = 50;
+        ExecutorService pool = Executors.newFixedThreadPool(writers);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < writers; t++) {
+            results.add(pool.submit(() -> {
+                for (int i = 0; i < writesEach; i++) {
+                    long position = written.incrementAndGet();
+                    groupCommit.written(position);
+                    groupCommit.await(position);
+                    assertTrue(forcedThrough.get() >= position, "acknowledged before forced");
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        pool.shutdown();
+
+        assertEquals(writers * writesEach, groupCommit.durable());
+        assertTrue(forces.get() < writers * writesEach / 2, "forces: " + forces.get());
+    }
+
+    @Test
+    @DisplayName("Test Failed Force Is Reported To Its Writers")
+    void testFailedForce() throws IOException {
+        AtomicLong written = new AtomicLong();
+        AtomicInteger attempts = new AtomicInteger();
+        GroupCommit groupCommit = new GroupCommit(written::get, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IOException("disk full");
+            }
+        }, 0, 1024);
+
+        written.set(1);
+        IOException failure = assertThrows(IOException.class, () -> groupCommit.await(1));
+        assertEquals("disk full", failure.getCause().getMessage());
+
+        written.set(2);
+        groupCommit.await(2);
+        assertEquals(2, groupCommit.durable());
+    }
+
+    @Test
+    @DisplayName("Test Window Ends Early Once Enough Writes Are Pending")
+    @Timeout(5)
+    void testWindowEndsAtMaxWrites() throws Exception {
+        AtomicLong written = new AtomicLong(1);
+        GroupCommit groupCommit = new GroupCommit(written::get, () -> { }, 60_000_000, 2);
+        Thread leader = new Thread(() -> {
+            try {
+                groupCommit.await(1);
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+        leader.start();
+        Thread.sleep(50);
+        written.set(2);
+        groupCommit.written(2);
+        leader.join();
+        assertEquals(2, groupCommit.durable());
+    }
+}
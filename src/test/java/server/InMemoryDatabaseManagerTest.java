@@ -0,0 +1,321 @@
+package server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryDatabaseManagerTest {
+
+    @TempDir
+    Path directory;
+
+    private InMemoryDatabaseManager databaseManager;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        databaseManager = new InMemoryDatabaseManager(directory);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        databaseManager.close();
+    }
+
+    @Test
+    @DisplayName("Test Set and Get")
+    void testSetAndGet() {
+        assertTrue(databaseManager.set(new String[]{"key1", "key2"}, new JsonPrimitive("testValue")));
+        assertEquals(new JsonPrimitive("testValue"), databaseManager.get(keyPath("key1", "key2")));
+        assertTrue(databaseManager.get(keyPath("key1", "missing")).isJsonNull());
+    }
+
+    @Test
+    @DisplayName("Test Child Keys Are Sorted")
+    void testChildKeys() {
+        databaseManager.set(new String[]{"key2"}, new JsonPrimitive(1));
+        databaseManager.set(new String[]{"key1", "z"}, new JsonPrimitive(2));
+        databaseManager.set(new String[]{"key1", "a", "b"}, new JsonPrimitive(3));
+        assertEquals(List.of("key1", "key2"), databaseManager.childKeys(new String[0]));
+        assertEquals(List.of("a", "z"), databaseManager.childKeys(new String[]{"key1"}));
+        assertNull(databaseManager.childKeys(new String[]{"key2"}));
+        assertNull(databaseManager.childKeys(new String[]{"missing", "a"}));
+    }
+
+    @Test
+    @DisplayName("Test Set Replaces Object Value")
+    void testSetReplacesObject() {
+        databaseManager.set(new String[]{"key1", "key2"}, new JsonPrimitive("testValue"));
+        assertTrue(databaseManager.set(new String[]{"key1"}, new JsonPrimitive(1)));
+        assertEquals(new JsonPrimitive(1), databaseManager.get(keyPath("key1")));
+    }
+
+    @Test
+    @DisplayName("Test Set Under Non-Object Is Rejected Without Logging")
+    void testSetUnderValueIsNotLogged() throws IOException {
+        databaseManager.set(new String[]{"key1"}, new JsonPrimitive(1));
+        long logged = Files.size(directory.resolve("db.log"));
+        long seq = databaseManager.lastSequence();
+        assertFalse(databaseManager.set(new String[]{"key1", "key2"}, new JsonPrimitive(2)));
+        assertEquals(logged, Files.size(directory.resolve("db.log")));
+        assertEquals(seq, databaseManager.lastSequence());
+        assertEquals(new JsonPrimitive(1), databaseManager.get(keyPath("key1")));
+    }
+
+    @Test
+    @DisplayName("Test Get Returns Copy")
+    void testGetReturnsCopy() {
+        databaseManager.set(new String[]{"key1", "key2"}, new JsonPrimitive("testValue"));
+        databaseManager.get(keyPath("key1")).getAsJsonObject().addProperty("key3", "other");
+        assertTrue(databaseManager.get(keyPath("key1", "key3")).isJsonNull());
+    }
+
+    @Test
+    @DisplayName("Test Delete")
+    void testDelete() {
+        databaseManager.set(new String[]{"key1", "key2"}, new JsonPrimitive("testValue"));
+        assertTrue(databaseManager.delete(keyPath("key1", "key2")));
+        assertFalse(databaseManager.delete(keyPath("key1", "key2")));
+        assertEquals(new JsonObject(), databaseManager.get(keyPath("key1")));
+    }
+
+    @Test
+    @DisplayName("Test Log Replay After Crash")
+    void testLogReplay() throws IOException {
+        databaseManager.set(new String[]{"key1", "key2"}, new JsonPrimitive("testValue"));
+        databaseManager.set(new String[]{"key3"}, new JsonPrimitive("other"));
+        databaseManager.delete(keyPath("key3"));
+
+        // Reopen without close(): only the log holds the writes
+        InMemoryDatabaseManager reopened = new InMemoryDatabaseManager(directory);
+        assertEquals(new JsonPrimitive("testValue"), reopened.get(keyPath("key1", "key2")));
+        assertTrue(reopened.get(keyPath("key3")).isJsonNull());
+        reopened.close();
+    }
+
+    @Test
+    @DisplayName("Test Deltas Are Logged Alone And Replayed")
+    void testDeltaReplay() throws IOException {
+        String large = "x".repeat(1000);
+        JsonObject profile = new JsonObject();
+        profile.addProperty("bio", large);
+        databaseManager.set(new String[]{"user"}, profile);
+        long logged = Files.size(directory.resolve("db.log"));
+        assertEquals(JsonNull.INSTANCE, databaseManager.update(new String[]{"user"}, Delta.MERGE,
+                JsonParser.parseString("{\"visits\":{\"total\":1},\"bio\":null,\"tags\":[]}")));
+        assertEquals(new JsonPrimitive(3), databaseManager.update(new String[]{"user", "visits", "total"}, Delta.INCR,
+                new JsonPrimitive(2)));
+        databaseManager.update(new String[]{"user", "tags"}, Delta.APPEND, new JsonPrimitive("new"));
+        assertNull(databaseManager.update(new String[]{"user", "tags"}, Delta.INCR, new JsonPrimitive(1)));
+        assertTrue(Files.size(directory.resolve("db.log")) - logged < 300);
+
+        // Merged members are indexed, and removed ones are not
+        assertEquals(3, databaseManager.get(keyPath("user", "visits", "total")).getAsInt());
+        assertTrue(databaseManager.get(keyPath("user", "bio")).isJsonNull());
+
+        // Reopen without close(): only the log holds the deltas
+        InMemoryDatabaseManager reopened = new InMemoryDatabaseManager(directory);
+        assertEquals(JsonParser.parseString("{\"visits\":{\"total\":3},\"tags\":[\"new\"]}"), reopened.get(keyPath("user")));
+        reopened.close();
+    }
+
+    @Test
+    @DisplayName("Test Torn Log Tail Is Discarded")
+    void testTornLogTail() throws IOException {
+        databaseManager.set(new String[]{"key1"}, new JsonPrimitive("testValue"));
+        Files.write(directory.resolve("db.log"), "{\"seq\":2,\"op\":\"se".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        InMemoryDatabaseManager reopened = new InMemoryDatabaseManager(directory);
+        assertEquals(new JsonPrimitive("testValue"), reopened.get(keyPath("key1")));
+        assertTrue(reopened.set(new String[]{"key2"}, new JsonPrimitive("next")));
+        reopened.close();
+
+        InMemoryDatabaseManager again = new InMemoryDatabaseManager(directory);
+        assertEquals(new JsonPrimitive("next"), again.get(keyPath("key2")));
+        again.close();
+    }
+
+    @Test
+    @DisplayName("Test Bootstrap From Legacy db.json")
+    void testLegacyBootstrap(@TempDir Path legacyDirectory) throws IOException {
+        Files.write(legacyDirectory.resolve("db.json"), "{\"key1\":{\"key2\":\"testValue\"}}".getBytes(StandardCharsets.UTF_8));
+        InMemoryDatabaseManager legacy = new InMemoryDatabaseManager(legacyDirectory);
+        JsonElement value = legacy.get(keyPath("key1", "key2"));
+        legacy.close();
+        assertEquals(new JsonPrimitive("testValue"), value);
+        assertTrue(Files.exists(legacyDirectory.resolve("db.snapshot")));
+    }
+
+    @Test
+    @DisplayName("Test Writer On Another Top-Level Key Is Not Blocked")
+    @Timeout(10)
+    void testDisjointWritersDoNotBlock() throws Exception {
+        StripedLocks locks = databaseManager.locks();
+        String other = "b";
+        while (locks.indexOf(other) == locks.indexOf("a")) {
+            other = other + "b";
+        }
+        String[] otherPath = {other, "x"};
+
+        Lock held = locks.forKey("a").writeLock();
+        held.lock();
+        try {
+            ExecutorService writer = Executors.newSingleThreadExecutor();
+            Future<Boolean> result = writer.submit(() -> databaseManager.set(otherPath, new JsonPrimitive(1)));
+            assertTrue(result.get(5, TimeUnit.SECONDS));
+            writer.shutdown();
+        } finally {
+            held.unlock();
+        }
+    }
+
+    @Test
+    @DisplayName("Test Concurrent Writers Across Keys")
+    @Timeout(30)
+    void testConcurrentWriters() throws Exception {
+        ExecutorService writers = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            String top = "user" + t;
+            writers.submit(() -> {
+                for (int i = 0; i < 500; i++) {
+                    databaseManager.set(new String[]{top, "n" + i}, new JsonPrimitive(i));
+                }
+            });
+        }
+        writers.shutdown();
+        assertTrue(writers.awaitTermination(20, TimeUnit.SECONDS));
+
+        databaseManager.close();
+        databaseManager = new InMemoryDatabaseManager(directory);
+        for (int t = 0; t < 8; t++) {
+            assertEquals(500, databaseManager.get(keyPath("user" + t)).getAsJsonObject().size());
+        }
+    }
+
+    @Test
+    @DisplayName("Test Batch Is Logged And Replayed")
+    void testBatchReplay() throws IOException {
+        boolean applied = databaseManager.inBatch(List.of("key1", "key3"), () -> {
+            databaseManager.set(new String[]{"key1"}, new JsonObject());
+            databaseManager.set(new String[]{"key1", "key2"}, new JsonPrimitive("testValue"));
+            databaseManager.set(new String[]{"key3"}, new JsonPrimitive(3));
+            return databaseManager.delete(keyPath("key3"));
+        });
+        assertTrue(applied);
+        assertEquals(4, Files.readAllLines(directory.resolve("db.log")).size());
+
+        InMemoryDatabaseManager reopened = new InMemoryDatabaseManager(directory);
+        assertEquals(new JsonPrimitive("testValue"), reopened.get(keyPath("key1", "key2")));
+        assertTrue(reopened.get(keyPath("key3")).isJsonNull());
+        reopened.close();
+    }
+
+    @Test
+    @DisplayName("Test Batch That Is Not Logged Is Rolled Back")
+    void testBatchRollBack() throws IOException {
+        JsonObject user = new JsonObject();
+        user.addProperty("name", "a");
+        user.add("tags", JsonParser.parseString("[\"x\"]"));
+        databaseManager.set(new String[]{"user"}, user.deepCopy());
+        long logged = Files.size(directory.resolve("db.log"));
+
+        assertThrows(IllegalStateException.class, () -> databaseManager.inBatch(List.of("user", "other"), () -> {
+            databaseManager.set(new String[]{"user", "name"}, new JsonPrimitive("b"));
+            databaseManager.update(new String[]{"user", "tags"}, Delta.APPEND, new JsonPrimitive("y"));
+            databaseManager.update(new String[]{"user"}, Delta.MERGE, JsonParser.parseString("{\"name\":null}"));
+            databaseManager.set(new String[]{"other", "a", "b"}, new JsonPrimitive(1));
+            databaseManager.delete(keyPath("user", "tags"));
+            throw new IllegalStateException("Fails before the batch is logged");
+        }));
+        assertEquals(logged, Files.size(directory.resolve("db.log")));
+        assertEquals(user, databaseManager.get(keyPath("user")));
+        assertEquals(user.get("tags"), databaseManager.get(keyPath("user", "tags")));
+        assertTrue(databaseManager.get(keyPath("other")).isJsonNull());
+        assertEquals(List.of("user"), databaseManager.childKeys(new String[0]));
+    }
+
+    @Test
+    @DisplayName("Test Background Snapshot Drops Covered Log Segments")
+    @Timeout(10)
+    void testBackgroundSnapshot(@TempDir Path snapshotDirectory) throws Exception {
+        System.setProperty("db.snapshotEveryWrites", "3");
+        System.setProperty("db.fsync", "always");
+        InMemoryDatabaseManager snapshotting;
+        try {
+            snapshotting = new InMemoryDatabaseManager(snapshotDirectory);
+        } finally {
+            System.clearProperty("db.snapshotEveryWrites");
+            System.clearProperty("db.fsync");
+        }
+        for (int i = 0; i < 3; i++) {
+            snapshotting.set(new String[]{"key" + i}, new JsonPrimitive(i));
+        }
+        Path snapshot = snapshotDirectory.resolve("db.snapshot");
+        while (!Files.readString(snapshot).startsWith("{\"seq\":3")) {
+            Thread.sleep(10);
+        }
+        snapshotting.set(new String[]{"key3"}, new JsonPrimitive(3));
+
+        // Reopen without close(): the snapshot plus the active log hold everything
+        InMemoryDatabaseManager reopened = new InMemoryDatabaseManager(snapshotDirectory);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(new JsonPrimitive(i), reopened.get(keyPath("key" + i)));
+        }
+        reopened.close();
+        snapshotting.close();
+    }
+
+    @Test
+    @DisplayName("Test Compressed Snapshot Round Trip")
+    void testCompressedSnapshot(@TempDir Path compressedDirectory) throws IOException {
+        System.setProperty("db.compression", "deflate");
+        try {
+            InMemoryDatabaseManager compressed = new InMemoryDatabaseManager(compressedDirectory);
+            for (int i = 0; i < 100; i++) {
+                compressed.set(new String[]{"key" + i}, new JsonPrimitive("repeated value"));
+            }
+            compressed.close();
+        } finally {
+            System.clearProperty("db.compression");
+        }
+        byte[] head = Files.readAllBytes(compressedDirectory.resolve("db.snapshot"));
+        assertEquals(0x78, head[0] & 0xFF);
+
+        // Read back with compression off, as if the setting had been changed
+        InMemoryDatabaseManager reopened = new InMemoryDatabaseManager(compressedDirectory);
+        assertEquals(new JsonPrimitive("repeated value"), reopened.get(keyPath("key99")));
+        reopened.close();
+        assertEquals('{', Files.readAllBytes(compressedDirectory.resolve("db.snapshot"))[0]);
+    }
+
+    private static JsonArray keyPath(String... keys) {
+        JsonArray keyPath = new JsonArray();
+        for (String key : keys) {
+            keyPath.add(key);
+        }
+        return keyPath;
+    }
+}
@@ -0,0 +1,34 @@
+package server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyPathsTest {
+
+    @Test
+    @DisplayName("Test Encode And Decode Round Trip")
+    void testRoundTrip() {
+        String[] keyPath = {"key1", "a\u0000b", "c\u0001", ""};
+        assertArrayEquals(keyPath, KeyPaths.decode(KeyPaths.encode(keyPath)));
+        assertEquals("key1", KeyPaths.encode(keyPath, 1));
+    }
+
+    @Test
+    @DisplayName("Test Descendants Sort Inside Their Range")
+    void testDescendantRange() {
+        String parent = KeyPaths.encode(new String[]{"key1"});
+        TreeSet<String> paths = new TreeSet<>();
+        paths.add(parent);
+        paths.add(KeyPaths.encode(new String[]{"key1", "a"}));
+        paths.add(KeyPaths.encode(new String[]{"key1", "\u0000"}));
+        paths.add(KeyPaths.encode(new String[]{"key1\u0000"}));
+        paths.add(KeyPaths.encode(new String[]{"key1\u0001", "a"}));
+        paths.add(KeyPaths.encode(new String[]{"key10"}));
+
+        assertEquals(2, paths.subSet(KeyPaths.descendantsStart(parent), KeyPaths.descendantsEnd(parent)).size());
+    }
+}
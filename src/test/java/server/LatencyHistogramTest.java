@@ -0,0 +1,53 @@
+package server;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    @DisplayName("Test Empty Histogram")
+    void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.percentile(99));
+        assertEquals(0, histogram.toJson().get("meanUs").getAsDouble());
+    }
+
+    @Test
+    @DisplayName("Test Percentiles Within Bucket Precision")
+    void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        assertEquals(1000, histogram.count());
+        assertWithinSixPercent(500_000, histogram.percentile(50));
+        assertWithinSixPercent(990_000, histogram.percentile(99));
+        assertEquals(1_000_000, histogram.percentile(100));
+
+        JsonObject json = histogram.toJson();
+        assertEquals(500.5, json.get("meanUs").getAsDouble(), 0.001);
+        assertEquals(1000.0, json.get("maxUs").getAsDouble(), 0.001);
+    }
+
+    @Test
+    @DisplayName("Test Bucket Bounds Cover Every Value")
+    void testBucketBounds() {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 1_000, 123_456_789, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(LatencyHistogram.highestValueIn(index) >= value);
+            if (index > 0) {
+                assertTrue(LatencyHistogram.highestValueIn(index - 1) < value);
+            }
+        }
+    }
+
+    private static void assertWithinSixPercent(long expected, long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected * 0.0625, "expected ~" + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,371 @@
+package server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedDatabaseManagerTest {
+
+    @TempDir
+    Path directory;
+
+    private MappedDatabaseManager databaseManager;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        System.setProperty("db.mappedRegionBytes", "4096");
+        try {
+            databaseManager = new MappedDatabaseManager(directory);
+        } finally {
+            System.clearProperty("db.mappedRegionBytes");
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        databaseManager.close();
+    }
+
+    @Test
+    @DisplayName("Test Set and Get")
+    void testSetAndGet() {
+        assertTrue(databaseManager.set(new String[]{"key1", "key2"}, new JsonPrimitive("testValue")));
+        assertEquals(new JsonPrimitive("testValue"), databaseManager.get(keyPath("key1", "key2")));
+        assertTrue(databaseManager.get(keyPath("key1", "missing")).isJsonNull());
+        assertFalse(databaseManager.set(new String[]{"key1", "key2", "key3"}, new JsonPrimitive(1)));
+    }
+
+    @Test
+    @DisplayName("Test Get Assembles Object From Stored Leaves")
+    void testGetObject() {
+        JsonElement value = JsonParser.parseString("{\"b\":[1,2],\"a\":{\"x\":true,\"y\":{}},\"c\":null}");
+        assertTrue(databaseManager.set(new String[]{"key1"}, value));
+        databaseManager.set(new String[]{"key10"}, new JsonPrimitive("sibling"));
+
+        assertEquals(value, databaseManager.get(keyPath("key1")));
+        assertEquals(new JsonObject(), databaseManager.get(keyPath("key1", "a", "y")));
+        assertTrue(databaseManager.set(new String[]{"key1", "a", "y", "z"}, new JsonPrimitive(2)));
+        assertEquals(JsonParser.parseString("{\"x\":true,\"y\":{\"z\":2}}"), databaseManager.get(keyPath("key1", "a")));
+    }
+
+    @Test
+    @DisplayName("Test Set Replaces Object Value")
+    void testSetReplacesObject() {
+        databaseManager.set(new String[]{"key1", "key2"}, new JsonPrimitive("testValue"));
+        assertTrue(databaseManager.set(new String[]{"key1"}, new JsonPrimitive(1)));
+        assertEquals(new JsonPrimitive(1), databaseManager.get(keyPath("key1")));
+        assertTrue(databaseManager.get(keyPath("key1", "key2")).isJsonNull());
+    }
+
+    @Test
+    @DisplayName("Test Keys Lists Each Top-Level Key Once")
+    void testKeys() {
+        databaseManager.set(new String[]{"key1", "a"}, new JsonPrimitive(1));
+        databaseManager.set(new String[]{"key1", "b", "c"}, new JsonPrimitive(2));
+        databaseManager.set(new String[]{"key1\u0000x"}, new JsonPrimitive(3));
+        databaseManager.set(new String[]{"key10"}, new JsonObject());
+        databaseManager.set(new String[]{"key0"}, new JsonPrimitive(4));
+        assertEquals(List.of("key0", "key1", "key1\u0000x", "key10"), databaseManager.keys());
+        databaseManager.delete(keyPath("key1"));
+        assertEquals(List.of("key0", "key1\u0000x", "key10"), databaseManager.keys());
+    }
+
+    @Test
+    @DisplayName("Test Child Keys Of Nested Object")
+    void testChildKeys() {
+        databaseManager.set(new String[]{"key1", "b", "c"}, new JsonPrimitive(1));
+        databaseManager.set(new String[]{"key1", "a"}, new JsonPrimitive(2));
+        databaseManager.set(new String[]{"key1", "b\u0000"}, new JsonObject());
+        databaseManager.set(new String[]{"key1", "e"}, new JsonObject());
+        assertEquals(List.of("a", "b", "b\u0000", "e"), databaseManager.childKeys(new String[]{"key1"}));
+        assertEquals(List.of(), databaseManager.childKeys(new String[]{"key1", "e"}));
+        assertNull(databaseManager.childKeys(new String[]{"key1", "a"}));
+        assertNull(databaseManager.childKeys(new String[]{"missing"}));
+    }
+
+    @Test
+    @DisplayName("Test Delete")
+    void testDelete() {
+        databaseManager.set(new String[]{"key1", "key2"}, new JsonPrimitive("testValue"));
+        assertTrue(databaseManager.delete(keyPath("key1", "key2")));
+        assertFalse(databaseManager.delete(keyPath("key1", "key2")));
+        assertEquals(new JsonObject(), databaseManager.get(keyPath("key1")));
+        assertTrue(databaseManager.delete(keyPath("key1")));
+        assertTrue(databaseManager.get(keyPath("key1")).isJsonNull());
+
+        // A sibling whose key starts with the deleted one keeps the parent
+        databaseManager.set(new String[]{"key1", "a", "b"}, new JsonPrimitive(1));
+        databaseManager.set(new String[]{"key1", "ab"}, new JsonPrimitive(2));
+        assertTrue(databaseManager.delete(keyPath("key1", "a")));
+        assertEquals(JsonParser.parseString("{\"ab\":2}"), databaseManager.get(keyPath("key1")));
+    }
+
+    @Test
+    @DisplayName("Test Records Are Replayed After Crash")
+    void testReplayWithoutIndex() throws IOException {
+        databaseManager.set(new String[]{"key1", "key2"}, new JsonPrimitive("testValue"));
+        databaseManager.set(new String[]{"key3"}, new JsonPrimitive("other"));
+        databaseManager.delete(keyPath("key3"));
+
+        // Reopen without close(): no index was saved, so every record is replayed
+        MappedDatabaseManager reopened = new MappedDatabaseManager(directory);
+        assertEquals(new JsonPrimitive("testValue"), reopened.get(keyPath("key1", "key2")));
+        assertTrue(reopened.get(keyPath("key3")).isJsonNull());
+        reopened.close();
+    }
+
+    @Test
+    @DisplayName("Test Saved Index Is Used And Later Records Replayed")
+    void testIndexReload() throws IOException {
+        databaseManager.set(new String[]{"key1"}, new JsonPrimitive("testValue"));
+        databaseManager.close();
+        assertTrue(Files.exists(directory.resolve("db.index")));
+
+        databaseManager = new MappedDatabaseManager(directory);
+        databaseManager.set(new String[]{"key2"}, new JsonPrimitive("next"));
+        MappedDatabaseManager reopened = new MappedDatabaseManager(directory);
+        assertEquals(new JsonPrimitive("testValue"), reopened.get(keyPath("key1")));
+        assertEquals(new JsonPrimitive("next"), reopened.get(keyPath("key2")));
+        reopened.close();
+    }
+
+    @Test
+    @DisplayName("Test Torn Record Is Discarded")
+    void testTornRecord() throws IOException {
+        databaseManager.set(new String[]{"key1"}, new JsonPrimitive("testValue"));
+        databaseManager.set(new String[]{"key2"}, new JsonPrimitive("torn"));
+        // Corrupt the value of the second record, as if the crash hit mid-write
+        byte[] bytes = Files.readAllBytes(directory.resolve("db.data"));
+        int torn = new String(bytes, StandardCharsets.ISO_8859_1).indexOf("torn");
+        try (FileChannel channel = FileChannel.open(directory.resolve("db.data"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), torn);
+        }
+
+        MappedDatabaseManager reopened = new MappedDatabaseManager(directory);
+        assertEquals(new JsonPrimitive("testValue"), reopened.get(keyPath("key1")));
+        assertTrue(reopened.get(keyPath("key2")).isJsonNull());
+        assertTrue(reopened.set(new String[]{"key3"}, new JsonPrimitive("next")));
+        reopened.close();
+
+        MappedDatabaseManager again = new MappedDatabaseManager(directory);
+        assertEquals(new JsonPrimitive("next"), again.get(keyPath("key3")));
+        again.close();
+    }
+
+    @Test
+    @DisplayName("Test Write Cut Short Is Discarded Whole")
+    void testTornWrite() throws IOException {
+        databaseManager.set(new String[]{"key1"}, new JsonPrimitive("old"));
+        // Deletes the old value, then writes two leaves; the crash hits the last one
+        databaseManager.set(new String[]{"key1"}, JsonParser.parseString("{\"a\":\"first\",\"b\":\"torn\"}"));
+        byte[] bytes = Files.readAllBytes(directory.resolve("db.data"));
+        int torn = new String(bytes, StandardCharsets.ISO_8859_1).indexOf("torn");
+        try (FileChannel channel = FileChannel.open(directory.resolve("db.data"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), torn);
+        }
+
+        MappedDatabaseManager reopened = new MappedDatabaseManager(directory);
+        assertEquals(new JsonPrimitive("old"), reopened.get(keyPath("key1")));
+        assertTrue(reopened.set(new String[]{"key2"}, new JsonPrimitive("next")));
+        reopened.close();
+
+        MappedDatabaseManager again = new MappedDatabaseManager(directory);
+        assertEquals(new JsonPrimitive("old"), again.get(keyPath("key1")));
+        assertEquals(new JsonPrimitive("next"), again.get(keyPath("key2")));
+        again.close();
+    }
+
+    @Test
+    @DisplayName("Test Value Too Large For A Region Leaves The Old One")
+    void testOversizedSet() throws IOException {
+        JsonElement old = JsonParser.parseString("{\"a\":1}");
+        databaseManager.set(new String[]{"key1"}, old);
+        JsonObject large = new JsonObject();
+        large.addProperty("b", "x".repeat(5000));
+        assertFalse(databaseManager.set(new String[]{"key1"}, large));
+        assertThrows(UncheckedIOException.class, () -> databaseManager.update(new String[]{"key1"}, Delta.MERGE, large));
+        assertEquals(old, databaseManager.get(keyPath("key1")));
+
+        MappedDatabaseManager reopened = new MappedDatabaseManager(directory);
+        assertEquals(old, reopened.get(keyPath("key1")));
+        reopened.close();
+    }
+
+    @Test
+    @DisplayName("Test Deltas Write Only The Leaves They Change")
+    void testDeltas() throws IOException {
+        String large = "x".repeat(1000);
+        databaseManager.set(new String[]{"user"}, JsonParser.parseString(
+                "{\"bio\":\"" + large + "\",\"name\":\"ann\",\"visits\":1,\"address\":{\"city\":\"a\"}}"));
+        long deadBefore = databaseManager.deadBytes();
+        assertEquals(JsonNull.INSTANCE, databaseManager.update(new String[]{"user"}, Delta.MERGE,
+                JsonParser.parseString("{\"name\":{\"first\":\"ann\"},\"address\":{\"city\":null},\"tags\":[]}")));
+        assertEquals(new JsonPrimitive(3), databaseManager.update(new String[]{"user", "visits"}, Delta.INCR,
+                new JsonPrimitive(2)));
+        databaseManager.update(new String[]{"user", "tags"}, Delta.APPEND, new JsonPrimitive("new"));
+        assertNull(databaseManager.update(new String[]{"user", "name"}, Delta.APPEND, new JsonPrimitive("x")));
+        assertNull(databaseManager.update(new String[]{"user", "bio", "x"}, Delta.INCR, new JsonPrimitive(1)));
+
+        JsonElement expected = JsonParser.parseString("{\"address\":{},\"bio\":\"" + large
+                + "\",\"name\":{\"first\":\"ann\"},\"tags\":[\"new\"],\"visits\":3}");
+        assertEquals(expected, databaseManager.get(keyPath("user")));
+        // The bio was never written again, so its record is still live
+        assertTrue(databaseManager.deadBytes() - deadBefore < 500);
+
+        MappedDatabaseManager reopened = new MappedDatabaseManager(directory);
+        assertEquals(expected, reopened.get(keyPath("user")));
+        reopened.close();
+    }
+
+    @Test
+    @DisplayName("Test Compaction Keeps Live Values")
+    @Timeout(10)
+    void testCompaction() throws Exception {
+        String large = "x".repeat(1000);
+        for (int i = 0; i < 20; i++) {
+            databaseManager.set(new String[]{"key1", "key2"}, new JsonPrimitive(large + i));
+        }
+        databaseManager.set(new String[]{"key3"}, new JsonPrimitive("other"));
+        long before = Files.size(directory.resolve("db.data"));
+        assertTrue(databaseManager.deadBytes() > 0);
+
+        databaseManager.compact();
+        assertEquals(0, databaseManager.deadBytes());
+        assertTrue(Files.size(directory.resolve("db.data")) < before);
+        assertEquals(new JsonPrimitive(large + 19), databaseManager.get(keyPath("key1", "key2")));
+        assertTrue(databaseManager.set(new String[]{"key4"}, new JsonPrimitive(4)));
+
+        MappedDatabaseManager reopened = new MappedDatabaseManager(directory);
+        assertEquals(new JsonPrimitive("other"), reopened.get(keyPath("key3")));
+        assertEquals(new JsonPrimitive(4), reopened.get(keyPath("key4")));
+        reopened.close();
+    }
+
+    @Test
+    @DisplayName("Test Compaction Runs In The Background")
+    @Timeout(10)
+    void testBackgroundCompaction(@TempDir Path compactDirectory) throws Exception {
+        System.setProperty("db.compactMinBytes", "1000");
+        MappedDatabaseManager compacting;
+        try {
+            compacting = new MappedDatabaseManager(compactDirectory);
+        } finally {
+            System.clearProperty("db.compactMinBytes");
+        }
+        for (int i = 0; i < 100; i++) {
+            compacting.set(new String[]{"key1"}, new JsonPrimitive(i));
+        }
+        while (compacting.deadBytes() >= 1000) {
+            Thread.sleep(10);
+        }
+        assertEquals(new JsonPrimitive(99), compacting.get(keyPath("key1")));
+        compacting.close();
+    }
+
+    @Test
+    @DisplayName("Test Keys Stay Whole During Compaction")
+    @Timeout(10)
+    void testKeysDuringCompaction() throws Exception {
+        for (int i = 0; i < 500; i++) {
+            databaseManager.set(new String[]{"key" + i}, new JsonPrimitive(i));
+        }
+        Thread compactor = new Thread(() -> {
+            try {
+                for (int i = 0; i < 20; i++) {
+                    databaseManager.compact();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+        compactor.start();
+        while (compactor.isAlive()) {
+            assertEquals(500, databaseManager.keys().size());
+        }
+        compactor.join();
+    }
+
+    @Test
+    @DisplayName("Test Batch Writes")
+    void testBatch() {
+        boolean applied = databaseManager.inBatch(List.of("key1", "key3"), () -> {
+            databaseManager.set(new String[]{"key1"}, new JsonObject());
+            databaseManager.set(new String[]{"key1", "key2"}, new JsonPrimitive("testValue"));
+            databaseManager.set(new String[]{"key3"}, new JsonPrimitive(3));
+            return databaseManager.delete(keyPath("key3"));
+        });
+        assertTrue(applied);
+        assertEquals(new JsonPrimitive("testValue"), databaseManager.get(keyPath("key1", "key2")));
+        assertTrue(databaseManager.get(keyPath("key3")).isJsonNull());
+    }
+
+    @Test
+    @DisplayName("Test Batch That Throws Is Discarded Whole")
+    void testAbortedBatch() throws IOException {
+        databaseManager.set(new String[]{"key1"}, JsonParser.parseString("{\"a\":1}"));
+        databaseManager.set(new String[]{"key2"}, new JsonPrimitive("kept"));
+        long deadBytes = databaseManager.deadBytes();
+        assertThrows(IllegalStateException.class, () -> databaseManager.inBatch(List.of("key1", "key2", "key3"), () -> {
+            databaseManager.set(new String[]{"key1", "b"}, new JsonPrimitive(2));
+            databaseManager.delete(keyPath("key2"));
+            databaseManager.set(new String[]{"key3", "c"}, new JsonPrimitive(3));
+            throw new IllegalStateException("abort");
+        }));
+        assertEquals(JsonParser.parseString("{\"a\":1}"), databaseManager.get(keyPath("key1")));
+        assertEquals(new JsonPrimitive("kept"), databaseManager.get(keyPath("key2")));
+        assertEquals(List.of("key1", "key2"), databaseManager.keys());
+        assertEquals(deadBytes, databaseManager.deadBytes());
+
+        // A committed batch is replayed whole, and nothing of the aborted one
+        databaseManager.inBatch(List.of("key4"), () -> {
+            databaseManager.set(new String[]{"key4", "d"}, new JsonPrimitive(4));
+            return databaseManager.set(new String[]{"key4", "e"}, new JsonPrimitive(5));
+        });
+        MappedDatabaseManager reopened = new MappedDatabaseManager(directory);
+        assertEquals(JsonParser.parseString("{\"a\":1}"), reopened.get(keyPath("key1")));
+        assertEquals(new JsonPrimitive("kept"), reopened.get(keyPath("key2")));
+        assertEquals(JsonParser.parseString("{\"d\":4,\"e\":5}"), reopened.get(keyPath("key4")));
+        assertEquals(List.of("key1", "key2", "key4"), reopened.keys());
+        reopened.close();
+    }
+
+    @Test
+    @DisplayName("Test Bootstrap From Legacy db.json")
+    void testLegacyBootstrap(@TempDir Path legacyDirectory) throws IOException {
+        Files.write(legacyDirectory.resolve("db.json"), "{\"key1\":{\"key2\":\"testValue\"}}".getBytes(StandardCharsets.UTF_8));
+        MappedDatabaseManager legacy = new MappedDatabaseManager(legacyDirectory);
+        JsonElement value = legacy.get(keyPath("key1", "key2"));
+        legacy.close();
+        assertEquals(new JsonPrimitive("testValue"), value);
+        assertTrue(Files.exists(legacyDirectory.resolve("db.data")));
+    }
+
+    private static JsonArray keyPath(String... keys) {
+        JsonArray keyPath = new JsonArray();
+        for (String key : keys) {
+            keyPath.add(key);
+        }
+        return keyPath;
+    }
+}
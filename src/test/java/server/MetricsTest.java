@@ -0,0 +1,55 @@
+package server;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+
+    @Test
+    @DisplayName("Test Unknown Command Types Share One Histogram")
+    void testUnknownCommandTypes() {
+        assertSame(Metrics.command("someCommand"), Metrics.command("otherCommand"));
+        assertSame(Metrics.command(Constants.TYPE_INVALID), Metrics.command("someCommand"));
+        assertNotSame(Metrics.command(Constants.TYPE_GET), Metrics.command("someCommand"));
+    }
+
+    @Test
+    @DisplayName("Test Lock And Queue Wait Are Recorded")
+    void testWaitsRecorded() {
+        long lockWaits = Metrics.LOCK_WAIT.count();
+        ReentrantLock lock = new ReentrantLock();
+        Metrics.lock(lock);
+        lock.unlock();
+        assertEquals(lockWaits + 1, Metrics.LOCK_WAIT.count());
+
+        long queueWaits = Metrics.QUEUE_WAIT.count();
+        boolean[] ran = new boolean[1];
+        Metrics.queued(() -> ran[0] = true).run();
+        assertTrue(ran[0]);
+        assertEquals(queueWaits + 1, Metrics.QUEUE_WAIT.count());
+    }
+
+    @Test
+    @DisplayName("Test Dump Writes Snapshot")
+    void testDump(@TempDir Path directory) throws IOException {
+        Metrics.command(Constants.TYPE_SET).record(1000);
+        Path file = directory.resolve("metrics.json");
+        Metrics.dump(file);
+
+        JsonObject stats = JsonParser.parseString(Files.readString(file, StandardCharsets.UTF_8)).getAsJsonObject();
+        assertTrue(stats.getAsJsonObject("commands").getAsJsonObject(Constants.TYPE_SET).get("count").getAsLong() >= 1);
+        assertTrue(stats.has("lockWait"));
+        assertFalse(Files.exists(directory.resolve("metrics.json.tmp")));
+    }
+}
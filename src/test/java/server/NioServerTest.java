@@ -0,0 +1,159 @@
+package server;
+
+import client.ClientConnection;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NioServerTest {
+
+    @TempDir
+    Path directory;
+
+    private ExecutorService workers;
+    private RequestHandler requestHandler;
+    private NioServer server;
+    private Thread acceptor;
+    private int port;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        workers = Executors.newFixedThreadPool(2);
+        requestHandler = new RequestHandler(new InMemoryDatabaseManager(directory));
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress("localhost", 0));
+        port = channel.socket().getLocalPort();
+        server = new NioServer(channel, workers, requestHandler, 1);
+        acceptor = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+        acceptor.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.close();
+        acceptor.join(1000);
+        workers.shutdownNow();
+        requestHandler.close();
+    }
+
+    @Test
+    @DisplayName("Test Requests On One Connection")
+    @Timeout(10)
+    void testRequestsOnOneConnection() throws IOException {
+        try (Socket socket = new Socket("localhost", port);
+             DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+             DataInputStream input = new DataInputStream(socket.getInputStream())) {
+            output.writeUTF("{\"type\":\"set\",\"key\":[\"a\",\"b\"],\"value\":\"1\"}");
+            assertEquals(Constants.JSON_RESPONSE_OK, input.readUTF());
+            output.writeUTF("{\"type\":\"get\",\"key\":[\"a\",\"b\"]}");
+            JsonObject response = ConnectionManager.gson.fromJson(input.readUTF(), JsonObject.class);
+            assertEquals("1", response.get("value").getAsString());
+            output.writeUTF("{\"type\":\"exit\"}");
+            assertEquals(Constants.JSON_RESPONSE_OK, input.readUTF());
+            assertThrows(EOFException.class, input::readUTF);
+        }
+    }
+
+    @Test
+    @DisplayName("Test Pipelined Frames Answered In Order")
+    @Timeout(10)
+    void testPipelinedFrames() throws IOException {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        DataOutputStream framesOut = new DataOutputStream(frames);
+        for (int i = 0; i < 50; i++) {
+            framesOut.writeUTF("{\"type\":\"set\",\"key\":[\"k\"],\"value\":" + i + "}");
+            framesOut.writeUTF("{\"type\":\"get\",\"key\":[\"k\"]}");
+        }
+        try (Socket socket = new Socket("localhost", port);
+             DataInputStream input = new DataInputStream(socket.getInputStream())) {
+            socket.getOutputStream().write(frames.toByteArray());
+            for (int i = 0; i < 50; i++) {
+                assertEquals(Constants.JSON_RESPONSE_OK, input.readUTF());
+                JsonObject response = ConnectionManager.gson.fromJson(input.readUTF(), JsonObject.class);
+                assertEquals(i, response.get("value").getAsInt());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test Many Open Connections With Few Threads")
+    @Timeout(30)
+    void testManyOpenConnections() throws IOException {
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < 200; i++) {
+                sockets.add(new Socket("localhost", port));
+            }
+            for (Socket socket : sockets) {
+                new DataOutputStream(socket.getOutputStream()).writeUTF("{\"type\":\"get\",\"key\":[\"missing\"]}");
+            }
+            for (Socket socket : sockets) {
+                JsonObject response = ConnectionManager.gson.fromJson(
+                        new DataInputStream(socket.getInputStream()).readUTF(), JsonObject.class);
+                assertEquals(Constants.REASON_NO_SUCH_KEY, response.get("reason").getAsString());
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test Framed Protocol Carries Large Values")
+    @Timeout(10)
+    void testFramedProtocolLargeValue() throws IOException {
+        String value = "v".repeat(300_000);
+        try (ClientConnection connection = new ClientConnection("localhost", port)) {
+            assertEquals(Protocol.VERSION_FRAMED, connection.protocolVersion());
+            assertEquals(Constants.JSON_RESPONSE_OK,
+                    connection.send("{\"type\":\"set\",\"key\":[\"big\"],\"value\":\"" + value + "\"}"));
+            JsonObject response = ConnectionManager.gson.fromJson(
+                    connection.send("{\"type\":\"get\",\"key\":[\"big\"]}"), JsonObject.class);
+            assertEquals(value, response.get("value").getAsString());
+        }
+    }
+
+    @Test
+    @DisplayName("Test Version 3 Compresses Large Responses")
+    @Timeout(10)
+    void testCompressedResponses() throws IOException {
+        String value = "abc".repeat(100_000);
+        long saved = Metrics.COMPRESSED_BYTES_SAVED.sum();
+        try (ClientConnection connection = new ClientConnection("localhost", port, Protocol.VERSION_COMPRESSED)) {
+            assertEquals(Protocol.VERSION_COMPRESSED, connection.protocolVersion());
+            assertEquals(Constants.JSON_RESPONSE_OK,
+                    connection.send("{\"type\":\"set\",\"key\":[\"big\"],\"value\":\"" + value + "\"}"));
+            JsonObject response = ConnectionManager.gson.fromJson(
+                    connection.send("{\"type\":\"get\",\"key\":[\"big\"]}"), JsonObject.class);
+            assertEquals(value, response.get("value").getAsString());
+        }
+        assertTrue(Metrics.COMPRESSED_BYTES_SAVED.sum() - saved > 250_000);
+    }
+}
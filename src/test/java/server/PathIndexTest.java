@@ -0,0 +1,63 @@
+package server;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PathIndexTest {
+
+    @Test
+    @DisplayName("Test Existing Tree Is Indexed")
+    void testIndexesRoot() {
+        JsonObject root = JsonParser.parseString("{\"a\":{\"b\":{\"c\":1}},\"d\":[1]}").getAsJsonObject();
+        PathIndex paths = new PathIndex(root);
+        assertEquals(4, paths.size());
+        assertEquals(new JsonPrimitive(1), paths.get(new String[]{"a", "b", "c"}));
+        assertSame(root.get("a"), paths.get(new String[]{"a"}));
+        assertNull(paths.get(new String[]{"a", "x"}));
+    }
+
+    @Test
+    @DisplayName("Test Set Creates Missing Objects")
+    void testSetCreatesObjects() {
+        JsonObject root = new JsonObject();
+        PathIndex paths = new PathIndex(root);
+        assertTrue(paths.set(new String[]{"a", "b", "c"}, new JsonPrimitive(1)));
+        assertEquals(JsonParser.parseString("{\"a\":{\"b\":{\"c\":1}}}"), root);
+        assertSame(root.getAsJsonObject("a").get("b"), paths.get(new String[]{"a", "b"}));
+        assertFalse(paths.set(new String[]{"a", "b", "c", "d"}, new JsonPrimitive(2)));
+    }
+
+    @Test
+    @DisplayName("Test Replaced And Deleted Subtrees Are Unindexed")
+    void testSubtreeRemoval() {
+        JsonObject root = new JsonObject();
+        PathIndex paths = new PathIndex(root);
+        paths.set(new String[]{"a"}, JsonParser.parseString("{\"b\":{\"c\":1},\"e\":2}"));
+        assertEquals(4, paths.size());
+
+        assertTrue(paths.set(new String[]{"a", "b"}, new JsonPrimitive(3)));
+        assertNull(paths.get(new String[]{"a", "b", "c"}));
+        assertEquals(3, paths.size());
+
+        assertTrue(paths.delete(new String[]{"a"}));
+        assertFalse(paths.delete(new String[]{"a"}));
+        assertEquals(0, paths.size());
+        assertEquals(new JsonObject(), root);
+    }
+
+    @Test
+    @DisplayName("Test Without Root Top-Level Nodes Are Added By Caller")
+    void testWithoutRoot() {
+        PathIndex paths = new PathIndex(null);
+        assertFalse(paths.set(new String[]{"a", "b"}, new JsonPrimitive(1)));
+        JsonObject top = new JsonObject();
+        paths.add(new String[]{"a"}, top);
+        assertTrue(paths.set(new String[]{"a", "b"}, new JsonPrimitive(1)));
+        assertEquals(new JsonPrimitive(1), top.get("b"));
+    }
+}
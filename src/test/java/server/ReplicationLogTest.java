@@ -0,0 +1,64 @@
+package server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicationLogTest {
+
+    @Test
+    @DisplayName("Test Entries After A Sequence")
+    void testSince() throws InterruptedException {
+        ReplicationLog log = new ReplicationLog(4, 10);
+        for (long seq = 11; seq <= 13; seq++) {
+            log.append(seq, "e" + seq);
+        }
+        assertEquals(List.of("e11", "e12", "e13"), log.since(10, 100, 0));
+        assertEquals(List.of("e12"), log.since(11, 1, 0));
+        assertEquals(List.of(), log.since(13, 100, 0));
+        assertNull(log.since(9, 100, 0), "older than the log");
+        assertNull(log.since(14, 100, 0), "ahead of the log");
+        assertEquals(13, log.lastSeq());
+    }
+
+    @Test
+    @DisplayName("Test Oldest Entries Are Dropped At Capacity")
+    void testCapacity() throws InterruptedException {
+        ReplicationLog log = new ReplicationLog(4, 0);
+        for (long seq = 1; seq <= 6; seq++) {
+            log.append(seq, "e" + seq);
+        }
+        assertNull(log.since(1, 100, 0));
+        assertEquals(List.of("e3", "e4", "e5", "e6"), log.since(2, 100, 0));
+
+        log.reset(20);
+        assertNull(log.since(6, 100, 0));
+        log.append(21, "e21");
+        assertEquals(List.of("e21"), log.since(20, 100, 0));
+    }
+
+    @Test
+    @DisplayName("Test Pull Waits For The Next Entry")
+    @Timeout(10)
+    void testWait() throws Exception {
+        ReplicationLog log = new ReplicationLog(4, 0);
+        Thread writer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            log.append(1, "e1");
+        });
+        writer.start();
+        assertEquals(List.of("e1"), log.since(0, 100, 5_000));
+        writer.join();
+        long start = System.nanoTime();
+        assertEquals(List.of(), log.since(1, 100, 50));
+        assertTrue(System.nanoTime() - start >= 40_000_000L);
+    }
+}
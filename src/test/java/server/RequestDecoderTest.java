@@ -0,0 +1,102 @@
+package server;
+
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestDecoderTest {
+    private final RequestDecoder decoder = new RequestDecoder();
+
+    @Test
+    @DisplayName("Test Decode Type Key And Value")
+    void testDecode() {
+        Command command = decoder.decode(
+                " {\"type\" : \"set\", \"key\": [\"a\", \"b\\\"c\", 3], \"value\": {\"x\": [1, \"]}\"]}} ");
+        assertEquals("set", command.type());
+        assertArrayEquals(new String[]{"a", "b\"c", "3"}, command.key());
+        assertTrue(command.hasValue());
+        assertEquals(JsonParser.parseString("{\"x\":[1,\"]}\"]}"), command.value());
+        assertFalse(command.isExit());
+    }
+
+    @Test
+    @DisplayName("Test Single String Key And Unicode Escape")
+    void testStringKey() {
+        Command command = decoder.decode("{\"key\":\"caf\\u00e9\\n\",\"type\":\"get\",\"extra\":[{}]}");
+        assertEquals("get", command.type());
+        assertArrayEquals(new String[]{"café\n"}, command.key());
+        assertFalse(command.hasValue());
+        assertNull(command.value());
+    }
+
+    @Test
+    @DisplayName("Test Scan Options")
+    void testScanOptions() {
+        Command command = decoder.decode(
+                "{\"type\":\"scan\",\"key\":\"a\",\"prefix\":\"p\",\"start\":\"b\",\"end\":\"c\",\"limit\":5,\"cursor\":\"x:1\"}");
+        assertEquals("p", command.prefix());
+        assertEquals("b", command.start());
+        assertEquals("c", command.end());
+        assertEquals(5, command.limit());
+        assertEquals("x:1", command.cursor());
+        Command next = decoder.decode("{\"type\":\"scan\",\"limit\":\"many\"}");
+        assertNull(next.prefix());
+        assertNull(next.cursor());
+        assertThrows(NumberFormatException.class, next::limit);
+        assertFalse(next.hasTtl());
+        assertEquals(1500, decoder.decode("{\"type\":\"set\",\"key\":\"a\",\"value\":1,\"ttlMs\":1500}").ttlMillis());
+    }
+
+    @Test
+    @DisplayName("Test Compare-And-Set Options")
+    void testCasOptions() {
+        Command command = decoder.decode(
+                "{\"type\":\"cas\",\"key\":\"a\",\"expected\":{\"n\":[1,2]},\"version\":\"00ff\",\"value\":3}");
+        assertTrue(command.hasExpected());
+        assertEquals(JsonParser.parseString("{\"n\":[1,2]}"), command.expected());
+        assertEquals("00ff", command.version());
+        Command absent = decoder.decode("{\"type\":\"cas\",\"key\":\"a\",\"expected\":null}");
+        assertTrue(absent.expected().isJsonNull());
+        assertNull(absent.version());
+        Command get = decoder.decode("{\"type\":\"get\",\"key\":\"a\",\"withVersion\":true}");
+        assertFalse(get.hasExpected());
+        assertTrue(get.withVersion());
+    }
+
+    @Test
+    @DisplayName("Test Decoder Reuses Command")
+    void testReuse() {
+        Command first = decoder.decode("{\"type\":\"set\",\"key\":\"a\",\"value\":1}");
+        assertEquals(new JsonPrimitive(1), first.value());
+        Command second = decoder.decode("{\"type\":\"exit\"}");
+        assertSame(first, second);
+        assertTrue(second.isExit());
+        assertEquals(0, second.key().length);
+        assertFalse(second.hasValue());
+    }
+
+    @Test
+    @DisplayName("Test Batch Requests Parsed On Demand")
+    void testRequests() {
+        Command command = decoder.decode("{\"type\":\"batch\",\"requests\":[{\"type\":\"get\",\"key\":\"a\"}]}");
+        assertEquals(1, command.requests().size());
+        assertNull(decoder.decode("{\"type\":\"batch\",\"requests\":5}").requests());
+    }
+
+    @Test
+    @DisplayName("Test Malformed Requests Are Rejected")
+    void testMalformed() {
+        assertThrows(JsonSyntaxException.class, () -> decoder.decode("[1]"));
+        assertThrows(JsonSyntaxException.class, () -> decoder.decode("{\"type\":\"get\""));
+        assertThrows(JsonSyntaxException.class, () -> decoder.decode("{\"type\":\"get\"} x"));
+        assertThrows(JsonSyntaxException.class, () -> decoder.decode("{\"key\":[{\"a\":1}]}"));
+        assertThrows(JsonSyntaxException.class, () -> decoder.decode("{\"value\":}"));
+        assertThrows(JsonSyntaxException.class, () -> decoder.decode("{\"type\":\"set\",\"value\":\"unterminated}"));
+        assertThrows(JsonSyntaxException.class, () -> decoder.decode("{\"type\":\"set\",\"value\":[}"));
+        assertThrows(JsonSyntaxException.class, () -> decoder.decode("{\"value\":{\"a\":[1]},\"x\":{]}"));
+    }
+}
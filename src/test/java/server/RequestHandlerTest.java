@@ -3,12 +3,26 @@ package server;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 public class RequestHandlerTest {
@@ -20,6 +34,8 @@ public class RequestHandlerTest {
     @BeforeEach
     public void setUp() {
         mockDatabaseManager = mock(DatabaseManager.class);
+        when(mockDatabaseManager.inBatch(any(), any()))
+                .thenAnswer(invocation -> invocation.<Supplier<?>>getArgument(1).get());
         requestHandler = new RequestHandler(mockDatabaseManager);
         gson = new Gson();
     }
@@ -85,7 +101,7 @@ public class RequestHandlerTest {
         request.add("key", keyArray);
 
         JsonPrimitive mockValue = new JsonPrimitive("testValue");
-        when(mockDatabaseManager.get(any(JsonArray.class))).thenReturn(mockValue);
+        when(mockDatabaseManager.get(any(String[].class))).thenReturn(mockValue);
 
         String response = requestHandler.processCommand(request);
         JsonObject jsonResponse = gson.fromJson(response, JsonObject.class);
@@ -103,7 +119,7 @@ public class RequestHandlerTest {
         keyArray.add("test");
         request.add("key", keyArray);
 
-        when(mockDatabaseManager.get(any(JsonArray.class))).thenReturn(null);
+        when(mockDatabaseManager.get(any(String[].class))).thenReturn(null);
 
         String response = requestHandler.processCommand(request);
         JsonObject jsonResponse = gson.fromJson(response, JsonObject.class);
@@ -134,7 +150,7 @@ public class RequestHandlerTest {
         keyArray.add("test");
         request.add("key", keyArray);
 
-        when(mockDatabaseManager.delete(any(JsonArray.class))).thenReturn(true);
+        when(mockDatabaseManager.delete(any(String[].class))).thenReturn(true);
 
         String response = requestHandler.processCommand(request);
         JsonObject jsonResponse = gson.fromJson(response, JsonObject.class);
@@ -151,7 +167,7 @@ public class RequestHandlerTest {
         keyArray.add("nonexistent");
         request.add("key", keyArray);
 
-        when(mockDatabaseManager.delete(any(JsonArray.class))).thenReturn(false);
+        when(mockDatabaseManager.delete(any(String[].class))).thenReturn(false);
 
         String response = requestHandler.processCommand(request);
         JsonObject jsonResponse = gson.fromJson(response, JsonObject.class);
@@ -221,4 +237,471 @@ public class RequestHandlerTest {
         assertEquals("test1", result.get(0).getAsString());
         assertEquals("test2", result.get(1).getAsString());
     }
+
+    @Test
+    @DisplayName("Test Batch Command")
+    public void testBatchCommand() {
+        when(mockDatabaseManager.set(any(String[].class), any())).thenReturn(true);
+        when(mockDatabaseManager.get(any(String[].class))).thenReturn(new JsonPrimitive("testValue"));
+
+        JsonObject request = gson.fromJson("{\"type\":\"batch\",\"requests\":["
+                + "{\"type\":\"set\",\"key\":[\"a\",\"b\"],\"value\":\"testValue\"},"
+                + "{\"type\":\"get\",\"key\":\"c\"},"
+                + "{\"type\":\"exit\"},"
+                + "{\"type\":\"scan\",\"key\":\"a\"}]}", JsonObject.class);
+
+        JsonObject jsonResponse = gson.fromJson(requestHandler.processCommand(request), JsonObject.class);
+
+        assertEquals(Constants.RESPONSE_OK, jsonResponse.get("response").getAsString());
+        JsonArray responses = jsonResponse.getAsJsonArray(Constants.KEY_RESPONSES);
+        assertEquals(4, responses.size());
+        assertEquals(Constants.RESPONSE_OK, responses.get(0).getAsJsonObject().get("response").getAsString());
+        assertEquals("testValue", responses.get(1).getAsJsonObject().get("value").getAsString());
+        assertEquals(Constants.REASON_INVALID_COMMAND, responses.get(2).getAsJsonObject().get("reason").getAsString());
+        assertEquals(Constants.REASON_INVALID_COMMAND, responses.get(3).getAsJsonObject().get("reason").getAsString());
+        verify(mockDatabaseManager).inBatch(eq(Set.of("a", "c")), any());
+        verify(mockDatabaseManager, never()).childKeys(any());
+    }
+
+    @Test
+    @DisplayName("Test Transaction Inside A Batch Is Refused")
+    public void testTxnInBatch(@TempDir Path directory) throws IOException {
+        try (InMemoryDatabaseManager database = new InMemoryDatabaseManager(directory)) {
+            RequestHandler handler = new RequestHandler(database);
+            RequestDecoder decoder = new RequestDecoder();
+            JsonObject batch = run(handler, decoder, "{\"type\":\"batch\",\"requests\":["
+                    + "{\"type\":\"set\",\"key\":\"a\",\"value\":1},"
+                    + "{\"type\":\"txn\",\"requests\":[{\"type\":\"set\",\"key\":\"b\",\"value\":2}]}]}");
+
+            assertEquals(Constants.RESPONSE_OK, batch.get("response").getAsString());
+            JsonArray responses = batch.getAsJsonArray(Constants.KEY_RESPONSES);
+            assertEquals(Constants.RESPONSE_OK, responses.get(0).getAsJsonObject().get("response").getAsString());
+            assertEquals(Constants.REASON_INVALID_COMMAND, responses.get(1).getAsJsonObject().get("reason").getAsString());
+            assertEquals(List.of("a"), database.keys());
+        }
+    }
+
+    @Test
+    @DisplayName("Test Batch Command Missing Requests")
+    public void testBatchCommandMissingRequests() {
+        JsonObject request = new JsonObject();
+        request.addProperty("type", "batch");
+
+        JsonObject jsonResponse = gson.fromJson(requestHandler.processCommand(request), JsonObject.class);
+
+        assertEquals(Constants.RESPONSE_ERROR, jsonResponse.get("response").getAsString());
+        assertEquals(Constants.REASON_MISSING_REQUESTS, jsonResponse.get("reason").getAsString());
+    }
+
+    @Test
+    @DisplayName("Test Batch Command Persistence Failure")
+    public void testBatchCommandPersistenceFailure() {
+        doThrow(new UncheckedIOException(new IOException("disk full"))).when(mockDatabaseManager).inBatch(any(), any());
+        JsonObject request = gson.fromJson("{\"type\":\"batch\",\"requests\":[{\"type\":\"delete\",\"key\":[\"a\"]}]}",
+                JsonObject.class);
+
+        JsonObject jsonResponse = gson.fromJson(requestHandler.processCommand(request), JsonObject.class);
+
+        assertEquals(Constants.RESPONSE_ERROR, jsonResponse.get("response").getAsString());
+        assertEquals(Constants.REASON_FAILED_TO_PERSIST, jsonResponse.get("reason").getAsString());
+    }
+
+    @Test
+    @DisplayName("Test Stats Command")
+    public void testStatsCommand() {
+        requestHandler.processCommand(gson.fromJson("{\"type\":\"get\",\"key\":[\"a\"]}", JsonObject.class));
+        JsonObject request = new JsonObject();
+        request.addProperty("type", "stats");
+
+        JsonObject jsonResponse = gson.fromJson(requestHandler.processCommand(request), JsonObject.class);
+
+        assertEquals(Constants.RESPONSE_OK, jsonResponse.get("response").getAsString());
+        JsonObject stats = jsonResponse.getAsJsonObject(Constants.KEY_STATS);
+        assertTrue(stats.getAsJsonObject("commands").getAsJsonObject("get").get("count").getAsLong() >= 1);
+        assertTrue(stats.has("queueWait"));
+        assertTrue(stats.has("serialize"));
+    }
+
+    @Test
+    @DisplayName("Test Decoded Command Skips JsonArray Conversion")
+    public void testDecodedCommand() {
+        when(mockDatabaseManager.get(any(String[].class))).thenReturn(new JsonPrimitive("testValue"));
+        Command command = new RequestDecoder().decode("{\"type\":\"get\",\"key\":[\"a\",\"b\"]}");
+
+        JsonObject jsonResponse = gson.fromJson(requestHandler.processCommand(command), JsonObject.class);
+
+        assertEquals("testValue", jsonResponse.get("value").getAsString());
+        verify(mockDatabaseManager).get(new String[]{"a", "b"});
+        verify(mockDatabaseManager, never()).get(any(JsonArray.class));
+    }
+
+    @Test
+    @DisplayName("Test Missing Type Is Invalid")
+    public void testMissingType() {
+        JsonObject jsonResponse = gson.fromJson(requestHandler.processCommand(new JsonObject()), JsonObject.class);
+
+        assertEquals(Constants.REASON_INVALID_COMMAND, jsonResponse.get("reason").getAsString());
+    }
+
+    @Test
+    @DisplayName("Test Cached Get Skips Database Until Invalidated")
+    public void testResponseCache() {
+        System.setProperty("server.responseCacheChars", "1000");
+        RequestHandler cachingHandler;
+        try {
+            cachingHandler = new RequestHandler(mockDatabaseManager);
+        } finally {
+            System.clearProperty("server.responseCacheChars");
+        }
+        when(mockDatabaseManager.get(any(String[].class))).thenReturn(new JsonPrimitive("testValue"));
+        when(mockDatabaseManager.set(any(String[].class), any())).thenReturn(true);
+        RequestDecoder decoder = new RequestDecoder();
+        String get = "{\"type\":\"get\",\"key\":[\"a\",\"b\"]}";
+
+        String first = cachingHandler.processCommand(decoder.decode(get));
+        assertEquals(first, cachingHandler.processCommand(decoder.decode(get)));
+        verify(mockDatabaseManager, times(1)).get(any(String[].class));
+
+        cachingHandler.processCommand(decoder.decode("{\"type\":\"set\",\"key\":[\"a\"],\"value\":1}"));
+        cachingHandler.processCommand(decoder.decode(get));
+        verify(mockDatabaseManager, times(2)).get(any(String[].class));
+    }
+
+    @Test
+    @DisplayName("Test Scan Pages Through Children With A Cursor")
+    public void testScanPages(@TempDir Path directory) throws IOException {
+        try (InMemoryDatabaseManager database = new InMemoryDatabaseManager(directory)) {
+            RequestHandler handler = new RequestHandler(database);
+            RequestDecoder decoder = new RequestDecoder();
+            for (int i = 0; i < 5; i++) {
+                database.set(new String[]{"users", "u" + i}, new JsonPrimitive(i));
+            }
+            database.set(new String[]{"other"}, new JsonPrimitive(1));
+
+            JsonObject first = gson.fromJson(handler.processCommand(
+                    decoder.decode("{\"type\":\"scan\",\"key\":\"users\",\"limit\":2}")), JsonObject.class);
+            assertEquals(List.of("u0", "u1"), scannedKeys(first));
+            String cursor = first.get("cursor").getAsString();
+
+            database.delete(new String[]{"users", "u2"});
+            JsonObject second = gson.fromJson(handler.processCommand(decoder.decode(
+                    "{\"type\":\"scan\",\"key\":\"users\",\"limit\":2,\"cursor\":\"" + cursor + "\"}")), JsonObject.class);
+            assertEquals(List.of("u3"), scannedKeys(second));
+            assertEquals(3, second.getAsJsonArray("entries").get(0).getAsJsonObject().get("value").getAsInt());
+            cursor = second.get("cursor").getAsString();
+
+            JsonObject last = gson.fromJson(handler.processCommand(decoder.decode(
+                    "{\"type\":\"scan\",\"key\":\"users\",\"limit\":2,\"cursor\":\"" + cursor + "\"}")), JsonObject.class);
+            assertEquals(List.of("u4"), scannedKeys(last));
+            assertFalse(last.has("cursor"));
+
+            JsonObject closed = gson.fromJson(handler.processCommand(decoder.decode(
+                    "{\"type\":\"scan\",\"cursor\":\"" + cursor + "\"}")), JsonObject.class);
+            assertEquals(Constants.REASON_INVALID_CURSOR, closed.get("reason").getAsString());
+
+            JsonObject top = gson.fromJson(handler.processCommand(decoder.decode("{\"type\":\"scan\"}")), JsonObject.class);
+            assertEquals(List.of("other", "users"), scannedKeys(top));
+        }
+    }
+
+    @Test
+    @DisplayName("Test Scan Filters By Prefix And Range")
+    public void testScanFilters(@TempDir Path directory) throws IOException {
+        try (InMemoryDatabaseManager database = new InMemoryDatabaseManager(directory)) {
+            RequestHandler handler = new RequestHandler(database);
+            RequestDecoder decoder = new RequestDecoder();
+            for (String key : new String[]{"a1", "a2", "a3", "b1", "b2"}) {
+                database.set(new String[]{"k", key}, new JsonPrimitive(key));
+            }
+            JsonObject prefixed = gson.fromJson(handler.processCommand(
+                    decoder.decode("{\"type\":\"scan\",\"key\":\"k\",\"prefix\":\"b\"}")), JsonObject.class);
+            assertEquals(List.of("b1", "b2"), scannedKeys(prefixed));
+            JsonObject ranged = gson.fromJson(handler.processCommand(
+                    decoder.decode("{\"type\":\"scan\",\"key\":\"k\",\"start\":\"a2\",\"end\":\"b2\"}")), JsonObject.class);
+            assertEquals(List.of("a2", "a3", "b1"), scannedKeys(ranged));
+        }
+    }
+
+    @Test
+    @DisplayName("Test Scan Errors")
+    public void testScanErrors(@TempDir Path directory) throws IOException {
+        try (InMemoryDatabaseManager database = new InMemoryDatabaseManager(directory)) {
+            RequestHandler handler = new RequestHandler(database);
+            RequestDecoder decoder = new RequestDecoder();
+            database.set(new String[]{"leaf"}, new JsonPrimitive(1));
+            assertEquals(Constants.REASON_NOT_AN_OBJECT, scanReason(handler, decoder, "{\"type\":\"scan\",\"key\":\"leaf\"}"));
+            assertEquals(Constants.REASON_NO_SUCH_KEY, scanReason(handler, decoder, "{\"type\":\"scan\",\"key\":\"missing\"}"));
+            assertEquals(Constants.REASON_INVALID_LIMIT, scanReason(handler, decoder, "{\"type\":\"scan\",\"limit\":-1}"));
+            assertEquals(Constants.REASON_INVALID_CURSOR, scanReason(handler, decoder, "{\"type\":\"scan\",\"cursor\":\"gone:0\"}"));
+        }
+    }
+
+    @Test
+    @DisplayName("Test Expired Keys Are Hidden At Once And Reaped")
+    @Timeout(10)
+    public void testTtl(@TempDir Path directory) throws Exception {
+        System.setProperty("server.ttlTickMs", "10");
+        InMemoryDatabaseManager database = new InMemoryDatabaseManager(directory);
+        RequestHandler handler = new RequestHandler(database);
+        try {
+            RequestDecoder decoder = new RequestDecoder();
+            handler.processCommand(decoder.decode("{\"type\":\"set\",\"key\":[\"user\",\"name\"],\"value\":\"a\"}"));
+            handler.processCommand(decoder.decode("{\"type\":\"set\",\"key\":[\"user\",\"session\"],\"value\":\"s\",\"ttlMs\":50}"));
+            handler.processCommand(decoder.decode("{\"type\":\"set\",\"key\":[\"kept\"],\"value\":1,\"ttlMs\":50}"));
+            handler.processCommand(decoder.decode("{\"type\":\"set\",\"key\":[\"kept\"],\"value\":2}"));
+            assertEquals("s", database.get(new String[]{"user", "session"}).getAsString());
+
+            long deadline = System.currentTimeMillis() + 50;
+            while (System.currentTimeMillis() <= deadline) {
+                Thread.sleep(5);
+            }
+            JsonObject user = gson.fromJson(handler.processCommand(
+                    decoder.decode("{\"type\":\"get\",\"key\":\"user\"}")), JsonObject.class);
+            assertEquals(JsonParser.parseString("{\"name\":\"a\"}"), user.get("value"));
+            JsonObject session = gson.fromJson(handler.processCommand(
+                    decoder.decode("{\"type\":\"get\",\"key\":[\"user\",\"session\"]}")), JsonObject.class);
+            assertEquals(Constants.REASON_NO_SUCH_KEY, session.get("reason").getAsString());
+
+            while (!database.get(new String[]{"user", "session"}).isJsonNull()) {
+                Thread.sleep(5);
+            }
+            assertEquals(2, database.get(new String[]{"kept"}).getAsInt());
+        } finally {
+            handler.close();
+            System.clearProperty("server.ttlTickMs");
+        }
+    }
+
+    @Test
+    @DisplayName("Test Invalid TTL")
+    public void testInvalidTtl() {
+        RequestDecoder decoder = new RequestDecoder();
+        for (String ttl : new String[]{"0", "-5", "\"soon\""}) {
+            JsonObject response = gson.fromJson(requestHandler.processCommand(
+                    decoder.decode("{\"type\":\"set\",\"key\":\"a\",\"value\":1,\"ttlMs\":" + ttl + "}")), JsonObject.class);
+            assertEquals(Constants.REASON_INVALID_TTL, response.get("reason").getAsString());
+        }
+        verify(mockDatabaseManager, never()).set(any(String[].class), any());
+    }
+
+    @Test
+    @Timeout(10)
+    @DisplayName("Test A Reap That Fails To Persist Is Retried")
+    public void testFailedReapRetried() throws Exception {
+        RequestDecoder decoder = new RequestDecoder();
+        when(mockDatabaseManager.set(any(String[].class), any())).thenReturn(true);
+        try {
+            run(requestHandler, decoder, "{\"type\":\"set\",\"key\":\"a\",\"value\":1,\"ttlMs\":20}");
+            AtomicInteger reaps = new AtomicInteger();
+            doAnswer(invocation -> {
+                Object result = invocation.<Supplier<?>>getArgument(1).get();
+                if (reaps.getAndIncrement() == 0) {
+                    throw new UncheckedIOException(new IOException("Disk full"));
+                }
+                return result;
+            }).when(mockDatabaseManager).inBatch(any(), any());
+
+            verify(mockDatabaseManager, timeout(5000).times(2)).delete(new String[]{"a"});
+        } finally {
+            requestHandler.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Test A Failed Set Keeps The Previous TTL")
+    public void testFailedSetKeepsTtl() throws Exception {
+        RequestDecoder decoder = new RequestDecoder();
+        String[] keyPath = {"a"};
+        when(mockDatabaseManager.set(any(String[].class), any())).thenReturn(true, false);
+        when(mockDatabaseManager.get(keyPath)).thenReturn(new JsonPrimitive(1));
+        try {
+            assertEquals(Constants.RESPONSE_OK, run(requestHandler, decoder,
+                    "{\"type\":\"set\",\"key\":\"a\",\"value\":1,\"ttlMs\":50}").get("response").getAsString());
+            assertEquals(Constants.REASON_FAILED_TO_SET, run(requestHandler, decoder,
+                    "{\"type\":\"set\",\"key\":\"a\",\"value\":2}").get("reason").getAsString());
+
+            doAnswer(invocation -> {
+                invocation.<Supplier<?>>getArgument(1).get();
+                throw new UncheckedIOException(new IOException("Disk full"));
+            }).when(mockDatabaseManager).inBatch(any(), any());
+            when(mockDatabaseManager.set(any(String[].class), any())).thenReturn(true);
+            assertEquals(Constants.REASON_FAILED_TO_PERSIST, run(requestHandler, decoder,
+                    "{\"type\":\"set\",\"key\":\"a\",\"value\":3}").get("reason").getAsString());
+
+            long deadline = System.currentTimeMillis() + 50;
+            while (System.currentTimeMillis() <= deadline) {
+                Thread.sleep(5);
+            }
+            JsonObject get = run(requestHandler, decoder, "{\"type\":\"get\",\"key\":\"a\"}");
+            assertEquals(Constants.REASON_NO_SUCH_KEY, get.get("reason").getAsString(), "still expires as first set");
+        } finally {
+            requestHandler.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Test Compare-And-Set By Value And By Version")
+    public void testCas(@TempDir Path directory) throws IOException {
+        try (InMemoryDatabaseManager database = new InMemoryDatabaseManager(directory)) {
+            RequestHandler handler = new RequestHandler(database);
+            RequestDecoder decoder = new RequestDecoder();
+            JsonObject created = run(handler, decoder, "{\"type\":\"cas\",\"key\":\"a\",\"expected\":null,\"value\":{\"x\":1,\"y\":2}}");
+            assertEquals(Constants.RESPONSE_OK, created.get("response").getAsString());
+            String version = created.get("version").getAsString();
+
+            JsonObject taken = run(handler, decoder, "{\"type\":\"cas\",\"key\":\"a\",\"expected\":null,\"value\":0}");
+            assertEquals(Constants.REASON_CONDITION_FAILED, taken.get("reason").getAsString());
+            assertEquals(version, taken.get("version").getAsString());
+
+            // Object members compare in any order
+            JsonObject get = run(handler, decoder, "{\"type\":\"get\",\"key\":\"a\",\"withVersion\":true}");
+            assertEquals(version, get.get("version").getAsString());
+            JsonObject byValue = run(handler, decoder, "{\"type\":\"cas\",\"key\":\"a\",\"expected\":{\"y\":2,\"x\":1},\"value\":5}");
+            assertEquals(Constants.RESPONSE_OK, byValue.get("response").getAsString());
+
+            JsonObject stale = run(handler, decoder, "{\"type\":\"cas\",\"key\":\"a\",\"version\":\"" + version + "\",\"value\":6}");
+            assertEquals(Constants.REASON_CONDITION_FAILED, stale.get("reason").getAsString());
+            JsonObject byVersion = run(handler, decoder, "{\"type\":\"cas\",\"key\":\"a\",\"version\":\""
+                    + byValue.get("version").getAsString() + "\",\"value\":6}");
+            assertEquals(Constants.RESPONSE_OK, byVersion.get("response").getAsString());
+            assertEquals(6, database.get(new String[]{"a"}).getAsInt());
+
+            JsonObject unconditional = run(handler, decoder, "{\"type\":\"cas\",\"key\":\"a\",\"value\":7}");
+            assertEquals(Constants.REASON_MISSING_CONDITION, unconditional.get("reason").getAsString());
+        }
+    }
+
+    @Test
+    @DisplayName("Test A Failed Transaction Leaves Nothing Behind")
+    public void testTxn(@TempDir Path directory) throws IOException {
+        try (InMemoryDatabaseManager database = new InMemoryDatabaseManager(directory)) {
+            RequestHandler handler = new RequestHandler(database);
+            RequestDecoder decoder = new RequestDecoder();
+            run(handler, decoder, "{\"type\":\"set\",\"key\":\"balance\",\"value\":{\"alice\":10,\"bob\":0}}");
+
+            JsonObject failed = run(handler, decoder, "{\"type\":\"txn\",\"requests\":["
+                    + "{\"type\":\"set\",\"key\":[\"balance\",\"alice\"],\"value\":0},"
+                    + "{\"type\":\"delete\",\"key\":[\"balance\",\"bob\"]},"
+                    + "{\"type\":\"set\",\"key\":[\"audit\",\"2024\",\"1\"],\"value\":\"moved\"},"
+                    + "{\"type\":\"cas\",\"key\":\"limit\",\"expected\":100}]}");
+            assertEquals(Constants.REASON_CONDITION_FAILED, failed.get("reason").getAsString());
+            assertEquals(3, failed.get("failed").getAsInt());
+            assertEquals(JsonParser.parseString("{\"alice\":10,\"bob\":0}"), database.get(new String[]{"balance"}));
+            // Not even the objects the set created on the way down are left
+            assertEquals(List.of("balance"), database.keys());
+
+            JsonObject done = run(handler, decoder, "{\"type\":\"txn\",\"requests\":["
+                    + "{\"type\":\"cas\",\"key\":[\"balance\",\"alice\"],\"expected\":10,\"value\":4},"
+                    + "{\"type\":\"set\",\"key\":[\"balance\",\"bob\"],\"value\":6},"
+                    + "{\"type\":\"get\",\"key\":\"missing\"},"
+                    + "{\"type\":\"get\",\"key\":\"balance\"}]}");
+            assertEquals(Constants.RESPONSE_OK, done.get("response").getAsString());
+            JsonArray responses = done.getAsJsonArray(Constants.KEY_RESPONSES);
+            assertEquals(4, responses.size());
+            assertEquals(JsonParser.parseString("{\"alice\":4,\"bob\":6}"), responses.get(3).getAsJsonObject().get("value"));
+
+            JsonObject invalid = run(handler, decoder, "{\"type\":\"txn\",\"requests\":[{\"type\":\"get\",\"key\":\"a\"},"
+                    + "{\"type\":\"scan\"}]}");
+            assertEquals(Constants.REASON_INVALID_COMMAND, invalid.get("reason").getAsString());
+            assertEquals(1, invalid.get("failed").getAsInt());
+        }
+    }
+
+    @Test
+    @DisplayName("Test A Failed Transaction Leaves Nothing Behind In The Mapped Engine")
+    public void testTxnMapped(@TempDir Path directory) throws IOException {
+        System.setProperty("db.mappedRegionBytes", "4096");
+        try (MappedDatabaseManager database = new MappedDatabaseManager(directory)) {
+            RequestHandler handler = new RequestHandler(database);
+            RequestDecoder decoder = new RequestDecoder();
+            run(handler, decoder, "{\"type\":\"set\",\"key\":\"balance\",\"value\":{\"alice\":10,\"bob\":0}}");
+
+            JsonObject failed = run(handler, decoder, "{\"type\":\"txn\",\"requests\":["
+                    + "{\"type\":\"incr\",\"key\":[\"balance\",\"bob\"],\"value\":10},"
+                    + "{\"type\":\"delete\",\"key\":[\"balance\",\"alice\"]},"
+                    + "{\"type\":\"set\",\"key\":[\"audit\",\"1\"],\"value\":\"moved\"},"
+                    + "{\"type\":\"cas\",\"key\":\"limit\",\"expected\":100}]}");
+            assertEquals(Constants.REASON_CONDITION_FAILED, failed.get("reason").getAsString());
+            assertEquals(3, failed.get("failed").getAsInt());
+            assertEquals(JsonParser.parseString("{\"alice\":10,\"bob\":0}"), database.get(new String[]{"balance"}));
+            assertEquals(List.of("balance"), database.keys());
+
+            // Nothing of it is replayed either
+            try (MappedDatabaseManager reopened = new MappedDatabaseManager(directory)) {
+                assertEquals(JsonParser.parseString("{\"alice\":10,\"bob\":0}"), reopened.get(new String[]{"balance"}));
+                assertEquals(List.of("balance"), reopened.keys());
+            }
+        } finally {
+            System.clearProperty("db.mappedRegionBytes");
+        }
+    }
+
+    @Test
+    @DisplayName("Test An Update That Cannot Be Stored Fails To Persist")
+    public void testUpdateNotStored(@TempDir Path directory) throws IOException {
+        System.setProperty("db.mappedRegionBytes", "4096");
+        try (MappedDatabaseManager database = new MappedDatabaseManager(directory)) {
+            RequestHandler handler = new RequestHandler(database);
+            RequestDecoder decoder = new RequestDecoder();
+            run(handler, decoder, "{\"type\":\"set\",\"key\":\"user\",\"value\":{\"name\":\"a\"}}");
+            // Too large for a region of the data file
+            JsonObject merged = run(handler, decoder, "{\"type\":\"merge\",\"key\":\"user\",\"value\":{\"bio\":\""
+                    + "x".repeat(5000) + "\"}}");
+            assertEquals(Constants.REASON_FAILED_TO_PERSIST, merged.get("reason").getAsString());
+            assertEquals(JsonParser.parseString("{\"name\":\"a\"}"), database.get(new String[]{"user"}));
+        } finally {
+            System.clearProperty("db.mappedRegionBytes");
+        }
+    }
+
+    @Test
+    @DisplayName("Test Increment, Append And Merge In Place")
+    public void testDeltas(@TempDir Path directory) throws IOException {
+        try (InMemoryDatabaseManager database = new InMemoryDatabaseManager(directory)) {
+            RequestHandler handler = new RequestHandler(database);
+            RequestDecoder decoder = new RequestDecoder();
+            assertEquals(1, run(handler, decoder, "{\"type\":\"incr\",\"key\":[\"stats\",\"hits\"]}").get("value").getAsInt());
+            assertEquals(11, run(handler, decoder, "{\"type\":\"incr\",\"key\":[\"stats\",\"hits\"],\"value\":10}")
+                    .get("value").getAsInt());
+            JsonObject appended = run(handler, decoder, "{\"type\":\"append\",\"key\":[\"stats\",\"log\"],\"value\":{\"at\":1}}");
+            assertEquals(Constants.JSON_RESPONSE_OK, gson.toJson(appended));
+            run(handler, decoder, "{\"type\":\"merge\",\"key\":\"stats\",\"value\":{\"misses\":0,\"log\":null}}");
+            assertEquals(JsonParser.parseString("{\"hits\":11,\"misses\":0}"),
+                    run(handler, decoder, "{\"type\":\"get\",\"key\":\"stats\"}").get("value"));
+
+            assertEquals(Constants.REASON_NOT_A_NUMBER,
+                    run(handler, decoder, "{\"type\":\"incr\",\"key\":\"stats\"}").get("reason").getAsString());
+            assertEquals(Constants.REASON_NOT_AN_ARRAY, run(handler, decoder,
+                    "{\"type\":\"append\",\"key\":[\"stats\",\"hits\"],\"value\":1}").get("reason").getAsString());
+            assertEquals(Constants.REASON_NOT_AN_OBJECT, run(handler, decoder,
+                    "{\"type\":\"merge\",\"key\":\"stats\",\"value\":[1]}").get("reason").getAsString());
+            assertEquals(Constants.REASON_MISSING_KEY_OR_VALUE,
+                    run(handler, decoder, "{\"type\":\"append\",\"key\":\"stats\"}").get("reason").getAsString());
+
+            // Undone with the rest of a failed txn
+            JsonObject failed = run(handler, decoder, "{\"type\":\"txn\",\"requests\":["
+                    + "{\"type\":\"incr\",\"key\":[\"stats\",\"hits\"]},"
+                    + "{\"type\":\"incr\",\"key\":[\"stats\",\"missing\",\"deep\"]},"
+                    + "{\"type\":\"cas\",\"key\":\"stats\",\"expected\":null}]}");
+            assertEquals(2, failed.get("failed").getAsInt());
+            assertEquals(JsonParser.parseString("{\"hits\":11,\"misses\":0}"), database.get(new String[]{"stats"}));
+        }
+    }
+
+    private JsonObject run(RequestHandler handler, RequestDecoder decoder, String request) {
+        return gson.fromJson(handler.processCommand(decoder.decode(request)), JsonObject.class);
+    }
+
+    private String scanReason(RequestHandler handler, RequestDecoder decoder, String request) {
+        JsonObject response = gson.fromJson(handler.processCommand(decoder.decode(request)), JsonObject.class);
+        assertEquals(Constants.RESPONSE_ERROR, response.get("response").getAsString());
+        return response.get("reason").getAsString();
+    }
+
+    private static List<String> scannedKeys(JsonObject response) {
+        assertEquals(Constants.RESPONSE_OK, response.get("response").getAsString());
+        List<String> keys = new ArrayList<>();
+        response.getAsJsonArray("entries").forEach(entry -> keys.add(entry.getAsJsonObject().get("key").getAsString()));
+        return keys;
+    }
 }
@@ -0,0 +1,54 @@
+package server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCacheTest {
+
+    @Test
+    @DisplayName("Test Write Invalidates Path, Ancestors And Descendants")
+    void testInvalidation() {
+        ResponseCache cache = new ResponseCache(1000);
+        String[][] keyPaths = {{"a"}, {"a", "b"}, {"a", "b", "c"}, {"a", "x"}, {"ab"}};
+        for (String[] keyPath : keyPaths) {
+            cache.put(KeyPaths.encode(keyPath), "r", cache.version());
+        }
+
+        cache.invalidate(new String[]{"a", "b"});
+
+        assertNull(cache.get(KeyPaths.encode(new String[]{"a"})));
+        assertNull(cache.get(KeyPaths.encode(new String[]{"a", "b"})));
+        assertNull(cache.get(KeyPaths.encode(new String[]{"a", "b", "c"})));
+        assertEquals("r", cache.get(KeyPaths.encode(new String[]{"a", "x"})));
+        assertEquals("r", cache.get(KeyPaths.encode(new String[]{"ab"})));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    @DisplayName("Test Least Recently Used Is Evicted By Size")
+    void testEviction() {
+        ResponseCache cache = new ResponseCache(10);
+        cache.put("a", "12345", cache.version());
+        cache.put("b", "12345", cache.version());
+        cache.get("a");
+        cache.put("c", "123", cache.version());
+
+        assertEquals("12345", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("123", cache.get("c"));
+        cache.put("d", "12345678901", cache.version());
+        assertNull(cache.get("d"));
+    }
+
+    @Test
+    @DisplayName("Test Response Read Across A Write Is Not Cached")
+    void testStaleResponse() {
+        ResponseCache cache = new ResponseCache(1000);
+        long version = cache.version();
+        cache.invalidate(new String[]{"other"});
+        cache.put("a", "stale", version);
+        assertNull(cache.get("a"));
+    }
+}
@@ -0,0 +1,59 @@
+package server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScanCursorsTest {
+
+    @Test
+    @DisplayName("Test Token Finds Cursor And Offset")
+    void testFind() {
+        ScanCursors cursors = new ScanCursors(10, 60_000);
+        ScanCursors.Cursor cursor = cursors.open(new String[]{"a"}, List.of("x", "y", "z"));
+        ScanCursors.Position position = cursors.find(cursor.token(2));
+        assertSame(cursor, position.cursor);
+        assertEquals(2, position.offset);
+        assertSame(cursor, cursors.find(cursor.token(2)).cursor);
+        cursors.close(cursor);
+        assertNull(cursors.find(cursor.token(2)));
+    }
+
+    @Test
+    @DisplayName("Test Malformed Tokens Are Not Found")
+    void testMalformed() {
+        ScanCursors cursors = new ScanCursors(10, 60_000);
+        ScanCursors.Cursor cursor = cursors.open(new String[0], List.of("x"));
+        assertNull(cursors.find("nonsense"));
+        assertNull(cursors.find(cursor.id + ":x"));
+        assertNull(cursors.find(cursor.token(2)));
+        assertNull(cursors.find(cursor.token(-1)));
+        assertNull(cursors.find(":0"));
+    }
+
+    @Test
+    @DisplayName("Test Least Recently Used Cursor Is Dropped")
+    void testEviction() {
+        ScanCursors cursors = new ScanCursors(2, 60_000);
+        ScanCursors.Cursor first = cursors.open(new String[0], List.of("x"));
+        ScanCursors.Cursor second = cursors.open(new String[0], List.of("x"));
+        cursors.find(first.token(0));
+        cursors.open(new String[0], List.of("x"));
+        assertEquals(2, cursors.size());
+        assertNotNull(cursors.find(first.token(0)));
+        assertNull(cursors.find(second.token(0)));
+    }
+
+    @Test
+    @DisplayName("Test Unused Cursors Expire")
+    void testExpiry() throws InterruptedException {
+        ScanCursors cursors = new ScanCursors(10, 20);
+        ScanCursors.Cursor cursor = cursors.open(new String[0], List.of("x"));
+        Thread.sleep(50);
+        assertNull(cursors.find(cursor.token(0)));
+        assertEquals(0, cursors.size());
+    }
+}
@@ -0,0 +1,83 @@
+package server;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotTreeTest {
+
+    @Test
+    @DisplayName("Test With Copies Only The Path")
+    void testWithSharesUntouchedNodes() {
+        JsonObject base = JsonParser.parseString("{\"a\":{\"b\":1,\"c\":{\"d\":2}},\"e\":{\"f\":3}}").getAsJsonObject();
+        JsonObject before = base.deepCopy();
+
+        JsonObject next = SnapshotTree.with(base, new String[]{"a", "b"}, new JsonPrimitive(9));
+
+        assertEquals(before, base, "the base must not change");
+        assertEquals(JsonParser.parseString("{\"a\":{\"b\":9,\"c\":{\"d\":2}},\"e\":{\"f\":3}}"), next);
+        assertNotSame(base.get("a"), next.get("a"));
+        assertSame(base.get("e"), next.get("e"));
+        assertSame(base.getAsJsonObject("a").get("c"), next.getAsJsonObject("a").get("c"));
+    }
+
+    @Test
+    @DisplayName("Test With And Without Fail Like JsonTree")
+    void testFailures() {
+        JsonObject base = JsonParser.parseString("{\"a\":1}").getAsJsonObject();
+        assertNull(SnapshotTree.with(base, new String[]{"a", "b"}, new JsonPrimitive(2)));
+        assertNull(SnapshotTree.without(base, new String[]{"x"}));
+        assertNull(SnapshotTree.without(base, new String[]{"a", "b"}));
+        assertEquals(JsonParser.parseString("{\"a\":1,\"x\":{\"y\":2}}"),
+                SnapshotTree.with(base, new String[]{"x", "y"}, new JsonPrimitive(2)));
+        assertEquals(new JsonObject(), SnapshotTree.without(base, new String[]{"a"}));
+    }
+
+    @Test
+    @DisplayName("Test Publish Keeps The Index In Step")
+    void testPublish() {
+        SnapshotTree tree = new SnapshotTree(JsonParser.parseString("{\"a\":{\"b\":{\"c\":1},\"e\":2}}").getAsJsonObject());
+        JsonObject first = tree.root();
+        JsonObject replaced = SnapshotTree.with(first, new String[]{"a", "b"}, JsonParser.parseString("{\"x\":3}"));
+        tree.publish(replaced, Collections.singletonList(new String[]{"a", "b"}));
+
+        assertSame(replaced, tree.root());
+        assertEquals(new JsonPrimitive(3), tree.get(new String[]{"a", "b", "x"}));
+        assertNull(tree.get(new String[]{"a", "b", "c"}));
+        assertSame(replaced.get("a"), tree.get(new String[]{"a"}));
+        assertEquals(new JsonPrimitive(1), first.getAsJsonObject("a").getAsJsonObject("b").get("c"),
+                "an older root stays readable");
+
+        JsonObject deleted = SnapshotTree.without(replaced, new String[]{"a"});
+        tree.publish(deleted, Collections.singletonList(new String[]{"a"}));
+        assertNull(tree.get(new String[]{"a"}));
+        assertNull(tree.get(new String[]{"a", "e"}));
+        assertNull(tree.get(new String[]{"a", "b", "x"}));
+    }
+
+    @Test
+    @DisplayName("Test Publish Of Several Changes")
+    void testPublishBatch() {
+        SnapshotTree tree = new SnapshotTree(new JsonObject());
+        String[] first = {"a", "b"};
+        String[] second = {"a", "c"};
+        String[] third = {"d"};
+        JsonObject next = SnapshotTree.with(tree.root(), first, new JsonPrimitive(1));
+        next = SnapshotTree.with(next, second, new JsonPrimitive(2));
+        next = SnapshotTree.with(next, third, new JsonPrimitive(3));
+        next = SnapshotTree.without(next, first);
+        tree.publish(next, List.of(first, second, third, first));
+
+        assertNull(tree.get(first));
+        assertEquals(new JsonPrimitive(2), tree.get(second));
+        assertEquals(new JsonPrimitive(3), tree.get(third));
+        assertSame(next.get("a"), tree.get(new String[]{"a"}));
+    }
+}
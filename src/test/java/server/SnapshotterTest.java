@@ -0,0 +1,74 @@
+package server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotterTest {
+
+    @Test
+    @DisplayName("Test Snapshot Every N Writes")
+    @Timeout(10)
+    void testEveryWrites() throws Exception {
+        Semaphore taken = new Semaphore(0);
+        Snapshotter snapshotter = new Snapshotter("test-snapshotter", 3, 0, taken::release);
+
+        snapshotter.written();
+        snapshotter.written();
+        assertFalse(taken.tryAcquire(200, TimeUnit.MILLISECONDS));
+        snapshotter.written();
+        assertTrue(taken.tryAcquire(5, TimeUnit.SECONDS));
+
+        snapshotter.close();
+        assertEquals(0, taken.availablePermits(), "nothing new to snapshot on close");
+    }
+
+    @Test
+    @DisplayName("Test Snapshot On Interval Only When Dirty")
+    @Timeout(10)
+    void testInterval() throws Exception {
+        Semaphore taken = new Semaphore(0);
+        Snapshotter snapshotter = new Snapshotter("test-snapshotter", 0, 20, taken::release);
+
+        assertFalse(taken.tryAcquire(200, TimeUnit.MILLISECONDS));
+        snapshotter.written();
+        assertTrue(taken.tryAcquire(5, TimeUnit.SECONDS));
+        snapshotter.close();
+    }
+
+    @Test
+    @DisplayName("Test Snapshot On Close")
+    void testOnClose() throws IOException {
+        AtomicInteger taken = new AtomicInteger();
+        Snapshotter snapshotter = new Snapshotter("test-snapshotter", 0, 0, taken::incrementAndGet);
+        snapshotter.written();
+        assertEquals(0, taken.get());
+        snapshotter.close();
+        assertEquals(1, taken.get());
+    }
+
+    @Test
+    @DisplayName("Test Failed Snapshot Is Retried On Close")
+    void testFailedSnapshotRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        Snapshotter snapshotter = new Snapshotter("test-snapshotter", 1, 0, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IOException("disk full");
+            }
+        });
+        snapshotter.written();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (attempts.get() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        snapshotter.close();
+        assertEquals(2, attempts.get());
+    }
+}
@@ -0,0 +1,54 @@
+package server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimerWheelTest {
+
+    @Test
+    @DisplayName("Test Timers Fire At Their Tick Across Levels")
+    void testFiresOnTime() {
+        TimerWheel<Long> wheel = new TimerWheel<>(10, 1_000);
+        Random random = new Random(7);
+        List<Long> deadlines = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            // Up to past the second level's span of 64 * 64 ticks
+            long deadline = 1_000 + 1 + random.nextInt(10 * 64 * 64 * 3);
+            deadlines.add(deadline);
+            wheel.schedule(deadline, deadline);
+        }
+        List<Long> fired = new ArrayList<>();
+        for (long now = 1_000; now <= 1_000 + 10 * 64 * 64 * 3 + 10; now += 7) {
+            long at = now;
+            wheel.advance(now, deadline -> {
+                assertTrue(deadline <= at, "fired early");
+                assertTrue(deadline > at - 7 - 10, "fired late");
+                fired.add(deadline);
+            });
+        }
+        assertEquals(deadlines.size(), fired.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    @DisplayName("Test Past And Far Deadlines")
+    void testPastAndFarDeadlines() {
+        TimerWheel<String> wheel = new TimerWheel<>(1, 0);
+        wheel.schedule("past", -50);
+        long far = (1L << 24) + 5;  // Beyond the top level's span
+        wheel.schedule("far", far);
+        List<String> fired = new ArrayList<>();
+        wheel.advance(1, fired::add);
+        assertEquals(List.of("past"), fired);
+        wheel.advance(far - 1, fired::add);
+        assertEquals(List.of("past"), fired);
+        wheel.advance(far, fired::add);
+        assertEquals(List.of("past", "far"), fired);
+    }
+}
@@ -0,0 +1,105 @@
+package server;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteAheadLogTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Test Rotated Segments Are Replayed In Order")
+    void testRotateAndReplay() throws IOException {
+        Path path = directory.resolve("db.log");
+        WriteAheadLog log = new WriteAheadLog(path, FsyncPolicy.ALWAYS, 0);
+        log.append(entry("a"));
+        log.append(entry("b"));
+        assertEquals(2, log.rotate());
+        assertEquals(2, log.rotate(), "empty log is not rotated again");
+        log.append(entry("c"));
+        log.close();
+        assertTrue(Files.exists(directory.resolve("db.log.2")));
+
+        List<String> replayed = new ArrayList<>();
+        WriteAheadLog reopened = new WriteAheadLog(path);
+        reopened.replay(1, entry -> replayed.add(entry.get("key").getAsString()));
+        assertEquals(List.of("b", "c"), replayed);
+        assertEquals(4, reopened.append(entry("d")));
+        reopened.close();
+    }
+
+    @Test
+    @DisplayName("Test Segments Covered By A Snapshot Are Deleted")
+    void testDeleteSegments() throws IOException {
+        WriteAheadLog log = new WriteAheadLog(directory.resolve("db.log"), FsyncPolicy.BATCHED, 10);
+        log.append(entry("a"));
+        long first = log.rotate();
+        log.append(entry("b"));
+        long second = log.rotate();
+        log.deleteSegmentsThrough(first);
+        log.close();
+
+        assertFalse(Files.exists(directory.resolve("db.log." + first)));
+        assertTrue(Files.exists(directory.resolve("db.log." + second)));
+    }
+
+    @Test
+    @DisplayName("Test Entries Are Replicated Once Durable")
+    void testReplicateOnceDurable() throws Exception {
+        WriteAheadLog log = new WriteAheadLog(directory.resolve("db.log"), FsyncPolicy.ALWAYS, 0);
+        ReplicationLog replication = new ReplicationLog(8, 0);
+        log.replicateTo(replication);
+        long seq = log.append(entry("a"));
+        assertEquals(0, replication.lastSeq(), "not shipped before it is forced");
+        log.awaitDurable(seq);
+        assertEquals(1, replication.since(0, 8, 0).size());
+        log.close();
+
+        WriteAheadLog batched = new WriteAheadLog(directory.resolve("batched.log"), FsyncPolicy.BATCHED, 60_000);
+        ReplicationLog flushed = new ReplicationLog(8, 0);
+        batched.replicateTo(flushed);
+        batched.append(entry("b"));
+        assertEquals(1, flushed.lastSeq(), "shipped once flushed, as durable as the policy makes it");
+        batched.close();
+    }
+
+    @Test
+    @DisplayName("Test A Failed Append Uses No Sequence")
+    void testFailedAppend() throws IOException {
+        Path path = directory.resolve("db.log");
+        WriteAheadLog log = new WriteAheadLog(path, FsyncPolicy.ALWAYS, 0);
+        log.append(entry("a"));
+        log.close();
+        assertThrows(IOException.class, () -> log.append(entry("b")));
+        assertEquals(1, log.lastSequence());
+        assertEquals(2, log.append(entry("c")), "the log is usable again");
+        log.close();
+        assertThrows(IOException.class, () -> log.appendAll(List.of(entry("d"), entry("e"))));
+        assertEquals(2, log.lastSequence());
+        log.close();
+
+        List<String> replayed = new ArrayList<>();
+        WriteAheadLog reopened = new WriteAheadLog(path);
+        reopened.replay(0, entry -> replayed.add(entry.get("key").getAsString()));
+        assertEquals(List.of("a", "c"), replayed);
+        reopened.close();
+    }
+
+    private static JsonObject entry(String key) {
+        JsonObject entry = new JsonObject();
+        entry.addProperty("op", Constants.TYPE_SET);
+        entry.addProperty("key", key);
+        return entry;
+    }
+}